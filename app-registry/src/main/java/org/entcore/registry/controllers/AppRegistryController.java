@@ -32,6 +32,7 @@ import fr.wseduc.webutils.Server;
 import fr.wseduc.webutils.http.BaseController;
 
 import fr.wseduc.webutils.http.Renders;
+import org.entcore.common.appregistry.ApplicationUtils;
 import org.entcore.common.http.filter.AdminFilter;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.user.UserUtils;
@@ -51,8 +52,6 @@ import io.vertx.core.json.JsonObject;
 
 import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
 import static fr.wseduc.webutils.request.RequestUtils.bodyToJson;
-import static org.entcore.common.appregistry.AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS;
-import static org.entcore.common.appregistry.AppRegistryEvents.PROFILE_GROUP_ACTIONS_UPDATED;
 import static org.entcore.common.bus.BusResponseHandler.busArrayHandler;
 import static org.entcore.common.bus.BusResponseHandler.busResponseHandler;
 import static org.entcore.common.http.response.DefaultResponseHandler.*;
@@ -138,7 +137,7 @@ public class AppRegistryController extends BaseController {
 						actions.size() > 0 && !roleName.trim().isEmpty()) {
 					final JsonObject role = new JsonObject().put("name", roleName);
 					String structureId = request.params().get("structureId");
-					appRegistryService.createRole(structureId, role, actions, notEmptyResponseHandler(request, 201, 409));
+					appRegistryService.createRole(structureId, role, actions, actionsUpdated(notEmptyResponseHandler(request, 201, 409)));
 				} else {
 					badRequest(request, "invalid.parameters");
 				}
@@ -161,7 +160,7 @@ public class AppRegistryController extends BaseController {
 					if (roleName != null && !roleName.trim().isEmpty()) {
 						role.put("name", roleName);
 					}
-					appRegistryService.updateRole(roleId, role, actions, notEmptyResponseHandler(request));
+					appRegistryService.updateRole(roleId, role, actions, actionsUpdated(notEmptyResponseHandler(request)));
 				} else {
 					badRequest(request, "invalid.id");
 				}
@@ -175,7 +174,7 @@ public class AppRegistryController extends BaseController {
 	public void deleteRole(final HttpServerRequest request) {
 		String roleId = request.params().get("id");
 		if (roleId != null && !roleId.trim().isEmpty()) {
-			appRegistryService.deleteRole(roleId, defaultResponseHandler(request, 204));
+			appRegistryService.deleteRole(roleId, actionsUpdated(defaultResponseHandler(request, 204)));
 		} else {
 			badRequest(request, "invalid.id");
 		}
@@ -193,7 +192,7 @@ public class AppRegistryController extends BaseController {
 				appRegistryService.setRoleDistributions(
 						request.params().get("roleId"),
 						distributions,
-						defaultResponseHandler(request)
+						actionsUpdated(defaultResponseHandler(request))
 				);
 			}
 		});
@@ -233,7 +232,7 @@ public class AppRegistryController extends BaseController {
 	public void addGroupLink(final HttpServerRequest request) {
 		final String groupId = request.params().get("groupId");
 		final String roleId = request.params().get("roleId");
-		appRegistryService.addGroupLink(groupId, roleId, defaultResponseHandler(request));
+		appRegistryService.addGroupLink(groupId, roleId, actionsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Delete("/authorize/group/:groupId/role/:roleId")
@@ -242,7 +241,7 @@ public class AppRegistryController extends BaseController {
 	public void removeGroupLink(final HttpServerRequest request) {
 		final String groupId = request.params().get("groupId");
 		final String roleId = request.params().get("roleId");
-		appRegistryService.deleteGroupLink(groupId, roleId, defaultResponseHandler(request, 204));
+		appRegistryService.deleteGroupLink(groupId, roleId, actionsUpdated(defaultResponseHandler(request, 204)));
 	}
 
 	@Get("/roles")
@@ -292,7 +291,7 @@ public class AppRegistryController extends BaseController {
 
 				// don't check url for standard app or oauth connector
 				if (!updateCas || addressURL != null) {
-					appRegistryService.createApplication(structureId, body, null, new Handler<Either<String, JsonObject>>() {
+					appRegistryService.createApplication(structureId, body, null, actionsUpdated(new Handler<Either<String, JsonObject>>() {
 						@Override
 						public void handle(Either<String, JsonObject> event) {
 							if (event.isLeft()) {
@@ -311,7 +310,7 @@ public class AppRegistryController extends BaseController {
 								Renders.renderJson(request, error, 400);
 							}
 						}
-					});
+					}));
 				} else {
 					badRequest(request, "appregistry.failed.app.url");
 				}
@@ -361,7 +360,7 @@ public class AppRegistryController extends BaseController {
 
 					// don't check url for standard app or oauth connector
 					if (!updateCas ||  addressURL != null) {
-						appRegistryService.updateApplication(applicationId, body, new Handler<Either<String, JsonObject>>() {
+						appRegistryService.updateApplication(applicationId, body, actionsUpdated(new Handler<Either<String, JsonObject>>() {
 							public void handle(Either<String, JsonObject> event) {
 								if (event.isLeft()) {
 									JsonObject error = new JsonObject()
@@ -373,7 +372,7 @@ public class AppRegistryController extends BaseController {
 								sendPatternToCasConfiguration(updateCas, body, addressURL, casType);
 								Renders.renderJson(request, event.right().getValue());
 							}
-						});
+						}));
 					} else {
 						badRequest(request, "appregistry.failed.app.url");
 					}
@@ -390,7 +389,7 @@ public class AppRegistryController extends BaseController {
 	public void deleteApplication(final HttpServerRequest request) {
 		String id = request.params().get("id");
 		if (id != null && !id.trim().isEmpty()) {
-			appRegistryService.deleteApplication(id, defaultResponseHandler(request, 204));
+			appRegistryService.deleteApplication(id, actionsUpdated(defaultResponseHandler(request, 204)));
 		} else {
 			badRequest(request, "invalid.application.id");
 		}
@@ -418,7 +417,7 @@ public class AppRegistryController extends BaseController {
 		final String application = app.getString("name");
 		final JsonArray securedActions = message.body().getJsonArray("actions");
 		if (application != null && securedActions != null && !application.trim().isEmpty()) {
-			appRegistryService.createApplication(null, app, securedActions, new Handler<Either<String, JsonObject>>() {
+			appRegistryService.createApplication(null, app, securedActions, actionsUpdated(new Handler<Either<String, JsonObject>>() {
 				@Override
 				public void handle(Either<String, JsonObject> event) {
 					JsonObject j = new JsonObject();
@@ -429,7 +428,7 @@ public class AppRegistryController extends BaseController {
 					}
 					message.reply(j);
 				}
-			});
+			}));
 		} else {
 			message.reply(new JsonObject().put("status", "error").put("message", "invalid.parameters"));
 		}
@@ -467,7 +466,7 @@ public class AppRegistryController extends BaseController {
 				appRegistryService.setLevelsOfEducation(
 						request.params().get("applicationId"),
 						levelsOfEducation,
-						defaultResponseHandler(request)
+						actionsUpdated(defaultResponseHandler(request))
 				);
 			}
 		});
@@ -489,7 +488,7 @@ public class AppRegistryController extends BaseController {
                     return;
                 }
 
-                appRegistryService.massAuthorize(structureId, profiles, roles, defaultResponseHandler(request));
+                appRegistryService.massAuthorize(structureId, profiles, roles, actionsUpdated(defaultResponseHandler(request)));
             }
         });
     }
@@ -509,7 +508,7 @@ public class AppRegistryController extends BaseController {
                     badRequest(request);
                     return;
                 }
-                appRegistryService.massUnauthorize(structureId, profiles, roles, defaultResponseHandler(request));
+                appRegistryService.massUnauthorize(structureId, profiles, roles, actionsUpdated(defaultResponseHandler(request)));
             }
         });
     }
@@ -554,7 +553,7 @@ public class AppRegistryController extends BaseController {
 		switch (message.body().getString("action", "")) {
 			case "setDefaultClassRoles" :
 				appRegistryService.setDefaultClassRoles(message.body().getString("classId"),
-						new Handler<Either<String, JsonObject>>() {
+						actionsUpdated(new Handler<Either<String, JsonObject>>() {
 					@Override
 					public void handle(Either<String, JsonObject> r) {
 						if (r.isRight()) {
@@ -564,16 +563,16 @@ public class AppRegistryController extends BaseController {
 									.put("message", "invalid.classId"));
 						}
 					}
-				});
+				}));
 				break;
 			case "create-external-application" :
 				appRegistryService.createApplication(structureId,
-						message.body().getJsonObject("application"), null, busResponseHandler(message));
+						message.body().getJsonObject("application"), null, actionsUpdated(busResponseHandler(message)));
 				break;
 			case "create-role" :
 				final JsonObject role = message.body().getJsonObject("role");
 				final JsonArray actions = message.body().getJsonArray("actions");
-				appRegistryService.createRole(structureId, role, actions, busResponseHandler(message));
+				appRegistryService.createRole(structureId, role, actions, actionsUpdated(busResponseHandler(message)));
 				break;
 			case "link-role-group" :
 				final String groupId = message.body().getString("groupId");
@@ -611,11 +610,24 @@ public class AppRegistryController extends BaseController {
 	}
 
 	private void updatedProfileGroupActions(String groupId) {
-		JsonObject message = new JsonObject().put("type", PROFILE_GROUP_ACTIONS_UPDATED);
-		if (groupId != null && !groupId.trim().isEmpty()) {
-			message.put("groups", new fr.wseduc.webutils.collections.JsonArray().add(groupId));
-		}
-		eb.publish(APP_REGISTRY_PUBLISH_ADDRESS, message);
+		ApplicationUtils.publishUpdatedProfileGroupActions(eb, groupId != null && !groupId.trim().isEmpty() ?
+				new fr.wseduc.webutils.collections.JsonArray().add(groupId) : null);
+	}
+
+	/**
+	 * Publishes a PROFILE_GROUP_ACTIONS_UPDATED event when the role, application or authorization
+	 * change succeeds, so that the caches of authorized actions (session bootstrap) are cleared.
+	 */
+	private <T> Handler<Either<String, T>> actionsUpdated(final Handler<Either<String, T>> handler) {
+		return new Handler<Either<String, T>>() {
+			@Override
+			public void handle(Either<String, T> event) {
+				if (event.isRight()) {
+					updatedProfileGroupActions(null);
+				}
+				handler.handle(event);
+			}
+		};
 	}
 
 }
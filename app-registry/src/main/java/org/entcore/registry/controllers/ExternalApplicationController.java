@@ -32,6 +32,7 @@ import fr.wseduc.bus.BusAddress;
 
 import fr.wseduc.webutils.I18n;
 import fr.wseduc.webutils.http.Renders;
+import org.entcore.common.appregistry.ApplicationUtils;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.utils.StringUtils;
@@ -90,7 +91,7 @@ public class ExternalApplicationController extends BaseController {
 	public void deleteExternalApplication(final HttpServerRequest request) {
 		String id = request.params().get("id");
 		if (id != null && !id.trim().isEmpty()) {
-			externalAppService.deleteExternalApplication(id, defaultResponseHandler(request, 204));
+			externalAppService.deleteExternalApplication(id, actionsUpdated(defaultResponseHandler(request, 204)));
 		} else {
 			badRequest(request, "invalid.application.id");
 		}
@@ -110,7 +111,7 @@ public class ExternalApplicationController extends BaseController {
 
 				//for oauth url is not used
 				if (!updateCas || addressURL != null) {
-					externalAppService.createExternalApplication(structureId, body, new Handler<Either<String, JsonObject>>() {
+					externalAppService.createExternalApplication(structureId, body, actionsUpdated(new Handler<Either<String, JsonObject>>() {
 						public void handle(Either<String, JsonObject> event) {
 							if (event.isLeft()) {
 								JsonObject error = new JsonObject()
@@ -137,7 +138,7 @@ public class ExternalApplicationController extends BaseController {
 								Renders.renderJson(request, error, 400);
 							}
 						}
-					});
+					}));
 				} else {
 					badRequest(request, "appregistry.failed.app.url");
 				}
@@ -150,7 +151,7 @@ public class ExternalApplicationController extends BaseController {
 	@ResourceFilter(SuperAdminFilter.class)
 	public void lockExternalApp(final HttpServerRequest request) {
 		String structureId = request.params().get("id");
-		externalAppService.toggleLock(structureId, defaultResponseHandler(request));
+		externalAppService.toggleLock(structureId, actionsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Put("/application/external/:id/authorize")
@@ -165,7 +166,7 @@ public class ExternalApplicationController extends BaseController {
 			return;
 		}
 
-		externalAppService.massAuthorize(applicationId, profiles, defaultResponseHandler(request));
+		externalAppService.massAuthorize(applicationId, profiles, actionsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Delete("/application/external/:id/authorize")
@@ -180,7 +181,7 @@ public class ExternalApplicationController extends BaseController {
 			return;
 		}
 
-		externalAppService.massUnauthorize(applicationId, profiles, defaultResponseHandler(request, 204));
+		externalAppService.massUnauthorize(applicationId, profiles, actionsUpdated(defaultResponseHandler(request, 204)));
 	}
 
 	@BusAddress("external-application")
@@ -195,4 +196,16 @@ public class ExternalApplicationController extends BaseController {
 		}
 	}
 
+	private <T> Handler<Either<String, T>> actionsUpdated(final Handler<Either<String, T>> handler) {
+		return new Handler<Either<String, T>>() {
+			@Override
+			public void handle(Either<String, T> event) {
+				if (event.isRight()) {
+					ApplicationUtils.publishUpdatedProfileGroupActions(eb, null);
+				}
+				handler.handle(event);
+			}
+		};
+	}
+
 }
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.entcore.common.appregistry.ApplicationUtils;
 import org.entcore.common.http.filter.AdminFilter;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.registry.filters.AnyAdmin;
@@ -77,7 +78,7 @@ public class WidgetController extends BaseController {
 	@ResourceFilter(SuperAdminFilter.class)
 	public void deleteWidget(final HttpServerRequest request){
 		final String widgetId = request.params().get("id");
-		service.deleteWidget(widgetId, defaultResponseHandler(request, 201));
+		service.deleteWidget(widgetId, widgetsUpdated(defaultResponseHandler(request, 201)));
 	}
 
 	@Put("/widget/:id/lock")
@@ -85,7 +86,7 @@ public class WidgetController extends BaseController {
 	@ResourceFilter(SuperAdminFilter.class)
 	public void toggleLock(final HttpServerRequest request){
 		final String widgetId = request.params().get("id");
-		service.toggleLock(widgetId, defaultResponseHandler(request));
+		service.toggleLock(widgetId, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Post("/widget/:id/link/:groupId")
@@ -95,7 +96,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.linkWidget(widgetId, groupIds, defaultResponseHandler(request));
+		service.linkWidget(widgetId, groupIds, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/link/:groupId")
@@ -105,7 +106,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.unlinkWidget(widgetId, groupIds, defaultResponseHandler(request));
+		service.unlinkWidget(widgetId, groupIds, widgetsUpdated(defaultResponseHandler(request)));
 
 	}
 
@@ -116,7 +117,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.setMandatory(widgetId, groupIds, defaultResponseHandler(request));
+		service.setMandatory(widgetId, groupIds, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/mandatory/:groupId")
@@ -126,7 +127,7 @@ public class WidgetController extends BaseController {
 		final String widgetId = request.params().get("id");
 		final List<String> groupIds = new ArrayList<String>();
 		groupIds.add(request.params().get("groupId"));
-		service.removeMandatory(widgetId, groupIds, defaultResponseHandler(request));
+		service.removeMandatory(widgetId, groupIds, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Put("/widget/:id/authorize/:structureId")
@@ -136,7 +137,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massAuthorize(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massAuthorize(widgetId, structureId, profiles, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/authorize/:structureId")
@@ -146,7 +147,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massUnauthorize(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massUnauthorize(widgetId, structureId, profiles, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Put("/widget/:id/mandatory/:structureId/mass")
@@ -156,7 +157,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massSetMandatory(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massSetMandatory(widgetId, structureId, profiles, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Delete("/widget/:id/mandatory/:structureId/mass")
@@ -166,7 +167,7 @@ public class WidgetController extends BaseController {
 		final String structureId = request.params().get("structureId");
 		List<String> profiles = request.params().getAll("profile");
 
-		service.massRemoveMandatory(widgetId, structureId, profiles, defaultResponseHandler(request));
+		service.massRemoveMandatory(widgetId, structureId, profiles, widgetsUpdated(defaultResponseHandler(request)));
 	}
 
 	@Post("/widget")
@@ -226,7 +227,7 @@ public class WidgetController extends BaseController {
 		final String applicationName = widget.getString("applicationName");
 		widget.remove("applicationName");
 		if (widgetName != null && !widgetName.trim().isEmpty()) {
-			service.createWidget(applicationName, widget, new Handler<Either<String, JsonObject>>() {
+			service.createWidget(applicationName, widget, widgetsUpdated(new Handler<Either<String, JsonObject>>() {
 				@Override
 				public void handle(Either<String, JsonObject> event) {
 					JsonObject j = new JsonObject();
@@ -237,9 +238,25 @@ public class WidgetController extends BaseController {
 					}
 					handler.handle(j);
 				}
-			});
+			}));
 		} else {
 			handler.handle(new JsonObject().put("status", "error").put("message", "invalid.parameters"));
 		}
 	}
+
+	/**
+	 * Publishes a WIDGETS_UPDATED event when the widget change succeeds, so that the caches
+	 * of widgets by groups (session bootstrap) are cleared.
+	 */
+	private <T> Handler<Either<String, T>> widgetsUpdated(final Handler<Either<String, T>> handler) {
+		return new Handler<Either<String, T>>() {
+			@Override
+			public void handle(Either<String, T> event) {
+				if (event.isRight()) {
+					ApplicationUtils.publishUpdatedWidgets(eb);
+				}
+				handler.handle(event);
+			}
+		};
+	}
 }
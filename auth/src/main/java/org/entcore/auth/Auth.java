@@ -26,7 +26,9 @@ import org.entcore.auth.controllers.AuthController;
 import org.entcore.auth.controllers.ConfigurationController;
 import org.entcore.auth.controllers.OpenIdConnectController;
 import org.entcore.auth.controllers.SamlController;
+import org.entcore.auth.oauth.OAuthTokenCache;
 import org.entcore.auth.security.AuthResourcesProvider;
+import org.entcore.auth.security.PasswordHashExecutor;
 import org.entcore.auth.security.SamlValidator;
 import org.entcore.auth.services.impl.*;
 import org.entcore.auth.users.DefaultUserAuthAccount;
@@ -53,6 +55,8 @@ public class Auth extends BaseServer {
 		final EventBus eb = getEventBus(vertx);
 		super.start();
 		setDefaultResourceFilter(new AuthResourcesProvider(new Neo(vertx, eb, null)));
+		PasswordHashExecutor.getInstance().init(vertx, config.getJsonObject("password-hash", new JsonObject()));
+		OAuthTokenCache.getInstance().init(vertx, config.getJsonObject("oauth-token-cache", new JsonObject()));
 
 		final UserAuthAccount userAuthAccount = new DefaultUserAuthAccount(vertx, config);
 		final EventStore eventStore = EventStoreFactory.getFactory().getEventStore(Auth.class.getSimpleName());
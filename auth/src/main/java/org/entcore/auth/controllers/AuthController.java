@@ -77,7 +77,6 @@ import jp.eisbahn.oauth2.server.fetcher.clientcredential.ClientCredentialFetcher
 import jp.eisbahn.oauth2.server.granttype.GrantHandlerProvider;
 import jp.eisbahn.oauth2.server.granttype.impl.DefaultGrantHandlerProvider;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
-import jp.eisbahn.oauth2.server.models.Request;
 
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.EventBus;
@@ -89,7 +88,9 @@ import org.entcore.auth.oauth.HttpServerRequestAdapter;
 import org.entcore.auth.oauth.JsonRequestAdapter;
 import org.entcore.auth.oauth.OAuthDataHandler;
 import org.entcore.auth.oauth.OAuthDataHandlerFactory;
+import org.entcore.auth.oauth.OAuthTokenCache;
 import org.entcore.auth.pojo.SendPasswordDestination;
+import org.entcore.auth.security.PasswordHashExecutor;
 import org.entcore.auth.users.UserAuthAccount;
 
 import fr.wseduc.webutils.request.CookieHelper;
@@ -219,11 +220,17 @@ public class AuthController extends BaseController {
 
 			@Override
 			public void handle(Void v) {
-				Request req = new HttpServerRequestAdapter(request);
+				if ("password".equals(request.formAttributes().get("grant_type")) && passwordHashOverloaded(request)) {
+					return;
+				}
+				final HttpServerRequestAdapter req = new HttpServerRequestAdapter(request);
 				token.handleRequest(req, new Handler<Response>() {
 
 					@Override
 					public void handle(Response response) {
+						if (passwordHashRejected(request, req)) {
+							return;
+						}
 						renderJson(request, new JsonObject(response.getBody()), response.getCode());
 					}
 				});
@@ -231,6 +238,33 @@ public class AuthController extends BaseController {
 		});
 	}
 
+	private boolean passwordHashOverloaded(final HttpServerRequest request) {
+		if (PasswordHashExecutor.getInstance().isOverloaded()) {
+			passwordHashUnavailable(request);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The overloaded check before the login is only a fast path : the password check can still be rejected
+	 * by the executor, in which case the data handler flags the request and we answer 503 instead of a bad credentials error.
+	 */
+	private boolean passwordHashRejected(final HttpServerRequest request, final HttpServerRequestAdapter adapter) {
+		if (adapter.isPasswordHashRejected()) {
+			passwordHashUnavailable(request);
+			return true;
+		}
+		return false;
+	}
+
+	private void passwordHashUnavailable(final HttpServerRequest request) {
+		final PasswordHashExecutor passwordHashExecutor = PasswordHashExecutor.getInstance();
+		log.warn("Password hash executor overloaded : " + passwordHashExecutor.metrics().encode());
+		request.response().setStatusCode(503).setStatusMessage("Service Unavailable")
+				.putHeader("Retry-After", String.valueOf(passwordHashExecutor.getRetryAfter())).end();
+	}
+
 	private void loginResult(final HttpServerRequest request, String error, String callBack) {
 		final JsonObject context = new JsonObject();
 		if (callBack != null && !callBack.trim().isEmpty()) {
@@ -319,6 +353,9 @@ public class AuthController extends BaseController {
 		request.endHandler(new io.vertx.core.Handler<Void>() {
 			@Override
 			public void handle(Void v) {
+				if (passwordHashOverloaded(request)) {
+					return;
+				}
 				String c = request.formAttributes().get("callBack");
 				final StringBuilder callBack = new StringBuilder();
 				if (c != null && !c.trim().isEmpty()) {
@@ -334,13 +371,17 @@ public class AuthController extends BaseController {
 				} else {
 					callBack.append(config.getJsonObject("authenticationServer").getString("loginCallback"));
 				}
-				DataHandler data = oauthDataFactory.create(new HttpServerRequestAdapter(request));
+				final HttpServerRequestAdapter requestAdapter = new HttpServerRequestAdapter(request);
+				DataHandler data = oauthDataFactory.create(requestAdapter);
 				final String login = request.formAttributes().get("email");
 				final String password = request.formAttributes().get("password");
 				data.getUserId(login, password, new Handler<String>() {
 
 					@Override
 					public void handle(final String userId) {
+						if (passwordHashRejected(request, requestAdapter)) {
+							return;
+						}
 						final String c = callBack.toString();
 						if (userId != null && !userId.trim().isEmpty()) {
 							handleGetUserId(login, userId, request, c);
@@ -1040,12 +1081,16 @@ public class AuthController extends BaseController {
 			@Override
 			public void handle(JsonObject json) {
 				final String userId = request.params().get("userId");
-				boolean block = json.getBoolean("block", true);
+				final boolean block = json.getBoolean("block", true);
 				userAuthAccount.blockUser(userId, block, new io.vertx.core.Handler<Boolean>() {
 					@Override
 					public void handle(Boolean r) {
 						if (Boolean.TRUE.equals(r)) {
 							request.response().end();
+							if (block) {
+								OAuthTokenCache.getInstance().publishInvalidation(null, userId);
+							}
+							UserUtils.publishVisibilityChange(eb, new fr.wseduc.webutils.collections.JsonArray().add(userId));
 							UserUtils.deletePermanentSession(eb, userId, null, new io.vertx.core.Handler<Boolean>() {
 								@Override
 								public void handle(Boolean event) {
@@ -1145,11 +1190,15 @@ public class AuthController extends BaseController {
 					if (resetCode != null && !resetCode.trim().isEmpty()) {
 						userAuthAccount.resetPassword(login, resetCode, password, resultHandler);
 					} else {
-						DataHandler data = oauthDataFactory.create(new HttpServerRequestAdapter(request));
+						final HttpServerRequestAdapter requestAdapter = new HttpServerRequestAdapter(request);
+						DataHandler data = oauthDataFactory.create(requestAdapter);
 						data.getUserId(login, oldPassword, new Handler<String>() {
 
 							@Override
 							public void handle(String userId) {
+								if (passwordHashRejected(request, requestAdapter)) {
+									return;
+								}
 								if (userId != null && !userId.trim().isEmpty()) {
 									if ("force".equals(forceChange)) {
 										userAuthAccount.changePassword(login, password, reseted -> {
@@ -30,11 +30,23 @@ import jp.eisbahn.oauth2.server.models.Request;
 public class HttpServerRequestAdapter implements Request {
 
 	private final HttpServerRequest request;
+	private boolean passwordHashRejected = false;
 
 	public HttpServerRequestAdapter(HttpServerRequest request) {
 		this.request = request;
 	}
 
+	/**
+	 * @return true if the password check of this request was rejected by the overloaded password hash executor
+	 */
+	public boolean isPasswordHashRejected() {
+		return passwordHashRejected;
+	}
+
+	public void setPasswordHashRejected(boolean passwordHashRejected) {
+		this.passwordHashRejected = passwordHashRejected;
+	}
+
 	@Override
 	public String getParameter(String name) {
 		return request.formAttributes().get(name);
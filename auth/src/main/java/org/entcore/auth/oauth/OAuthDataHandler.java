@@ -29,6 +29,7 @@ import jp.eisbahn.oauth2.server.data.DataHandler;
 import jp.eisbahn.oauth2.server.models.AccessToken;
 import jp.eisbahn.oauth2.server.models.AuthInfo;
 import jp.eisbahn.oauth2.server.models.Request;
+import org.entcore.auth.security.PasswordHashExecutor;
 import org.entcore.auth.services.OpenIdConnectService;
 import org.entcore.common.neo4j.Neo4j;
 import io.vertx.core.AsyncResult;
@@ -41,8 +42,9 @@ import io.vertx.core.logging.LoggerFactory;
 import static fr.wseduc.webutils.Utils.getOrElse;
 
 import java.io.IOException;
-import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
 
 import static fr.wseduc.webutils.Utils.isNotEmpty;
 
@@ -51,10 +53,13 @@ public class OAuthDataHandler extends DataHandler {
 	private final MongoDb mongo;
 	private final OpenIdConnectService openIdConnectService;
 	private final boolean checkFederatedLogin;
+	private final PasswordHashExecutor passwordHashExecutor = PasswordHashExecutor.getInstance();
+	private final OAuthTokenCache tokenCache = OAuthTokenCache.getInstance();
 	private static final String AUTH_INFO_COLLECTION = "authorizations";
 	private static final String ACCESS_TOKEN_COLLECTION = "tokens";
 	private static final int CODE_EXPIRES = 600000; // 10 min
 	private static final Logger log = LoggerFactory.getLogger(OAuthDataHandler.class);
+	private static final ObjectMapper mapper = new ObjectMapper();
 
 	public OAuthDataHandler(Request request, Neo4j neo, MongoDb mongo, OpenIdConnectService openIdConnectService,
 			boolean checkFederatedLogin) {
@@ -131,55 +136,75 @@ public class OAuthDataHandler extends DataHandler {
 		}
 	}
 
-	private void checkPassword(JsonArray result, String password, String username, Handler<String> handler) {
-		JsonObject r = result.getJsonObject(0);
-		String dbPassword;
+	private void checkPassword(JsonArray result, final String password, final String username, final Handler<String> handler) {
+		final JsonObject r = result.getJsonObject(0);
+		final String dbPassword;
 		if (r != null && (dbPassword = r.getString("password")) != null && !getOrElse(r.getBoolean("blockedProfile"), false)) {
-			boolean success = false;
-			String hash = null;
-			try {
-				switch (dbPassword.length()) {
-					case 32: // md5
-						hash = Md5.hash(password);
-						break;
-					case 64: // sha-256
-						hash = Sha256.hash(password);
-						break;
-					default: // BCrypt
-						success = BCrypt.checkpw(password, dbPassword);
+			passwordHashExecutor.execute(new Callable<JsonObject>() {
+				@Override
+				public JsonObject call() throws Exception {
+					boolean success = false;
+					String hash = null;
+					switch (dbPassword.length()) {
+						case 32: // md5
+							hash = Md5.hash(password);
+							break;
+						case 64: // sha-256
+							hash = Sha256.hash(password);
+							break;
+						default: // BCrypt
+							success = BCrypt.checkpw(password, dbPassword);
+					}
+					final JsonObject res = new JsonObject();
+					if (!success && hash != null) {
+						success = !dbPassword.trim().isEmpty() && dbPassword.equalsIgnoreCase(hash);
+						if (success) {
+							res.put("newPassword", passwordHashExecutor.hashpw(password)).put("welcome", true);
+						}
+					} else if (success && passwordHashExecutor.needsRehash(dbPassword)) {
+						res.put("newPassword", passwordHashExecutor.hashpw(password)).put("welcome", false);
+					}
+					return res.put("success", success);
 				}
-				if (!success && hash != null) {
-					success = !dbPassword.trim().isEmpty() && dbPassword.equalsIgnoreCase(hash);
-					if (success) {
-						upgradeOldPassword(username, password);
+			}, new io.vertx.core.Handler<AsyncResult<JsonObject>>() {
+				@Override
+				public void handle(AsyncResult<JsonObject> ar) {
+					if (ar.succeeded() && ar.result().getBoolean("success", false)) {
+						final String newPassword = ar.result().getString("newPassword");
+						if (newPassword != null) {
+							upgradeOldPassword(username, newPassword, ar.result().getBoolean("welcome", false));
+						}
+						handler.handle(r.getString("userId"));
+					} else {
+						if (ar.failed() && ar.cause() instanceof RejectedExecutionException) {
+							if (getRequest() instanceof HttpServerRequestAdapter) {
+								((HttpServerRequestAdapter) getRequest()).setPasswordHashRejected(true);
+							}
+						} else if (ar.failed()) {
+							log.error(ar.cause().getMessage(), ar.cause());
+						}
+						handler.handle(null);
 					}
 				}
-			} catch (NoSuchAlgorithmException e) {
-				log.error(e.getMessage(), e);
-			}
-			if (success) {
-				handler.handle(r.getString("userId"));
-			} else {
-				handler.handle(null);
-			}
+			});
 		} else {
 			handler.handle(null);
 		}
 	}
 
-	private void upgradeOldPassword(final String username, String password) {
+	private void upgradeOldPassword(final String username, String password, final boolean welcome) {
 		String query =
 				"MATCH (u:User {login: {login}}) SET u.password = {password} " +
 				"RETURN u.id as id, HEAD(u.profiles) as profile ";
 		JsonObject params = new JsonObject()
 				.put("login", username)
-				.put("password", BCrypt.hashpw(password, BCrypt.gensalt()));
+				.put("password", password);
 		neo.execute(query, params, new io.vertx.core.Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
 				if (!"ok".equals(event.body().getString("status"))) {
 					log.error("Error updating old password for user " + username + " : " + event.body().getString("message"));
-				} else if (event.body().getJsonArray("result") != null && event.body().getJsonArray("result").size() == 1) {
+				} else if (welcome && event.body().getJsonArray("result") != null && event.body().getJsonArray("result").size() == 1) {
 					// welcome message
 					JsonObject message = new JsonObject()
 							.put("userId", event.body().getJsonArray("result").getJsonObject(0).getString("id"))
@@ -257,7 +282,6 @@ public class OAuthDataHandler extends DataHandler {
 				if ("ok".equals(res.body().getString("status"))) {
 					auth.put("id", res.body().getString("_id"));
 					auth.remove("createdAt");
-					ObjectMapper mapper = new ObjectMapper();
 					try {
 						handler.handle(mapper.readValue(auth.encode(), AuthInfo.class));
 					} catch (IOException e) {
@@ -303,6 +327,7 @@ public class OAuthDataHandler extends DataHandler {
 							persistToken(token);
 						}
 					} else { // revoke existing token and code with same authId
+						tokenCache.publishInvalidation(authInfo.getId(), null);
 						mongo.delete(ACCESS_TOKEN_COLLECTION, query);
 						mongo.delete(AUTH_INFO_COLLECTION,
 								new JsonObject().put("_id", authInfo.getId()));
@@ -355,7 +380,6 @@ public class OAuthDataHandler extends DataHandler {
 						r.put("id", r.getString("_id"));
 						r.remove("_id");
 						r.remove("createdAt");
-						ObjectMapper mapper = new ObjectMapper();
 						try {
 							handler.handle(mapper.readValue(r.encode(), AuthInfo.class));
 						} catch (IOException e) {
@@ -389,7 +413,6 @@ public class OAuthDataHandler extends DataHandler {
 						r.put("id", r.getString("_id"));
 						r.remove("_id");
 						r.remove("createdAt");
-						ObjectMapper mapper = new ObjectMapper();
 						try {
 							handler.handle(mapper.readValue(r.encode(), AuthInfo.class));
 						} catch (IOException e) {
@@ -466,8 +489,13 @@ public class OAuthDataHandler extends DataHandler {
 	}
 
 	@Override
-	public void getAccessToken(String token, final Handler<AccessToken> handler) {
+	public void getAccessToken(final String token, final Handler<AccessToken> handler) {
 		if (token != null && !token.trim().isEmpty()) {
+			final JsonObject cached = tokenCache.getToken(token);
+			if (cached != null) {
+				handler.handle(toAccessToken(cached));
+				return;
+			}
 			JsonObject query = new JsonObject()
 			.put("token", token);
 			mongo.findOne(ACCESS_TOKEN_COLLECTION, query, new io.vertx.core.Handler<Message<JsonObject>>() {
@@ -477,11 +505,10 @@ public class OAuthDataHandler extends DataHandler {
 					JsonObject r = res.body().getJsonObject("result");
 					if ("ok".equals(res.body().getString("status")) &&
 							r != null && r.size() > 0) {
-						AccessToken t = new AccessToken();
-						t.setAuthId(r.getString("authId"));
-						t.setToken(r.getString("token"));
-						t.setCreatedOn(MongoDb.parseIsoDate(r.getJsonObject("createdOn")));
-						t.setExpiresIn(r.getInteger("expiresIn"));
+						AccessToken t = toAccessToken(r);
+						if (t.getCreatedOn() != null) {
+							tokenCache.putToken(token, r, t.getCreatedOn().getTime() + t.getExpiresIn() * 1000L);
+						}
 						handler.handle(t);
 					} else {
 						handler.handle(null);
@@ -493,9 +520,27 @@ public class OAuthDataHandler extends DataHandler {
 		}
 	}
 
+	private AccessToken toAccessToken(JsonObject r) {
+		AccessToken t = new AccessToken();
+		t.setAuthId(r.getString("authId"));
+		t.setToken(r.getString("token"));
+		t.setCreatedOn(MongoDb.parseIsoDate(r.getJsonObject("createdOn")));
+		t.setExpiresIn(r.getInteger("expiresIn"));
+		return t;
+	}
+
 	@Override
-	public void getAuthInfoById(String id, final Handler<AuthInfo> handler) {
+	public void getAuthInfoById(final String id, final Handler<AuthInfo> handler) {
 		if (id != null && !id.trim().isEmpty()) {
+			final JsonObject cached = tokenCache.getAuthInfo(id);
+			if (cached != null) {
+				try {
+					handler.handle(mapper.readValue(cached.encode(), AuthInfo.class));
+				} catch (IOException e) {
+					handler.handle(null);
+				}
+				return;
+			}
 			JsonObject query = new JsonObject()
 			.put("_id", id);
 			mongo.findOne(AUTH_INFO_COLLECTION, query, new io.vertx.core.Handler<Message<JsonObject>>() {
@@ -507,7 +552,7 @@ public class OAuthDataHandler extends DataHandler {
 						r.put("id", r.getString("_id"));
 						r.remove("_id");
 						r.remove("createdAt");
-						ObjectMapper mapper = new ObjectMapper();
+						tokenCache.putAuthInfo(id, r);
 						try {
 							handler.handle(mapper.readValue(r.encode(), AuthInfo.class));
 						} catch (IOException e) {
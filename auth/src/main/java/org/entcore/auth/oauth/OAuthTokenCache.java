@@ -0,0 +1,289 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.auth.oauth;
+
+import org.entcore.common.user.UserUtils;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded cache of the validated OAuth access tokens and of their authorizations, avoiding the two
+ * Mongo reads done for each Bearer authenticated request.
+ * Token entries expire with the token, authorization entries after a ttl. Revocations are published
+ * on the event bus so that all auth instances of the cluster evict the matching entries.
+ * The user of an authorization stays indexed while its authorization or one of its tokens is cached,
+ * so that the tokens of a user are invalidated even when the authorization has been evicted.
+ */
+public class OAuthTokenCache {
+
+	public static final String INVALIDATE_ADDRESS = UserUtils.OAUTH_TOKEN_INVALIDATE_ADDRESS;
+	private static final Logger log = LoggerFactory.getLogger(OAuthTokenCache.class);
+	private static final int DEFAULT_MAX_SIZE = 20000;
+	private static final long DEFAULT_TTL = 300000L;
+
+	private int maxSize = DEFAULT_MAX_SIZE;
+	private long ttl = DEFAULT_TTL;
+	private boolean enabled = false;
+	private EventBus eb;
+	private final Map<String, Entry> tokens;
+	private final Map<String, Entry> authInfos;
+	private final Map<String, Set<String>> authTokens = new LinkedHashMap<>();
+	private final Map<String, Set<String>> userAuthInfos = new LinkedHashMap<>();
+	private final Map<String, String> authUsers = new LinkedHashMap<>();
+
+	private static final class Entry {
+		private final JsonObject value;
+		private final String authId;
+		private final long expire;
+
+		private Entry(JsonObject value, String authId, long expire) {
+			this.value = value;
+			this.authId = authId;
+			this.expire = expire;
+		}
+	}
+
+	private OAuthTokenCache() {
+		tokens = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > maxSize) {
+					final String authId = eldest.getValue().authId;
+					unindex(authTokens, authId, eldest.getKey());
+					releaseUserIfUnused(authId);
+					return true;
+				}
+				return false;
+			}
+		};
+		authInfos = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > maxSize) {
+					releaseUser(eldest.getKey());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	private static class OAuthTokenCacheHolder {
+		private static final OAuthTokenCache instance = new OAuthTokenCache();
+	}
+
+	public static OAuthTokenCache getInstance() {
+		return OAuthTokenCacheHolder.instance;
+	}
+
+	public void init(Vertx vertx, JsonObject config) {
+		if (config == null || eb != null) {
+			return;
+		}
+		this.eb = vertx.eventBus();
+		this.enabled = config.getBoolean("enabled", true);
+		this.maxSize = config.getInteger("max-size", DEFAULT_MAX_SIZE);
+		this.ttl = config.getLong("ttl", DEFAULT_TTL);
+		if (enabled) {
+			eb.consumer(INVALIDATE_ADDRESS, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					final JsonObject body = message.body();
+					if (body.getBoolean("all", false)) {
+						clear();
+						return;
+					}
+					invalidate(body.getString("authId"), body.getString("userId"));
+					final JsonArray userIds = body.getJsonArray("userIds");
+					if (userIds != null) {
+						for (Object userId : userIds) {
+							if (userId instanceof String) {
+								invalidate(null, (String) userId);
+							}
+						}
+					}
+				}
+			});
+			log.info("OAuth token cache enabled - max-size : " + maxSize + ", ttl : " + ttl);
+		}
+	}
+
+	public JsonObject getToken(String token) {
+		return enabled ? get(tokens, token) : null;
+	}
+
+	public JsonObject getAuthInfo(String authId) {
+		return enabled ? get(authInfos, authId) : null;
+	}
+
+	public void putToken(String token, JsonObject accessToken, long expiresAt) {
+		if (!enabled || token == null || accessToken == null) {
+			return;
+		}
+		final long expire = Math.min(expiresAt, System.currentTimeMillis() + ttl);
+		if (expire <= System.currentTimeMillis()) {
+			return;
+		}
+		final String authId = accessToken.getString("authId");
+		synchronized (this) {
+			final Entry old = tokens.put(token, new Entry(accessToken.copy(), authId, expire));
+			if (old != null) {
+				unindex(authTokens, old.authId, token);
+			}
+			index(authTokens, authId, token);
+		}
+	}
+
+	public void putAuthInfo(String authId, JsonObject authInfo) {
+		if (!enabled || authId == null || authInfo == null) {
+			return;
+		}
+		final String userId = authInfo.getString("userId");
+		synchronized (this) {
+			authInfos.put(authId, new Entry(authInfo.copy(), authId, System.currentTimeMillis() + ttl));
+			final String oldUserId = (userId != null) ? authUsers.put(authId, userId) : authUsers.remove(authId);
+			if (oldUserId != null && !oldUserId.equals(userId)) {
+				unindex(userAuthInfos, oldUserId, authId);
+			}
+			index(userAuthInfos, userId, authId);
+		}
+	}
+
+	public synchronized void invalidate(String authId, String userId) {
+		if (authId != null) {
+			invalidateAuthId(authId);
+		}
+		if (userId != null) {
+			final Set<String> ids = userAuthInfos.remove(userId);
+			if (ids != null) {
+				for (String id : ids) {
+					authInfos.remove(id);
+					authUsers.remove(id);
+					removeTokens(id);
+				}
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		tokens.clear();
+		authInfos.clear();
+		authTokens.clear();
+		userAuthInfos.clear();
+		authUsers.clear();
+	}
+
+	public void publishInvalidation(String authId, String userId) {
+		if (eb == null) {
+			invalidate(authId, userId);
+			return;
+		}
+		final JsonObject m = new JsonObject();
+		if (authId != null) {
+			m.put("authId", authId);
+		}
+		if (userId != null) {
+			m.put("userId", userId);
+		}
+		eb.publish(INVALIDATE_ADDRESS, m);
+	}
+
+	private JsonObject get(Map<String, Entry> map, String key) {
+		if (key == null) {
+			return null;
+		}
+		final Entry e;
+		synchronized (this) {
+			e = map.get(key);
+			if (e != null && e.expire < System.currentTimeMillis()) {
+				map.remove(key);
+				if (map == tokens) {
+					unindex(authTokens, e.authId, key);
+				}
+				releaseUserIfUnused(e.authId);
+				return null;
+			}
+		}
+		return (e != null) ? e.value.copy() : null;
+	}
+
+	private void invalidateAuthId(String authId) {
+		authInfos.remove(authId);
+		removeTokens(authId);
+		releaseUser(authId);
+	}
+
+	private void releaseUserIfUnused(String authId) {
+		if (authId != null && !authInfos.containsKey(authId) && !authTokens.containsKey(authId)) {
+			releaseUser(authId);
+		}
+	}
+
+	private void releaseUser(String authId) {
+		if (authId != null && !authTokens.containsKey(authId)) {
+			unindex(userAuthInfos, authUsers.remove(authId), authId);
+		}
+	}
+
+	private void removeTokens(String authId) {
+		final Set<String> t = authTokens.remove(authId);
+		if (t != null) {
+			for (String token : t) {
+				tokens.remove(token);
+			}
+		}
+	}
+
+	private static void index(Map<String, Set<String>> index, String key, String value) {
+		if (key == null) {
+			return;
+		}
+		Set<String> values = index.get(key);
+		if (values == null) {
+			values = new HashSet<>();
+			index.put(key, values);
+		}
+		values.add(value);
+	}
+
+	private static void unindex(Map<String, Set<String>> index, String key, String value) {
+		if (key == null) {
+			return;
+		}
+		final Set<String> values = index.get(key);
+		if (values != null) {
+			values.remove(value);
+			if (values.isEmpty()) {
+				index.remove(key);
+			}
+		}
+	}
+
+}
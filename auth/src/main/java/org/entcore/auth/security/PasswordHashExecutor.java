@@ -0,0 +1,182 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.auth.security;
+
+import fr.wseduc.webutils.security.BCrypt;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded worker pool for the password hash computations (BCrypt) which must not run on the event loop.
+ * Tasks are rejected when too many are pending, callers should answer 503 with Retry-After.
+ */
+public class PasswordHashExecutor {
+
+	public static final String METRICS_ADDRESS = "auth.password.metrics";
+	private static final Logger log = LoggerFactory.getLogger(PasswordHashExecutor.class);
+
+	private WorkerExecutor executor;
+	private int maxPending;
+	private int rehashCost = -1;
+	private int retryAfter = 5;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong executed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong totalTime = new AtomicLong();
+	private volatile long maxTime = 0;
+
+	private PasswordHashExecutor() {}
+
+	private static class PasswordHashExecutorHolder {
+		private static final PasswordHashExecutor instance = new PasswordHashExecutor();
+	}
+
+	public static PasswordHashExecutor getInstance() {
+		return PasswordHashExecutorHolder.instance;
+	}
+
+	public void init(Vertx vertx, JsonObject config) {
+		if (executor != null) {
+			return;
+		}
+		final int poolSize = config.getInteger("pool-size", Runtime.getRuntime().availableProcessors());
+		this.maxPending = config.getInteger("max-pending", poolSize * 16);
+		this.rehashCost = config.getInteger("rehash-cost", -1);
+		this.retryAfter = config.getInteger("retry-after", 5);
+		this.executor = vertx.createSharedWorkerExecutor("password-hash", poolSize);
+		vertx.eventBus().localConsumer(METRICS_ADDRESS, message -> message.reply(metrics()));
+		log.info("Password hash executor - pool-size : " + poolSize + ", max-pending : " + maxPending);
+	}
+
+	public boolean isOverloaded() {
+		return executor != null && pending.get() >= maxPending;
+	}
+
+	public int getRetryAfter() {
+		return retryAfter;
+	}
+
+	public <T> void execute(final Callable<T> task, final Handler<AsyncResult<T>> handler) {
+		if (executor == null) {
+			try {
+				handler.handle(Future.succeededFuture(task.call()));
+			} catch (Exception e) {
+				handler.handle(Future.failedFuture(e));
+			}
+			return;
+		}
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			handler.handle(Future.failedFuture(new RejectedExecutionException("password.hash.overloaded")));
+			return;
+		}
+		executor.executeBlocking(new Handler<Future<T>>() {
+			@Override
+			public void handle(Future<T> future) {
+				final long start = System.currentTimeMillis();
+				try {
+					future.complete(task.call());
+				} catch (Exception e) {
+					future.fail(e);
+				} finally {
+					record(System.currentTimeMillis() - start);
+				}
+			}
+		}, false, new Handler<AsyncResult<T>>() {
+			@Override
+			public void handle(AsyncResult<T> ar) {
+				pending.decrementAndGet();
+				handler.handle(ar);
+			}
+		});
+	}
+
+	public void checkpw(final String password, final String hash, final Handler<AsyncResult<Boolean>> handler) {
+		execute(new Callable<Boolean>() {
+			@Override
+			public Boolean call() throws Exception {
+				return BCrypt.checkpw(password, hash);
+			}
+		}, handler);
+	}
+
+	public void hashpw(final String password, final Handler<AsyncResult<String>> handler) {
+		execute(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return hashpw(password);
+			}
+		}, handler);
+	}
+
+	/**
+	 * Blocking hash computation, only to be called from a worker thread.
+	 */
+	public String hashpw(String password) {
+		return BCrypt.hashpw(password, (rehashCost > 0) ? BCrypt.gensalt(rehashCost) : BCrypt.gensalt());
+	}
+
+	/**
+	 * @return true if the BCrypt hash has a cost factor different from the configured rehash-cost
+	 */
+	public boolean needsRehash(String hash) {
+		if (rehashCost <= 0 || hash == null || hash.length() < 7 || !hash.startsWith("$2")) {
+			return false;
+		}
+		try {
+			final int offset = (hash.charAt(2) == '$') ? 3 : 4;
+			return Integer.parseInt(hash.substring(offset, offset + 2)) != rehashCost;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private void record(long time) {
+		executed.incrementAndGet();
+		totalTime.addAndGet(time);
+		if (time > maxTime) {
+			maxTime = time;
+		}
+	}
+
+	public JsonObject metrics() {
+		final long count = executed.get();
+		return new JsonObject()
+				.put("pending", pending.get())
+				.put("maxPending", maxPending)
+				.put("executed", count)
+				.put("rejected", rejected.get())
+				.put("averageTime", (count > 0) ? totalTime.get() / count : 0)
+				.put("maxTime", maxTime);
+	}
+
+}
@@ -22,6 +22,7 @@ package org.entcore.auth.security;
 import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.data.ZLib;
 import io.vertx.core.json.Json;
+import org.entcore.auth.Auth;
 import org.entcore.auth.services.SamlServiceProvider;
 import org.entcore.auth.services.SamlServiceProviderFactory;
 import org.entcore.auth.services.SamlVectorService;
@@ -118,7 +119,7 @@ public class SamlValidator extends BusModBase implements Handler<Message<JsonObj
 		String neo4jConfig = (String) vertx.sharedData().getLocalMap("server").get("neo4jConfig");
 		if (neo4jConfig != null) {
 			neo4j = Neo4j.getSpecificInstance();
-			neo4j.init(vertx, new JsonObject(neo4jConfig));
+			neo4j.init(vertx, new JsonObject(neo4jConfig), Auth.class.getSimpleName());
 		}
 
 		try {
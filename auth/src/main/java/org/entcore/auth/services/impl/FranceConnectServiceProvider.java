@@ -20,9 +20,9 @@
 package org.entcore.auth.services.impl;
 
 import fr.wseduc.webutils.Either;
-import fr.wseduc.webutils.security.BCrypt;
 import fr.wseduc.webutils.security.Md5;
 import fr.wseduc.webutils.security.Sha256;
+import org.entcore.auth.security.PasswordHashExecutor;
 import org.entcore.auth.services.OpenIdConnectServiceProvider;
 import org.entcore.common.neo4j.Neo4j;
 import io.vertx.core.Handler;
@@ -117,27 +117,19 @@ public class FranceConnectServiceProvider implements OpenIdConnectServiceProvide
 									success = res.getString("password").equals(Sha256.hash(password));
 									break;
 								default: // BCrypt
-									success = BCrypt.checkpw(password, res.getString("password"));
+									PasswordHashExecutor.getInstance().checkpw(password, res.getString("password"), ar -> {
+										if (ar.succeeded() && Boolean.TRUE.equals(ar.result())) {
+											setMapping(params, payload, handler);
+										}
+									});
+									return;
 							}
 						} catch (NoSuchAlgorithmException e) {
 							handler.handle(new Either.Left<String, Object>(e.getMessage()));
 						}
 					}
 					if (success) {
-						params.put("setFederated", setFederated);
-						neo4j.execute(QUERY_SET_MAPPING_FC, params.put("sub", payload.getString("sub")),
-								validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
-							@Override
-							public void handle(final Either<String, JsonObject> event) {
-								if (event.isRight() && event.right().getValue().getBoolean("blockedProfile", false)) {
-									handler.handle(new Either.Left<String, Object>("blocked.profile"));
-								} else if (event.isRight()) {
-									handler.handle(new Either.Right<String, Object>(event.right().getValue()));
-								} else {
-									handler.handle(new Either.Left<String, Object>("invalid.openid.payload"));
-								}
-							}
-						}));
+						setMapping(params, payload, handler);
 					}
 				} else {
 					handler.handle(new Either.Left<String, Object>(event.left().getValue()));
@@ -146,6 +138,23 @@ public class FranceConnectServiceProvider implements OpenIdConnectServiceProvide
 		}));
 	}
 
+	private void setMapping(JsonObject params, JsonObject payload, final Handler<Either<String, Object>> handler) {
+		params.put("setFederated", setFederated);
+		neo4j.execute(QUERY_SET_MAPPING_FC, params.put("sub", payload.getString("sub")),
+				validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(final Either<String, JsonObject> event) {
+				if (event.isRight() && event.right().getValue().getBoolean("blockedProfile", false)) {
+					handler.handle(new Either.Left<String, Object>("blocked.profile"));
+				} else if (event.isRight()) {
+					handler.handle(new Either.Right<String, Object>(event.right().getValue()));
+				} else {
+					handler.handle(new Either.Left<String, Object>("invalid.openid.payload"));
+				}
+			}
+		}));
+	}
+
 	public void setSetFederated(boolean setFederated) {
 		this.setFederated = setFederated;
 	}
@@ -28,6 +28,7 @@ import fr.wseduc.webutils.I18n;
 import fr.wseduc.webutils.email.EmailSender;
 
 import org.entcore.auth.pojo.SendPasswordDestination;
+import org.entcore.auth.security.PasswordHashExecutor;
 import io.vertx.core.shareddata.LocalMap;
 import org.entcore.common.email.EmailFactory;
 import org.joda.time.DateTime;
@@ -44,7 +45,6 @@ import org.entcore.common.validation.StringValidation;
 
 import fr.wseduc.webutils.Server;
 import fr.wseduc.webutils.http.Renders;
-import fr.wseduc.webutils.security.BCrypt;
 
 import static fr.wseduc.webutils.Utils.getOrElse;
 import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
@@ -57,6 +57,7 @@ public class DefaultUserAuthAccount implements UserAuthAccount {
 	private final JsonObject config;
 	private final EmailSender notification;
 	private final Renders render;
+	private final PasswordHashExecutor passwordHashExecutor = PasswordHashExecutor.getInstance();
 
 	private String smsProvider;
 	private final String smsAddress;
@@ -94,8 +95,19 @@ public class DefaultUserAuthAccount implements UserAuthAccount {
 		activateAccount("loginAlias", login, activationCode, password, email, phone, theme, request, handler);
 	}
 
+	private void activateAccount(final String loginFieldName, final String login, final String activationCode, final String password,
+	 	final String email, final String phone, final String theme, final HttpServerRequest request, final Handler<Either<String, String>> handler) {
+		passwordHashExecutor.hashpw(password, ar -> {
+			if (ar.succeeded()) {
+				activateAccount(loginFieldName, login, activationCode, password, ar.result(), email, phone, theme, request, handler);
+			} else {
+				handler.handle(new Either.Left<String, String>("activation.error"));
+			}
+		});
+	}
+
 	private void activateAccount(final String loginFieldName, final String login, String activationCode, final String password,
-	 	String email, String phone, final String theme, final HttpServerRequest request, final Handler<Either<String, String>> handler) {
+		String hash, String email, String phone, final String theme, final HttpServerRequest request, final Handler<Either<String, String>> handler) {
 		String query =
 				"MATCH (n:User) " +
 				"WHERE n." + loginFieldName + "={login} AND n.activationCode = {activationCode} AND n.password IS NULL " +
@@ -112,7 +124,7 @@ public class DefaultUserAuthAccount implements UserAuthAccount {
 		Map<String, Object> params = new HashMap<>();
 		params.put("login", login);
 		params.put("activationCode", activationCode);
-		params.put("password", BCrypt.hashpw(password, BCrypt.gensalt()));
+		params.put("password", hash);
 		params.put("email", email);
 		params.put("phone", phone);
 		params.put("allowActivateDuplicate", allowActivateDuplicateProfiles);
@@ -153,11 +165,15 @@ public class DefaultUserAuthAccount implements UserAuthAccount {
 						@Override
 						public void handle(Message<JsonObject> event) {
 							if ("ok".equals(event.body().getString("status")) &&
-									event.body().getJsonObject("result").getJsonObject("0") != null &&
-									BCrypt.checkpw(password, event.body().getJsonObject("result").getJsonObject("0")
-											.getString("password", ""))) {
-								handler.handle(new Either.Right<String, String>(
-										event.body().getJsonObject("result").getJsonObject("0").getString("id")));
+									event.body().getJsonObject("result").getJsonObject("0") != null) {
+								final JsonObject user = event.body().getJsonObject("result").getJsonObject("0");
+								passwordHashExecutor.checkpw(password, user.getString("password", ""), ar -> {
+									if (ar.succeeded() && Boolean.TRUE.equals(ar.result())) {
+										handler.handle(new Either.Right<String, String>(user.getString("id")));
+									} else {
+										handler.handle(new Either.Left<String, String>("activation.error"));
+									}
+								});
 							} else {
 								handler.handle(new Either.Left<String, String>("activation.error"));
 							}
@@ -563,8 +579,18 @@ public class DefaultUserAuthAccount implements UserAuthAccount {
 		});
 	};
 
-	private void updatePassword(final Handler<Boolean> handler, String query, String password, Map<String, Object> params) {
-		final String pw = BCrypt.hashpw(password, BCrypt.gensalt());
+	private void updatePassword(final Handler<Boolean> handler, final String query, String password,
+			final Map<String, Object> params) {
+		passwordHashExecutor.hashpw(password, ar -> {
+			if (ar.succeeded()) {
+				updatePasswordHash(handler, query, ar.result(), params);
+			} else {
+				handler.handle(false);
+			}
+		});
+	}
+
+	private void updatePasswordHash(final Handler<Boolean> handler, String query, final String pw, Map<String, Object> params) {
 		params.put("password", pw);
 		neo.send(query, params, res -> {
 			JsonObject r = res.body().getJsonObject("result");
@@ -28,7 +28,9 @@ import io.vertx.core.json.JsonObject;
 
 import static org.entcore.common.appregistry.AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS;
 import static org.entcore.common.appregistry.AppRegistryEvents.IMPORT_SUCCEEDED;
+import static org.entcore.common.appregistry.AppRegistryEvents.PROFILE_GROUP_ACTIONS_UPDATED;
 import static org.entcore.common.appregistry.AppRegistryEvents.USER_GROUP_UPDATED;
+import static org.entcore.common.appregistry.AppRegistryEvents.WIDGETS_UPDATED;
 
 public final class ApplicationUtils {
 
@@ -97,6 +99,24 @@ public final class ApplicationUtils {
 		eb.send(APP_REGISTRY_BUS_ADDRESS, json, handler);
 	}
 
+	/**
+	 * Notifies that the actions or applications authorized to groups changed.
+	 * @param groups the groups concerned or null when the change is not limited to some groups
+	 */
+	public static void publishUpdatedProfileGroupActions(EventBus eb, JsonArray groups) {
+		final JsonObject message = new JsonObject().put("type", PROFILE_GROUP_ACTIONS_UPDATED);
+		if (groups != null && groups.size() > 0) {
+			message.put("groups", groups);
+		}
+		eb.publish(APP_REGISTRY_PUBLISH_ADDRESS, message);
+	}
+
+	public static void publishUpdatedWidgets(EventBus eb) {
+		eb.publish(APP_REGISTRY_PUBLISH_ADDRESS,
+				new JsonObject().put("type", WIDGETS_UPDATED)
+		);
+	}
+
 	public static void afterImport(EventBus eb) {
 		eb.publish(APP_REGISTRY_PUBLISH_ADDRESS,
 				new JsonObject().put("type", IMPORT_SUCCEEDED)
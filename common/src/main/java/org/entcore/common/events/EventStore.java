@@ -21,6 +21,7 @@ package org.entcore.common.events;
 
 import org.entcore.common.user.UserInfos;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 public interface EventStore {
@@ -35,4 +36,19 @@ public interface EventStore {
 
 	void createAndStoreEvent(String eventType, String login);
 
+	/**
+	 * Store several events of the same type at once.
+	 * @param eventType the type of the events
+	 * @param events custom attributes of each event, the "userId" attribute identifies the user
+	 */
+	default void createAndStoreEvents(String eventType, JsonArray events) {
+		for (Object o : events) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject attributes = ((JsonObject) o).copy();
+			final UserInfos user = new UserInfos();
+			user.setUserId((String) attributes.remove("userId"));
+			createAndStoreEvent(eventType, user, attributes);
+		}
+	}
+
 }
@@ -97,6 +97,31 @@ public abstract class GenericEventStore implements EventStore {
 		});
 	}
 
+	@Override
+	public void createAndStoreEvents(String eventType, JsonArray events) {
+		final JsonArray toStore = new fr.wseduc.webutils.collections.JsonArray();
+		for (Object o : events) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject attributes = ((JsonObject) o).copy();
+			final UserInfos user = new UserInfos();
+			user.setUserId((String) attributes.remove("userId"));
+			if (user.getUserId() == null || !userBlacklist.contains(user.getUserId())) {
+				toStore.add(generateEvent(eventType, user, null, attributes));
+			}
+		}
+		if (toStore.size() == 0) {
+			return;
+		}
+		storeEvents(toStore, new Handler<Either<String, Void>>() {
+			@Override
+			public void handle(Either<String, Void> event) {
+				if (event.isLeft()) {
+					logger.error("Error adding events : " + event.left().getValue());
+				}
+			}
+		});
+	}
+
 	private void execute(UserInfos user, String eventType, HttpServerRequest request,
 			JsonObject customAttributes) {
 		if (user == null || !userBlacklist.contains(user.getUserId())) {
@@ -119,7 +144,7 @@ public abstract class GenericEventStore implements EventStore {
 		}
 		event.put("event-type", eventType)
 				.put("module", getOrElse(event.remove("override-module"), module, false))
-				.put("date", System.currentTimeMillis());
+				.put("date", (event.getValue("date") instanceof Long) ? event.getValue("date") : System.currentTimeMillis());
 		if (user != null) {
 			event.put("userId", user.getUserId());
 			if (user.getType() != null) {
@@ -144,6 +169,12 @@ public abstract class GenericEventStore implements EventStore {
 
 	protected abstract void storeEvent(JsonObject event, Handler<Either<String, Void>> handler);
 
+	protected void storeEvents(JsonArray events, Handler<Either<String, Void>> handler) {
+		for (Object event : events) {
+			storeEvent((JsonObject) event, handler);
+		}
+	}
+
 	private void initBlacklist() {
 		eventBus.send("event.blacklist", new JsonObject(), new Handler<AsyncResult<Message<JsonArray>>>() {
 			@Override
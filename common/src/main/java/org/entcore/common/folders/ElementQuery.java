@@ -11,6 +11,9 @@ import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
+
 public class ElementQuery {
 	public static enum ElementSort {
 		Asc, Desc
@@ -20,6 +23,8 @@ public class ElementQuery {
 	private String type;
 	private Integer skip;
 	private Integer limit;
+	private Cursor after;
+	private Deadline deadline;
 	private boolean shared;
 	private Boolean trash;
 	private boolean favorites;
@@ -173,6 +178,29 @@ public class ElementQuery {
 		this.skip = skip;
 	}
 
+	public Cursor getAfter() {
+		return after;
+	}
+
+	/**
+	 * Keyset pagination : the elements after the cursor (modified and _id of the last element of
+	 * the previous page). The query must be sorted by modified then _id (descending).
+	 */
+	public void setAfter(Cursor after) {
+		this.after = after;
+	}
+
+	public Deadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * The listing is abandoned when the deadline passes (null means no deadline).
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
 	public void addSort(String name, ElementSort sort) {
 		if (this.sort == null) {
 			this.sort = new ArrayList<>();
@@ -32,6 +32,12 @@ public interface QuotaService {
 
 	void decrementStorage(String userId, Long size, int threshold, Handler<Either<String, JsonObject>> handler);
 
+	/**
+	 * Same size added to the storage of several users (ie a message sent to a group).
+	 * Replies one row per user : userId, storage and notify.
+	 */
+	void incrementStorage(JsonArray userIds, Long size, int threshold, Handler<Either<String, JsonArray>> handler);
+
 	void quotaAndUsage(String userId, Handler<Either<String, JsonObject>> handler);
 
 	void quotaAndUsageStructure(String structureId, Handler<Either<String, JsonObject>> handler);
@@ -16,6 +16,8 @@ import org.entcore.common.folders.ElementQuery.ElementSort;
 import org.entcore.common.folders.impl.InheritShareComputer.InheritShareResult;
 import org.entcore.common.service.impl.MongoDbSearchService;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 import org.entcore.common.utils.StringUtils;
 
 import com.mongodb.BasicDBObject;
@@ -60,6 +62,7 @@ class QueryHelper {
 		private boolean onlyDeleted;
 		private Integer skip;
 		private Integer limit;
+		private Deadline deadline;
 
 		public static DocumentQueryBuilder fromElementQuery(ElementQuery query, Optional<UserInfos> user) {
 			DocumentQueryBuilder builder = new DocumentQueryBuilder();
@@ -146,6 +149,10 @@ class QueryHelper {
 			if (query.getLimit() != null) {
 				builder.withSkipAndLimit(query.getSkip(), query.getLimit());
 			}
+			if (query.getAfter() != null) {
+				builder.withCursor(query.getAfter());
+			}
+			builder.deadline = query.getDeadline();
 			if (query.getOwnerIds() != null && query.getOwnerIds().size() > 0) {
 				builder.withOwnerIds(query.getOwnerIds());
 			}
@@ -193,6 +200,14 @@ class QueryHelper {
 			return this;
 		}
 
+		public DocumentQueryBuilder withCursor(Cursor after) {
+			builder.and(new QueryBuilder().or(//
+					QueryBuilder.start("modified").lessThan(after.getDate()).get(), //
+					QueryBuilder.start("modified").is(after.getDate()).and("_id").lessThan(after.getId()).get()).get()//
+			);
+			return this;
+		}
+
 		public DocumentQueryBuilder withProjection(String projection) {
 			mongoProjections = new JsonObject();
 			mongoProjections.put(projection, 1);
@@ -537,7 +552,7 @@ class QueryHelper {
 		}
 		//
 		JsonObject command = agg.getCommand();
-		mongo.aggregate(command, message -> {
+		mongo.aggregate(command, Deadline.wrap(query.deadline, "mongodb", message -> {
 			JsonObject body = message.body();
 			if (isOk(body)) {
 				future.complete(body.getJsonObject("result", new JsonObject()).getJsonObject("cursor", new JsonObject())
@@ -545,7 +560,7 @@ class QueryHelper {
 			} else {
 				future.fail(toErrorStr(body));
 			}
-		});
+		}));
 		return future;
 	}
 
@@ -616,14 +631,15 @@ class QueryHelper {
 			skip = query.skip;
 		}
 		JsonObject queries = toJson(query.build());
-		mongo.find(collection, queries, mongoSorts, projections, skip, limit, Integer.MAX_VALUE, message -> {
+		mongo.find(collection, queries, mongoSorts, projections, skip, limit, Integer.MAX_VALUE,
+				Deadline.wrap(query.deadline, "mongodb", message -> {
 			JsonObject body = message.body();
 			if (isOk(body)) {
 				future.complete(body.getJsonArray("results"));
 			} else {
 				future.fail(toErrorStr(body));
 			}
-		});
+		}));
 		return future;
 	}
 
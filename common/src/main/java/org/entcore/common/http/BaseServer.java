@@ -48,8 +48,10 @@ import org.entcore.common.sql.DB;
 import org.entcore.common.sql.Sql;
 import org.entcore.common.user.RepositoryEvents;
 import org.entcore.common.user.RepositoryHandler;
+import org.entcore.common.user.SessionCache;
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.utils.Config;
+import org.entcore.common.utils.Deadline;
 import org.entcore.common.utils.Zip;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -68,6 +70,7 @@ public abstract class BaseServer extends Server {
 	private String schema;
 	private String contentSecurityPolicy;
 	private AccessLogger accessLogger;
+	private AppOAuthResourceProvider oauthResourceProvider;
 
 	@Override
 	public void start() throws Exception {
@@ -85,6 +88,15 @@ public abstract class BaseServer extends Server {
 
 		String node = (String) vertx.sharedData().getLocalMap("server").get("node");
 
+		JsonObject sessionCacheConfig = config.getJsonObject("session-cache");
+		final Object sharedSessionCacheConfig = vertx.sharedData().getLocalMap("server").get("sessionCache");
+		if (sessionCacheConfig == null && sharedSessionCacheConfig instanceof JsonObject) {
+			sessionCacheConfig = (JsonObject) sharedSessionCacheConfig;
+		}
+		SessionCache.getInstance().init(vertx, sessionCacheConfig);
+		vertx.eventBus().localConsumer(Deadline.METRICS_ADDRESS + "." + this.getClass().getSimpleName(),
+				message -> message.reply(Deadline.timeoutCounters()));
+
 		contentSecurityPolicy = (String) vertx.sharedData().getLocalMap("server").get("contentSecurityPolicy");
 
 		repositoryHandler = new RepositoryHandler(getEventBus(vertx));
@@ -117,9 +129,34 @@ public abstract class BaseServer extends Server {
 
 	protected void initFilters() {
 		clearFilters();
+		Object requestTimeout = config.getValue("request-timeout");
+		if (requestTimeout == null) {
+			requestTimeout = vertx.sharedData().getLocalMap("server").get("requestTimeout");
+		}
+		if (requestTimeout instanceof Number && ((Number) requestTimeout).longValue() > 0) {
+			addFilter(new DeadlineFilter(((Number) requestTimeout).longValue()));
+		}
 		addFilter(new AccessLoggerFilter(accessLogger));
-		addFilter(new UserAuthFilter(new AppOAuthResourceProvider(
-				getEventBus(vertx), getPathPrefix(config)), new BasicFilter()));
+		JsonObject oauthStatsConfig = config.getJsonObject("oauth-stats");
+		final Object sharedOAuthStatsConfig = vertx.sharedData().getLocalMap("server").get("oauthStats");
+		if (oauthStatsConfig == null && sharedOAuthStatsConfig instanceof JsonObject) {
+			oauthStatsConfig = (JsonObject) sharedOAuthStatsConfig;
+		}
+		if (oauthResourceProvider != null) {
+			oauthResourceProvider.close();
+		}
+		oauthResourceProvider = new AppOAuthResourceProvider(vertx,
+				getEventBus(vertx), getPathPrefix(config), oauthStatsConfig);
+		addFilter(new UserAuthFilter(oauthResourceProvider, new BasicFilter()));
+	}
+
+	@Override
+	public void stop() throws Exception {
+		if (oauthResourceProvider != null) {
+			oauthResourceProvider.close();
+			oauthResourceProvider = null;
+		}
+		super.stop();
 	}
 
 	@Override
@@ -156,10 +193,10 @@ public abstract class BaseServer extends Server {
 	protected void initModulesHelpers(String node) {
 		if (config.getBoolean("neo4j", true)) {
 			if (config.getJsonObject("neo4jConfig") != null) {
-				Neo4j.getInstance().init(vertx, config.getJsonObject("neo4jConfig"));
+				Neo4j.getInstance().init(vertx, config.getJsonObject("neo4jConfig"), this.getClass().getSimpleName());
 			} else {
 				String neo4jConfig = (String) vertx.sharedData().getLocalMap("server").get("neo4jConfig");
-				Neo4j.getInstance().init(vertx, new JsonObject(neo4jConfig));
+				Neo4j.getInstance().init(vertx, new JsonObject(neo4jConfig), this.getClass().getSimpleName());
 			}
 			Neo4jUtils.loadScripts(this.getClass().getSimpleName(), vertx,
 					FileResolver.absolutePath(config.getString("neo4j-init-scripts", "neo4j")));
@@ -28,7 +28,6 @@ import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerRequest;
-import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.io.UnsupportedEncodingException;
@@ -36,7 +35,6 @@ import java.net.URLEncoder;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
-import java.util.regex.Matcher;
 
 import static fr.wseduc.webutils.Utils.getOrElse;
 import static org.entcore.common.utils.StringUtils.isEmpty;
@@ -48,6 +46,7 @@ public abstract class AbstractActionFilter implements Filter {
 	protected static final List<String> authorizationTypes = Arrays.asList("Basic", "Bearer");
 	protected final Set<Binding> bindings;
 	protected final ResourcesProvider provider;
+	private volatile RouteTable routeTable;
 
 	public AbstractActionFilter(Set<Binding> bindings, ResourcesProvider provider) {
 		this.bindings = bindings;
@@ -60,7 +59,7 @@ public abstract class AbstractActionFilter implements Filter {
 
 		Binding binding = requestBinding(request);
 		if (ActionType.WORKFLOW.equals(binding.getActionType())) {
-			authorizeWorkflowAction(session, binding, handler);
+			authorizeWorkflowAction(request, session, binding, handler);
 		} else if (ActionType.RESOURCE.equals(binding.getActionType())) {
 			authorizeResourceAction(request, session, binding, handler);
 		} else if (ActionType.AUTHENTICATED.equals(binding.getActionType())) {
@@ -87,7 +86,7 @@ public abstract class AbstractActionFilter implements Filter {
 
 	private void authorizeResourceAction(HttpServerRequest request, JsonObject session,
 										 Binding binding, Handler<Boolean> handler) {
-		UserInfos user = UserUtils.sessionToUserInfos(session);
+		UserInfos user = UserUtils.sessionToUserInfos(request, session);
 		if (user != null && provider != null) {
 			provider.authorize(request, binding, user, handler);
 		} else {
@@ -95,17 +94,13 @@ public abstract class AbstractActionFilter implements Filter {
 		}
 	}
 
-	private void authorizeWorkflowAction(JsonObject session, Binding binding,
+	private void authorizeWorkflowAction(HttpServerRequest request, JsonObject session, Binding binding,
 										 Handler<Boolean> handler) {
-		JsonArray actions = session.getJsonArray("authorizedActions");
-		if (binding != null && binding.getServiceMethod() != null
-				&& actions != null && actions.size() > 0) {
-			for (Object a: actions) {
-				JsonObject action = (JsonObject) a;
-				if (binding.getServiceMethod().equals(action.getString("name"))) {
-					handler.handle(true);
-					return;
-				}
+		if (binding != null && binding.getServiceMethod() != null) {
+			final UserInfos user = UserUtils.sessionToUserInfos(request, session);
+			if (user != null && user.hasAction(binding.getServiceMethod())) {
+				handler.handle(true);
+				return;
 			}
 		}
 		if (session.getJsonObject("functions", new JsonObject()).containsKey("SUPER_ADMIN")) {
@@ -116,16 +111,12 @@ public abstract class AbstractActionFilter implements Filter {
 	}
 
 	private Binding requestBinding(HttpServerRequest request) {
-		for (Binding binding: bindings) {
-			if (!request.method().name().equals(binding.getMethod().name())) {
-				continue;
-			}
-			Matcher m = binding.getUriPattern().matcher(request.path());
-			if (m.matches()) {
-				return binding;
-			}
+		RouteTable routes = routeTable;
+		if (routes == null || routes.isStale(bindings)) {
+			routes = RouteTable.of(bindings);
+			routeTable = routes;
 		}
-		return null;
+		return routes.match(request);
 	}
 
 	protected void clientIsAuthorizedByScope(SecureHttpServerRequest request, Handler<Boolean> handler) {
@@ -24,6 +24,7 @@ import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.StatementsBuilder;
 import org.entcore.common.user.DefaultFunctions;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
@@ -60,7 +61,7 @@ public abstract class AdmlResourcesProvider implements ResourcesProvider {
 	protected void validateQuery(final HttpServerRequest request, final Handler<Boolean> handler,
 			String query, JsonObject params) {
 		request.pause();
-		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
+		neo4j.execute(query, params, Deadline.of(request), new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> r) {
 				request.resume();
@@ -77,7 +78,7 @@ public abstract class AdmlResourcesProvider implements ResourcesProvider {
 			StatementsBuilder statementsBuilder) {
 		request.pause();
 		final JsonArray statements = statementsBuilder.build();
-		neo4j.executeTransaction(statements, null, true, new Handler<Message<JsonObject>>() {
+		neo4j.executeTransaction(statements, null, true, Deadline.of(request), new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> r) {
 				request.resume();
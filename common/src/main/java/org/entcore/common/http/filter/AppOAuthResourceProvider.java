@@ -21,8 +21,12 @@ package org.entcore.common.http.filter;
 
 import fr.wseduc.webutils.security.SecureHttpServerRequest;
 import fr.wseduc.webutils.security.oauth.DefaultOAuthResourceProvider;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 import org.entcore.common.events.EventStore;
 import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.user.UserInfos;
@@ -34,14 +38,58 @@ import static org.entcore.common.aggregation.MongoConstants.TRACE_TYPE_OAUTH;
 
 public class AppOAuthResourceProvider extends DefaultOAuthResourceProvider {
 
+	private static final Logger log = LoggerFactory.getLogger(AppOAuthResourceProvider.class);
 	private final Pattern prefixPattern;
 	private final EventStore eventStore;
+	private final Vertx vertx;
+	private final StatsMode statsMode;
+	private final int maxBufferSize;
+	private final long flushTimer;
+	private JsonArray eventsBuffer = new fr.wseduc.webutils.collections.JsonArray();
+
+	private enum StatsMode { EVENT, BATCH }
 
 	public AppOAuthResourceProvider(EventBus eb, String prefix) {
+		this(null, eb, prefix, null);
+	}
+
+	/**
+	 * @param statsConfig "mode" : "event" (one event stored per request, default) or "batch" (the same events
+	 *                    buffered and stored with one bulk write), "flush-interval" and "max-buffer-size".
+	 */
+	public AppOAuthResourceProvider(Vertx vertx, EventBus eb, String prefix, JsonObject statsConfig) {
 		super(eb);
 		final String p = prefix.isEmpty() ? "portal" : prefix.substring(1);
 		prefixPattern = Pattern.compile("(^|\\s)" + p + "(\\s|$)");
 		eventStore = EventStoreFactory.getFactory().getEventStore(p);
+		this.vertx = vertx;
+		StatsMode mode = StatsMode.EVENT;
+		if (vertx != null && statsConfig != null) {
+			final String m = statsConfig.getString("mode", "event");
+			try {
+				mode = StatsMode.valueOf(m.toUpperCase());
+			} catch (IllegalArgumentException e) {
+				log.warn("Invalid oauth-stats mode : " + m + ", events are stored one by one.");
+			}
+		}
+		statsMode = mode;
+		if (statsMode == StatsMode.BATCH) {
+			maxBufferSize = statsConfig.getInteger("max-buffer-size", 1000);
+			flushTimer = vertx.setPeriodic(statsConfig.getLong("flush-interval", 10000L), h -> flushStatsEvents());
+		} else {
+			maxBufferSize = 0;
+			flushTimer = -1;
+		}
+	}
+
+	/**
+	 * Stops the periodic flush and stores the buffered events.
+	 */
+	public void close() {
+		if (flushTimer >= 0) {
+			vertx.cancelTimer(flushTimer);
+		}
+		flushStatsEvents();
 	}
 
 	@Override
@@ -59,10 +107,28 @@ public class AppOAuthResourceProvider extends DefaultOAuthResourceProvider {
 	}
 
 	private void createStatsEvent(SecureHttpServerRequest request) {
-		UserInfos user = new UserInfos();
-		user.setUserId(request.getAttribute("remote_user"));
-		eventStore.createAndStoreEvent(TRACE_TYPE_OAUTH, user, new JsonObject()
-				.put("path", request.path()).put("override-module", request.getAttribute("client_id")));
+		final String userId = request.getAttribute("remote_user");
+		final String clientId = request.getAttribute("client_id");
+		if (statsMode == StatsMode.BATCH) {
+			eventsBuffer.add(new JsonObject().put("userId", userId).put("path", request.path())
+					.put("override-module", clientId).put("date", System.currentTimeMillis()));
+			if (eventsBuffer.size() >= maxBufferSize) {
+				flushStatsEvents();
+			}
+		} else {
+			UserInfos user = new UserInfos();
+			user.setUserId(userId);
+			eventStore.createAndStoreEvent(TRACE_TYPE_OAUTH, user, new JsonObject()
+					.put("path", request.path()).put("override-module", clientId));
+		}
+	}
+
+	private void flushStatsEvents() {
+		final JsonArray events = eventsBuffer;
+		if (events.size() > 0) {
+			eventsBuffer = new fr.wseduc.webutils.collections.JsonArray();
+			eventStore.createAndStoreEvents(TRACE_TYPE_OAUTH, events);
+		}
 	}
 
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.http.filter;
+
+import fr.wseduc.webutils.request.filter.Filter;
+import fr.wseduc.webutils.security.SecureHttpServerRequest;
+import io.vertx.core.Handler;
+import io.vertx.core.http.HttpServerRequest;
+import org.entcore.common.utils.Deadline;
+
+public class DeadlineFilter implements Filter {
+
+	private final long requestTimeout;
+
+	public DeadlineFilter(long requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+
+	@Override
+	public void canAccess(HttpServerRequest request, Handler<Boolean> handler) {
+		if (request instanceof SecureHttpServerRequest) {
+			Deadline.setDeadline((SecureHttpServerRequest) request, requestTimeout);
+		}
+		handler.handle(true);
+	}
+
+	@Override
+	public void deny(HttpServerRequest request) {
+	}
+
+}
@@ -24,6 +24,7 @@ import com.mongodb.QueryBuilder;
 import fr.wseduc.mongodb.MongoDb;
 import fr.wseduc.mongodb.MongoQueryBuilder;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
@@ -91,7 +92,7 @@ public class MongoAppFilter extends BaseResourceProvider {
 			JsonObject query, final int expectedCountResult, final Handler<Boolean> handler) {
 		request.pause();
 		MongoDb mongo = MongoDb.getInstance();
-		mongo.count(collection, query, new Handler<Message<JsonObject>>() {
+		mongo.count(collection, query, Deadline.wrap(request, "mongodb", new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
 				request.resume();
@@ -102,7 +103,7 @@ public class MongoAppFilter extends BaseResourceProvider {
 								expectedCountResult == res.getInteger("count")
 				);
 			}
-		});
+		}));
 	}
 
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.http.filter;
+
+import fr.wseduc.webutils.http.Binding;
+import io.vertx.core.http.HttpServerRequest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Lookup of the binding of a request, built from the bindings of the module.
+ * Bindings without parameters are found with a hash lookup on method and path. The others are
+ * stored in a per method tree of their leading static path segments and only the bindings of the
+ * nodes along the request path are matched with their pattern, the deepest nodes first.
+ * Tables are shared by the filters using the same set of bindings and rebuilt when bindings are added.
+ */
+public final class RouteTable {
+
+	private static final Pattern REGEX_CHARS = Pattern.compile("[\\\\^$.|?*+()\\[\\]{}]");
+	private static final Map<Set<Binding>, RouteTable> tables = new IdentityHashMap<>();
+
+	private final int size;
+	private final Map<String, Binding> staticRoutes = new HashMap<>();
+	private final Map<String, Node> roots = new HashMap<>();
+
+	private static final class Node {
+		private final Map<String, Node> children = new HashMap<>();
+		private final List<Binding> bindings = new ArrayList<>();
+	}
+
+	private RouteTable(Set<Binding> bindings) {
+		this.size = bindings.size();
+		for (Binding binding : bindings) {
+			if (binding == null || binding.getMethod() == null || binding.getUriPattern() == null) {
+				continue;
+			}
+			add(binding);
+		}
+	}
+
+	public static RouteTable of(Set<Binding> bindings) {
+		synchronized (tables) {
+			RouteTable table = tables.get(bindings);
+			if (table == null || table.size != bindings.size()) {
+				table = new RouteTable(bindings);
+				tables.put(bindings, table);
+			}
+			return table;
+		}
+	}
+
+	public boolean isStale(Set<Binding> bindings) {
+		return size != bindings.size();
+	}
+
+	public Binding match(HttpServerRequest request) {
+		return match(request.method().name(), request.path());
+	}
+
+	public Binding match(String method, String path) {
+		final Binding exact = staticRoutes.get(method + " " + path);
+		if (exact != null) {
+			return exact;
+		}
+		Node node = roots.get(method);
+		if (node == null) {
+			return null;
+		}
+		final List<Node> nodes = new ArrayList<>();
+		nodes.add(node);
+		for (String segment : segments(path)) {
+			node = node.children.get(segment);
+			if (node == null) {
+				break;
+			}
+			nodes.add(node);
+		}
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			for (Binding binding : nodes.get(i).bindings) {
+				if (binding.getUriPattern().matcher(path).matches()) {
+					return binding;
+				}
+			}
+		}
+		return null;
+	}
+
+	private void add(Binding binding) {
+		final String method = binding.getMethod().name();
+		String pattern = binding.getUriPattern().pattern();
+		if (pattern.startsWith("^")) {
+			pattern = pattern.substring(1);
+		}
+		if (pattern.endsWith("$") && !pattern.endsWith("\\$")) {
+			pattern = pattern.substring(0, pattern.length() - 1);
+		}
+		if (pattern.startsWith("\\Q") && pattern.endsWith("\\E") && !pattern.substring(2, pattern.length() - 2).contains("\\E")) {
+			staticRoutes.putIfAbsent(method + " " + pattern.substring(2, pattern.length() - 2), binding);
+			return;
+		}
+		if (!REGEX_CHARS.matcher(pattern).find()) {
+			staticRoutes.putIfAbsent(method + " " + pattern, binding);
+			return;
+		}
+		Node node = roots.computeIfAbsent(method, k -> new Node());
+		if (pattern.indexOf('|') >= 0) {
+			node.bindings.add(binding);
+			return;
+		}
+		final String[] segments = segments(pattern);
+		// the last segment is never used as a static key : it may be followed by a regex suffix
+		for (int i = 0; i < segments.length - 1; i++) {
+			if (REGEX_CHARS.matcher(segments[i]).find()) {
+				break;
+			}
+			node = node.children.computeIfAbsent(segments[i], k -> new Node());
+		}
+		node.bindings.add(binding);
+	}
+
+	private static String[] segments(String path) {
+		final String p = path.startsWith("/") ? path.substring(1) : path;
+		return p.isEmpty() ? new String[0] : p.split("/", -1);
+	}
+
+}
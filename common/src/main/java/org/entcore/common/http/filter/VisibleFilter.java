@@ -29,6 +29,8 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserUtils;
+import org.entcore.common.utils.Deadline;
 
 public class VisibleFilter implements ResourcesProvider {
 
@@ -45,10 +47,18 @@ public class VisibleFilter implements ResourcesProvider {
 			handler.handle(false);
 			return;
 		}
-		neo4j.execute(query, new JsonObject().put("queryUserId", user.getUserId()).put("userId", userId), event -> {
-			final JsonArray res = event.body().getJsonArray("result");
-			handler.handle("ok".equals(event.body().getString("status")) && res != null && res.size() == 1 &&
-					res.getJsonObject(0).getBoolean("exists", false));
+		UserUtils.filterVisibleUsers(neo4j.getEventBus(), user.getUserId(),
+				new fr.wseduc.webutils.collections.JsonArray().add(userId), false, visibles -> {
+			if (visibles != null) {
+				handler.handle(visibles.contains(userId));
+				return;
+			}
+			neo4j.execute(query, new JsonObject().put("queryUserId", user.getUserId()).put("userId", userId),
+					Deadline.of(request), event -> {
+				final JsonArray res = event.body().getJsonArray("result");
+				handler.handle("ok".equals(event.body().getString("status")) && res != null && res.size() == 1 &&
+						res.getJsonObject(0).getBoolean("exists", false));
+			});
 		});
 	}
 
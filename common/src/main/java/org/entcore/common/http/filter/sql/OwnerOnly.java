@@ -26,6 +26,7 @@ import org.entcore.common.sql.SqlConf;
 import org.entcore.common.sql.SqlConfs;
 import org.entcore.common.sql.SqlResult;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
@@ -45,7 +46,7 @@ public class OwnerOnly implements ResourcesProvider {
 					"SELECT count(*) FROM " + conf.getSchema() + conf.getTable() +
 					" WHERE id = ? AND owner = ?";
 			JsonArray values = new fr.wseduc.webutils.collections.JsonArray().add(Sql.parseId(id)).add(user.getUserId());
-			Sql.getInstance().prepared(query, values, new Handler<Message<JsonObject>>() {
+			Sql.getInstance().prepared(query, values, Deadline.of(request), new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> message) {
 					request.resume();
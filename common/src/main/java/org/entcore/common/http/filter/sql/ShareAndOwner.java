@@ -26,6 +26,7 @@ import org.entcore.common.sql.SqlConf;
 import org.entcore.common.sql.SqlConfs;
 import org.entcore.common.sql.SqlResult;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
@@ -58,7 +59,7 @@ public class ShareAndOwner implements ResourcesProvider {
 					"OR owner = ?) AND id = ?";
 			JsonArray values = new fr.wseduc.webutils.collections.JsonArray(gu).add(sharedMethod)
 					.add(user.getUserId()).add(Sql.parseId(id));
-			Sql.getInstance().prepared(query, values, new Handler<Message<JsonObject>>() {
+			Sql.getInstance().prepared(query, values, Deadline.of(request), new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> message) {
 					request.resume();
@@ -44,17 +44,17 @@ public class ActionsUtils {
 			public void handle(UserInfos user) {
 				JsonObject actions = new JsonObject();
 				if (user != null) {
-					for (UserInfos.Action action : user.getAuthorizedActions()) {
-						if (bindings.containsKey(action.getName())) {
+					for (Map.Entry<String, Set<Binding>> e : bindings.entrySet()) {
+						if (user.hasAction(e.getKey())) {
 							JsonArray b = new fr.wseduc.webutils.collections.JsonArray();
-							for (Binding binding: bindings.get(action.getName())) {
+							for (Binding binding: e.getValue()) {
 								b.add(new JsonObject()
 										.put("verb", binding.getMethod().name())
 										.put("path", binding.getUriPattern().pattern())
 										.put("type", binding.getActionType().name())
 								);
 							}
-							actions.put(action.getName(), b);
+							actions.put(e.getKey(), b);
 						}
 					}
 				}
@@ -27,11 +27,24 @@ public interface GraphDatabase {
 
 	void execute(String query, JsonObject params, Handler<JsonObject> handler);
 
+	void execute(String query, JsonObject params, boolean readOnly, Handler<JsonObject> handler);
+
+	void execute(String query, JsonObject params, boolean readOnly, long timeout, Handler<JsonObject> handler);
+
+	void stream(String query, JsonObject params, Neo4jRowStream stream);
+
+	void stream(String query, JsonObject params, boolean readOnly, Neo4jRowStream stream);
+
 	void executeBatch(JsonArray queries, Handler<JsonObject> handler);
 
 	void executeTransaction(JsonArray statements, Integer transactionId,
 							boolean commit, Handler<JsonObject> handler);
 
+	void executeTransaction(JsonArray statements, Integer transactionId,
+							boolean commit, long timeout, Handler<JsonObject> handler);
+
+	void executeReadOnlyTransaction(JsonArray statements, Handler<JsonObject> handler);
+
 	void resetTransactionTimeout(int transactionId, Handler<JsonObject> handler);
 
 	void rollbackTransaction(int transactionId, Handler<JsonObject> handler);
@@ -21,6 +21,10 @@ package org.entcore.common.neo4j;
 
 import fr.wseduc.webutils.Server;
 import fr.wseduc.webutils.eventbus.ResultMessage;
+import org.entcore.common.bus.ErrorMessage;
+import org.entcore.common.utils.Deadline;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.EventBus;
@@ -30,14 +34,18 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
 
 import java.net.URI;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class Neo4j {
 
 	private EventBus eb;
+	private Vertx vertx;
 	private GraphDatabase database;
+	private Neo4jMetrics metrics;
 	private static final Logger log = LoggerFactory.getLogger(Neo4j.class);
 
 	private Neo4j() {}
@@ -59,20 +67,30 @@ public class Neo4j {
 	}
 
 	public void init(Vertx vertx, JsonObject config) {
+		init(vertx, config, null);
+	}
+
+	/**
+	 * @param module name of the module, its queries metrics are shared by all its Neo4j instances
+	 */
+	public void init(Vertx vertx, JsonObject config, String module) {
 		this.eb = Server.getEventBus(vertx);
+		this.vertx = vertx;
+		this.metrics = Neo4jMetrics.getInstance(vertx, config.getJsonObject("metrics", new JsonObject()), module);
 		JsonArray serverUris = config.getJsonArray("server-uris");
 		String serverUri = config.getString("server-uri");
 		if (serverUris == null && serverUri != null) {
 			serverUris = new fr.wseduc.webutils.collections.JsonArray().add(serverUri);
 		}
 
+		GraphDatabase rest = null;
 		if (serverUris != null) {
 			try {
 				URI[] uris = new URI[serverUris.size()];
 				for (int i = 0; i < serverUris.size(); i++) {
 					uris[i] = new URI(serverUris.getString(i));
 				}
-				database = new Neo4jRest(uris, config.getBoolean("slave-readonly", false), vertx,
+				rest = new Neo4jRest(uris, config.getBoolean("slave-readonly", false), vertx,
 						config.getLong("checkDelay", 3000l),
 						config.getInteger("poolSize", 16),
 						config.getBoolean("keepAlive", true),
@@ -80,19 +98,69 @@ public class Neo4j {
 			} catch (Exception e) {
 				log.error(e.getMessage(), e);
 			}
+		}
+		if ("bolt".equals(config.getString("driver")) && config.getString("bolt-uri") != null) {
+			try {
+				database = Neo4jBolt.create(vertx, config, rest);
+			} catch (Exception e) {
+				log.error(e.getMessage(), e);
+			}
+		} else if (rest != null) {
+			database = rest;
 		} else {
 			log.error("Invalid Neo4j URI");
 		}
 	}
 
 	public void execute(String query, JsonObject params, Handler<Message<JsonObject>> handler) {
-		database.execute(query, params, resultHandler(handler));
+		database.execute(query, params, resultHandler(handler, query, params));
 	}
 
 	public void execute(String query, Map<String,Object> params, Handler<Message<JsonObject>> handler) {
 		execute(query, params != null ? new JsonObject(params) : null, handler);
 	}
 
+	/**
+	 * Execute a query which doesn't write, it may be routed to a slave when slave-readonly is enabled.
+	 */
+	public void executeReadOnly(String query, JsonObject params, Handler<Message<JsonObject>> handler) {
+		database.execute(query, params, true, resultHandler(handler, query, params));
+	}
+
+	public void executeReadOnly(String query, Map<String,Object> params, Handler<Message<JsonObject>> handler) {
+		executeReadOnly(query, params != null ? new JsonObject(params) : null, handler);
+	}
+
+	/**
+	 * Execute a query which is abandoned, and its connection released, when the deadline passes.
+	 * A null deadline means no deadline.
+	 */
+	public void execute(String query, JsonObject params, Deadline deadline, Handler<Message<JsonObject>> handler) {
+		execute(query, params, false, deadline, handler);
+	}
+
+	public void executeReadOnly(String query, JsonObject params, Deadline deadline,
+			Handler<Message<JsonObject>> handler) {
+		execute(query, params, true, deadline, handler);
+	}
+
+	private void execute(String query, JsonObject params, boolean readOnly, Deadline deadline,
+			Handler<Message<JsonObject>> handler) {
+		if (deadline == null) {
+			if (readOnly) {
+				executeReadOnly(query, params, handler);
+			} else {
+				execute(query, params, handler);
+			}
+		} else if (deadline.isExpired()) {
+			Deadline.timeout("neo4j");
+			handler.handle(new ErrorMessage(Deadline.ERROR));
+		} else {
+			database.execute(query, params, readOnly, deadline.remaining(),
+					resultHandler(handler, query, params));
+		}
+	}
+
 	public void execute(String query, Map<String,Object> params, final HttpServerResponse response) {
 		execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
@@ -113,8 +181,74 @@ public class Neo4j {
 		});
 	}
 
+	/**
+	 * Execute a query and read its rows as they are received, with back-pressure.
+	 * The rows are queued until a handler is set on the returned stream.
+	 */
+	public ReadStream<JsonObject> stream(String query, JsonObject params) {
+		final Neo4jRowStream stream = new Neo4jRowStream(vertx.getOrCreateContext());
+		database.stream(query, params, stream);
+		return stream;
+	}
+
+	public ReadStream<JsonObject> streamReadOnly(String query, JsonObject params) {
+		final Neo4jRowStream stream = new Neo4jRowStream(vertx.getOrCreateContext());
+		database.stream(query, params, true, stream);
+		return stream;
+	}
+
+	public void stream(String query, JsonObject params, Handler<JsonObject> rowHandler,
+			final Handler<AsyncResult<Void>> endHandler) {
+		stream(query, params)
+				.exceptionHandler(e -> {
+					log.error("Neo4j stream error : " + e.getMessage(), e);
+					endHandler.handle(Future.failedFuture(e));
+				})
+				.endHandler(v -> endHandler.handle(Future.succeededFuture()))
+				.handler(rowHandler);
+	}
+
+	/**
+	 * Write the rows of the query in the response as a json array without loading them in memory.
+	 */
+	public void stream(String query, JsonObject params, final HttpServerResponse response) {
+		final ReadStream<JsonObject> stream = stream(query, params);
+		final AtomicBoolean first = new AtomicBoolean(true);
+		stream.exceptionHandler(e -> {
+			log.error("Neo4j stream error : " + e.getMessage(), e);
+			if (first.get()) {
+				response.setStatusCode(500).putHeader("Content-Type", "application/json")
+						.end(new JsonObject().put("status", "error").put("message", e.getMessage()).encode());
+			} else {
+				response.close();
+			}
+		});
+		stream.endHandler(v -> {
+			if (first.getAndSet(false)) {
+				response.putHeader("Content-Type", "application/json").end("[]");
+			} else {
+				response.end("]");
+			}
+		});
+		stream.handler(row -> {
+			if (first.getAndSet(false)) {
+				response.setChunked(true).putHeader("Content-Type", "application/json");
+				response.write("[" + row.encode());
+			} else {
+				response.write("," + row.encode());
+			}
+			if (response.writeQueueFull()) {
+				stream.pause();
+				response.drainHandler(d -> stream.resume());
+			}
+		});
+	}
+
 	public void executeBatch(JsonArray queries, final Handler<Message<JsonObject>> handler) {
-		database.executeBatch(queries, resultHandler(handler));
+		final JsonObject first = (queries != null && queries.size() > 0) ? queries.getJsonObject(0) : null;
+		database.executeBatch(queries, resultHandler(handler, (first != null) ?
+				"BATCH[" + queries.size() + "] " + first.getString("query") : null,
+				(first != null) ? first.getJsonObject("params") : null));
 	}
 
 	public void executeBatch(JsonArray queries, final HttpServerResponse response) {
@@ -127,9 +261,46 @@ public class Neo4j {
 		});
 	}
 
+	/**
+	 * Execute the statements in a transaction abandoned when the deadline passes. If the transaction
+	 * is an open transaction, it is rolled back, a new transaction as soon as its id is received.
+	 */
+	public void executeTransaction(JsonArray statements, Integer transactionId, boolean commit,
+			Deadline deadline, Handler<Message<JsonObject>> handler) {
+		if (deadline == null) {
+			executeTransaction(statements, transactionId, commit, handler);
+			return;
+		}
+		if (deadline.isExpired()) {
+			Deadline.timeout("neo4j");
+			if (transactionId != null) {
+				rollbackTransaction(transactionId, null);
+			}
+			handler.handle(new ErrorMessage(Deadline.ERROR));
+			return;
+		}
+		final JsonObject first = (statements != null && statements.size() > 0) ? statements.getJsonObject(0) : null;
+		database.executeTransaction(statements, transactionId, commit, deadline.remaining(), resultHandler(handler,
+				(first != null) ? "TX[" + statements.size() + "] " + first.getString("statement") : null,
+				(first != null) ? first.getJsonObject("parameters") : null));
+	}
+
 	public void executeTransaction(JsonArray statements, Integer transactionId, boolean commit,
 			Handler<Message<JsonObject>> handler) {
-		database.executeTransaction(statements, transactionId, commit, resultHandler(handler));
+		final JsonObject first = (statements != null && statements.size() > 0) ? statements.getJsonObject(0) : null;
+		database.executeTransaction(statements, transactionId, commit, resultHandler(handler, (first != null) ?
+				"TX[" + statements.size() + "] " + first.getString("statement") : null,
+				(first != null) ? first.getJsonObject("parameters") : null));
+	}
+
+	/**
+	 * Execute read statements in one committed transaction, sent to a slave if slave-readonly is enabled.
+	 */
+	public void executeReadOnlyTransaction(JsonArray statements, Handler<Message<JsonObject>> handler) {
+		final JsonObject first = (statements != null && statements.size() > 0) ? statements.getJsonObject(0) : null;
+		database.executeReadOnlyTransaction(statements, resultHandler(handler, (first != null) ?
+				"TX[" + statements.size() + "] " + first.getString("statement") : null,
+				(first != null) ? first.getJsonObject("parameters") : null));
 	}
 
 	public void resetTransactionTimeout(int transactionId, Handler<Message<JsonObject>> handler) {
@@ -148,11 +319,26 @@ public class Neo4j {
 		return eb;
 	}
 
+	public Neo4jMetrics getMetrics() {
+		return metrics;
+	}
+
 	private Handler<JsonObject> resultHandler(final Handler<Message<JsonObject>> m) {
+		return resultHandler(m, null, null);
+	}
+
+	private Handler<JsonObject> resultHandler(final Handler<Message<JsonObject>> m, final String query,
+			final JsonObject params) {
+		final long start = (query != null && metrics != null && metrics.isEnabled()) ? System.currentTimeMillis() : -1;
 		return new Handler<JsonObject>() {
 
 			@Override
 			public void handle(JsonObject res) {
+				final Object responseSize = res.remove("responseSize");
+				if (start >= 0) {
+					metrics.record(query, params, System.currentTimeMillis() - start, countRows(res),
+							(responseSize instanceof Integer) ? (Integer) responseSize : 0, res.getString("message") != null);
+				}
 				if (res.getString("message") != null) {
 					log.error(res.getString("exception") + " : " + res.getString("message"));
 					res.put("status", "error");
@@ -164,4 +350,23 @@ public class Neo4j {
 		};
 	}
 
+	private static int countRows(JsonObject res) {
+		final JsonArray result = res.getJsonArray("result");
+		if (result != null) {
+			return result.size();
+		}
+		int rows = 0;
+		final JsonArray results = res.getJsonArray("results");
+		if (results != null) {
+			for (Object o : results) {
+				if (o instanceof JsonArray) {
+					rows += ((JsonArray) o).size();
+				} else if (o instanceof JsonObject && ((JsonObject) o).getJsonArray("result") != null) {
+					rows += ((JsonObject) o).getJsonArray("result").size();
+				}
+			}
+		}
+		return rows;
+	}
+
 }
\ No newline at end of file
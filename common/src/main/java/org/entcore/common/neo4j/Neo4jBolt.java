@@ -0,0 +1,482 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.neo4j;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.utils.Deadline;
+import org.neo4j.driver.v1.AccessMode;
+import org.neo4j.driver.v1.AuthTokens;
+import org.neo4j.driver.v1.Config;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResultCursor;
+import org.neo4j.driver.v1.Transaction;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.exceptions.Neo4jException;
+import org.neo4j.driver.v1.types.Entity;
+import org.neo4j.driver.v1.types.Node;
+import org.neo4j.driver.v1.types.Path;
+import org.neo4j.driver.v1.types.Relationship;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * GraphDatabase implementation using the Bolt protocol with the asynchronous java driver.
+ * Records are converted to json while they are streamed from the server. Results keep the
+ * representation of the REST implementation : nodes and relationships returned by execute and
+ * executeBatch are wrapped in a "data" object as with the legacy cypher endpoint.
+ */
+public class Neo4jBolt implements GraphDatabase {
+
+	private static final Logger logger = LoggerFactory.getLogger(Neo4jBolt.class);
+	private static final Pattern writingClausesPattern = Pattern.compile(
+			"(\\s+set\\s+|create\\s+|merge\\s+|delete\\s+|remove\\s+|foreach)", Pattern.CASE_INSENSITIVE);
+	private final Vertx vertx;
+	private final Driver driver;
+	private final boolean ro;
+	private final long transactionTimeout;
+	private final GraphDatabase restDelegate;
+	private boolean detectReadQueries = true;
+	private final AtomicInteger transactionIds = new AtomicInteger();
+	private final Map<Integer, OpenTransaction> transactions = new ConcurrentHashMap<>();
+
+	private static final class OpenTransaction {
+		private final Session session;
+		private final Transaction transaction;
+		private long timerId;
+
+		private OpenTransaction(Session session, Transaction transaction) {
+			this.session = session;
+			this.transaction = transaction;
+		}
+	}
+
+	public Neo4jBolt(Vertx vertx, Driver driver, boolean ro, long transactionTimeout, GraphDatabase restDelegate) {
+		this.vertx = vertx;
+		this.driver = driver;
+		this.ro = ro;
+		this.transactionTimeout = transactionTimeout;
+		this.restDelegate = restDelegate;
+	}
+
+	public static Neo4jBolt create(Vertx vertx, JsonObject neo4jConfig, GraphDatabase restDelegate) {
+		final Config config = Config.build()
+				.withMaxConnectionPoolSize(neo4jConfig.getInteger("poolSize", 16))
+				.withConnectionTimeout(neo4jConfig.getLong("connection-timeout", 5000L), TimeUnit.MILLISECONDS)
+				.withoutEncryption()
+				.toConfig();
+		final String username = neo4jConfig.getString("username");
+		final Driver driver = org.neo4j.driver.v1.GraphDatabase.driver(neo4jConfig.getString("bolt-uri"),
+				(username != null) ? AuthTokens.basic(username, neo4jConfig.getString("password")) : AuthTokens.none(),
+				config);
+		final Neo4jBolt bolt = new Neo4jBolt(vertx, driver, neo4jConfig.getBoolean("slave-readonly", false),
+				neo4jConfig.getLong("transaction-timeout", 60000L), restDelegate);
+		bolt.detectReadQueries = neo4jConfig.getBoolean("detect-read-queries", true);
+		return bolt;
+	}
+
+	@Override
+	public void execute(String query, JsonObject params, final Handler<JsonObject> handler) {
+		execute(query, params, isReadQuery(query), handler);
+	}
+
+	@Override
+	public void execute(String query, JsonObject params, boolean readOnly, final Handler<JsonObject> handler) {
+		execute(query, params, readOnly, 0L, handler);
+	}
+
+	@Override
+	public void execute(String query, JsonObject params, boolean readOnly, long timeout,
+			final Handler<JsonObject> handler) {
+		final Context context = vertx.getOrCreateContext();
+		final Session session = driver.session((ro && readOnly) ? AccessMode.READ : AccessMode.WRITE);
+		final Handler<JsonObject> h = deadlineHandler(timeout, handler, session::closeAsync);
+		final JsonArray result = new fr.wseduc.webutils.collections.JsonArray();
+		session.runAsync(query, toParameters(params))
+				.thenCompose(cursor -> cursor.forEachAsync(record -> result.add(toJson(record, true))))
+				.whenComplete((summary, error) -> session.closeAsync())
+				.whenComplete((summary, error) -> context.runOnContext(v -> {
+					if (error != null) {
+						h.handle(errorToJson(error));
+					} else {
+						h.handle(new JsonObject().put("result", result));
+					}
+				}));
+	}
+
+	/**
+	 * The driver can't cancel a running statement : when the timeout expires, the session is closed,
+	 * which resets the connection and rolls back its transaction, and the handler gets a
+	 * deadline.exceeded error.
+	 */
+	private Handler<JsonObject> deadlineHandler(long timeout, final Handler<JsonObject> handler,
+			final Runnable onTimeout) {
+		if (timeout <= 0) {
+			return handler;
+		}
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final long timerId = vertx.setTimer(timeout, t -> {
+			if (!done.getAndSet(true)) {
+				Deadline.timeout("neo4j");
+				onTimeout.run();
+				handler.handle(new JsonObject().put("message", Deadline.ERROR));
+			}
+		});
+		return res -> {
+			if (!done.getAndSet(true)) {
+				vertx.cancelTimer(timerId);
+				handler.handle(res);
+			}
+		};
+	}
+
+	@Override
+	public void stream(String query, JsonObject params, final Neo4jRowStream stream) {
+		stream(query, params, isReadQuery(query), stream);
+	}
+
+	@Override
+	public void stream(String query, JsonObject params, boolean readOnly, final Neo4jRowStream stream) {
+		final Session session = driver.session((ro && readOnly) ? AccessMode.READ : AccessMode.WRITE);
+		session.runAsync(query, toParameters(params)).whenComplete((cursor, error) -> {
+			if (error != null) {
+				session.closeAsync();
+				stream.getContext().runOnContext(v -> stream.fail(unwrap(error)));
+			} else {
+				fetch(session, cursor, stream);
+			}
+		});
+	}
+
+	private void fetch(final Session session, final StatementResultCursor cursor, final Neo4jRowStream stream) {
+		cursor.nextAsync().whenComplete((record, error) -> stream.getContext().runOnContext(v -> {
+			if (error != null) {
+				session.closeAsync();
+				stream.fail(unwrap(error));
+			} else if (record == null) {
+				session.closeAsync();
+				stream.end();
+			} else if (stream.write(toJson(record, true))) {
+				fetch(session, cursor, stream);
+			} else {
+				stream.drainHandler(d -> fetch(session, cursor, stream));
+			}
+		}));
+	}
+
+	@Override
+	public void executeBatch(final JsonArray queries, final Handler<JsonObject> handler) {
+		final Context context = vertx.getOrCreateContext();
+		final Session session = driver.session(AccessMode.WRITE);
+		session.writeTransactionAsync(tx -> {
+			final JsonArray results = new fr.wseduc.webutils.collections.JsonArray();
+			CompletionStage<JsonArray> stage = CompletableFuture.completedFuture(results);
+			for (int i = 0; i < queries.size(); i++) {
+				final JsonObject q = queries.getJsonObject(i);
+				final int idx = i;
+				stage = stage.thenCompose(r -> run(tx, q.getString("query"), q.getJsonObject("params"), true)
+						.thenApply(rows -> r.add(new JsonObject().put("result", rows).put("idx", idx))));
+			}
+			return stage;
+		}).whenComplete((results, error) -> session.closeAsync())
+				.whenComplete((results, error) -> context.runOnContext(v -> {
+					if (error != null) {
+						handler.handle(errorToJson(error));
+					} else {
+						handler.handle(new JsonObject().put("results", results));
+					}
+				}));
+	}
+
+	@Override
+	public void executeTransaction(final JsonArray statements, final Integer transactionId,
+			final boolean commit, final Handler<JsonObject> handler) {
+		executeTransaction(statements, transactionId, commit, 0L, handler);
+	}
+
+	@Override
+	public void executeTransaction(final JsonArray statements, final Integer transactionId,
+			final boolean commit, long timeout, final Handler<JsonObject> handler) {
+		final Context context = vertx.getOrCreateContext();
+		final Session session = (transactionId == null) ? driver.session(AccessMode.WRITE) : null;
+		final Handler<JsonObject> d = deadlineHandler(timeout, handler, () -> {
+			if (session != null) {
+				session.closeAsync();
+			} else {
+				release(transactionId);
+			}
+		});
+		final Handler<JsonObject> h = res -> context.runOnContext(v -> d.handle(res));
+		if (transactionId == null && commit) {
+			session.writeTransactionAsync(tx -> runStatements(tx, statements))
+					.whenComplete((results, error) -> session.closeAsync())
+					.whenComplete((results, error) -> h.handle((error != null) ?
+							errorToJson(error) : new JsonObject().put("results", results)));
+		} else if (transactionId == null) {
+			session.beginTransactionAsync().whenComplete((tx, error) -> {
+				if (error != null) {
+					session.closeAsync();
+					h.handle(errorToJson(error));
+					return;
+				}
+				final int id = transactionIds.incrementAndGet();
+				final OpenTransaction openTransaction = new OpenTransaction(session, tx);
+				transactions.put(id, openTransaction);
+				context.runOnContext(v -> armTimeout(id, openTransaction));
+				runInTransaction(id, openTransaction, statements, false, h);
+			});
+		} else {
+			final OpenTransaction openTransaction = transactions.get(transactionId);
+			if (openTransaction == null) {
+				h.handle(new JsonObject().put("message", "Unknown transaction : " + transactionId));
+				return;
+			}
+			armTimeout(transactionId, openTransaction);
+			runInTransaction(transactionId, openTransaction, statements, commit, h);
+		}
+	}
+
+	@Override
+	public void executeReadOnlyTransaction(final JsonArray statements, final Handler<JsonObject> handler) {
+		final Context context = vertx.getOrCreateContext();
+		final Session session = driver.session(ro ? AccessMode.READ : AccessMode.WRITE);
+		session.readTransactionAsync(tx -> runStatements(tx, statements))
+				.whenComplete((results, error) -> session.closeAsync())
+				.whenComplete((results, error) -> context.runOnContext(v -> handler.handle((error != null) ?
+						errorToJson(error) : new JsonObject().put("results", results))));
+	}
+
+	private void runInTransaction(final int id, final OpenTransaction openTransaction, JsonArray statements,
+			final boolean commit, final Handler<JsonObject> handler) {
+		runStatements(openTransaction.transaction, statements).whenComplete((results, error) -> {
+			if (error != null) {
+				release(id).thenRun(() -> handler.handle(errorToJson(error)));
+			} else if (commit) {
+				transactions.remove(id);
+				vertx.cancelTimer(openTransaction.timerId);
+				openTransaction.transaction.commitAsync()
+						.whenComplete((r, e) -> openTransaction.session.closeAsync())
+						.whenComplete((r, e) -> handler.handle((e != null) ?
+								errorToJson(e) : new JsonObject().put("results", results)));
+			} else {
+				handler.handle(new JsonObject().put("results", results).put("transactionId", id));
+			}
+		});
+	}
+
+	@Override
+	public void resetTransactionTimeout(int transactionId, Handler<JsonObject> handler) {
+		final OpenTransaction openTransaction = transactions.get(transactionId);
+		if (openTransaction == null) {
+			handler.handle(new JsonObject().put("message", "Unknown transaction : " + transactionId));
+			return;
+		}
+		armTimeout(transactionId, openTransaction);
+		handler.handle(new JsonObject().put("results", new fr.wseduc.webutils.collections.JsonArray()));
+	}
+
+	@Override
+	public void rollbackTransaction(int transactionId, final Handler<JsonObject> handler) {
+		final Context context = vertx.getOrCreateContext();
+		if (!transactions.containsKey(transactionId)) {
+			handler.handle(new JsonObject().put("message", "Unknown transaction : " + transactionId));
+			return;
+		}
+		release(transactionId).thenRun(() -> context.runOnContext(v -> handler.handle(new JsonObject())));
+	}
+
+	@Override
+	public void unmanagedExtension(String method, String uri, String body, Handler<JsonObject> handler) {
+		if (restDelegate != null) {
+			restDelegate.unmanagedExtension(method, uri, body, handler);
+		} else {
+			handler.handle(new JsonObject().put("message", "Unmanaged extensions require neo4j server-uris."));
+		}
+	}
+
+	@Override
+	public void close() {
+		for (Integer id : new ArrayList<>(transactions.keySet())) {
+			release(id);
+		}
+		driver.closeAsync();
+		if (restDelegate != null) {
+			restDelegate.close();
+		}
+	}
+
+	private boolean isReadQuery(String query) {
+		return detectReadQueries && query != null && !writingClausesPattern.matcher(query).find();
+	}
+
+	private void armTimeout(final int id, final OpenTransaction openTransaction) {
+		vertx.cancelTimer(openTransaction.timerId);
+		openTransaction.timerId = vertx.setTimer(transactionTimeout, t -> {
+			logger.warn("Rollback expired neo4j transaction : " + id);
+			release(id);
+		});
+	}
+
+	private CompletionStage<Void> release(int id) {
+		final OpenTransaction openTransaction = transactions.remove(id);
+		if (openTransaction == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+		vertx.cancelTimer(openTransaction.timerId);
+		return openTransaction.transaction.rollbackAsync()
+				.handle((r, e) -> null)
+				.thenCompose(r -> openTransaction.session.closeAsync());
+	}
+
+	private CompletionStage<JsonArray> runStatements(Transaction tx, JsonArray statements) {
+		final JsonArray results = new fr.wseduc.webutils.collections.JsonArray();
+		CompletionStage<JsonArray> stage = CompletableFuture.completedFuture(results);
+		for (Object o : statements) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject s = (JsonObject) o;
+			stage = stage.thenCompose(r -> run(tx, s.getString("statement"), s.getJsonObject("parameters"), false)
+					.thenApply(r::add));
+		}
+		return stage;
+	}
+
+	private CompletionStage<JsonArray> run(Transaction tx, String query, JsonObject params, boolean legacyEntities) {
+		final JsonArray rows = new fr.wseduc.webutils.collections.JsonArray();
+		return tx.runAsync(query, toParameters(params))
+				.thenCompose(cursor -> cursor.forEachAsync(record -> rows.add(toJson(record, legacyEntities))))
+				.thenApply(summary -> rows);
+	}
+
+	private static Map<String, Object> toParameters(JsonObject params) {
+		final Map<String, Object> p = new HashMap<>();
+		if (params != null) {
+			for (String key : params.fieldNames()) {
+				p.put(key, toDriverValue(params.getValue(key)));
+			}
+		}
+		return p;
+	}
+
+	private static Object toDriverValue(Object value) {
+		if (value instanceof JsonObject) {
+			return toParameters((JsonObject) value);
+		} else if (value instanceof JsonArray) {
+			final List<Object> l = new ArrayList<>(((JsonArray) value).size());
+			for (Object o : (JsonArray) value) {
+				l.add(toDriverValue(o));
+			}
+			return l;
+		}
+		return value;
+	}
+
+	private static JsonObject toJson(Record record, boolean legacyEntities) {
+		final JsonObject row = new fr.wseduc.webutils.collections.JsonObject();
+		final List<String> keys = record.keys();
+		for (int i = 0; i < keys.size(); i++) {
+			row.put(keys.get(i), toJsonValue(record.get(i), legacyEntities));
+		}
+		return row;
+	}
+
+	private static Object toJsonValue(Value value, boolean legacyEntities) {
+		return (value == null || value.isNull()) ? null : toJsonValue(value.asObject(), legacyEntities);
+	}
+
+	private static Object toJsonValue(Object value, boolean legacyEntities) {
+		if (value == null || value instanceof String || value instanceof Boolean || value instanceof Number) {
+			return value;
+		} else if (value instanceof Entity) {
+			final JsonObject properties = (JsonObject) toJsonValue(((Entity) value).asMap(), legacyEntities);
+			if (!legacyEntities) {
+				return properties;
+			}
+			final JsonObject metadata = new JsonObject().put("id", ((Entity) value).id());
+			if (value instanceof Node) {
+				final JsonArray labels = new fr.wseduc.webutils.collections.JsonArray();
+				for (String label : ((Node) value).labels()) {
+					labels.add(label);
+				}
+				metadata.put("labels", labels);
+			} else if (value instanceof Relationship) {
+				metadata.put("type", ((Relationship) value).type());
+			}
+			return new JsonObject().put("data", properties).put("metadata", metadata);
+		} else if (value instanceof Path) {
+			final JsonArray path = new fr.wseduc.webutils.collections.JsonArray();
+			for (Path.Segment segment : (Path) value) {
+				if (path.size() == 0) {
+					path.add(toJsonValue(segment.start(), legacyEntities));
+				}
+				path.add(toJsonValue(segment.relationship(), legacyEntities));
+				path.add(toJsonValue(segment.end(), legacyEntities));
+			}
+			return path;
+		} else if (value instanceof Map) {
+			final JsonObject j = new fr.wseduc.webutils.collections.JsonObject();
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+				j.put(String.valueOf(e.getKey()), toJsonValue(e.getValue(), legacyEntities));
+			}
+			return j;
+		} else if (value instanceof List) {
+			final JsonArray a = new fr.wseduc.webutils.collections.JsonArray();
+			for (Object o : (List<?>) value) {
+				a.add(toJsonValue(o, legacyEntities));
+			}
+			return a;
+		} else if (value instanceof Value) {
+			return toJsonValue((Value) value, legacyEntities);
+		}
+		return value.toString();
+	}
+
+	private static Throwable unwrap(Throwable error) {
+		return (error instanceof CompletionException && error.getCause() != null) ? error.getCause() : error;
+	}
+
+	private static JsonObject errorToJson(Throwable error) {
+		final Throwable e = unwrap(error);
+		if (e instanceof Neo4jException) {
+			final JsonArray errors = new fr.wseduc.webutils.collections.JsonArray().add(new JsonObject()
+					.put("code", ((Neo4jException) e).code()).put("message", e.getMessage()));
+			return new JsonObject().put("message", errors.encode());
+		}
+		logger.error("Neo4j bolt error", e);
+		return ExceptionUtils.exceptionToJson(e);
+	}
+
+}
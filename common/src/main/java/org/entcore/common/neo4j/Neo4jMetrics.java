@@ -0,0 +1,237 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.neo4j;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Latency histograms, row and response size counters of the cypher queries, grouped by a fingerprint
+ * of the query (literals replaced by ?, except path lengths, whitespaces collapsed). Queries slower than the threshold are
+ * logged with the fingerprint and the shape of the parameters (never their values).
+ * There is one instance per module, whose top queries are sent in reply to the messages on the metrics
+ * address of the module ("neo4j.metrics.<module>" by default), e.g. {"top": 20, "sort": "total"} with sort
+ * in total, count, max, p99, rows.
+ */
+public class Neo4jMetrics {
+
+	public static final String DEFAULT_ADDRESS = "neo4j.metrics";
+	private static final Logger log = LoggerFactory.getLogger(Neo4jMetrics.class);
+	private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^'\\\\]|\\\\.)*'|\"(?:[^\"\\\\]|\\\\.)*\"");
+	private static final Pattern NUMBER_LITERAL = Pattern.compile("(?<![\\w.$*])-?\\d+(?:\\.\\d+)?\\b");
+	private static final Pattern WHITESPACES = Pattern.compile("\\s+");
+	private static final String OTHER = "<other>";
+	private static final Map<String, Neo4jMetrics> modulesMetrics = new ConcurrentHashMap<>();
+
+	private final Map<String, QueryStats> stats = new ConcurrentHashMap<>();
+	private final boolean enabled;
+	private final long slowQueryThreshold;
+	private final int maxFingerprints;
+
+	static final class QueryStats {
+		private final LatencyHistogram histogram = new LatencyHistogram();
+		private long count;
+		private long totalTime;
+		private long maxTime;
+		private long rows;
+		private long bytes;
+		private long errors;
+
+		private synchronized void record(long time, int r, int b, boolean error) {
+			histogram.record(time);
+			count++;
+			totalTime += time;
+			maxTime = Math.max(maxTime, time);
+			rows += r;
+			bytes += b;
+			if (error) {
+				errors++;
+			}
+		}
+
+		private synchronized JsonObject toJson(String fingerprint) {
+			return new JsonObject()
+					.put("query", fingerprint)
+					.put("count", count)
+					.put("errors", errors)
+					.put("total", totalTime)
+					.put("mean", (count > 0) ? totalTime / count : 0)
+					.put("max", maxTime)
+					.put("p50", histogram.percentile(0.5))
+					.put("p95", histogram.percentile(0.95))
+					.put("p99", histogram.percentile(0.99))
+					.put("rows", rows)
+					.put("bytes", bytes);
+		}
+	}
+
+	/**
+	 * Log-linear histogram of latencies in milliseconds : 8 linear sub-buckets per power of two,
+	 * which bounds the relative error of the percentiles to 12.5%.
+	 */
+	static final class LatencyHistogram {
+		private static final int SUB_BUCKET_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+		private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+		private long total;
+
+		void record(long value) {
+			counts[index(Math.max(0, value))]++;
+			total++;
+		}
+
+		long percentile(double p) {
+			if (total == 0) {
+				return 0;
+			}
+			final long rank = (long) Math.ceil(p * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return upperBound(i);
+				}
+			}
+			return upperBound(counts.length - 1);
+		}
+
+		private static int index(long value) {
+			if (value < SUB_BUCKETS) {
+				return (int) value;
+			}
+			final int exponent = 63 - Long.numberOfLeadingZeros(value);
+			final int sub = (int) ((value >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+			return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+		}
+
+		private static long upperBound(int index) {
+			if (index < SUB_BUCKETS) {
+				return index;
+			}
+			final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+			final long sub = index % SUB_BUCKETS;
+			return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+		}
+	}
+
+	/**
+	 * Get the metrics of the module, created with the config of the first caller.
+	 * @param module the module name, null for the shared metrics on the default address
+	 */
+	public static Neo4jMetrics getInstance(final Vertx vertx, final JsonObject config, String module) {
+		final String address = (module != null && !module.isEmpty()) ? DEFAULT_ADDRESS + "." + module : DEFAULT_ADDRESS;
+		return modulesMetrics.computeIfAbsent(address,
+				k -> new Neo4jMetrics(vertx, config, config.getString("address", address)));
+	}
+
+	private Neo4jMetrics(Vertx vertx, JsonObject config, String address) {
+		this.enabled = config.getBoolean("enabled", true);
+		this.slowQueryThreshold = config.getLong("slow-query-threshold", 1000L);
+		this.maxFingerprints = config.getInteger("max-fingerprints", 1000);
+		if (enabled && vertx != null) {
+			vertx.eventBus().<JsonObject>localConsumer(address, message -> {
+				final JsonObject body = (message.body() != null) ? message.body() : new JsonObject();
+				message.reply(top(body.getInteger("top", 20), body.getString("sort", "total")));
+			});
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void record(String query, JsonObject params, long time, int rows, int bytes, boolean error) {
+		if (!enabled) {
+			return;
+		}
+		final String fingerprint = fingerprint(query);
+		QueryStats s = stats.get(fingerprint);
+		if (s == null) {
+			if (stats.size() >= maxFingerprints) {
+				s = stats.computeIfAbsent(OTHER, k -> new QueryStats());
+			} else {
+				s = stats.computeIfAbsent(fingerprint, k -> new QueryStats());
+			}
+		}
+		s.record(time, rows, bytes, error);
+		if (time >= slowQueryThreshold) {
+			log.warn("Slow neo4j query (" + time + " ms, " + rows + " rows) : " + fingerprint +
+					" - params : " + paramsShape(params).encode());
+		}
+	}
+
+	public JsonArray top(int n, String sort) {
+		final List<JsonObject> l = new ArrayList<>(stats.size());
+		for (Map.Entry<String, QueryStats> e : stats.entrySet()) {
+			l.add(e.getValue().toJson(e.getKey()));
+		}
+		final String field = ("count".equals(sort) || "max".equals(sort) || "p99".equals(sort) ||
+				"rows".equals(sort) || "bytes".equals(sort)) ? sort : "total";
+		l.sort(Comparator.comparingLong((JsonObject j) -> j.getLong(field)).reversed());
+		final JsonArray result = new fr.wseduc.webutils.collections.JsonArray();
+		for (int i = 0; i < l.size() && i < n; i++) {
+			result.add(l.get(i));
+		}
+		return result;
+	}
+
+	public void reset() {
+		stats.clear();
+	}
+
+	public static String fingerprint(String query) {
+		if (query == null) {
+			return "";
+		}
+		String f = STRING_LITERAL.matcher(query).replaceAll("?");
+		f = NUMBER_LITERAL.matcher(f).replaceAll("?");
+		return WHITESPACES.matcher(f).replaceAll(" ").trim();
+	}
+
+	static JsonObject paramsShape(JsonObject params) {
+		final JsonObject shape = new JsonObject();
+		if (params == null) {
+			return shape;
+		}
+		for (String key : params.fieldNames()) {
+			final Object value = params.getValue(key);
+			if (value == null) {
+				shape.put(key, "null");
+			} else if (value instanceof JsonArray) {
+				shape.put(key, "array[" + ((JsonArray) value).size() + "]");
+			} else if (value instanceof JsonObject) {
+				shape.put(key, paramsShape((JsonObject) value));
+			} else {
+				shape.put(key, value.getClass().getSimpleName());
+			}
+		}
+		return shape;
+	}
+
+}
@@ -31,24 +31,33 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.parsetools.JsonEvent;
+import io.vertx.core.parsetools.JsonParser;
+
+import org.entcore.common.utils.Deadline;
 
 import java.net.URI;
-import java.util.regex.Matcher;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 public class Neo4jRest implements GraphDatabase {
 
+	private final Vertx vertx;
 	private final Neo4jRestNodeClient nodeManager;
 	private final boolean ro;
 	private static final Logger logger = LoggerFactory.getLogger(Neo4jRest.class);
 	private final String basePath;
+	private final boolean detectReadQueries;
 	private Pattern writingClausesPattern = Pattern.compile(
 			"(\\s+set\\s+|create\\s+|merge\\s+|delete\\s+|remove\\s+|foreach)", Pattern.CASE_INSENSITIVE);
 
 	public Neo4jRest(URI[] uris, boolean ro, Vertx vertx, long checkDelay, int poolSize,
 					 boolean keepAlive, JsonObject neo4jConfig) {
-		nodeManager = new Neo4jRestNodeClient(uris, vertx, checkDelay, poolSize, keepAlive);
+		this.vertx = vertx;
+		nodeManager = new Neo4jRestNodeClient(uris, vertx, checkDelay, poolSize, keepAlive,
+				(neo4jConfig != null) ? neo4jConfig.getJsonObject("routing", new JsonObject()) : new JsonObject());
 		this.ro = ro;
+		this.detectReadQueries = neo4jConfig == null || neo4jConfig.getBoolean("detect-read-queries", true);
 		String path = uris[0].getPath();
 		if (path != null && path.endsWith("/")) {
 			this.basePath  = path.substring(0, path.length() - 1);
@@ -96,6 +105,16 @@ public class Neo4jRest implements GraphDatabase {
 
 	@Override
 	public void execute(String query, JsonObject p, final Handler<JsonObject> handler) {
+		execute(query, p, isReadQuery(query), handler);
+	}
+
+	@Override
+	public void execute(String query, JsonObject p, boolean readOnly, final Handler<JsonObject> handler) {
+		execute(query, p, readOnly, 0L, handler);
+	}
+
+	@Override
+	public void execute(String query, JsonObject p, boolean readOnly, long timeout, final Handler<JsonObject> h) {
 		JsonObject params = p;
 		if (params == null) {
 			params = new JsonObject();
@@ -104,8 +123,9 @@ public class Neo4jRest implements GraphDatabase {
 				.put("query", query)
 				.put("params", params);
 		logger.debug(body.encode());
+		final TimedHandler handler = new TimedHandler(h, timeout, true);
 		try {
-			sendRequest("/cypher", body, true, new Handler<HttpClientResponse>() {
+			handler.start(sendRequest("/cypher", body, readOnly || isReadQuery(query), new Handler<HttpClientResponse>() {
 
 				@Override
 				public void handle(final HttpClientResponse resp) {
@@ -117,7 +137,8 @@ public class Neo4jRest implements GraphDatabase {
 							if (resp.statusCode() != 404 && resp.statusCode() != 500) {
 								JsonObject json = new JsonObject(b.toString("UTF-8"));
 								if (resp.statusCode() == 200) {
-									handler.handle(new JsonObject().put("result", transformJson(json)));
+									handler.handle(new JsonObject().put("result", transformJson(json))
+											.put("responseSize", b.length()));
 								} else {
 									handler.handle(json);
 								}
@@ -128,12 +149,78 @@ public class Neo4jRest implements GraphDatabase {
 						}
 					});
 				}
-			});
+			}, errorHandler(handler)));
 		} catch (Neo4jConnectionException e) {
 			ExceptionUtils.exceptionToJson(e);
 		}
 	}
 
+	@Override
+	public void stream(String query, JsonObject p, final Neo4jRowStream stream) {
+		stream(query, p, isReadQuery(query), stream);
+	}
+
+	@Override
+	public void stream(String query, JsonObject p, boolean readOnly, final Neo4jRowStream stream) {
+		JsonObject body = new JsonObject()
+				.put("query", query)
+				.put("params", (p != null) ? p : new JsonObject());
+		logger.debug(body.encode());
+		try {
+			sendRequest("/cypher", body, readOnly, new Handler<HttpClientResponse>() {
+
+				@Override
+				public void handle(final HttpClientResponse resp) {
+					if (resp.statusCode() != 200) {
+						resp.bodyHandler(b -> stream.fail(new Neo4jConnectionException(
+								resp.statusMessage() + " : " + b.toString(), null)));
+						return;
+					}
+					final JsonArray columns = new fr.wseduc.webutils.collections.JsonArray();
+					final JsonParser parser = JsonParser.newParser();
+					parser.handler(new Handler<JsonEvent>() {
+						private boolean inColumns = false;
+
+						@Override
+						public void handle(JsonEvent event) {
+							switch (event.type()) {
+								case START_ARRAY:
+									if ("columns".equals(event.fieldName())) {
+										inColumns = true;
+									} else if ("data".equals(event.fieldName())) {
+										parser.arrayValueMode();
+									}
+									break;
+								case END_ARRAY:
+									inColumns = false;
+									parser.arrayEventMode();
+									break;
+								case VALUE:
+									if (inColumns) {
+										columns.add(event.stringValue());
+									} else if (event.value() instanceof JsonArray &&
+											!stream.write(transformRow(columns, (JsonArray) event.value()))) {
+										resp.pause();
+										stream.drainHandler(v -> resp.resume());
+									}
+									break;
+							}
+						}
+					});
+					parser.exceptionHandler(stream::fail);
+					resp.exceptionHandler(stream::fail);
+					resp.handler(parser);
+					resp.endHandler(v -> {
+						parser.end();
+						stream.end();
+					});
+				}
+			}, stream::fail);
+		} catch (Neo4jConnectionException e) {
+			stream.fail(e);
+		}
+	}
+
 	@Override
 	public void executeBatch(JsonArray queries, final Handler<JsonObject> handler) {
 		JsonArray body = new fr.wseduc.webutils.collections.JsonArray();
@@ -148,7 +235,7 @@ public class Neo4jRest implements GraphDatabase {
 		}
 		logger.debug(body.encode());
 		try {
-			sendRequest("/batch", body, new Handler<HttpClientResponse>() {
+			sendRequest("/batch", body, false, new Handler<HttpClientResponse>() {
 				@Override
 				public void handle(final HttpClientResponse resp) {
 					resp.bodyHandler(new Handler<Buffer>() {
@@ -165,7 +252,7 @@ public class Neo4jRest implements GraphDatabase {
 											transformJson(qr.getJsonObject("body", new JsonObject())))
 											.put("idx", qr.getLong("id")));
 								}
-								handler.handle(new JsonObject().put("results", out));
+								handler.handle(new JsonObject().put("results", out).put("responseSize", b.length()));
 							} else {
 								handler.handle(new JsonObject().put("message",
 										resp.statusMessage() + " : " + b.toString()));
@@ -173,7 +260,7 @@ public class Neo4jRest implements GraphDatabase {
 						}
 					});
 				}
-			});
+			}, errorHandler(handler));
 		} catch (Neo4jConnectionException e) {
 			ExceptionUtils.exceptionToJson(e);
 		}
@@ -182,11 +269,44 @@ public class Neo4jRest implements GraphDatabase {
 	@Override
 	public void executeTransaction(JsonArray statements, Integer transactionId,
 								   boolean commit, final Handler<JsonObject> handler) {
-		executeTransaction(statements, transactionId, commit, true, handler);
+		executeTransaction(statements, transactionId, commit, true, 0L, handler);
+	}
+
+	@Override
+	public void executeTransaction(JsonArray statements, Integer transactionId,
+								   boolean commit, long timeout, final Handler<JsonObject> handler) {
+		executeTransaction(statements, transactionId, commit, true, timeout, handler);
+	}
+
+	@Override
+	public void executeReadOnlyTransaction(JsonArray statements, final Handler<JsonObject> handler) {
+		executeTransaction(statements, null, true, true, true, 0L, handler);
 	}
 
 	public void executeTransaction(final JsonArray statements, final Integer transactionId,
-			final boolean commit, final boolean allowRetry, final Handler<JsonObject> handler) {
+			final boolean commit, final boolean allowRetry, final long timeout, final Handler<JsonObject> h) {
+		executeTransaction(statements, transactionId, commit, allowRetry, false, timeout, h);
+	}
+
+	private void executeTransaction(final JsonArray statements, final Integer transactionId,
+			final boolean commit, final boolean allowRetry, final boolean readOnly, final long timeout,
+			final Handler<JsonObject> h) {
+		final TimedHandler handler;
+		if (transactionId != null) {
+			// the transaction is rolled back, its request can be abandoned
+			handler = new TimedHandler(h, timeout, true);
+			handler.expiredHandler = r -> rollbackAfterTimeout(transactionId);
+		} else if (!commit) {
+			// the id of the new transaction is only known from the response, which is awaited to roll it back
+			handler = new TimedHandler(h, timeout, false);
+			handler.lateHandler = r -> {
+				if (r.getInteger("transactionId") != null) {
+					rollbackAfterTimeout(r.getInteger("transactionId"));
+				}
+			};
+		} else {
+			handler = new TimedHandler(h, timeout, true);
+		}
 		String uri = "/transaction";
 		if (transactionId != null) {
 			uri += "/" +transactionId;
@@ -195,7 +315,10 @@ public class Neo4jRest implements GraphDatabase {
 			uri += "/commit";
 		}
 		try {
-			sendRequest(uri, new JsonObject().put("statements", statements), new Handler<HttpClientResponse>() {
+			// only a committed transaction without id can be sent to a slave, open transactions live on one node
+			handler.start(sendRequest(uri, new JsonObject().put("statements", statements),
+					readOnly && transactionId == null && commit,
+					new Handler<HttpClientResponse>() {
 				@Override
 				public void handle(final HttpClientResponse resp) {
 					resp.bodyHandler(new Handler<Buffer>() {
@@ -222,6 +345,7 @@ public class Neo4jRest implements GraphDatabase {
 										}
 									}
 									json.remove("errors");
+									json.put("responseSize", b.length());
 									handler.handle(json);
 								} else {
 									if (transactionId == null && commit && allowRetry && json.getJsonArray("errors") != null && json.getJsonArray("errors").size() > 0) {
@@ -233,7 +357,8 @@ public class Neo4jRest implements GraphDatabase {
 												case "Neo.TransientError.Transaction.DeadlockDetected":
 												case "Neo.TransientError.Transaction.InstanceStateChanged":
 												case "Neo.TransientError.Schema.SchemaModifiedConcurrently":
-													executeTransaction(statements, transactionId, commit, false, handler);
+													executeTransaction(statements, transactionId, commit, false,
+															readOnly, handler.remaining(), handler);
 													if (logger.isDebugEnabled()) {
 														logger.debug("Retry transaction : " + statements.encode());
 													}
@@ -251,7 +376,7 @@ public class Neo4jRest implements GraphDatabase {
 						}
 					});
 				}
-			});
+			}, errorHandler(handler)));
 		} catch (Neo4jConnectionException e) {
 			ExceptionUtils.exceptionToJson(e);
 		}
@@ -349,61 +474,186 @@ public class Neo4jRest implements GraphDatabase {
 				} else {
 					continue;
 				}
-				JsonObject outRow = new fr.wseduc.webutils.collections.JsonObject();
-				out.add(outRow);
-				for (int j = 0; j < row.size(); j++) {
-					Object value = row.getValue(j);
-					if (value == null) {
-						outRow.put(columns.getString(j), (String) null);
-					} else if (value instanceof String) {
-						outRow.put(columns.getString(j), (String) value);
-					} else if (value instanceof JsonArray) {
-						outRow.put(columns.getString(j), (JsonArray) value);
-					} else if (value instanceof JsonObject) {
-						outRow.put(columns.getString(j), (JsonObject) value);
-					} else if (value instanceof Boolean) {
-						outRow.put(columns.getString(j), (Boolean) value);
-					} else if (value instanceof Number) {
-						outRow.put(columns.getString(j), (Number) value);
-					} else {
-						outRow.put(columns.getString(j), value.toString());
-					}
-				}
+				out.add(transformRow(columns, row));
 			}
 		}
 		return out;
 	}
 
-	private void sendRequest(String path, Object body, final Handler<HttpClientResponse> handler)
-			throws Neo4jConnectionException {
-		sendRequest(path, body, false, handler);
+	private static JsonObject transformRow(JsonArray columns, JsonArray row) {
+		JsonObject outRow = new fr.wseduc.webutils.collections.JsonObject();
+		for (int j = 0; j < row.size(); j++) {
+			Object value = row.getValue(j);
+			if (value == null) {
+				outRow.put(columns.getString(j), (String) null);
+			} else if (value instanceof String) {
+				outRow.put(columns.getString(j), (String) value);
+			} else if (value instanceof JsonArray) {
+				outRow.put(columns.getString(j), (JsonArray) value);
+			} else if (value instanceof JsonObject) {
+				outRow.put(columns.getString(j), (JsonObject) value);
+			} else if (value instanceof Boolean) {
+				outRow.put(columns.getString(j), (Boolean) value);
+			} else if (value instanceof Number) {
+				outRow.put(columns.getString(j), (Number) value);
+			} else {
+				outRow.put(columns.getString(j), value.toString());
+			}
+		}
+		return outRow;
+	}
+
+	private boolean isReadQuery(String query) {
+		return detectReadQueries && query != null && !writingClausesPattern.matcher(query).find();
+	}
+
+	private Handler<Throwable> errorHandler(final Handler<JsonObject> handler) {
+		return new Handler<Throwable>() {
+			@Override
+			public void handle(Throwable e) {
+				handler.handle(new JsonObject().put("message", e.getMessage()));
+			}
+		};
 	}
 
-	private void sendRequest(String path, Object body, boolean checkReadOnly,
-			final Handler<HttpClientResponse> handler) throws Neo4jConnectionException {
-		HttpClient client = null;
-		if (checkReadOnly && ro) {
-			String query = ((JsonObject) body).getString("query");
-			if (query != null) {
-				Matcher m = writingClausesPattern.matcher(query);
-				if (!m.find()) {
-					client = nodeManager.getSlaveClient();
+	private void rollbackAfterTimeout(final int transactionId) {
+		rollbackTransaction(transactionId, r -> {
+			if (r.getString("message") != null) {
+				logger.error("Error rollbacking transaction " + transactionId + " after timeout : " +
+						r.getString("message"));
+			}
+		});
+	}
+
+	/**
+	 * Result handler of a request with an absolute timeout, which covers the whole exchange, response body
+	 * included, unlike HttpClientRequest.setTimeout which only fires when no data is received.
+	 * The handler receives either the result or a deadline.exceeded error when the timer fires first.
+	 * On timeout the request is reset, which releases its connection, unless the late response is needed :
+	 * it is then given to the late handler.
+	 */
+	private final class TimedHandler implements Handler<JsonObject> {
+		private final Handler<JsonObject> handler;
+		private final long expiresAt;
+		private final boolean reset;
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private Handler<JsonObject> expiredHandler;
+		private Handler<JsonObject> lateHandler;
+		private long timerId = -1;
+
+		private TimedHandler(Handler<JsonObject> handler, long timeout, boolean reset) {
+			this.handler = handler;
+			this.expiresAt = (timeout > 0) ? System.currentTimeMillis() + timeout : 0;
+			this.reset = reset;
+		}
+
+		private void start(final Neo4jRequest req) {
+			if (expiresAt <= 0 || done.get()) {
+				return;
+			}
+			timerId = vertx.setTimer(Math.max(1, remaining()), t -> {
+				if (!done.getAndSet(true)) {
+					Deadline.timeout("neo4j");
+					if (reset) {
+						req.reset();
+					}
+					final JsonObject error = new JsonObject().put("message", Deadline.ERROR);
+					if (expiredHandler != null) {
+						expiredHandler.handle(error);
+					}
+					handler.handle(error);
 				}
+			});
+		}
+
+		private long remaining() {
+			return (expiresAt > 0) ? Math.max(1, expiresAt - System.currentTimeMillis()) : 0L;
+		}
+
+		@Override
+		public void handle(JsonObject result) {
+			if (!done.getAndSet(true)) {
+				if (timerId >= 0) {
+					vertx.cancelTimer(timerId);
+				}
+				handler.handle(result);
+			} else if (lateHandler != null) {
+				lateHandler.handle(result);
+			}
+		}
+	}
+
+	/**
+	 * Request sent to a node, counted in the in flight requests of the node until its response,
+	 * its error or its reset, whichever comes first.
+	 */
+	private final class Neo4jRequest {
+		private final int node;
+		private final long start = System.currentTimeMillis();
+		private final AtomicBoolean done = new AtomicBoolean(false);
+		private HttpClientRequest req;
+
+		private Neo4jRequest(int node) {
+			this.node = node;
+			nodeManager.requestStarted(node);
+		}
+
+		private boolean end(boolean failed) {
+			if (done.getAndSet(true)) {
+				return false;
 			}
+			nodeManager.requestEnded(node, System.currentTimeMillis() - start, failed);
+			return true;
 		}
-		if (client == null) {
+
+		private void reset() {
+			end(true);
+			if (req != null) {
+				req.reset();
+			}
+		}
+	}
+
+	private Neo4jRequest sendRequest(String path, Object body, boolean readOnly,
+			final Handler<HttpClientResponse> handler, final Handler<Throwable> errorHandler)
+			throws Neo4jConnectionException {
+		int idx = -1;
+		if (readOnly && ro) {
+			idx = nodeManager.getSlaveIndex();
+		}
+		final HttpClient client;
+		if (idx < 0) {
 			client = nodeManager.getClient();
+			idx = nodeManager.getMasterIndex();
+		} else {
+			client = nodeManager.getClient(idx);
 		}
-		HttpClientRequest req = client.post(basePath + path, handler);
-		req.headers()
-				.add("Content-Type", "application/json")
-				.add("Accept", "application/json; charset=UTF-8");
+		final Neo4jRequest request = new Neo4jRequest(idx);
+		try {
+			final HttpClientRequest req = client.post(basePath + path, resp -> {
+				request.end(resp.statusCode() >= 500);
+				handler.handle(resp);
+			});
+			request.req = req;
+			req.headers()
+					.add("Content-Type", "application/json")
+					.add("Accept", "application/json; charset=UTF-8");
 
-		final String b = Json.encode(body);
+			final String b = Json.encode(body);
 
-		req.exceptionHandler(event -> logger.error("Neo4j error in request : " + b, event));
+			req.exceptionHandler(event -> {
+				logger.error("Neo4j error in request : " + b, event);
+				if (request.end(true)) {
+					errorHandler.handle(event);
+				}
+			});
 
-		req.end(b);
+			req.end(b);
+		} catch (RuntimeException e) {
+			request.end(true);
+			throw e;
+		}
+		return request;
 	}
 
 }
@@ -26,28 +26,63 @@ import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpClientResponse;
 import io.vertx.core.http.impl.HttpClientImpl;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
 
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Random;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Http clients of the neo4j cluster nodes. Reads are routed to the slave with the best score
+ * (latency ewma weighted by the in flight requests) between two random slaves. Slaves with too many
+ * in flight requests are skipped and slaves much slower than the others or failing are ejected
+ * for a while.
+ */
 public class Neo4jRestNodeClient {
 
 	private final Vertx vertx;
 	private final HttpClient[] clients;
+	private final NodeStats[] stats;
 	private final AtomicInteger master = new AtomicInteger(0);
 	private final CopyOnWriteArrayList<Integer> slaves;
 	private final long checkTimerId;
 	private final Random rnd;
+	private final double ewmaAlpha;
+	private final int maxInFlight;
+	private final double outlierFactor;
+	private final long outlierMinLatency;
+	private final long ejectionTime;
+	private final int maxConsecutiveErrors;
 	private static final Logger logger = LoggerFactory.getLogger(Neo4jRestNodeClient.class);
 
+	private static final class NodeStats {
+		private volatile double ewma = 0;
+		private final AtomicInteger inFlight = new AtomicInteger();
+		private final AtomicInteger consecutiveErrors = new AtomicInteger();
+		private volatile long ejectedUntil = 0;
+	}
+
 	public Neo4jRestNodeClient(URI[] uris, Vertx vertx, long delay, int poolSize, boolean keepAlive) {
+		this(uris, vertx, delay, poolSize, keepAlive, new JsonObject());
+	}
+
+	public Neo4jRestNodeClient(URI[] uris, Vertx vertx, long delay, int poolSize, boolean keepAlive,
+			JsonObject routing) {
 		this.vertx = vertx;
+		this.ewmaAlpha = routing.getDouble("ewma-alpha", 0.2);
+		this.maxInFlight = routing.getInteger("max-in-flight", poolSize * 2);
+		this.outlierFactor = routing.getDouble("outlier-factor", 3.0);
+		this.outlierMinLatency = routing.getLong("outlier-min-latency", 50L);
+		this.ejectionTime = routing.getLong("ejection-time", 30000L);
+		this.maxConsecutiveErrors = routing.getInteger("max-consecutive-errors", 5);
 		clients = new HttpClient[uris.length];
+		stats = new NodeStats[uris.length];
 		for (int i = 0; i < uris.length; i++) {
+			stats[i] = new NodeStats();
 			final HttpClientOptions options = new HttpClientOptions()
 					.setDefaultHost(uris[i].getHost())
 					.setDefaultPort(uris[i].getPort())
@@ -134,14 +169,92 @@ public class Neo4jRestNodeClient {
 	}
 
 	public HttpClient getSlaveClient() throws Neo4jConnectionException {
+		final int idx = getSlaveIndex();
+		return (idx < 0) ? getClient() : clients[idx];
+	}
+
+	public int getMasterIndex() {
+		return master.get();
+	}
+
+	/**
+	 * @return the index of the slave to use for a read or -1 if reads must go to the master.
+	 */
+	public int getSlaveIndex() {
 		if (slaves == null || slaves.size() < 1) {
-			return getClient();
+			return -1;
 		}
-		try {
-			return clients[slaves.get(rnd.nextInt(slaves.size()))];
-		} catch (RuntimeException e) {
-			throw new Neo4jConnectionException("Can't get master connection.", e);
+		final Object[] s = slaves.toArray();
+		final long now = System.currentTimeMillis();
+		int best = -1;
+		double bestScore = Double.MAX_VALUE;
+		final int candidates = Math.min(2, s.length);
+		final int offset = rnd.nextInt(s.length);
+		for (int i = 0; i < s.length && (best < 0 || i < candidates); i++) {
+			final int idx = (Integer) s[(offset + i) % s.length];
+			final NodeStats n = stats[idx];
+			if (n.ejectedUntil > now || n.inFlight.get() >= maxInFlight) {
+				continue;
+			}
+			final double score = (n.ewma + 1) * (n.inFlight.get() + 1);
+			if (score < bestScore) {
+				bestScore = score;
+				best = idx;
+			}
+		}
+		return best;
+	}
+
+	public HttpClient getClient(int idx) {
+		return clients[idx];
+	}
+
+	public void requestStarted(int idx) {
+		if (idx >= 0 && idx < stats.length) {
+			stats[idx].inFlight.incrementAndGet();
+		}
+	}
+
+	public void requestEnded(int idx, long latency, boolean error) {
+		if (idx < 0 || idx >= stats.length) {
+			return;
+		}
+		final NodeStats n = stats[idx];
+		n.inFlight.decrementAndGet();
+		n.ewma = (n.ewma == 0) ? latency : ewmaAlpha * latency + (1 - ewmaAlpha) * n.ewma;
+		if (error) {
+			if (n.consecutiveErrors.incrementAndGet() >= maxConsecutiveErrors) {
+				eject(idx, "consecutive errors");
+			}
+		} else {
+			n.consecutiveErrors.set(0);
+			if (slaves != null && slaves.size() > 2 && n.ewma > outlierMinLatency &&
+					n.ewma > outlierFactor * medianSlaveLatency()) {
+				eject(idx, "latency outlier (" + (long) n.ewma + " ms)");
+			}
+		}
+	}
+
+	private double medianSlaveLatency() {
+		final Object[] s = slaves.toArray();
+		final double[] latencies = new double[s.length];
+		for (int i = 0; i < s.length; i++) {
+			latencies[i] = stats[(Integer) s[i]].ewma;
+		}
+		Arrays.sort(latencies);
+		return latencies[latencies.length / 2];
+	}
+
+	private void eject(int idx, String reason) {
+		final NodeStats n = stats[idx];
+		if (n.ejectedUntil > System.currentTimeMillis() || idx == master.get()) {
+			return;
 		}
+		n.ejectedUntil = System.currentTimeMillis() + ejectionTime;
+		n.consecutiveErrors.set(0);
+		n.ewma = (slaves != null && !slaves.isEmpty()) ? medianSlaveLatency() : 0;
+		logger.warn("Neo4j node " + idx + " (" + ((HttpClientImpl) clients[idx]).getOptions().getDefaultHost() +
+				") ejected from reads for " + ejectionTime + " ms : " + reason);
 	}
 
 	public void close() {
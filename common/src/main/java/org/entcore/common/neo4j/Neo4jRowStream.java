@@ -0,0 +1,176 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.neo4j;
+
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Rows of a cypher query delivered one by one as they are read from the database.
+ * The stream is paused until a handler is set. When the consumer pauses, rows are queued up to
+ * the high water mark and the producer is then asked to stop reading until the queue is drained.
+ */
+public class Neo4jRowStream implements ReadStream<JsonObject> {
+
+	private static final int DEFAULT_HIGH_WATER_MARK = 512;
+
+	private final Context context;
+	private final int highWaterMark;
+	private final Deque<JsonObject> pending = new ArrayDeque<>();
+	private Handler<JsonObject> handler;
+	private Handler<Void> endHandler;
+	private Handler<Throwable> exceptionHandler;
+	private Handler<Void> drainHandler;
+	private boolean paused = false;
+	private boolean ended = false;
+	private boolean closed = false;
+	private Throwable failure;
+
+	public Neo4jRowStream(Context context) {
+		this(context, DEFAULT_HIGH_WATER_MARK);
+	}
+
+	public Neo4jRowStream(Context context, int highWaterMark) {
+		this.context = context;
+		this.highWaterMark = highWaterMark;
+	}
+
+	@Override
+	public Neo4jRowStream exceptionHandler(Handler<Throwable> handler) {
+		this.exceptionHandler = handler;
+		if (failure != null) {
+			checkPending();
+		}
+		return this;
+	}
+
+	@Override
+	public Neo4jRowStream handler(Handler<JsonObject> handler) {
+		this.handler = handler;
+		if (handler != null) {
+			checkPending();
+		}
+		return this;
+	}
+
+	@Override
+	public Neo4jRowStream pause() {
+		paused = true;
+		return this;
+	}
+
+	@Override
+	public Neo4jRowStream resume() {
+		paused = false;
+		checkPending();
+		return this;
+	}
+
+	@Override
+	public Neo4jRowStream endHandler(Handler<Void> endHandler) {
+		this.endHandler = endHandler;
+		if (ended) {
+			checkPending();
+		}
+		return this;
+	}
+
+	/**
+	 * Producer side : add a row read from the database.
+	 * @return false if the producer must stop reading until the drain handler is called
+	 */
+	public boolean write(JsonObject row) {
+		if (closed) {
+			return false;
+		}
+		if (!paused && handler != null && pending.isEmpty()) {
+			handler.handle(row);
+		} else {
+			pending.add(row);
+		}
+		return !writeQueueFull();
+	}
+
+	public boolean writeQueueFull() {
+		return pending.size() >= highWaterMark || paused || handler == null;
+	}
+
+	/**
+	 * Producer side : handler called when the producer may read again.
+	 */
+	public Neo4jRowStream drainHandler(Handler<Void> drainHandler) {
+		this.drainHandler = drainHandler;
+		return this;
+	}
+
+	/**
+	 * Producer side : no more rows.
+	 */
+	public void end() {
+		ended = true;
+		checkPending();
+	}
+
+	/**
+	 * Producer side : the query failed, rows already queued are discarded.
+	 */
+	public void fail(Throwable cause) {
+		failure = cause;
+		pending.clear();
+		checkPending();
+	}
+
+	public Context getContext() {
+		return context;
+	}
+
+	private void checkPending() {
+		if (closed) {
+			return;
+		}
+		if (failure != null) {
+			if (exceptionHandler != null) {
+				closed = true;
+				exceptionHandler.handle(failure);
+			}
+			return;
+		}
+		while (!paused && handler != null && !pending.isEmpty()) {
+			handler.handle(pending.poll());
+		}
+		if (pending.isEmpty()) {
+			if (ended) {
+				if (!paused && endHandler != null) {
+					closed = true;
+					endHandler.handle(null);
+				}
+			} else if (!writeQueueFull() && drainHandler != null) {
+				final Handler<Void> h = drainHandler;
+				drainHandler = null;
+				h.handle(null);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.notification;
+
+import fr.wseduc.webutils.Either;
+import fr.wseduc.webutils.Server;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.user.UserInfos;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Unread counters of the users kept in memory. The counters of a user are loaded with one query on the
+ * first read, then incremented when a message is delivered and reloaded after the user changed their
+ * messages. Changes are published on the event bus so every instance keeps its counters up to date, and
+ * the counters are reloaded from the database after the ttl to fix any drift.
+ * Listeners (ie websockets) receive the new counters of their user after each change.
+ */
+public class UnreadCounters {
+
+	public interface Loader {
+		void load(UserInfos user, Handler<Either<String, JsonObject>> handler);
+	}
+
+	private static final Logger log = LoggerFactory.getLogger(UnreadCounters.class);
+	private final EventBus eb;
+	private final String address;
+	private final long ttl;
+	private final int maxUsers;
+	private final Loader loader;
+	private final Map<String, Entry> counters = new HashMap<>();
+	private final Map<String, List<Handler<JsonObject>>> listeners = new HashMap<>();
+	private final Map<String, UserInfos> listenersUsers = new HashMap<>();
+	private final Map<String, PendingLoad> loading = new HashMap<>();
+	private final String origin = UUID.randomUUID().toString();
+
+	private static final class Entry {
+		private final JsonObject counts;
+		private final long expiresAt;
+
+		private Entry(JsonObject counts, long expiresAt) {
+			this.counts = counts;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * Loads in progress for a user, with the version of their counters incremented on each change.
+	 */
+	private static final class PendingLoad {
+		private long version;
+		private int loads;
+	}
+
+	public UnreadCounters(Vertx vertx, String address, long ttl, int maxUsers, Loader loader) {
+		this.eb = Server.getEventBus(vertx);
+		this.address = address;
+		this.ttl = ttl;
+		this.maxUsers = maxUsers;
+		this.loader = loader;
+		eb.consumer(address, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!origin.equals(message.body().getString("origin"))) {
+					apply(message.body());
+				}
+			}
+		});
+		vertx.setPeriodic(ttl, new Handler<Long>() {
+			@Override
+			public void handle(Long timerId) {
+				purge();
+			}
+		});
+	}
+
+	public void get(final UserInfos user, final Handler<Either<String, JsonObject>> handler) {
+		final String userId = user.getUserId();
+		final Entry entry = counters.get(userId);
+		if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+			handler.handle(new Either.Right<String, JsonObject>(entry.counts.copy()));
+			return;
+		}
+		PendingLoad pending = loading.get(userId);
+		if (pending == null) {
+			pending = new PendingLoad();
+			loading.put(userId, pending);
+		}
+		pending.loads++;
+		final PendingLoad p = pending;
+		final long version = p.version;
+		loader.load(user, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> res) {
+				if (--p.loads == 0) {
+					loading.remove(userId);
+				}
+				// a change of the user received while loading may be missing from the result
+				if (res.isRight() && version == p.version) {
+					if (counters.size() >= maxUsers) {
+						purge();
+					}
+					if (counters.size() < maxUsers) {
+						counters.put(userId, new Entry(res.right().getValue().copy(), System.currentTimeMillis() + ttl));
+					}
+				}
+				handler.handle(res);
+			}
+		});
+	}
+
+	/**
+	 * Add one to the counter of the users (ie a message was delivered to them).
+	 */
+	public void increment(Collection<String> userIds, String key) {
+		if (userIds == null || userIds.isEmpty()) {
+			return;
+		}
+		publish(new JsonObject().put("action", "increment").put("key", key)
+				.put("users", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(userIds))));
+	}
+
+	/**
+	 * Reload the counters of the user on the next read (ie the user read, moved or deleted messages).
+	 */
+	public void invalidate(String userId) {
+		if (userId == null) {
+			return;
+		}
+		publish(new JsonObject().put("action", "invalidate")
+				.put("users", new fr.wseduc.webutils.collections.JsonArray().add(userId)));
+	}
+
+	/**
+	 * The change is applied at once on this instance, so the next read of the user sees it.
+	 */
+	private void publish(JsonObject event) {
+		apply(event);
+		eb.publish(address, event.put("origin", origin));
+	}
+
+	public void addListener(UserInfos user, Handler<JsonObject> listener) {
+		List<Handler<JsonObject>> l = listeners.get(user.getUserId());
+		if (l == null) {
+			l = new ArrayList<>();
+			listeners.put(user.getUserId(), l);
+			listenersUsers.put(user.getUserId(), user);
+		}
+		l.add(listener);
+	}
+
+	public void removeListener(String userId, Handler<JsonObject> listener) {
+		final List<Handler<JsonObject>> l = listeners.get(userId);
+		if (l != null) {
+			l.remove(listener);
+			if (l.isEmpty()) {
+				listeners.remove(userId);
+				listenersUsers.remove(userId);
+			}
+		}
+	}
+
+	private void apply(JsonObject event) {
+		final JsonArray users = event.getJsonArray("users");
+		if (users == null) {
+			return;
+		}
+		final boolean increment = "increment".equals(event.getString("action"));
+		final String key = event.getString("key");
+		for (Object o : users) {
+			if (!(o instanceof String)) continue;
+			final String userId = (String) o;
+			final PendingLoad pending = loading.get(userId);
+			if (pending != null) {
+				pending.version++;
+			}
+			final Entry entry = counters.get(userId);
+			if (increment && key != null && entry != null) {
+				entry.counts.put(key, entry.counts.getLong(key, 0L) + 1);
+			} else {
+				counters.remove(userId);
+			}
+			notifyListeners(userId);
+		}
+	}
+
+	private void notifyListeners(final String userId) {
+		final UserInfos user = listenersUsers.get(userId);
+		if (user == null) {
+			return;
+		}
+		get(user, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> res) {
+				if (res.isLeft()) {
+					log.error("Error loading unread counters of user " + userId + " : " + res.left().getValue());
+					return;
+				}
+				final List<Handler<JsonObject>> l = listeners.get(userId);
+				if (l != null) {
+					for (Handler<JsonObject> listener : new ArrayList<>(l)) {
+						listener.handle(res.right().getValue());
+					}
+				}
+			}
+		});
+	}
+
+	private void purge() {
+		final long now = System.currentTimeMillis();
+		counters.values().removeIf(e -> e.expiresAt < now);
+		if (counters.size() >= maxUsers) {
+			counters.clear();
+		}
+	}
+
+}
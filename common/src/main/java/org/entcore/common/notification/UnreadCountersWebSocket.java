@@ -0,0 +1,89 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.notification;
+
+import static fr.wseduc.webutils.request.filter.UserAuthFilter.SESSION_ID;
+
+import fr.wseduc.webutils.Either;
+import fr.wseduc.webutils.Server;
+import fr.wseduc.webutils.request.CookieHelper;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.ServerWebSocket;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserUtils;
+
+/**
+ * Push channel of the unread counters : the counters of the connected user are sent when the socket
+ * is opened and after each change, so the clients don't poll the count routes.
+ */
+public class UnreadCountersWebSocket implements Handler<ServerWebSocket> {
+
+	private final Vertx vertx;
+	private final UnreadCounters counters;
+
+	public UnreadCountersWebSocket(Vertx vertx, UnreadCounters counters) {
+		this.vertx = vertx;
+		this.counters = counters;
+	}
+
+	@Override
+	public void handle(final ServerWebSocket ws) {
+		final String sessionId = CookieHelper.getInstance().getSigned(SESSION_ID, ws);
+		if (sessionId == null) {
+			ws.reject();
+			return;
+		}
+		ws.pause();
+		UserUtils.getSession(Server.getEventBus(vertx), sessionId, new Handler<JsonObject>() {
+			public void handle(final JsonObject session) {
+				final UserInfos user = (session != null) ? UserUtils.sessionToUserInfos(session) : null;
+				if (user == null) {
+					// the handshake is done once handle returns, the socket can only be closed here
+					ws.close();
+					return;
+				}
+				final Handler<JsonObject> listener = new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject counts) {
+						ws.writeFinalTextFrame(counts.encode());
+					}
+				};
+				ws.closeHandler(new Handler<Void>() {
+					@Override
+					public void handle(Void v) {
+						counters.removeListener(user.getUserId(), listener);
+					}
+				});
+				counters.addListener(user, listener);
+				counters.get(user, new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> res) {
+						if (res.isRight()) {
+							listener.handle(res.right().getValue());
+						}
+					}
+				});
+				ws.resume();
+			}
+		});
+	}
+
+}
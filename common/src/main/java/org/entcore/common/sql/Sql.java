@@ -21,6 +21,7 @@ package org.entcore.common.sql;
 
 import io.vertx.core.eventbus.DeliveryOptions;
 import org.entcore.common.bus.ErrorMessage;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
@@ -63,6 +64,43 @@ public class Sql {
 		eb.send(address, j, deliveryOptions, handlerToAsyncHandler(handler));
 	}
 
+	/**
+	 * The reply is awaited until the deadline : after it, the handler receives a deadline.exceeded error.
+	 * A null deadline means no deadline.
+	 */
+	public void prepared(String query, JsonArray values, Deadline deadline, Handler<Message<JsonObject>> handler) {
+		JsonObject j = new JsonObject()
+				.put("action", "prepared")
+				.put("statement", query)
+				.put("values", values);
+		send(j, deadline, handler);
+	}
+
+	public void raw(String query, Deadline deadline, Handler<Message<JsonObject>> handler) {
+		JsonObject j = new JsonObject()
+				.put("action", "raw")
+				.put("command", query);
+		send(j, deadline, handler);
+	}
+
+	public void transaction(JsonArray statements, Deadline deadline, Handler<Message<JsonObject>> handler) {
+		JsonObject j = new JsonObject()
+				.put("action", "transaction")
+				.put("statements", statements);
+		send(j, deadline, handler);
+	}
+
+	private void send(JsonObject j, Deadline deadline, Handler<Message<JsonObject>> handler) {
+		if (deadline == null) {
+			eb.send(address, j, handlerToAsyncHandler(handler));
+		} else if (deadline.isExpired()) {
+			Deadline.timeout("sql");
+			handler.handle(new ErrorMessage(Deadline.ERROR));
+		} else {
+			eb.send(address, j, deadline.deliveryOptions(), deadline.asyncHandler("sql", handler));
+		}
+	}
+
 	public void raw(String query, Handler<Message<JsonObject>> handler) {
 		JsonObject j = new JsonObject()
 				.put("action", "raw")
@@ -0,0 +1,249 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.common.user;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bounded near-cache of the sessions returned by the session module (wse.session).
+ * Entries are kept for a short ttl and are evicted when the session module publishes
+ * an invalidation (drop, dropCacheSession, addAttribute, removeAttribute, expiration).
+ * The cache is shared by the verticles of the JVM. The sessions are stored as read only snapshots
+ * which are handed out without copy : callers which need to modify a session must copy it.
+ */
+public class SessionCache {
+
+	public static final String INVALIDATE_ADDRESS = "wse.session.invalidate";
+	private static final Logger log = LoggerFactory.getLogger(SessionCache.class);
+	private static final int DEFAULT_MAX_SIZE = 10000;
+	private static final long DEFAULT_TTL = 10000L;
+
+	private volatile int maxSize = DEFAULT_MAX_SIZE;
+	private volatile long ttl = DEFAULT_TTL;
+	private volatile boolean enabled = false;
+	private boolean initialized = false;
+	private final Map<String, Entry> sessions;
+	private final Map<String, Set<String>> userSessions = new LinkedHashMap<>();
+
+	private static final class Entry {
+		private final JsonObject session;
+		private final String userId;
+		private final long expire;
+
+		private Entry(JsonObject session, String userId, long expire) {
+			this.session = session;
+			this.userId = userId;
+			this.expire = expire;
+		}
+	}
+
+	private SessionCache() {
+		sessions = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > maxSize) {
+					unindex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	private static class SessionCacheHolder {
+		private static final SessionCache instance = new SessionCache();
+	}
+
+	public static SessionCache getInstance() {
+		return SessionCacheHolder.instance;
+	}
+
+	/**
+	 * Configure the cache, only the first configuration of the JVM is used : the verticles are
+	 * started concurrently and all call init.
+	 */
+	public synchronized void init(Vertx vertx, JsonObject config) {
+		if (config == null || initialized) {
+			return;
+		}
+		initialized = true;
+		this.maxSize = config.getInteger("max-size", DEFAULT_MAX_SIZE);
+		this.ttl = config.getLong("ttl", DEFAULT_TTL);
+		this.enabled = config.getBoolean("enabled", true);
+		if (enabled) {
+			vertx.eventBus().consumer(INVALIDATE_ADDRESS, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					invalidate(message.body().getString("sessionId"), message.body().getString("userId"));
+				}
+			});
+			log.info("Session near-cache enabled - max-size : " + maxSize + ", ttl : " + ttl);
+		}
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public JsonObject get(String sessionId) {
+		if (!enabled || sessionId == null) {
+			return null;
+		}
+		final Entry e;
+		synchronized (this) {
+			e = sessions.get(sessionId);
+			if (e != null && e.expire < System.currentTimeMillis()) {
+				sessions.remove(sessionId);
+				unindex(sessionId, e);
+				return null;
+			}
+		}
+		return (e != null) ? e.session : null;
+	}
+
+	/**
+	 * Cache a session received from the session module.
+	 * @return the read only snapshot of the session kept by the cache, or the session itself when
+	 * the cache is disabled
+	 */
+	public JsonObject put(String sessionId, JsonObject session) {
+		if (!enabled || sessionId == null || session == null) {
+			return session;
+		}
+		final String userId = session.getString("userId");
+		final JsonObject snapshot = freeze(session);
+		final Entry e = new Entry(snapshot, userId, System.currentTimeMillis() + ttl);
+		synchronized (this) {
+			final Entry old = sessions.put(sessionId, e);
+			if (old != null) {
+				unindex(sessionId, old);
+			}
+			if (userId != null) {
+				Set<String> ids = userSessions.get(userId);
+				if (ids == null) {
+					ids = new HashSet<>();
+					userSessions.put(userId, ids);
+				}
+				ids.add(sessionId);
+			}
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Read only copy of the session : its objects and arrays can be read with the JsonObject and
+	 * JsonArray getters, any modification throws an UnsupportedOperationException.
+	 */
+	static JsonObject freeze(JsonObject session) {
+		return new JsonObject(freeze(session.getMap()));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Object freezeValue(Object value) {
+		if (value instanceof JsonObject) {
+			return freeze(((JsonObject) value).getMap());
+		} else if (value instanceof Map) {
+			return freeze((Map<String, Object>) value);
+		} else if (value instanceof JsonArray) {
+			return freeze(((JsonArray) value).getList());
+		} else if (value instanceof List) {
+			return freeze((List<Object>) value);
+		}
+		return value;
+	}
+
+	private static Map<String, Object> freeze(Map<String, Object> map) {
+		final Map<String, Object> m = new LinkedHashMap<>(map.size());
+		for (Map.Entry<String, Object> e : map.entrySet()) {
+			m.put(e.getKey(), freezeValue(e.getValue()));
+		}
+		return Collections.unmodifiableMap(m);
+	}
+
+	private static List<Object> freeze(List<Object> list) {
+		final List<Object> l = new ArrayList<>(list.size());
+		for (Object o : list) {
+			l.add(freezeValue(o));
+		}
+		return Collections.unmodifiableList(l);
+	}
+
+	public synchronized void invalidate(String sessionId, String userId) {
+		if (sessionId != null) {
+			final Entry e = sessions.remove(sessionId);
+			if (e != null) {
+				unindex(sessionId, e);
+			}
+		}
+		if (userId != null) {
+			final Set<String> ids = userSessions.remove(userId);
+			if (ids != null) {
+				for (String id : ids) {
+					sessions.remove(id);
+				}
+			}
+		}
+	}
+
+	public synchronized void clear() {
+		sessions.clear();
+		userSessions.clear();
+	}
+
+	private void unindex(String sessionId, Entry e) {
+		if (e.userId == null) {
+			return;
+		}
+		final Set<String> ids = userSessions.get(e.userId);
+		if (ids != null) {
+			ids.remove(sessionId);
+			if (ids.isEmpty()) {
+				userSessions.remove(e.userId);
+			}
+		}
+	}
+
+	public static void publishInvalidation(EventBus eb, String sessionId, String userId) {
+		final JsonObject m = new JsonObject();
+		if (sessionId != null) {
+			m.put("sessionId", sessionId);
+		}
+		if (userId != null) {
+			m.put("userId", userId);
+		}
+		eb.publish(INVALIDATE_ADDRESS, m);
+	}
+
+}
@@ -21,7 +21,11 @@ package org.entcore.common.user;
 
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -259,6 +263,7 @@ public class UserInfos {
 	private String type;
 	private String login;
 	private List<Action> authorizedActions;
+	private Map<String, Boolean> actionsIndex;
 	private List<Application> apps;
 	private List<String> groupsIds;
 	private List<String> classes;
@@ -320,6 +325,101 @@ public class UserInfos {
 
 	public void setAuthorizedActions(List<Action> authorizedActions) {
 		this.authorizedActions = authorizedActions;
+		this.actionsIndex = null;
+	}
+
+	/**
+	 * Index of the authorized actions by name, built on first use. It isn't serialized : the
+	 * session only holds the authorized actions.
+	 */
+	@JsonIgnore
+	public Map<String, Boolean> getActionsIndex() {
+		Map<String, Boolean> index = actionsIndex;
+		if (index == null && authorizedActions != null) {
+			index = new HashMap<>();
+			for (Action action : authorizedActions) {
+				if (action.getName() != null) {
+					index.put(action.getName(), true);
+				}
+			}
+			actionsIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * Check if the user is authorized to execute a workflow action.
+	 * @param name the action name (ie. the secured service method)
+	 */
+	public boolean hasAction(String name) {
+		final Map<String, Boolean> index = getActionsIndex();
+		return name != null && index != null && index.containsKey(name);
+	}
+
+	/**
+	 * Replace the lists of ids with compact read only copies. Called on the snapshot kept for a
+	 * request, which is only handed out through mutableCopy.
+	 */
+	void freeze() {
+		classNames = compact(classNames);
+		realClassNames = compact(realClassNames);
+		structureNames = compact(structureNames);
+		uai = compact(uai);
+		childrenIds = compact(childrenIds);
+		groupsIds = compact(groupsIds);
+		classes = compact(classes);
+		structures = compact(structures);
+	}
+
+	private static List<String> compact(List<String> list) {
+		if (list == null) {
+			return null;
+		}
+		return Collections.unmodifiableList(Arrays.asList(list.toArray(new String[list.size()])));
+	}
+
+	/**
+	 * Copy of the snapshot whose lists and maps can be modified without changing the snapshot.
+	 * The elements (actions, applications, widgets...) and the actions index are shared, so the index
+	 * is built once per request.
+	 */
+	UserInfos mutableCopy() {
+		final UserInfos u = new UserInfos();
+		u.userId = userId;
+		u.externalId = externalId;
+		u.firstName = firstName;
+		u.lastName = lastName;
+		u.username = username;
+		u.birthDate = birthDate;
+		u.classNames = copy(classNames);
+		u.realClassNames = copy(realClassNames);
+		u.structureNames = copy(structureNames);
+		u.uai = copy(uai);
+		u.childrenIds = copy(childrenIds);
+		u.children = copy(children);
+		u.level = level;
+		u.type = type;
+		u.login = login;
+		u.authorizedActions = copy(authorizedActions);
+		u.actionsIndex = getActionsIndex();
+		u.apps = copy(apps);
+		u.groupsIds = copy(groupsIds);
+		u.classes = copy(classes);
+		u.structures = copy(structures);
+		u.cache = copy(cache);
+		u.federated = federated;
+		u.widgets = copy(widgets);
+		u.functions = copy(functions);
+		u.otherProperties = new HashMap<>(otherProperties);
+		return u;
+	}
+
+	private static <T> List<T> copy(List<T> list) {
+		return (list != null) ? new ArrayList<>(list) : null;
+	}
+
+	private static <K, V> Map<K, V> copy(Map<K, V> map) {
+		return (map != null) ? new HashMap<>(map) : null;
 	}
 
 	public String getFirstName() {
@@ -19,19 +19,24 @@
 
 package org.entcore.common.user;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import fr.wseduc.webutils.I18n;
 import fr.wseduc.webutils.request.CookieHelper;
 import fr.wseduc.webutils.security.SecureHttpServerRequest;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
 
-import java.io.IOException;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import static fr.wseduc.webutils.Utils.getOrElse;
 import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
@@ -39,6 +44,9 @@ import static fr.wseduc.webutils.Utils.handlerToAsyncHandler;
 public class UserUtils {
 
 	private static final String COMMUNICATION_USERS = "wse.communication.users";
+	public static final String VISIBILITY_INVALIDATE_ADDRESS = "communication.visibility.invalidate";
+	public static final String OAUTH_TOKEN_INVALIDATE_ADDRESS = "auth.oauth.token.invalidate";
+	public static final String SEARCH_INDEX_REFRESH_ADDRESS = "directory.search.index.refresh";
 	private static final String DIRECTORY = "directory";
 	private static final String SESSION_ADDRESS = "wse.session";
 	private static final JsonArray usersTypes = new fr.wseduc.webutils.collections.JsonArray().add("User");
@@ -47,6 +55,19 @@ public class UserUtils {
 	private static final JsonObject QUERY_VISIBLE_MANUAL_GROUPS = new JsonObject()
 	.put("action", "visibleManualGroups");
 	private static final I18n i18n = I18n.getInstance();
+	private static final SessionCache sessionCache = SessionCache.getInstance();
+	private static final Logger log = LoggerFactory.getLogger(UserUtils.class);
+	private static final String REQUEST_USER_INFOS = "entcore.request.userinfos";
+
+	private static final class UserInfosSnapshot {
+		private final JsonObject session;
+		private final UserInfos user;
+
+		private UserInfosSnapshot(JsonObject session, UserInfos user) {
+			this.session = session;
+			this.user = user;
+		}
+	}
 
 	private static void findUsers(final EventBus eb, HttpServerRequest request,
 								  final JsonObject query, final Handler<JsonArray> handler) {
@@ -201,6 +222,94 @@ public class UserUtils {
 		});
 	}
 
+	/**
+	 * Filter the ids of the users visible by a user with the visibility index of the communication module.
+	 * Ids of groups are never returned.
+	 * @param handler the visible user ids or null if the communication module did not answer
+	 */
+	public static void filterVisibleUsers(EventBus eb, String userId, JsonArray ids, boolean excludeBlocked,
+			final Handler<JsonArray> handler) {
+		JsonObject m = new JsonObject()
+				.put("action", "filterVisibles")
+				.put("userId", userId)
+				.put("ids", ids)
+				.put("excludeBlocked", excludeBlocked);
+		eb.send(COMMUNICATION_USERS, m, new Handler<AsyncResult<Message<JsonArray>>>() {
+
+			@Override
+			public void handle(AsyncResult<Message<JsonArray>> res) {
+				if (res.succeeded()) {
+					handler.handle(res.result().body());
+				} else {
+					handler.handle(null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Find the ids, users or groups, which are not visible by a user with the visibility index
+	 * of the communication module.
+	 * @param handler the ids which are not visible or null if the communication module did not answer
+	 */
+	public static void findInvisibles(EventBus eb, String userId, JsonArray ids, final Handler<JsonArray> handler) {
+		JsonObject m = new JsonObject()
+				.put("action", "invisibles")
+				.put("userId", userId)
+				.put("ids", ids);
+		eb.send(COMMUNICATION_USERS, m, new Handler<AsyncResult<Message<JsonArray>>>() {
+
+			@Override
+			public void handle(AsyncResult<Message<JsonArray>> res) {
+				if (res.succeeded()) {
+					handler.handle(res.result().body());
+				} else {
+					handler.handle(null);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Notify the visibility index of the communication module that the visibility of users changed
+	 * (ie. blocked or unblocked users, users moved between classes or structures). A null userIds resets
+	 * the whole index.
+	 */
+	public static void publishVisibilityChange(EventBus eb, JsonArray userIds) {
+		eb.publish(VISIBILITY_INVALIDATE_ADDRESS, (userIds != null) ?
+				new JsonObject().put("action", "users").put("userIds", userIds) :
+				new JsonObject().put("action", "all"));
+	}
+
+	/**
+	 * Notify the visibility index of the communication module that the members or the links of groups
+	 * changed (ie. users added to or removed from a manual group, deleted group).
+	 */
+	public static void publishGroupsVisibilityChange(EventBus eb, JsonArray groupIds) {
+		if (groupIds != null && groupIds.size() > 0) {
+			eb.publish(VISIBILITY_INVALIDATE_ADDRESS, new JsonObject().put("action", "groups").put("groupIds", groupIds));
+		}
+	}
+
+	/**
+	 * Notify the users search index of the directory module that the display name, profile or structures
+	 * of users changed.
+	 */
+	public static void publishSearchIndexRefresh(EventBus eb, JsonArray userIds) {
+		if (userIds != null && userIds.size() > 0) {
+			eb.publish(SEARCH_INDEX_REFRESH_ADDRESS, new JsonObject().put("users", userIds));
+		}
+	}
+
+	/**
+	 * Notify the oauth tokens cache of the auth module that the tokens of these users must not be used anymore
+	 * (ie. blocked users). A null userIds clears the whole cache.
+	 */
+	public static void publishTokensInvalidation(EventBus eb, JsonArray userIds) {
+		eb.publish(OAUTH_TOKEN_INVALIDATE_ADDRESS, (userIds != null) ?
+				new JsonObject().put("userIds", userIds) : new JsonObject().put("all", true));
+	}
+
 	public static void translateGroupsNames(JsonArray groups, String acceptLanguage) {
 		for (Object u : groups) {
 			if (!(u instanceof JsonObject)) continue;
@@ -397,6 +506,18 @@ public class UserUtils {
 
 	private static void findSession(EventBus eb, final HttpServerRequest request, JsonObject findSession, final boolean paused,
 			final Handler<JsonObject> handler) {
+		final String sessionId = "find".equals(findSession.getString("action")) ? findSession.getString("sessionId") : null;
+		final JsonObject cachedSession = sessionCache.get(sessionId);
+		if (cachedSession != null) {
+			if (request != null && !paused) {
+				request.resume();
+			}
+			if (request instanceof SecureHttpServerRequest) {
+				((SecureHttpServerRequest) request).setSession(cachedSession);
+			}
+			handler.handle(cachedSession);
+			return;
+		}
 		eb.send(SESSION_ADDRESS, findSession, new Handler<AsyncResult<Message<JsonObject>>>() {
 
 			@Override
@@ -407,6 +528,7 @@ public class UserUtils {
 						request.resume();
 					}
 					if ("ok".equals(message.result().body().getString("status")) && session != null) {
+						session = sessionCache.put(sessionId, session);
 						if (request instanceof SecureHttpServerRequest) {
 							((SecureHttpServerRequest) request).setSession(session);
 						}
@@ -440,21 +562,64 @@ public class UserUtils {
 		if (session == null) {
 			return null;
 		}
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			return mapper.readValue(session.encode(), UserInfos.class);
-		} catch (IOException e) {
-			e.printStackTrace();
+			return Json.mapper.convertValue(session.getMap(), UserInfos.class);
+		} catch (IllegalArgumentException e) {
+			log.error("Error converting session to user infos", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Same as sessionToUserInfos(session) but the session is converted once per request : the filters,
+	 * the controller and the event store get a copy of the same frozen snapshot as long as the session
+	 * of the request doesn't change. The returned user infos can be modified by the caller.
+	 */
+	public static UserInfos sessionToUserInfos(HttpServerRequest request, JsonObject session) {
+		if (request == null || session == null) {
+			return sessionToUserInfos(session);
+		}
+		final Map<HttpServerRequest, UserInfosSnapshot> requestUserInfos = requestUserInfos();
+		if (requestUserInfos == null) {
+			return sessionToUserInfos(session);
+		}
+		final UserInfosSnapshot snapshot = requestUserInfos.get(request);
+		if (snapshot != null && snapshot.session == session) {
+			return snapshot.user.mutableCopy();
+		}
+		final UserInfos user = sessionToUserInfos(session);
+		if (user != null) {
+			final UserInfos frozen = user.mutableCopy();
+			frozen.freeze();
+			requestUserInfos.put(request, new UserInfosSnapshot(session, frozen));
+		}
+		return user;
+	}
+
+	/**
+	 * Snapshots of the requests handled by the current vert.x context. A context runs its handlers one at
+	 * a time and the filters, bus replies and controller of a request come back to it, so the map needs no lock.
+	 * Returns null outside of a context or in a multi-threaded worker, the user infos are then rebuilt.
+	 */
+	private static Map<HttpServerRequest, UserInfosSnapshot> requestUserInfos() {
+		final Context context = Vertx.currentContext();
+		if (context == null || context.isMultiThreadedWorkerContext()) {
 			return null;
 		}
+		Map<HttpServerRequest, UserInfosSnapshot> requestUserInfos = context.get(REQUEST_USER_INFOS);
+		if (requestUserInfos == null) {
+			requestUserInfos = new WeakHashMap<>();
+			context.put(REQUEST_USER_INFOS, requestUserInfos);
+		}
+		return requestUserInfos;
 	}
 
-	public static void getUserInfos(EventBus eb, HttpServerRequest request,
+	public static void getUserInfos(EventBus eb, final HttpServerRequest request,
 									final Handler<UserInfos> handler) {
 		getSession(eb, request, new Handler<JsonObject>() {
 			@Override
 			public void handle(JsonObject session) {
-				handler.handle(sessionToUserInfos(session));
+				handler.handle(sessionToUserInfos(request, session));
 			}
 		});
 	}
@@ -493,7 +658,7 @@ public class UserUtils {
 		});
 	}
 
-	public static void deleteSession(EventBus eb, String sessionId,
+	public static void deleteSession(EventBus eb, final String sessionId,
 									 final Handler<Boolean> handler) {
 		JsonObject json = new JsonObject()
 				.put("action", "drop")
@@ -502,6 +667,7 @@ public class UserUtils {
 
 			@Override
 			public void handle(AsyncResult<Message<JsonObject>> res) {
+				sessionCache.invalidate(sessionId, null);
 				if (handler != null) {
 					handler.handle(res.succeeded() && "ok".equals(res.result().body().getString("status")));
 				}
@@ -509,7 +675,7 @@ public class UserUtils {
 		});
 	}
 
-	public static void deleteSessionWithMetadata(EventBus eb, String sessionId,
+	public static void deleteSessionWithMetadata(EventBus eb, final String sessionId,
 			final Handler<JsonObject> handler) {
 		JsonObject json = new JsonObject()
 				.put("action", "drop")
@@ -519,6 +685,7 @@ public class UserUtils {
 
 			@Override
 			public void handle(AsyncResult<Message<JsonObject>> res) {
+				sessionCache.invalidate(sessionId, null);
 				if (handler != null) {
 					if (res.succeeded() && "ok".equals(res.result().body().getString("status"))) {
 						handler.handle(res.result().body().getJsonObject("sessionMetadata"));
@@ -551,7 +718,7 @@ public class UserUtils {
 		deleteCacheSession(eb, userId, true, handler);
 	}
 
-	public static void deleteCacheSession(EventBus eb, String userId, boolean deleteSessionCollection, final Handler<Boolean> handler) {
+	public static void deleteCacheSession(EventBus eb, final String userId, boolean deleteSessionCollection, final Handler<Boolean> handler) {
 		JsonObject json = new JsonObject()
 				.put("action", "dropCacheSession")
 				.put("userId", userId)
@@ -560,6 +727,7 @@ public class UserUtils {
 
 			@Override
 			public void handle(Message<JsonObject> res) {
+				sessionCache.invalidate(null, userId);
 				if (handler != null) {
 					handler.handle("ok".equals(res.body().getString("status")));
 				}
@@ -567,7 +735,7 @@ public class UserUtils {
 		}));
 	}
 
-	public static void addSessionAttribute(EventBus eb, String userId,
+	public static void addSessionAttribute(EventBus eb, final String userId,
 			String key, Object value, final Handler<Boolean> handler) {
 		JsonObject json = new JsonObject()
 				.put("action", "addAttribute")
@@ -578,6 +746,31 @@ public class UserUtils {
 
 			@Override
 			public void handle(AsyncResult<Message<JsonObject>> res) {
+				sessionCache.invalidate(null, userId);
+				if (handler != null) {
+					handler.handle(res.succeeded() && "ok".equals(res.result().body().getString("status")));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Set the same attribute in the sessions of several users with one message.
+	 * @param values the value of each user (userId : value)
+	 */
+	public static void addSessionAttributes(EventBus eb, final JsonObject values,
+			String key, final Handler<Boolean> handler) {
+		JsonObject json = new JsonObject()
+				.put("action", "addAttributes")
+				.put("values", values)
+				.put("key", key);
+		eb.send(SESSION_ADDRESS, json, new Handler<AsyncResult<Message<JsonObject>>>() {
+
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> res) {
+				for (String userId : values.fieldNames()) {
+					sessionCache.invalidate(null, userId);
+				}
 				if (handler != null) {
 					handler.handle(res.succeeded() && "ok".equals(res.result().body().getString("status")));
 				}
@@ -585,7 +778,7 @@ public class UserUtils {
 		});
 	}
 
-	public static void removeSessionAttribute(EventBus eb, String userId,
+	public static void removeSessionAttribute(EventBus eb, final String userId,
 			String key, final Handler<Boolean> handler) {
 		JsonObject json = new JsonObject()
 				.put("action", "removeAttribute")
@@ -595,6 +788,7 @@ public class UserUtils {
 
 			@Override
 			public void handle(AsyncResult<Message<JsonObject>> res) {
+				sessionCache.invalidate(null, userId);
 				if (handler != null) {
 					handler.handle(res.succeeded() && "ok".equals(res.result().body().getString("status")));
 				}
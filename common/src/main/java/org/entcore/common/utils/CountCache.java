@@ -0,0 +1,90 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Short lived cache of the total counts of the paginated listings. Listings no longer compute
+ * their total, it is fetched by a separate call which is cached here for a few seconds.
+ */
+public final class CountCache {
+
+	private final long ttl;
+	private final int maxSize;
+	private final Map<String, Entry> counts = new ConcurrentHashMap<>();
+
+	private static final class Entry {
+		private final long count;
+		private final long expiresAt;
+
+		private Entry(long count, long expiresAt) {
+			this.count = count;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	public CountCache(long ttl, int maxSize) {
+		this.ttl = ttl;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the cached count or null if it is missing or expired.
+	 */
+	public Long get(String key) {
+		final Entry e = counts.get(key);
+		if (e == null) {
+			return null;
+		}
+		if (e.expiresAt < System.currentTimeMillis()) {
+			counts.remove(key, e);
+			return null;
+		}
+		return e.count;
+	}
+
+	public void put(String key, long count) {
+		if (ttl <= 0) {
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		if (counts.size() >= maxSize) {
+			for (Iterator<Entry> it = counts.values().iterator(); it.hasNext();) {
+				if (it.next().expiresAt < now) {
+					it.remove();
+				}
+			}
+			if (counts.size() >= maxSize) {
+				counts.clear();
+			}
+		}
+		counts.put(key, new Entry(count, now + ttl));
+	}
+
+	/**
+	 * Remove the counts whose key starts with the prefix (ie the counts of a user).
+	 */
+	public void invalidate(String prefix) {
+		counts.keySet().removeIf(k -> k.startsWith(prefix));
+	}
+
+}
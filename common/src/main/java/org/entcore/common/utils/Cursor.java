@@ -0,0 +1,92 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque keyset pagination cursor shared by the listings sorted by date then id (descending).
+ * A page is requested with {@code after=<cursor>} where the cursor is built from the date and
+ * the id of the last row of the previous page, so a deep page costs the same as the first one.
+ * The date is kept as sent by the store (epoch millis for the timeline and the conversation,
+ * formatted mongo date for the workspace).
+ */
+public final class Cursor {
+
+	public static final String PARAM = "after";
+	public static final String NEXT = "next";
+	public static final String HEADER = "X-Next-Cursor";
+
+	private final String date;
+	private final String id;
+
+	private Cursor(String date, String id) {
+		this.date = date;
+		this.id = id;
+	}
+
+	/**
+	 * @return the cursor or null if the value is empty or invalid.
+	 */
+	public static Cursor parse(String value) {
+		if (value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		final String decoded;
+		try {
+			decoded = new String(Base64.getUrlDecoder().decode(value.trim()), StandardCharsets.UTF_8);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		final int idx = decoded.indexOf(',');
+		if (idx < 1 || idx == decoded.length() - 1) {
+			return null;
+		}
+		return new Cursor(decoded.substring(0, idx), decoded.substring(idx + 1));
+	}
+
+	public static String of(Object date, String id) {
+		if (date == null || id == null || id.isEmpty()) {
+			return null;
+		}
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString((date.toString() + "," + id).getBytes(StandardCharsets.UTF_8));
+	}
+
+	public String getDate() {
+		return date;
+	}
+
+	/**
+	 * @return the date as epoch millis or null if the cursor date is not numeric.
+	 */
+	public Long getDateAsLong() {
+		try {
+			return Long.parseLong(date);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public String getId() {
+		return id;
+	}
+
+}
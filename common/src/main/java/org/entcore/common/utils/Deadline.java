@@ -0,0 +1,211 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+package org.entcore.common.utils;
+
+import fr.wseduc.webutils.security.SecureHttpServerRequest;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.bus.ErrorMessage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Instant after which the result of a database call is useless because the http request which
+ * triggered it has timed out. The deadline of a request is set by the DeadlineFilter, read with
+ * Deadline.of(request) and passed along with the request parameters to the services : Neo4j and Sql
+ * have overloads taking it, the handlers of the mongo calls are wrapped with wrap(deadline, ...).
+ * A vert.x context is shared by all the requests of an event loop, so the deadline can't be bound to it.
+ */
+public final class Deadline {
+
+	public static final String ATTRIBUTE = "deadline";
+	public static final String HEADER = "X-Request-Timeout";
+	/** The counters of a module are sent in reply to the messages on METRICS_ADDRESS + "." + module name. */
+	public static final String METRICS_ADDRESS = "deadline.metrics";
+	public static final String ERROR = "deadline.exceeded";
+	private static final Logger log = LoggerFactory.getLogger(Deadline.class);
+	private static final Map<String, AtomicLong> timeouts = new ConcurrentHashMap<>();
+
+	private final long expiresAt;
+
+	private Deadline(long expiresAt) {
+		this.expiresAt = expiresAt;
+	}
+
+	public static Deadline in(long timeout) {
+		return new Deadline(System.currentTimeMillis() + timeout);
+	}
+
+	public static Deadline at(long expiresAt) {
+		return new Deadline(expiresAt);
+	}
+
+	/**
+	 * @return the deadline of the request or null if the request has no deadline.
+	 */
+	public static Deadline of(HttpServerRequest request) {
+		if (request instanceof SecureHttpServerRequest) {
+			final String d = ((SecureHttpServerRequest) request).getAttribute(ATTRIBUTE);
+			if (d != null) {
+				try {
+					return new Deadline(Long.parseLong(d));
+				} catch (NumberFormatException e) {
+					log.warn("Invalid request deadline : " + d);
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Set the deadline of the request to now plus the smallest value of the default timeout and of the
+	 * timeout sent by the load balancer in the X-Request-Timeout header (milliseconds).
+	 */
+	public static void setDeadline(SecureHttpServerRequest request, long defaultTimeout) {
+		long timeout = defaultTimeout;
+		final String header = request.headers().get(HEADER);
+		if (header != null) {
+			try {
+				final long t = Long.parseLong(header.trim());
+				if (t > 0 && (timeout <= 0 || t < timeout)) {
+					timeout = t;
+				}
+			} catch (NumberFormatException e) {
+				log.debug("Invalid request timeout header : " + header);
+			}
+		}
+		if (timeout > 0) {
+			request.setAttribute(ATTRIBUTE, Long.toString(System.currentTimeMillis() + timeout));
+		}
+	}
+
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	public long remaining() {
+		return Math.max(0, expiresAt - System.currentTimeMillis());
+	}
+
+	public boolean isExpired() {
+		return remaining() <= 0;
+	}
+
+	public DeliveryOptions deliveryOptions() {
+		return deliveryOptions(new DeliveryOptions());
+	}
+
+	public DeliveryOptions deliveryOptions(DeliveryOptions options) {
+		return options.setSendTimeout(Math.max(1, Math.min(options.getSendTimeout(), remaining())));
+	}
+
+	/**
+	 * Wrap a reply handler of an event bus call sent with deliveryOptions() : a reply timeout is
+	 * counted and turned into a deadline.exceeded error.
+	 */
+	public Handler<AsyncResult<Message<JsonObject>>> asyncHandler(final String backend,
+			final Handler<Message<JsonObject>> handler) {
+		return new Handler<AsyncResult<Message<JsonObject>>>() {
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> ar) {
+				if (ar.succeeded()) {
+					handler.handle(ar.result());
+				} else if (ar.cause() instanceof ReplyException &&
+						((ReplyException) ar.cause()).failureType() == ReplyFailure.TIMEOUT) {
+					timeout(backend);
+					handler.handle(new ErrorMessage(ERROR));
+				} else {
+					handler.handle(new ErrorMessage(ar.cause().getMessage()));
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap the handler of a call which can't be cancelled : when the deadline passes, the handler
+	 * receives a deadline.exceeded error and the late reply is ignored.
+	 */
+	public Handler<Message<JsonObject>> wrap(final Vertx vertx, final String backend,
+			final Handler<Message<JsonObject>> handler) {
+		final AtomicBoolean done = new AtomicBoolean(false);
+		final long timerId = vertx.setTimer(Math.max(1, remaining()), t -> {
+			if (!done.getAndSet(true)) {
+				timeout(backend);
+				handler.handle(new ErrorMessage(ERROR));
+			}
+		});
+		return new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!done.getAndSet(true)) {
+					vertx.cancelTimer(timerId);
+					handler.handle(message);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Wrap the handler of a call made for the request (see wrap) : the handler is returned unchanged when
+	 * the request has no deadline or outside of a vert.x context.
+	 */
+	public static Handler<Message<JsonObject>> wrap(HttpServerRequest request, String backend,
+			Handler<Message<JsonObject>> handler) {
+		return wrap(of(request), backend, handler);
+	}
+
+	/**
+	 * Wrap the handler of a call made under the deadline (see wrap) : the handler is returned unchanged
+	 * when the deadline is null or outside of a vert.x context.
+	 */
+	public static Handler<Message<JsonObject>> wrap(Deadline deadline, String backend,
+			Handler<Message<JsonObject>> handler) {
+		final Context context = Vertx.currentContext();
+		if (deadline == null || context == null) {
+			return handler;
+		}
+		return deadline.wrap(context.owner(), backend, handler);
+	}
+
+	public static void timeout(String backend) {
+		timeouts.computeIfAbsent(backend, k -> new AtomicLong()).incrementAndGet();
+	}
+
+	public static JsonObject timeoutCounters() {
+		final JsonObject counters = new JsonObject();
+		for (Map.Entry<String, AtomicLong> e : timeouts.entrySet()) {
+			counters.put(e.getKey(), e.getValue().get());
+		}
+		return counters;
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.common.neo4j;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class Neo4jMetricsTest {
+
+	@Test
+	public void histogramIsExactForSmallValues() {
+		for (long v = 0; v < 8; v++) {
+			assertEquals(v, single(v));
+		}
+	}
+
+	@Test
+	public void histogramRelativeErrorIsBounded() {
+		for (long v = 8; v < 1000000; v += 7) {
+			final long bound = single(v);
+			assertTrue(v + " -> " + bound, bound >= v);
+			assertTrue(v + " -> " + bound, bound - v <= v / 8);
+		}
+		assertTrue(single(Long.MAX_VALUE / 2) >= Long.MAX_VALUE / 2);
+		assertEquals(0L, single(-5L));
+	}
+
+	@Test
+	public void histogramPercentiles() {
+		final Neo4jMetrics.LatencyHistogram h = new Neo4jMetrics.LatencyHistogram();
+		assertEquals(0L, h.percentile(0.99));
+		for (long v = 1; v <= 1000; v++) {
+			h.record(v);
+		}
+		assertBetween(500, h.percentile(0.5));
+		assertBetween(950, h.percentile(0.95));
+		assertBetween(990, h.percentile(0.99));
+		assertBetween(1000, h.percentile(1.0));
+	}
+
+	@Test
+	public void fingerprintReplacesLiterals() {
+		assertEquals("MATCH (u:User {login : ?}) WHERE u.level > ? AND u.id IN [?, ?] RETURN u.displayName LIMIT ?",
+				Neo4jMetrics.fingerprint("MATCH (u:User {login : 'john.doe'})\n\tWHERE u.level > -2.5 " +
+						"AND u.id IN [\"a\\\"b\", 'c\\'d']   RETURN u.displayName LIMIT 10"));
+		assertEquals("MATCH (n1:Group)-[:IN*0..3]-(m)-[*2]-(o) WHERE n1.id = {id1} RETURN n1, $p2",
+				Neo4jMetrics.fingerprint("MATCH (n1:Group)-[:IN*0..3]-(m)-[*2]-(o) WHERE n1.id = {id1} RETURN n1, $p2"));
+		assertEquals(Neo4jMetrics.fingerprint("MATCH (n) WHERE n.id = '1' RETURN n"),
+				Neo4jMetrics.fingerprint("MATCH (n)  WHERE n.id = '2'  RETURN n"));
+		assertEquals("", Neo4jMetrics.fingerprint(null));
+	}
+
+	@Test
+	public void paramsShapeHidesValues() {
+		final JsonObject shape = Neo4jMetrics.paramsShape(new JsonObject()
+				.put("login", "john.doe").put("level", 3).put("none", (String) null)
+				.put("ids", new JsonArray().add("a").add("b"))
+				.put("nested", new JsonObject().put("secret", "password")));
+		assertEquals(new JsonObject().put("login", "String").put("level", "Integer").put("none", "null")
+				.put("ids", "array[2]").put("nested", new JsonObject().put("secret", "String")), shape);
+	}
+
+	@Test
+	public void recordGroupsByFingerprint() {
+		final Neo4jMetrics metrics = Neo4jMetrics.getInstance(null, new JsonObject()
+				.put("max-fingerprints", 2).put("slow-query-threshold", 100000L), "metrics-test");
+		metrics.reset();
+		metrics.record("MATCH (n) WHERE n.id = '1' RETURN n", null, 10, 1, 100, false);
+		metrics.record("MATCH (n) WHERE n.id = '2' RETURN n", null, 30, 1, 100, true);
+		metrics.record("MATCH (n) RETURN count(n)", null, 5, 1, 10, false);
+		metrics.record("MATCH (m) RETURN m", null, 1, 50, 1000, false);
+		metrics.record("MATCH (o) RETURN o", null, 1, 50, 1000, false);
+		final JsonArray top = metrics.top(10, "total");
+		assertEquals(3, top.size());
+		final JsonObject first = top.getJsonObject(0);
+		assertEquals("MATCH (n) WHERE n.id = ? RETURN n", first.getString("query"));
+		assertEquals(2L, (long) first.getLong("count"));
+		assertEquals(1L, (long) first.getLong("errors"));
+		assertEquals(40L, (long) first.getLong("total"));
+		assertEquals(30L, (long) first.getLong("max"));
+		final JsonObject byRows = metrics.top(1, "rows").getJsonObject(0);
+		assertEquals("<other>", byRows.getString("query"));
+		assertEquals(100L, (long) byRows.getLong("rows"));
+		metrics.reset();
+		assertEquals(0, metrics.top(10, "total").size());
+	}
+
+	private static long single(long value) {
+		final Neo4jMetrics.LatencyHistogram h = new Neo4jMetrics.LatencyHistogram();
+		h.record(value);
+		return h.percentile(1.0);
+	}
+
+	private static void assertBetween(long expected, long actual) {
+		assertTrue(expected + " -> " + actual, actual >= expected && actual - expected <= expected / 8);
+	}
+
+}
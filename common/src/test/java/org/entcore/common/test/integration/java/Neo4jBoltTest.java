@@ -0,0 +1,197 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.common.test.integration.java;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.neo4j.GraphDatabase;
+import org.entcore.common.neo4j.Neo4jBolt;
+import org.entcore.common.neo4j.Neo4jRest;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the same statements with the Bolt and the REST implementations against the neo4j of
+ * neo4j-conf (bolt on 7687, http on 7474), the uris can be set with the neo4j.bolt-uri and
+ * neo4j.server-uri system properties. Skipped when the Bolt connector isn't reachable.
+ */
+public class Neo4jBoltTest {
+
+	private static Vertx vertx;
+	private static GraphDatabase rest;
+	private static Neo4jBolt bolt;
+
+	@BeforeClass
+	public static void setUp() throws Exception {
+		vertx = Vertx.vertx();
+		final JsonObject config = new JsonObject()
+				.put("bolt-uri", System.getProperty("neo4j.bolt-uri", "bolt://localhost:7687"))
+				.put("connection-timeout", 2000L)
+				.put("transaction-timeout", 5000L);
+		rest = new Neo4jRest(new URI[] { new URI(System.getProperty("neo4j.server-uri",
+				"http://localhost:7474/db/data/")) }, false, vertx, 3000L, 4, true, config);
+		bolt = Neo4jBolt.create(vertx, config, rest);
+		JsonObject ping;
+		try {
+			ping = call(h -> bolt.execute("RETURN 1 as ping", null, h));
+		} catch (Exception e) {
+			ping = new JsonObject().put("message", e.getMessage());
+		}
+		Assume.assumeTrue("Bolt connector unreachable : " + ping.getString("message"),
+				ping.getString("message") == null);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		if (bolt != null) {
+			bolt.close();
+		}
+		if (vertx != null) {
+			vertx.close();
+		}
+	}
+
+	@After
+	public void cleanTestNodes() throws Exception {
+		call(h -> bolt.execute("MATCH (n:BoltTest) DELETE n", null, h));
+	}
+
+	@Test
+	public void executeKeepsRestRepresentation() throws Exception {
+		final JsonObject params = createNode();
+		final String query = "MATCH (n:BoltTest {id : {id}}) RETURN n, n.id as id, n.tags as tags";
+		final JsonArray boltResult = call(h -> bolt.execute(query, params, h)).getJsonArray("result");
+		final JsonArray restResult = call(h -> rest.execute(query, params, h)).getJsonArray("result");
+		assertEquals(1, boltResult.size());
+		assertEquals(restResult.getJsonObject(0).getString("id"), boltResult.getJsonObject(0).getString("id"));
+		assertEquals(restResult.getJsonObject(0).getJsonArray("tags").encode(),
+				boltResult.getJsonObject(0).getJsonArray("tags").encode());
+		final JsonObject restNode = restResult.getJsonObject(0).getJsonObject("n").getJsonObject("data");
+		final JsonObject boltNode = boltResult.getJsonObject(0).getJsonObject("n").getJsonObject("data");
+		assertEquals(restNode.getString("id"), boltNode.getString("id"));
+		assertEquals(restNode.getJsonArray("tags").encode(), boltNode.getJsonArray("tags").encode());
+		assertEquals(restNode.getInteger("level"), boltNode.getInteger("level"));
+	}
+
+	@Test
+	public void transactionResultsMatchRest() throws Exception {
+		final JsonObject params = createNode();
+		final JsonArray statements = new fr.wseduc.webutils.collections.JsonArray()
+				.add(new JsonObject().put("statement", "MATCH (n:BoltTest {id : {id}}) RETURN n.id as id, n.tags as tags")
+						.put("parameters", params))
+				.add(new JsonObject().put("statement", "MATCH (n:BoltTest {id : {id}}) RETURN count(n) as nb")
+						.put("parameters", params));
+		final JsonObject boltResult = call(h -> bolt.executeTransaction(statements, null, true, h));
+		final JsonObject restResult = call(h -> rest.executeTransaction(statements, null, true, h));
+		assertNull(boltResult.getString("message"));
+		assertEquals(restResult.getJsonArray("results").encode(), boltResult.getJsonArray("results").encode());
+		final JsonObject readOnlyResult = call(h -> bolt.executeReadOnlyTransaction(statements, h));
+		assertEquals(restResult.getJsonArray("results").encode(), readOnlyResult.getJsonArray("results").encode());
+	}
+
+	@Test
+	public void openTransactionIsCommitted() throws Exception {
+		final String id = UUID.randomUUID().toString();
+		final JsonObject opened = call(h -> bolt.executeTransaction(statement(
+				"CREATE (n:BoltTest {id : {id}})", id), null, false, h));
+		final Integer transactionId = opened.getInteger("transactionId");
+		assertNotNull(transactionId);
+		assertEquals(0, count(id));
+		final JsonObject committed = call(h -> bolt.executeTransaction(statement(
+				"MATCH (n:BoltTest {id : {id}}) SET n.committed = true", id), transactionId, true, h));
+		assertNull(committed.getString("message"));
+		assertEquals(1, count(id));
+	}
+
+	@Test
+	public void openTransactionIsRolledBack() throws Exception {
+		final String id = UUID.randomUUID().toString();
+		final JsonObject opened = call(h -> bolt.executeTransaction(statement(
+				"CREATE (n:BoltTest {id : {id}})", id), null, false, h));
+		final Integer transactionId = opened.getInteger("transactionId");
+		assertNotNull(transactionId);
+		call(h -> bolt.rollbackTransaction(transactionId, h));
+		assertEquals(0, count(id));
+		final JsonObject unknown = call(h -> bolt.executeTransaction(statement(
+				"MATCH (n:BoltTest {id : {id}}) RETURN n.id", id), transactionId, true, h));
+		assertNotNull(unknown.getString("message"));
+	}
+
+	@Test
+	public void batchResultsAreIndexed() throws Exception {
+		final String id = UUID.randomUUID().toString();
+		final JsonArray queries = new fr.wseduc.webutils.collections.JsonArray()
+				.add(new JsonObject().put("query", "CREATE (n:BoltTest {id : {id}}) RETURN n.id as id")
+						.put("params", new JsonObject().put("id", id)))
+				.add(new JsonObject().put("query", "MATCH (n:BoltTest {id : {id}}) RETURN count(n) as nb")
+						.put("params", new JsonObject().put("id", id)));
+		final JsonArray results = call(h -> bolt.executeBatch(queries, h)).getJsonArray("results");
+		assertEquals(2, results.size());
+		assertEquals(1, results.getJsonObject(1).getInteger("idx").intValue());
+		assertEquals(id, results.getJsonObject(0).getJsonArray("result").getJsonObject(0).getString("id"));
+		assertEquals(1, results.getJsonObject(1).getJsonArray("result").getJsonObject(0).getInteger("nb").intValue());
+	}
+
+	@Test
+	public void errorsAreReturnedAsMessage() throws Exception {
+		final JsonObject error = call(h -> bolt.execute("MATCH (n:BoltTest RETURN n", null, h));
+		assertNotNull(error.getString("message"));
+		assertNull(error.getJsonArray("result"));
+	}
+
+	private JsonObject createNode() throws Exception {
+		final JsonObject params = new JsonObject().put("id", UUID.randomUUID().toString())
+				.put("tags", new fr.wseduc.webutils.collections.JsonArray().add("a").add("b"));
+		final JsonObject res = call(h -> bolt.execute(
+				"CREATE (n:BoltTest {id : {id}, tags : {tags}, level : 3})", params, h));
+		assertNull(res.getString("message"));
+		return params;
+	}
+
+	private int count(String id) throws Exception {
+		final JsonObject res = call(h -> bolt.execute(
+				"MATCH (n:BoltTest {id : {id}}) RETURN count(n) as nb", new JsonObject().put("id", id), h));
+		return res.getJsonArray("result").getJsonObject(0).getInteger("nb");
+	}
+
+	private static JsonArray statement(String query, String id) {
+		return new fr.wseduc.webutils.collections.JsonArray().add(new JsonObject()
+				.put("statement", query).put("parameters", new JsonObject().put("id", id)));
+	}
+
+	private static JsonObject call(Consumer<Handler<JsonObject>> action) throws Exception {
+		final CompletableFuture<JsonObject> future = new CompletableFuture<>();
+		action.accept(future::complete);
+		return future.get(10, TimeUnit.SECONDS);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.common.user;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * The cache is a JVM singleton : it is configured once with 3 entries and a 300ms ttl.
+ */
+public class SessionCacheTest {
+
+	private static Vertx vertx;
+	private static final SessionCache cache = SessionCache.getInstance();
+
+	@BeforeClass
+	public static void setUp() {
+		vertx = Vertx.vertx();
+		cache.init(vertx, new JsonObject().put("max-size", 3).put("ttl", 300L));
+		// ignored, the first configuration is kept
+		cache.init(vertx, new JsonObject().put("enabled", false));
+		assertTrue(cache.isEnabled());
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		vertx.close();
+	}
+
+	@After
+	public void clear() {
+		cache.clear();
+	}
+
+	@Test
+	public void putReturnsReadOnlySnapshot() {
+		final JsonObject session = session("u1");
+		final JsonObject snapshot = cache.put("s1", session);
+		assertSame(snapshot, cache.get("s1"));
+		assertEquals(session, snapshot);
+		session.put("firstName", "changed");
+		assertEquals("John", cache.get("s1").getString("firstName"));
+		try {
+			snapshot.put("firstName", "changed");
+			fail("snapshot is modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			snapshot.getJsonObject("cache").put("k", "v");
+			fail("nested object is modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		try {
+			snapshot.getJsonArray("groupsIds").add("g3");
+			fail("nested array is modifiable");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+		final JsonObject copy = snapshot.copy();
+		copy.getJsonArray("groupsIds").add("g3");
+		assertEquals(3, copy.getJsonArray("groupsIds").size());
+		assertEquals(2, cache.get("s1").getJsonArray("groupsIds").size());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		cache.put("s1", session("u1"));
+		cache.put("s2", session("u2"));
+		cache.put("s3", session("u3"));
+		assertNotNull(cache.get("s1"));
+		cache.put("s4", session("u4"));
+		assertNotNull(cache.get("s1"));
+		assertNull(cache.get("s2"));
+		assertNotNull(cache.get("s4"));
+	}
+
+	@Test
+	public void invalidatesBySessionAndUser() {
+		cache.put("s1", session("u1"));
+		cache.put("s2", session("u1"));
+		cache.put("s3", session("u2"));
+		cache.invalidate("s3", null);
+		assertNull(cache.get("s3"));
+		assertNotNull(cache.get("s1"));
+		cache.invalidate(null, "u1");
+		assertNull(cache.get("s1"));
+		assertNull(cache.get("s2"));
+	}
+
+	@Test
+	public void expiresAfterTtl() throws InterruptedException {
+		cache.put("s1", session("u1"));
+		assertNotNull(cache.get("s1"));
+		Thread.sleep(350L);
+		assertNull(cache.get("s1"));
+	}
+
+	private static JsonObject session(String userId) {
+		return new JsonObject().put("userId", userId).put("firstName", "John")
+				.put("groupsIds", new fr.wseduc.webutils.collections.JsonArray().add("g1").add("g2"))
+				.put("cache", new JsonObject().put("a", 1));
+	}
+
+}
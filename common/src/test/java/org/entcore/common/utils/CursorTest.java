@@ -0,0 +1,77 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.common.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.*;
+
+public class CursorTest {
+
+	@Test
+	public void roundTripEpochDate() {
+		final String value = Cursor.of(1520000000000L, "5a9d1c3e-id");
+		assertFalse(value.contains("="));
+		final Cursor cursor = Cursor.parse(value);
+		assertEquals("1520000000000", cursor.getDate());
+		assertEquals(Long.valueOf(1520000000000L), cursor.getDateAsLong());
+		assertEquals("5a9d1c3e-id", cursor.getId());
+	}
+
+	@Test
+	public void roundTripFormattedDate() {
+		final Cursor cursor = Cursor.parse(Cursor.of("2018-03-02 14:10.05.123", "id,with,commas"));
+		assertEquals("2018-03-02 14:10.05.123", cursor.getDate());
+		assertNull(cursor.getDateAsLong());
+		assertEquals("id,with,commas", cursor.getId());
+	}
+
+	@Test
+	public void encodedValueIsUrlSafe() {
+		final String value = Cursor.of("??>>", "~~~é");
+		assertTrue(value, value.matches("[A-Za-z0-9_-]+"));
+		assertEquals("~~~é", Cursor.parse(" " + value + " ").getId());
+	}
+
+	@Test
+	public void missingValuesHaveNoCursor() {
+		assertNull(Cursor.of(null, "id"));
+		assertNull(Cursor.of(1L, null));
+		assertNull(Cursor.of(1L, ""));
+	}
+
+	@Test
+	public void invalidValuesAreIgnored() {
+		assertNull(Cursor.parse(null));
+		assertNull(Cursor.parse(""));
+		assertNull(Cursor.parse("   "));
+		assertNull(Cursor.parse("not base64 !"));
+		assertNull(Cursor.parse(encode("no separator")));
+		assertNull(Cursor.parse(encode(",id")));
+		assertNull(Cursor.parse(encode("123,")));
+	}
+
+	private static String encode(String s) {
+		return Base64.getUrlEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
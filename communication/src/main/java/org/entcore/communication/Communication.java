@@ -22,13 +22,22 @@ package org.entcore.communication;
 import org.entcore.common.http.BaseServer;
 import org.entcore.communication.controllers.CommunicationController;
 import org.entcore.communication.filters.CommunicationFilter;
+import org.entcore.communication.services.impl.DefaultCommunicationService;
+import org.entcore.communication.services.impl.RulesEngine;
+import org.entcore.communication.services.impl.VisibilityIndex;
+import io.vertx.core.json.JsonObject;
 
 public class Communication extends BaseServer {
 
 	@Override
 	public void start() throws Exception {
 		super.start();
-		addController(new CommunicationController());
+		CommunicationController communicationController = new CommunicationController();
+		communicationController.setCommunicationService(new DefaultCommunicationService(
+				new RulesEngine(vertx, config.getJsonObject("rules-engine", new JsonObject()))));
+		communicationController.setVisibilityIndex(
+				new VisibilityIndex(vertx, config.getJsonObject("visibility-index")));
+		addController(communicationController);
 		setDefaultResourceFilter(new CommunicationFilter());
 	}
 
@@ -34,11 +34,13 @@ import fr.wseduc.webutils.request.RequestUtils;
 
 import org.entcore.common.http.filter.AdminFilter;
 import org.entcore.common.http.filter.ResourceFilter;
+import org.entcore.common.http.filter.SuperAdminFilter;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.validation.StringValidation;
 import org.entcore.communication.services.CommunicationService;
 import org.entcore.communication.services.impl.DefaultCommunicationService;
+import org.entcore.communication.services.impl.VisibilityIndex;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
@@ -52,7 +54,8 @@ import static org.entcore.common.http.response.DefaultResponseHandler.*;
 
 public class CommunicationController extends BaseController {
 
-	private final CommunicationService communicationService = new DefaultCommunicationService();
+	private CommunicationService communicationService = new DefaultCommunicationService();
+	private VisibilityIndex visibilityIndex;
 
 	@Get("/admin-console")
 	@SecuredAction(value = "", type = ActionType.RESOURCE)
@@ -308,6 +311,30 @@ public class CommunicationController extends BaseController {
 				communicationService.visibleUsers(userId, schoolId, expectedTypes, itSelf, myGroup,
 						profile, preFilter, customReturn, ap, responseHandler);
 				break;
+			case "filterVisibles":
+				if (visibilityIndex != null) {
+					visibilityIndex.filterVisibles(userId,
+							message.body().getJsonArray("ids", new fr.wseduc.webutils.collections.JsonArray()),
+							message.body().getBoolean("excludeBlocked", false), responseHandler);
+				} else {
+					message.reply(new fr.wseduc.webutils.collections.JsonArray());
+				}
+				break;
+			case "invisibles":
+				final JsonArray ids = message.body().getJsonArray("ids", new fr.wseduc.webutils.collections.JsonArray());
+				if (visibilityIndex != null) {
+					visibilityIndex.invisibles(userId, ids, res -> {
+						if (res.isRight()) {
+							message.reply(res.right().getValue());
+						} else {
+							log.warn(res.left().getValue());
+							message.reply(ids);
+						}
+					});
+				} else {
+					message.reply(ids);
+				}
+				break;
 			case "usersCanSeeMe":
 				communicationService.usersCanSeeMe(userId, responseHandler);
 				break;
@@ -381,7 +408,28 @@ public class CommunicationController extends BaseController {
 			return;
 		}
 		communicationService.applyDefaultRules(new fr.wseduc.webutils.collections.JsonArray().add(structureId),
-				defaultResponseHandler(request));
+				"true".equals(request.params().get("prune")), defaultResponseHandler(request));
+	}
+
+	@Get("/rules/jobs")
+	@SecuredAction(value = "", type = ActionType.RESOURCE)
+	@ResourceFilter(SuperAdminFilter.class)
+	public void rulesJobs(final HttpServerRequest request) {
+		communicationService.rulesJobs(arrayResponseHandler(request));
+	}
+
+	@Get("/rules/jobs/:id")
+	@SecuredAction(value = "", type = ActionType.RESOURCE)
+	@ResourceFilter(SuperAdminFilter.class)
+	public void rulesJob(final HttpServerRequest request) {
+		communicationService.rulesJob(request.params().get("id"), defaultResponseHandler(request));
+	}
+
+	@Put("/rules/jobs/:id/resume")
+	@SecuredAction(value = "", type = ActionType.RESOURCE)
+	@ResourceFilter(SuperAdminFilter.class)
+	public void resumeRulesJob(final HttpServerRequest request) {
+		communicationService.resumeRulesJob(request.params().get("id"), defaultResponseHandler(request));
 	}
 
 	@BusAddress("wse.communication")
@@ -410,8 +458,8 @@ public class CommunicationController extends BaseController {
 					@Override
 					public void handle(Either<String, JsonObject> event) {
 						if (event.isRight()) {
-							communicationService.applyDefaultRules(
-									message.body().getJsonArray("schoolIds"), responseHandler);
+							communicationService.applyDefaultRules(message.body().getJsonArray("schoolIds"),
+									message.body().getBoolean("prune", false), responseHandler);
 						} else {
 							message.reply(new JsonObject().put("status", "error")
 									.put("message", event.left().getValue()));
@@ -421,11 +469,30 @@ public class CommunicationController extends BaseController {
 				break;
 			case "setDefaultCommunicationRules" :
 				communicationService.applyDefaultRules(new fr.wseduc.webutils.collections.JsonArray().add(
-						message.body().getString("schoolId")), responseHandler);
+						message.body().getString("schoolId")), message.body().getBoolean("prune", false), responseHandler);
 				break;
 			case "setMultipleDefaultCommunicationRules" :
-				communicationService.applyDefaultRules(
-						message.body().getJsonArray("schoolIds"), responseHandler);
+				communicationService.applyDefaultRules(message.body().getJsonArray("schoolIds"),
+						message.body().getBoolean("prune", false), responseHandler);
+				break;
+			case "rulesJobs" :
+				communicationService.rulesJobs(new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> res) {
+						if (res.isRight()) {
+							message.reply(new JsonObject().put("status", "ok").put("result", res.right().getValue()));
+						} else {
+							message.reply(new JsonObject().put("status", "error")
+									.put("message", res.left().getValue()));
+						}
+					}
+				});
+				break;
+			case "rulesJob" :
+				communicationService.rulesJob(message.body().getString("jobId"), responseHandler);
+				break;
+			case "resumeRulesJob" :
+				communicationService.resumeRulesJob(message.body().getString("jobId"), responseHandler);
 				break;
 			case "setCommunicationRules" :
 				communicationService.applyRules(
@@ -444,6 +511,14 @@ public class CommunicationController extends BaseController {
 		communicationService.removeRules(structureId, defaultResponseHandler(request));
 	}
 
+	public void setCommunicationService(CommunicationService communicationService) {
+		this.communicationService = communicationService;
+	}
+
+	public void setVisibilityIndex(VisibilityIndex visibilityIndex) {
+		this.visibilityIndex = visibilityIndex;
+	}
+
 	private class Params {
 		private boolean myResult;
 		private HttpServerRequest request;
@@ -62,10 +62,25 @@ public interface CommunicationService {
 
 	void applyDefaultRules(JsonArray structureIds, Handler<Either<String, JsonObject>> handler);
 
+	/**
+	 * Apply the default rules of the structures by bounded batches.
+	 * @param prune delete the relationships which are not required by the rules any more
+	 * (users who left a group, groups removed from communiqueWith)
+	 * @param handler called with the state of the job once all the structures are done, its
+	 * progress can be followed with rulesJob
+	 */
+	void applyDefaultRules(JsonArray structureIds, boolean prune, Handler<Either<String, JsonObject>> handler);
+
 	void applyRules(String groupId, Handler<Either<String,JsonObject>> responseHandler);
 
 	void removeRules(String structureId, Handler<Either<String, JsonObject>> handler);
 
+	void rulesJobs(Handler<Either<String, JsonArray>> handler);
+
+	void rulesJob(String jobId, Handler<Either<String, JsonObject>> handler);
+
+	void resumeRulesJob(String jobId, Handler<Either<String, JsonObject>> handler);
+
 	void visibleUsers(String userId, String structureId, JsonArray expectedTypes, boolean itSelf, boolean myGroup,
 					  boolean profile, String preFilter, String customReturn, JsonObject additionnalParams,
 					  Handler<Either<String, JsonArray>> handler);
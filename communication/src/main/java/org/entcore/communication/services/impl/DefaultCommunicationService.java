@@ -40,9 +40,19 @@ public class DefaultCommunicationService implements CommunicationService {
 
 	private final Neo4j neo4j = Neo4j.getInstance();
 	private static final Logger log = LoggerFactory.getLogger(DefaultCommunicationService.class);
+	private final RulesEngine rulesEngine;
+
+	public DefaultCommunicationService() {
+		this(null);
+	}
+
+	public DefaultCommunicationService(RulesEngine rulesEngine) {
+		this.rulesEngine = rulesEngine;
+	}
 
 	@Override
-	public void addLink(String startGroupId, String endGroupId, Handler<Either<String, JsonObject>> handler) {
+	public void addLink(final String startGroupId, final String endGroupId,
+			final Handler<Either<String, JsonObject>> handler) {
 		String query =
 				"MATCH (g1:Group {id : {startGroupId}}), (g2:Group {id : {endGroupId}}) " +
 				"SET g1.communiqueWith = coalesce(g1.communiqueWith, []) + {endGroupId} " +
@@ -51,7 +61,15 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.put("startGroupId", startGroupId)
 				.put("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight()) {
+					VisibilityIndex.publishLinkAdded(neo4j.getEventBus(), startGroupId, endGroupId);
+				}
+				handler.handle(event);
+			}
+		}));
 	}
 
 	@Override
@@ -65,7 +83,7 @@ public class DefaultCommunicationService implements CommunicationService {
 		JsonObject params = new JsonObject()
 				.put("startGroupId", startGroupId)
 				.put("endGroupId", endGroupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(groupsChanged(handler, startGroupId)));
 	}
 
 	@Override
@@ -89,7 +107,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"CREATE UNIQUE " + createRelationship +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId).put("direction", direction.name());
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(groupsChanged(handler, groupId)));
 	}
 
 	@Override
@@ -117,7 +135,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"DELETE r " +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(groupsChanged(handler, groupId)));
 	}
 
 	@Override
@@ -164,7 +182,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"CREATE UNIQUE " + createRelationship +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId).put("direction", direction.name());
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(groupsChanged(handler, groupId)));
 	}
 
 	@Override
@@ -196,7 +214,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"DELETE r " +
 				"RETURN COUNT(*) as number ";
 		JsonObject params = new JsonObject().put("groupId", groupId);
-		neo4j.execute(query, params, validUniqueResultHandler(handler));
+		neo4j.execute(query, params, validUniqueResultHandler(groupsChanged(handler, groupId)));
 	}
 
 	@Override
@@ -363,6 +381,15 @@ public class DefaultCommunicationService implements CommunicationService {
 
 	@Override
 	public void applyDefaultRules(JsonArray structureIds, Handler<Either<String, JsonObject>> handler) {
+		applyDefaultRules(structureIds, false, handler);
+	}
+
+	@Override
+	public void applyDefaultRules(JsonArray structureIds, boolean prune, Handler<Either<String, JsonObject>> handler) {
+		if (rulesEngine != null) {
+			rulesEngine.submit(structureIds, prune, handler);
+			return;
+		}
 		StatementsBuilder s = new StatementsBuilder();
 		JsonObject params = new JsonObject().put("structures", structureIds);
 		String query =
@@ -409,7 +436,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WITH DISTINCT v " +
 				"SET v:Visible ";
 		s.add(setVisible2, params);
-		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(groupsChanged(handler)));
 	}
 
 	@Override
@@ -453,11 +480,15 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WITH DISTINCT v " +
 				"SET v:Visible ";
 		s.add(setVisible, params);
-		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(handler));
+		neo4j.executeTransaction(s.build(), null, true, validEmptyHandler(groupsChanged(handler, groupId)));
 	}
 
 	@Override
 	public void removeRules(String structureId, Handler<Either<String, JsonObject>> handler) {
+		if (rulesEngine != null) {
+			removeRulesByBatches(structureId, groupsChanged(handler));
+			return;
+		}
 		String query;
 		JsonObject params =  new JsonObject();
 		if (structureId != null && !structureId.trim().isEmpty()) {
@@ -472,7 +503,92 @@ public class DefaultCommunicationService implements CommunicationService {
 					"OPTIONAL MATCH ()-[r1:COMMUNIQUE_DIRECT]->() " +
 					"DELETE r, r1 ";
 		}
-		neo4j.execute(query, params, validEmptyHandler(handler));
+		neo4j.execute(query, params, validEmptyHandler(groupsChanged(handler)));
+	}
+
+	private void removeRulesByBatches(String structureId, final Handler<Either<String, JsonObject>> handler) {
+		final String query;
+		final String query2;
+		final JsonObject params = new JsonObject();
+		if (structureId != null && !structureId.trim().isEmpty()) {
+			query = "MATCH (s:Structure {id : {schoolId}})<-[:DEPENDS*1..2]-(g:ProfileGroup)-[r:COMMUNIQUE]-() " +
+					"WITH DISTINCT r LIMIT {limit} " +
+					"DELETE r " +
+					"RETURN COUNT(*) as number ";
+			query2 = "MATCH (s:Structure {id : {schoolId}})<-[:BELONGS]-(c:Class)<-[:DEPENDS]-(pg:ProfileGroup)" +
+					"<-[:IN]-(u:User)-[r:COMMUNIQUE_DIRECT]->() " +
+					"WITH DISTINCT r LIMIT {limit} " +
+					"DELETE r " +
+					"RETURN COUNT(*) as number ";
+			params.put("schoolId", structureId);
+		} else {
+			query = "MATCH ()-[r:COMMUNIQUE]->() " +
+					"WITH r LIMIT {limit} " +
+					"DELETE r " +
+					"RETURN COUNT(*) as number ";
+			query2 = "MATCH ()-[r:COMMUNIQUE_DIRECT]->() " +
+					"WITH r LIMIT {limit} " +
+					"DELETE r " +
+					"RETURN COUNT(*) as number ";
+		}
+		rulesEngine.deleteByBatches(query, params, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight()) {
+					rulesEngine.deleteByBatches(query2, params, handler);
+				} else {
+					handler.handle(event);
+				}
+			}
+		});
+	}
+
+	@Override
+	public void rulesJobs(Handler<Either<String, JsonArray>> handler) {
+		if (rulesEngine != null) {
+			rulesEngine.jobs(handler);
+		} else {
+			handler.handle(new Either.Right<String, JsonArray>(new fr.wseduc.webutils.collections.JsonArray()));
+		}
+	}
+
+	@Override
+	public void rulesJob(String jobId, Handler<Either<String, JsonObject>> handler) {
+		if (rulesEngine != null) {
+			rulesEngine.job(jobId, handler);
+		} else {
+			handler.handle(new Either.Left<String, JsonObject>("job.not.found"));
+		}
+	}
+
+	@Override
+	public void resumeRulesJob(String jobId, Handler<Either<String, JsonObject>> handler) {
+		if (rulesEngine != null) {
+			rulesEngine.resume(jobId, handler);
+		} else {
+			handler.handle(new Either.Left<String, JsonObject>("job.not.resumable"));
+		}
+	}
+
+	/**
+	 * Publish the change of the communication links of groups to the visibility index.
+	 * @param groupIds the modified groups, all the index is reset when empty
+	 */
+	private Handler<Either<String, JsonObject>> groupsChanged(final Handler<Either<String, JsonObject>> handler,
+			final String... groupIds) {
+		return new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> event) {
+				if (event.isRight()) {
+					if (groupIds.length > 0) {
+						VisibilityIndex.publishGroupsChange(neo4j.getEventBus(), groupIds);
+					} else {
+						VisibilityIndex.publishReset(neo4j.getEventBus());
+					}
+				}
+				handler.handle(event);
+			}
+		};
 	}
 
 	@Override
@@ -566,7 +682,7 @@ public class DefaultCommunicationService implements CommunicationService {
 		} else {
 			q = query.toString();
 		}
-		neo4j.execute(q, params, validResultHandler(handler));
+		executeVisibilityQuery(q, params, customReturn, handler);
 	}
 
 	@Override
@@ -580,7 +696,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"ORDER BY username ";
 		JsonObject params = new JsonObject();
 		params.put("userId", userId);
-		neo4j.execute(query, params, validResultHandler(handler));
+		neo4j.executeReadOnly(query, params, validResultHandler(handler));
 	}
 
 	@Override
@@ -602,7 +718,7 @@ public class DefaultCommunicationService implements CommunicationService {
 				"WHERE n.id = {userId} AND (length(p) > 1 OR gp.users <> 'INCOMING') " + (preFilter != null ? preFilter : "") +
 				"OPTIONAL MATCH gp-[:DEPENDS*0..1]->(pg:ProfileGroup)-[:HAS_PROFILE]->(profile:Profile) " +
 				r;
-		neo4j.execute(query, params, validResultHandler(handler));
+		executeVisibilityQuery(query, params, customReturn, handler);
 	}
 
 	@Override
@@ -623,7 +739,20 @@ public class DefaultCommunicationService implements CommunicationService {
 				"MATCH p=(n:User)-[:COMMUNIQUE*1..2]->l<-[:DEPENDS*0..1]-(mg:ManualGroup) " +
 				"WHERE n.id = {userId} AND (length(p) > 1 OR mg.users <> 'INCOMING') " +
 				r;
-		neo4j.execute(query, params, validResultHandler(handler));
+		executeVisibilityQuery(query, params, customReturn, handler);
+	}
+
+	/**
+	 * Visibility queries are read from a slave, unless the caller provides its own return clause
+	 * which may write (e.g. adding the visible user to a class).
+	 */
+	private void executeVisibilityQuery(String query, JsonObject params, String customReturn,
+			Handler<Either<String, JsonArray>> handler) {
+		if (customReturn == null || customReturn.trim().isEmpty()) {
+			neo4j.executeReadOnly(query, params, validResultHandler(handler));
+		} else {
+			neo4j.execute(query, params, validResultHandler(handler));
+		}
 	}
 
 }
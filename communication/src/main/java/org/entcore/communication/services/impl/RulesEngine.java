@@ -0,0 +1,546 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.communication.services.impl;
+
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.neo4j.StatementsBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.entcore.common.neo4j.Neo4jResult.validResultHandler;
+
+/**
+ * Application of the default communication rules by jobs.
+ * For each structure, the COMMUNIQUE and COMMUNIQUE_DIRECT relationships required by the rules and
+ * missing in the graph are found with read queries, then created by bounded batches, each batch in
+ * its own transaction. Stale relationships (users who left a group, groups removed from communiqueWith)
+ * can be pruned the same way.
+ * Jobs run one at a time on the instance which received them and report their progress. Their state
+ * is saved in RulesJob nodes, so it can be read from any instance and after a restart. A failed job, or
+ * a job whose instance stopped updating it, can be resumed by any instance : the diff of the structure
+ * being processed is computed again, so the batches already committed are not replayed.
+ */
+public class RulesEngine {
+
+	public enum Status { PENDING, RUNNING, DONE, FAILED }
+
+	private static final Logger log = LoggerFactory.getLogger(RulesEngine.class);
+	private static final int DEFAULT_BATCH_SIZE = 500;
+	private static final int MAX_JOBS = 100;
+	private static final long SAVE_DELAY = 60 * 1000L;
+	private static final long DEFAULT_STALE_DELAY = 10 * 60 * 1000L;
+	private static final String SAVE_JOB =
+			"MERGE (j:RulesJob {id : {id}}) " +
+			"SET j.status = {status}, j.submitted = {submitted}, j.updated = {updated}, j.state = {state} ";
+	private static final String PURGE_JOBS =
+			"MATCH (j:RulesJob) WHERE j.status IN ['DONE', 'FAILED'] " +
+			"WITH j ORDER BY j.submitted DESC SKIP {max} " +
+			"DELETE j ";
+	private static final String CLAIM_JOB =
+			"MATCH (j:RulesJob {id : {id}}) " +
+			"WHERE j.status = 'FAILED' OR (j.status IN ['PENDING', 'RUNNING'] AND j.updated < {stale}) " +
+			"SET j.status = 'PENDING', j.updated = {now} " +
+			"RETURN j.state as state ";
+	private static final String STRUCTURE_GROUPS = "MATCH (s:Structure {id : {structureId}})<-[:DEPENDS*1..2]-";
+	private static final String[][] MISSING_RELATIONSHIPS = {
+		{
+			STRUCTURE_GROUPS + "(g:ProfileGroup) " +
+			"WHERE HAS(g.communiqueWith) AND LENGTH(g.communiqueWith) <> 0 " +
+			"WITH DISTINCT g " +
+			"MATCH (pg:Group) " +
+			"WHERE pg.id IN g.communiqueWith AND NOT(g-[:COMMUNIQUE]->pg) " +
+			"RETURN DISTINCT g.id as start, pg.id as end ",
+			"UNWIND {relationships} as r " +
+			"MATCH (g:Group {id : r[0]}), (pg:Group {id : r[1]}) " +
+			"MERGE g-[:COMMUNIQUE]->pg "
+		},
+		{
+			STRUCTURE_GROUPS + "(g:Group)<-[:IN]-(u:User) " +
+			"WHERE HAS(g.users) AND (g.users = 'INCOMING' OR g.users = 'BOTH') AND NOT(u-[:COMMUNIQUE]->g) " +
+			"RETURN DISTINCT u.id as start, g.id as end ",
+			"UNWIND {relationships} as r " +
+			"MATCH (u:User {id : r[0]}), (g:Group {id : r[1]}) " +
+			"MERGE u-[:COMMUNIQUE]->g "
+		},
+		{
+			STRUCTURE_GROUPS + "(g:Group)<-[:IN]-(u:User) " +
+			"WHERE HAS(g.users) AND (g.users = 'OUTGOING' OR g.users = 'BOTH') AND NOT(g-[:COMMUNIQUE]->u) " +
+			"RETURN DISTINCT g.id as start, u.id as end ",
+			"UNWIND {relationships} as r " +
+			"MATCH (g:Group {id : r[0]}), (u:User {id : r[1]}) " +
+			"MERGE g-[:COMMUNIQUE]->u "
+		},
+		{
+			STRUCTURE_GROUPS + "(g:ProfileGroup)<-[:IN]-(r:User)<-[:RELATED]-(u:User) " +
+			"WHERE HAS(g.relativeCommuniqueStudent) " +
+			"AND (g.relativeCommuniqueStudent = 'INCOMING' OR g.relativeCommuniqueStudent = 'BOTH') " +
+			"AND NOT(u-[:COMMUNIQUE_DIRECT]->r) " +
+			"RETURN DISTINCT u.id as start, r.id as end ",
+			"UNWIND {relationships} as r " +
+			"MATCH (u:User {id : r[0]}), (v:User {id : r[1]}) " +
+			"MERGE u-[:COMMUNIQUE_DIRECT]->v "
+		},
+		{
+			STRUCTURE_GROUPS + "(g:ProfileGroup)<-[:IN]-(r:User)<-[:RELATED]-(u:User) " +
+			"WHERE HAS(g.relativeCommuniqueStudent) " +
+			"AND (g.relativeCommuniqueStudent = 'OUTGOING' OR g.relativeCommuniqueStudent = 'BOTH') " +
+			"AND NOT(r-[:COMMUNIQUE_DIRECT]->u) " +
+			"RETURN DISTINCT r.id as start, u.id as end ",
+			"UNWIND {relationships} as r " +
+			"MATCH (u:User {id : r[0]}), (v:User {id : r[1]}) " +
+			"MERGE u-[:COMMUNIQUE_DIRECT]->v "
+		}
+	};
+	private static final String[] STALE_RELATIONSHIPS = {
+		STRUCTURE_GROUPS + "(g:Group)-[r:COMMUNIQUE]-(u:User) " +
+		"WHERE NOT(u-[:IN]->g) AND (NOT(HAS(r.source)) OR r.source <> 'MANUAL') " +
+		"RETURN DISTINCT id(r) as id ",
+		STRUCTURE_GROUPS + "(g:ProfileGroup)-[r:COMMUNIQUE]->(pg:Group) " +
+		"WHERE HAS(g.communiqueWith) AND NOT(pg.id IN g.communiqueWith) " +
+		"AND (NOT(HAS(r.source)) OR r.source <> 'MANUAL') " +
+		"RETURN DISTINCT id(r) as id "
+	};
+	private static final String DELETE_RELATIONSHIPS =
+			"MATCH ()-[r]->() WHERE id(r) IN {ids} DELETE r ";
+	private static final String[] SET_VISIBLE = {
+		STRUCTURE_GROUPS + "(g:Group)<-[:IN*0..1]-(v), " +
+		"v-[:COMMUNIQUE|COMMUNIQUE_DIRECT]-() " +
+		"WHERE NOT(v:Visible) " +
+		"WITH DISTINCT v " +
+		"SET v:Visible ",
+		"MATCH (s:Structure {id : {structureId}})<-[:DEPENDS]-(g:Group)<-[:COMMUNIQUE]-(), " +
+		"g<-[:DEPENDS]-(v) " +
+		"WHERE NOT(v:Visible) " +
+		"WITH DISTINCT v " +
+		"SET v:Visible "
+	};
+
+	private final Vertx vertx;
+	private final Neo4j neo4j = Neo4j.getInstance();
+	private final int batchSize;
+	private final long batchDelay;
+	private final long staleDelay;
+	private final Deque<Job> queue = new ArrayDeque<>();
+	// jobs pending or running on this instance
+	private final Map<String, Job> jobs = new HashMap<>();
+	private Job running;
+
+	private static final class Job {
+		private final String id;
+		private final boolean prune;
+		private final Deque<String> structures = new ArrayDeque<>();
+		private final JsonArray done;
+		private Handler<Either<String, JsonObject>> handler;
+		private Status status = Status.PENDING;
+		private String structureId;
+		private String phase;
+		private int batches;
+		private int batchesDone;
+		private long created;
+		private long deleted;
+		private String error;
+		private final long submitted;
+		private long ended;
+		private long saved;
+
+		private Job(JsonArray structureIds, boolean prune, Handler<Either<String, JsonObject>> handler) {
+			this(UUID.randomUUID().toString(), structureIds, new fr.wseduc.webutils.collections.JsonArray(),
+					prune, System.currentTimeMillis(), handler);
+		}
+
+		private Job(String id, JsonArray structureIds, JsonArray done, boolean prune, long submitted,
+				Handler<Either<String, JsonObject>> handler) {
+			this.id = id;
+			for (Object o : structureIds) {
+				if (o instanceof String) {
+					structures.add((String) o);
+				}
+			}
+			this.done = done;
+			this.prune = prune;
+			this.submitted = submitted;
+			this.handler = handler;
+		}
+
+		/**
+		 * Rebuild a saved job to resume it.
+		 */
+		private static Job fromJson(JsonObject j) {
+			final Job job = new Job(j.getString("id"),
+					j.getJsonArray("remainingStructures", new fr.wseduc.webutils.collections.JsonArray()),
+					j.getJsonArray("doneStructures", new fr.wseduc.webutils.collections.JsonArray()).copy(),
+					j.getBoolean("prune", false), j.getLong("submitted", System.currentTimeMillis()), null);
+			job.created = j.getLong("created", 0L);
+			job.deleted = j.getLong("deleted", 0L);
+			return job;
+		}
+
+		private JsonObject toJson() {
+			final JsonObject j = new JsonObject()
+					.put("id", id)
+					.put("state", status.name())
+					.put("prune", prune)
+					.put("remainingStructures", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(structures)))
+					.put("doneStructures", done.copy())
+					.put("created", created)
+					.put("deleted", deleted)
+					.put("submitted", submitted);
+			if (status == Status.RUNNING) {
+				j.put("structureId", structureId).put("phase", phase)
+						.put("batches", batches).put("batchesDone", batchesDone);
+			}
+			if (error != null) {
+				j.put("error", error);
+			}
+			if (ended > 0) {
+				j.put("ended", ended);
+			}
+			return j;
+		}
+	}
+
+	private static final class Batch {
+		private final String query;
+		private final JsonObject params;
+		private final int created;
+		private final int deleted;
+
+		private Batch(String query, JsonObject params, int created, int deleted) {
+			this.query = query;
+			this.params = params;
+			this.created = created;
+			this.deleted = deleted;
+		}
+	}
+
+	public RulesEngine(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.batchSize = config.getInteger("batch-size", DEFAULT_BATCH_SIZE);
+		this.batchDelay = config.getLong("batch-delay", 0L);
+		this.staleDelay = config.getLong("stale-job-delay", DEFAULT_STALE_DELAY);
+	}
+
+	/**
+	 * Submit a job applying the default rules of structures.
+	 * @param structureIds the structures
+	 * @param prune delete the stale relationships
+	 * @param handler called with the job when it is done or failed
+	 * @return the job state
+	 */
+	public JsonObject submit(JsonArray structureIds, boolean prune, Handler<Either<String, JsonObject>> handler) {
+		final Job job = new Job(structureIds, prune, handler);
+		start(job);
+		return job.toJson();
+	}
+
+	/**
+	 * Resume a failed job, or a job left pending or running by a stopped instance, from the structure
+	 * which was processed.
+	 * @param handler called with the job state once it is queued, job.not.resumable if the job doesn't
+	 * exist or is still processed
+	 */
+	public void resume(final String jobId, final Handler<Either<String, JsonObject>> handler) {
+		if (jobs.containsKey(jobId)) {
+			handler.handle(new Either.Left<String, JsonObject>("job.not.resumable"));
+			return;
+		}
+		final long now = System.currentTimeMillis();
+		neo4j.execute(CLAIM_JOB, new JsonObject().put("id", jobId).put("now", now).put("stale", now - staleDelay),
+				validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
+				} else if (event.right().getValue().size() != 1) {
+					handler.handle(new Either.Left<String, JsonObject>("job.not.resumable"));
+				} else {
+					final Job job = Job.fromJson(new JsonObject(
+							event.right().getValue().getJsonObject(0).getString("state")));
+					start(job);
+					handler.handle(new Either.Right<String, JsonObject>(job.toJson()));
+				}
+			}
+		}));
+	}
+
+	/**
+	 * @param handler called with the job state, job.not.found if the job doesn't exist
+	 */
+	public void job(String jobId, final Handler<Either<String, JsonObject>> handler) {
+		final Job job = jobs.get(jobId);
+		if (job != null) {
+			handler.handle(new Either.Right<String, JsonObject>(job.toJson()));
+			return;
+		}
+		neo4j.executeReadOnly("MATCH (j:RulesJob {id : {id}}) RETURN j.state as state",
+				new JsonObject().put("id", jobId), validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
+				} else if (event.right().getValue().size() != 1) {
+					handler.handle(new Either.Left<String, JsonObject>("job.not.found"));
+				} else {
+					handler.handle(new Either.Right<String, JsonObject>(new JsonObject(
+							event.right().getValue().getJsonObject(0).getString("state"))));
+				}
+			}
+		}));
+	}
+
+	/**
+	 * @param handler called with the states of the last jobs of all instances, the jobs of this instance
+	 * have their current progress
+	 */
+	public void jobs(final Handler<Either<String, JsonArray>> handler) {
+		neo4j.executeReadOnly("MATCH (j:RulesJob) RETURN j.id as id, j.state as state " +
+				"ORDER BY j.submitted DESC LIMIT {max}", new JsonObject().put("max", MAX_JOBS),
+				validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					handler.handle(event);
+					return;
+				}
+				final JsonArray a = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : event.right().getValue()) {
+					if (!(o instanceof JsonObject)) continue;
+					final Job job = jobs.get(((JsonObject) o).getString("id"));
+					a.add((job != null) ? job.toJson() : new JsonObject(((JsonObject) o).getString("state")));
+				}
+				handler.handle(new Either.Right<String, JsonArray>(a));
+			}
+		}));
+	}
+
+	private void start(Job job) {
+		jobs.put(job.id, job);
+		queue.add(job);
+		save(job);
+		next();
+	}
+
+	private void save(final Job job) {
+		job.saved = System.currentTimeMillis();
+		final JsonObject state = job.toJson();
+		final JsonObject params = new JsonObject()
+				.put("id", job.id)
+				.put("status", job.status.name())
+				.put("submitted", job.submitted)
+				.put("updated", job.saved)
+				.put("state", state.encode());
+		neo4j.execute(SAVE_JOB, params, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					log.error("Error saving communication rules job " + job.id + " : " +
+							event.body().getString("message"));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Delete relationships by batches of batch-size until the query deletes nothing.
+	 * @param query a query deleting at most {limit} relationships and returning their count as number
+	 */
+	public void deleteByBatches(final String query, final JsonObject params,
+			final Handler<Either<String, JsonObject>> handler) {
+		neo4j.execute(query, params.copy().put("limit", batchSize), validResultHandler(
+				new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
+					return;
+				}
+				final JsonArray r = event.right().getValue();
+				final int number = (r.size() == 1) ? r.getJsonObject(0).getInteger("number", 0) : 0;
+				if (number < batchSize) {
+					handler.handle(new Either.Right<String, JsonObject>(new JsonObject()));
+				} else if (batchDelay > 0) {
+					vertx.setTimer(batchDelay, timerId -> deleteByBatches(query, params, handler));
+				} else {
+					deleteByBatches(query, params, handler);
+				}
+			}
+		}));
+	}
+
+	private void next() {
+		if (running != null || queue.isEmpty()) {
+			return;
+		}
+		running = queue.poll();
+		running.status = Status.RUNNING;
+		save(running);
+		processStructure(running);
+	}
+
+	private void processStructure(final Job job) {
+		final String structureId = job.structures.peek();
+		if (structureId == null) {
+			end(job, null);
+			return;
+		}
+		job.structureId = structureId;
+		job.phase = "diff";
+		job.batches = 0;
+		job.batchesDone = 0;
+		save(job);
+		diff(job, structureId, 0, new ArrayList<Batch>());
+	}
+
+	private void diff(final Job job, final String structureId, final int idx, final List<Batch> batches) {
+		final boolean missing = idx < MISSING_RELATIONSHIPS.length;
+		if (!missing && (!job.prune || idx >= MISSING_RELATIONSHIPS.length + STALE_RELATIONSHIPS.length)) {
+			job.phase = "apply";
+			job.batches = batches.size();
+			apply(job, structureId, batches, 0);
+			return;
+		}
+		final String query = missing ? MISSING_RELATIONSHIPS[idx][0] :
+				STALE_RELATIONSHIPS[idx - MISSING_RELATIONSHIPS.length];
+		neo4j.executeReadOnly(query, new JsonObject().put("structureId", structureId),
+				validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					end(job, event.left().getValue());
+					return;
+				}
+				JsonArray chunk = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : event.right().getValue()) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject row = (JsonObject) o;
+					if (missing) {
+						chunk.add(new fr.wseduc.webutils.collections.JsonArray()
+								.add(row.getString("start")).add(row.getString("end")));
+					} else {
+						chunk.add(row.getLong("id"));
+					}
+					if (chunk.size() == batchSize) {
+						batches.add(batch(missing, idx, chunk));
+						chunk = new fr.wseduc.webutils.collections.JsonArray();
+					}
+				}
+				if (chunk.size() > 0) {
+					batches.add(batch(missing, idx, chunk));
+				}
+				diff(job, structureId, idx + 1, batches);
+			}
+		}));
+	}
+
+	private Batch batch(boolean missing, int idx, JsonArray chunk) {
+		if (missing) {
+			return new Batch(MISSING_RELATIONSHIPS[idx][1], new JsonObject().put("relationships", chunk),
+					chunk.size(), 0);
+		}
+		return new Batch(DELETE_RELATIONSHIPS, new JsonObject().put("ids", chunk), 0, chunk.size());
+	}
+
+	private void apply(final Job job, final String structureId, final List<Batch> batches, final int idx) {
+		if (idx >= batches.size()) {
+			job.phase = "visible";
+			final StatementsBuilder s = new StatementsBuilder();
+			for (String query : SET_VISIBLE) {
+				s.add(query, new JsonObject().put("structureId", structureId));
+			}
+			neo4j.executeTransaction(s.build(), null, true, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> event) {
+					if (!"ok".equals(event.body().getString("status"))) {
+						end(job, event.body().getString("message"));
+						return;
+					}
+					job.structures.poll();
+					job.done.add(structureId);
+					processStructure(job);
+				}
+			});
+			return;
+		}
+		final Batch batch = batches.get(idx);
+		neo4j.execute(batch.query, batch.params, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					end(job, event.body().getString("message"));
+					return;
+				}
+				job.created += batch.created;
+				job.deleted += batch.deleted;
+				job.batchesDone++;
+				if (System.currentTimeMillis() - job.saved > SAVE_DELAY) {
+					save(job);
+				}
+				if (batchDelay > 0) {
+					vertx.setTimer(batchDelay, timerId -> apply(job, structureId, batches, idx + 1));
+				} else {
+					apply(job, structureId, batches, idx + 1);
+				}
+			}
+		});
+	}
+
+	private void end(Job job, String error) {
+		job.status = (error == null) ? Status.DONE : Status.FAILED;
+		job.error = error;
+		job.ended = System.currentTimeMillis();
+		running = null;
+		jobs.remove(job.id);
+		save(job);
+		neo4j.execute(PURGE_JOBS, new JsonObject().put("max", MAX_JOBS), (Handler<Message<JsonObject>>) null);
+		if (job.done.size() > 0) {
+			VisibilityIndex.publishReset(neo4j.getEventBus());
+		}
+		final Handler<Either<String, JsonObject>> handler = job.handler;
+		job.handler = null;
+		if (error == null) {
+			log.info("Communication rules job " + job.id + " done : " + job.created + " relationships created, " +
+					job.deleted + " deleted.");
+			if (handler != null) {
+				handler.handle(new Either.Right<String, JsonObject>(job.toJson()));
+			}
+		} else {
+			log.error("Communication rules job " + job.id + " failed on structure " + job.structureId + " : " + error);
+			if (handler != null) {
+				handler.handle(new Either.Left<String, JsonObject>(error));
+			}
+		}
+		next();
+	}
+
+}
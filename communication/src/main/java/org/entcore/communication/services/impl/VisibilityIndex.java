@@ -0,0 +1,496 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.communication.services.impl;
+
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.user.UserUtils;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.entcore.common.appregistry.AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS;
+import static org.entcore.common.appregistry.AppRegistryEvents.IMPORT_SUCCEEDED;
+import static org.entcore.common.neo4j.Neo4jResult.validResultHandler;
+
+/**
+ * Index of the communication graph used to answer "can A see B" without variable length traversals.
+ * For each user it stores the groups reachable through COMMUNIQUE in one or two hops, the users
+ * reachable through COMMUNIQUE_DIRECT and the groups that communicate with the user.
+ * B is visible by A if B is a direct user of A or if a group reachable by A communicates with B.
+ * Groups are visible when they are reachable (or depend on a reachable group) with the rules of the
+ * visible users search.
+ * Entries are loaded on demand, kept for a ttl and updated or evicted when the communication service
+ * publishes a change of the graph.
+ */
+public class VisibilityIndex {
+
+	public static final String INVALIDATE_ADDRESS = UserUtils.VISIBILITY_INVALIDATE_ADDRESS;
+	private static final Logger log = LoggerFactory.getLogger(VisibilityIndex.class);
+	private static final int DEFAULT_MAX_SIZE = 50000;
+	private static final long DEFAULT_TTL = 5 * 60 * 1000L;
+	private static final String INDEX_QUERY =
+			"MATCH (u:User) WHERE u.id IN {userIds} " +
+			"OPTIONAL MATCH u-[:COMMUNIQUE]->(g1:Group) " +
+			"OPTIONAL MATCH g1-[:COMMUNIQUE]->(g2:Group) " +
+			"WITH u, COLLECT(DISTINCT g1.id) as level1, COLLECT(DISTINCT g2.id) as level2 " +
+			"OPTIONAL MATCH u-[:COMMUNIQUE_DIRECT]->(d:User) " +
+			"WITH u, level1, level2, COLLECT(DISTINCT d.id) as direct " +
+			"OPTIONAL MATCH u<-[:COMMUNIQUE]-(i:Group) " +
+			"WITH u, level1, level2, direct, COLLECT(DISTINCT i.id) as inbound " +
+			"OPTIONAL MATCH u-[:IN]->(m:Group) " +
+			"WITH u, level1, level2, direct, inbound, COLLECT(DISTINCT m.id) as memberOf " +
+			"OPTIONAL MATCH u-[:RELATED]->(:User)-[:IN]->(rg:Group) " +
+			"RETURN u.id as id, u.blocked as blocked, level1, level2, direct, inbound, memberOf, " +
+			"COLLECT(DISTINCT rg.id) as relativesGroups ";
+	private static final String GROUPS_QUERY =
+			"MATCH (g:Group) WHERE g.id IN {groupIds} " +
+			"OPTIONAL MATCH g-[:DEPENDS]->(pg:Group) " +
+			"RETURN g.id as id, g.users as users, COLLECT(pg.id) as parents ";
+
+	private final Neo4j neo4j = Neo4j.getInstance();
+	private final boolean enabled;
+	private final long ttl;
+	private final Map<String, Entry> entries;
+	private final Map<String, GroupEntry> groupEntries;
+	private final Map<String, Set<String>> usersByGroup = new HashMap<>();
+
+	static final class Entry {
+		private final Set<String> level1;
+		private final Set<String> level2;
+		private final Set<String> reachable;
+		private final Set<String> direct;
+		private final Set<String> inbound;
+		private final Set<String> groups;
+		private final boolean blocked;
+		private final long expire;
+
+		Entry(JsonObject row, long expire) {
+			this.level1 = toSet(row.getJsonArray("level1"));
+			this.level2 = toSet(row.getJsonArray("level2"));
+			this.reachable = new HashSet<>(level1);
+			this.reachable.addAll(level2);
+			this.direct = toSet(row.getJsonArray("direct"));
+			this.inbound = toSet(row.getJsonArray("inbound"));
+			this.groups = new HashSet<>(reachable);
+			this.groups.addAll(inbound);
+			this.groups.addAll(toSet(row.getJsonArray("memberOf")));
+			this.groups.addAll(toSet(row.getJsonArray("relativesGroups")));
+			this.blocked = row.getBoolean("blocked", false);
+			this.expire = expire;
+		}
+
+		boolean canSee(String userId, Entry user) {
+			if (direct.contains(userId)) {
+				return true;
+			}
+			for (String groupId : user.inbound) {
+				if (reachable.contains(groupId)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean canSee(String groupId, GroupEntry group) {
+			if (level2.contains(groupId) || (group.outgoing && level1.contains(groupId))) {
+				return true;
+			}
+			for (String parentId : group.parents) {
+				if (reachable.contains(parentId)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+	}
+
+	static final class GroupEntry {
+		private final boolean outgoing;
+		private final Set<String> parents;
+		private final long expire;
+
+		GroupEntry(JsonObject row, long expire) {
+			final String users = row.getString("users");
+			this.outgoing = users != null && !"INCOMING".equals(users);
+			this.parents = toSet(row.getJsonArray("parents"));
+			this.expire = expire;
+		}
+
+	}
+
+	public VisibilityIndex(Vertx vertx, JsonObject config) {
+		this.enabled = config != null && config.getBoolean("enabled", true);
+		this.ttl = (config != null) ? config.getLong("ttl", DEFAULT_TTL) : DEFAULT_TTL;
+		final int maxSize = (config != null) ? config.getInteger("max-size", DEFAULT_MAX_SIZE) : DEFAULT_MAX_SIZE;
+		this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				if (size() > maxSize) {
+					unindex(eldest.getKey(), eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+		this.groupEntries = new LinkedHashMap<String, GroupEntry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, GroupEntry> eldest) {
+				return size() > maxSize;
+			}
+		};
+		if (enabled) {
+			vertx.eventBus().consumer(INVALIDATE_ADDRESS, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					invalidate(message.body());
+				}
+			});
+			vertx.eventBus().consumer(APP_REGISTRY_PUBLISH_ADDRESS, new Handler<Message<JsonObject>>() {
+				@Override
+				public void handle(Message<JsonObject> message) {
+					if (IMPORT_SUCCEEDED.equals(message.body().getString("type"))) {
+						invalidate(new JsonObject().put("action", "all"));
+					}
+				}
+			});
+			log.info("Visibility index enabled - max-size : " + maxSize + ", ttl : " + ttl);
+		}
+	}
+
+	/**
+	 * Filter the ids of the users visible by a user.
+	 * Ids which are not users (groups, unknown ids) are never returned.
+	 * @param userId the user id
+	 * @param ids the ids to check
+	 * @param excludeBlocked remove the blocked users
+	 * @param handler the visible user ids
+	 */
+	public void filterVisibles(final String userId, final JsonArray ids, final boolean excludeBlocked,
+			final Handler<Either<String, JsonArray>> handler) {
+		load(userId, ids, false, new Handler<Either<String, Lookup>>() {
+			@Override
+			public void handle(Either<String, Lookup> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, JsonArray>(event.left().getValue()));
+					return;
+				}
+				final Lookup l = event.right().getValue();
+				final JsonArray visibles = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : ids) {
+					if (o instanceof String && l.isVisibleUser((String) o, excludeBlocked)) {
+						visibles.add(o);
+					}
+				}
+				handler.handle(new Either.Right<String, JsonArray>(visibles));
+			}
+		});
+	}
+
+	/**
+	 * Find the ids, users or groups, which are not visible by a user.
+	 * Uses the same rules as the visible users search with itself and myGroup options,
+	 * blocked users and unknown ids are not visible.
+	 * @param userId the user id
+	 * @param ids the ids to check
+	 * @param handler the ids which are not visible
+	 */
+	public void invisibles(final String userId, final JsonArray ids, final Handler<Either<String, JsonArray>> handler) {
+		load(userId, ids, true, new Handler<Either<String, Lookup>>() {
+			@Override
+			public void handle(Either<String, Lookup> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, JsonArray>(event.left().getValue()));
+					return;
+				}
+				final Lookup l = event.right().getValue();
+				final JsonArray invisibles = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : ids) {
+					if (!(o instanceof String)) continue;
+					final String id = (String) o;
+					if (!l.isVisibleUser(id, true) && !l.isVisibleGroup(id)) {
+						invisibles.add(id);
+					}
+				}
+				handler.handle(new Either.Right<String, JsonArray>(invisibles));
+			}
+		});
+	}
+
+	private final class Lookup {
+		private final String userId;
+		private final Map<String, Entry> users = new HashMap<>();
+		private final Map<String, GroupEntry> groups = new HashMap<>();
+
+		private Lookup(String userId) {
+			this.userId = userId;
+		}
+
+		private boolean isVisibleUser(String id, boolean excludeBlocked) {
+			final Entry user = users.get(userId);
+			final Entry e = users.get(id);
+			return user != null && e != null && !(excludeBlocked && e.blocked) && user.canSee(id, e);
+		}
+
+		private boolean isVisibleGroup(String id) {
+			final Entry user = users.get(userId);
+			final GroupEntry g = groups.get(id);
+			return user != null && g != null && user.canSee(id, g);
+		}
+
+		private JsonArray missing(JsonArray ids) {
+			final JsonArray missing = new fr.wseduc.webutils.collections.JsonArray();
+			final Set<String> seen = new HashSet<>();
+			for (Object o : ids) {
+				if (!(o instanceof String) || users.containsKey(o) || groups.containsKey(o) ||
+						!seen.add((String) o)) continue;
+				final String id = (String) o;
+				final Entry e = getEntry(id);
+				if (e != null) {
+					users.put(id, e);
+					continue;
+				}
+				final GroupEntry g = getGroupEntry(id);
+				if (g != null) {
+					groups.put(id, g);
+					continue;
+				}
+				missing.add(id);
+			}
+			return missing;
+		}
+
+	}
+
+	private void load(final String userId, final JsonArray ids, final boolean loadGroups,
+			final Handler<Either<String, Lookup>> handler) {
+		final Lookup l = new Lookup(userId);
+		final JsonArray missing = l.missing(new fr.wseduc.webutils.collections.JsonArray().add(userId).addAll(ids));
+		if (missing.isEmpty()) {
+			handler.handle(new Either.Right<String, Lookup>(l));
+			return;
+		}
+		neo4j.executeReadOnly(INDEX_QUERY, new JsonObject().put("userIds", missing),
+				validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, Lookup>(event.left().getValue()));
+					return;
+				}
+				final long expire = System.currentTimeMillis() + ttl;
+				for (Object o : event.right().getValue()) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject row = (JsonObject) o;
+					final String id = row.getString("id");
+					if (id == null) continue;
+					final Entry e = new Entry(row, expire);
+					l.users.put(id, e);
+					put(id, e);
+				}
+				final JsonArray groupIds = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : missing) {
+					if (!l.users.containsKey(o)) {
+						groupIds.add(o);
+					}
+				}
+				if (!loadGroups || groupIds.isEmpty() || !l.users.containsKey(userId)) {
+					handler.handle(new Either.Right<String, Lookup>(l));
+					return;
+				}
+				neo4j.executeReadOnly(GROUPS_QUERY, new JsonObject().put("groupIds", groupIds),
+						validResultHandler(new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> event) {
+						if (event.isLeft()) {
+							handler.handle(new Either.Left<String, Lookup>(event.left().getValue()));
+							return;
+						}
+						for (Object o : event.right().getValue()) {
+							if (!(o instanceof JsonObject)) continue;
+							final JsonObject row = (JsonObject) o;
+							final String id = row.getString("id");
+							if (id == null) continue;
+							final GroupEntry g = new GroupEntry(row, expire);
+							l.groups.put(id, g);
+							put(id, g);
+						}
+						handler.handle(new Either.Right<String, Lookup>(l));
+					}
+				}));
+			}
+		}));
+	}
+
+	Entry getEntry(String userId) {
+		final Entry e = enabled ? entries.get(userId) : null;
+		if (e != null && e.expire < System.currentTimeMillis()) {
+			entries.remove(userId);
+			unindex(userId, e);
+			return null;
+		}
+		return e;
+	}
+
+	GroupEntry getGroupEntry(String groupId) {
+		final GroupEntry g = enabled ? groupEntries.get(groupId) : null;
+		if (g != null && g.expire < System.currentTimeMillis()) {
+			groupEntries.remove(groupId);
+			return null;
+		}
+		return g;
+	}
+
+	void put(String groupId, GroupEntry g) {
+		if (enabled) {
+			groupEntries.put(groupId, g);
+		}
+	}
+
+	void put(String userId, Entry e) {
+		if (!enabled) {
+			return;
+		}
+		final Entry old = entries.put(userId, e);
+		if (old != null) {
+			unindex(userId, old);
+		}
+		for (String groupId : e.groups) {
+			index(groupId, userId);
+		}
+	}
+
+	private void index(String groupId, String userId) {
+		Set<String> users = usersByGroup.get(groupId);
+		if (users == null) {
+			users = new HashSet<>();
+			usersByGroup.put(groupId, users);
+		}
+		users.add(userId);
+	}
+
+	private void unindex(String userId, Entry e) {
+		for (String groupId : e.groups) {
+			final Set<String> users = usersByGroup.get(groupId);
+			if (users != null) {
+				users.remove(userId);
+				if (users.isEmpty()) {
+					usersByGroup.remove(groupId);
+				}
+			}
+		}
+	}
+
+	private void invalidate(JsonObject m) {
+		switch (m.getString("action", "")) {
+			case "addLink":
+				addLink(m.getString("startGroupId"), m.getString("endGroupId"));
+				break;
+			case "groups":
+				for (Object o : m.getJsonArray("groupIds", new fr.wseduc.webutils.collections.JsonArray())) {
+					if (!(o instanceof String)) continue;
+					groupEntries.remove(o);
+					final Set<String> users = usersByGroup.get(o);
+					if (users != null) {
+						for (String userId : new HashSet<>(users)) {
+							remove(userId);
+						}
+					}
+				}
+				break;
+			case "users":
+				for (Object o : m.getJsonArray("userIds", new fr.wseduc.webutils.collections.JsonArray())) {
+					if (o instanceof String) {
+						remove((String) o);
+					}
+				}
+				break;
+			default:
+				entries.clear();
+				groupEntries.clear();
+				usersByGroup.clear();
+		}
+	}
+
+	private void addLink(String startGroupId, String endGroupId) {
+		final Set<String> users = usersByGroup.get(startGroupId);
+		if (users == null || endGroupId == null) {
+			return;
+		}
+		for (String userId : new HashSet<>(users)) {
+			final Entry e = entries.get(userId);
+			if (e != null && e.level1.contains(startGroupId)) {
+				e.level2.add(endGroupId);
+				e.reachable.add(endGroupId);
+				e.groups.add(endGroupId);
+				index(endGroupId, userId);
+			}
+		}
+	}
+
+	private void remove(String userId) {
+		final Entry e = entries.remove(userId);
+		if (e != null) {
+			unindex(userId, e);
+		}
+	}
+
+	private static Set<String> toSet(JsonArray a) {
+		final Set<String> s = new HashSet<>();
+		if (a != null) {
+			for (Object o : a) {
+				if (o instanceof String) {
+					s.add((String) o);
+				}
+			}
+		}
+		return s;
+	}
+
+	public static void publishGroupsChange(EventBus eb, String... groupIds) {
+		final JsonArray ids = new fr.wseduc.webutils.collections.JsonArray();
+		for (String groupId : groupIds) {
+			ids.add(groupId);
+		}
+		eb.publish(INVALIDATE_ADDRESS, new JsonObject().put("action", "groups").put("groupIds", ids));
+	}
+
+	public static void publishLinkAdded(EventBus eb, String startGroupId, String endGroupId) {
+		eb.publish(INVALIDATE_ADDRESS, new JsonObject().put("action", "addLink")
+				.put("startGroupId", startGroupId).put("endGroupId", endGroupId));
+	}
+
+	public static void publishReset(EventBus eb) {
+		eb.publish(INVALIDATE_ADDRESS, new JsonObject().put("action", "all"));
+	}
+
+}
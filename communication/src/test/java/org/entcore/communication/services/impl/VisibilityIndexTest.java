@@ -0,0 +1,167 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.communication.services.impl;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.appregistry.AppRegistryEvents;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Fills the index without neo4j and checks the entries evicted or updated by the invalidation
+ * messages. The index isn't thread safe : it is created and used on one vertx context, where the
+ * invalidation messages are delivered before the next checks.
+ */
+public class VisibilityIndexTest {
+
+	private Vertx vertx;
+	private Context context;
+	private VisibilityIndex index;
+
+	@Before
+	public void setUp() throws Exception {
+		vertx = Vertx.vertx();
+		context = vertx.getOrCreateContext();
+		onContext(() -> {
+			index = new VisibilityIndex(vertx, new JsonObject().put("ttl", 60000L));
+			final long expire = System.currentTimeMillis() + 60000L;
+			// teacher -> class group -> parents group, student in class group
+			index.put("teacher", new VisibilityIndex.Entry(user().put("level1", ids("class"))
+					.put("memberOf", ids("teachers")), expire));
+			index.put("student", new VisibilityIndex.Entry(user().put("inbound", ids("class"))
+					.put("memberOf", ids("class")).put("direct", ids("teacher")), expire));
+			index.put("relative", new VisibilityIndex.Entry(user().put("inbound", ids("parents"))
+					.put("relativesGroups", ids("class")), expire));
+			index.put("other", new VisibilityIndex.Entry(user().put("level1", ids("school")), expire));
+			index.put("class", new VisibilityIndex.GroupEntry(new JsonObject().put("users", "BOTH")
+					.put("parents", ids()), expire));
+		});
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	@Test
+	public void groupsChangeEvictsMembersAndCommunicatingUsers() throws Exception {
+		onContext(() -> VisibilityIndex.publishGroupsChange(vertx.eventBus(), "class"));
+		onContext(() -> {
+			assertNull(index.getEntry("teacher"));
+			assertNull(index.getEntry("student"));
+			assertNull(index.getEntry("relative"));
+			assertNull(index.getGroupEntry("class"));
+			assertNotNull(index.getEntry("other"));
+		});
+	}
+
+	@Test
+	public void usersChangeEvictsUsers() throws Exception {
+		onContext(() -> vertx.eventBus().publish(VisibilityIndex.INVALIDATE_ADDRESS, new JsonObject()
+				.put("action", "users").put("userIds", ids("student", "unknown"))));
+		onContext(() -> {
+			assertNull(index.getEntry("student"));
+			assertNotNull(index.getEntry("teacher"));
+		});
+		// an evicted user is no longer indexed by its groups
+		onContext(() -> index.put("student", new VisibilityIndex.Entry(user(), System.currentTimeMillis() + 60000L)));
+		onContext(() -> VisibilityIndex.publishGroupsChange(vertx.eventBus(), "class"));
+		onContext(() -> assertNotNull(index.getEntry("student")));
+	}
+
+	@Test
+	public void linkAddedExtendsReachableGroups() throws Exception {
+		onContext(() -> {
+			assertFalse(index.getEntry("teacher").canSee("relative", index.getEntry("relative")));
+			VisibilityIndex.publishLinkAdded(vertx.eventBus(), "class", "parents");
+		});
+		onContext(() -> {
+			assertTrue(index.getEntry("teacher").canSee("relative", index.getEntry("relative")));
+			assertTrue(index.getEntry("teacher").canSee("student", index.getEntry("student")));
+			// the users which don't reach the start group are unchanged
+			assertFalse(index.getEntry("other").canSee("relative", index.getEntry("relative")));
+			// the new group is indexed : its change evicts the teacher
+			VisibilityIndex.publishGroupsChange(vertx.eventBus(), "parents");
+		});
+		onContext(() -> {
+			assertNull(index.getEntry("teacher"));
+			assertNull(index.getEntry("relative"));
+			assertNotNull(index.getEntry("student"));
+		});
+	}
+
+	@Test
+	public void resetAndImportClearTheIndex() throws Exception {
+		onContext(() -> VisibilityIndex.publishReset(vertx.eventBus()));
+		onContext(() -> {
+			assertNull(index.getEntry("teacher"));
+			assertNull(index.getEntry("other"));
+			assertNull(index.getGroupEntry("class"));
+			index.put("teacher", new VisibilityIndex.Entry(user(), System.currentTimeMillis() + 60000L));
+			vertx.eventBus().publish(AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS,
+					new JsonObject().put("type", AppRegistryEvents.IMPORT_SUCCEEDED));
+		});
+		onContext(() -> assertNull(index.getEntry("teacher")));
+	}
+
+	@Test
+	public void expiredEntriesAreEvicted() throws Exception {
+		onContext(() -> {
+			index.put("expired", new VisibilityIndex.Entry(user().put("memberOf", ids("class")),
+					System.currentTimeMillis() - 1));
+			assertNull(index.getEntry("expired"));
+		});
+	}
+
+	private static JsonObject user() {
+		return new JsonObject().put("level1", ids()).put("level2", ids()).put("direct", ids())
+				.put("inbound", ids()).put("memberOf", ids()).put("relativesGroups", ids());
+	}
+
+	private static JsonArray ids(String... ids) {
+		final JsonArray a = new fr.wseduc.webutils.collections.JsonArray();
+		for (String id : ids) {
+			a.add(id);
+		}
+		return a;
+	}
+
+	private void onContext(Runnable action) throws Exception {
+		final CompletableFuture<Void> future = new CompletableFuture<>();
+		context.runOnContext(v -> {
+			try {
+				action.run();
+				future.complete(null);
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		future.get(5, TimeUnit.SECONDS);
+	}
+
+}
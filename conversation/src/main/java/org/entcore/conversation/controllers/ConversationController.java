@@ -37,10 +37,13 @@ import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.http.request.JsonHttpServerRequest;
 import org.entcore.common.notification.TimelineHelper;
+import org.entcore.common.notification.UnreadCountersWebSocket;
 import org.entcore.common.storage.Storage;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.utils.Config;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 import org.entcore.common.utils.StringUtils;
 import org.entcore.common.utils.Zip;
 import org.entcore.conversation.Conversation;
@@ -107,7 +110,14 @@ public class ConversationController extends BaseController {
 		this.conversationService = new DefaultConversationService(vertx,
 				config.getString("app-name", Conversation.class.getSimpleName()));
 				*/
-		this.conversationService = new SqlConversationService(vertx, config.getString("db-schema", "conversation"));
+		final SqlConversationService sqlConversationService =
+				new SqlConversationService(vertx, config.getString("db-schema", "conversation"));
+		this.conversationService = sqlConversationService;
+		final Integer unreadWsPort = config.getInteger("unread-ws-port");
+		if (unreadWsPort != null) {
+			vertx.createHttpServer().websocketHandler(
+					new UnreadCountersWebSocket(vertx, sqlConversationService.getUnreadCounters())).listen(unreadWsPort);
+		}
 		this.neoConversationService = new Neo4jConversationService();
 		notification = new TimelineHelper(vertx, eb, config);
 		eventStore = EventStoreFactory.getFactory().getEventStore(Conversation.class.getSimpleName());
@@ -251,11 +261,13 @@ public class ConversationController extends BaseController {
 								conversationService.send(parentMessageId, id, message, user, new Handler<Either<String,JsonObject>>() {
 									public void handle(Either<String, JsonObject> event) {
 										if(event.isRight()){
+											final Set<String> recipients = new LinkedHashSet<>();
 											for(Object recipient : message.getJsonArray("allUsers", new fr.wseduc.webutils.collections.JsonArray())){
 												if(recipient.toString().equals(user.getUserId()))
 													continue;
-												updateUserQuota(recipient.toString(), size.get());
+												recipients.add(recipient.toString());
 											}
+											updateUsersQuota(recipients, size.get());
 										}
 										result.handle(event);
 									}
@@ -396,6 +408,12 @@ public class ConversationController extends BaseController {
 			badRequest(request);
 			return;
 		}
+		final boolean keyset = request.params().contains(Cursor.PARAM);
+		final Cursor after = Cursor.parse(request.params().get(Cursor.PARAM));
+		if (keyset && after == null && !request.params().get(Cursor.PARAM).trim().isEmpty()) {
+			badRequest(request, "invalid.cursor");
+			return;
+		}
 		getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
 			public void handle(final UserInfos user) {
@@ -408,7 +426,7 @@ public class ConversationController extends BaseController {
 					if (unread != null && !unread.isEmpty()) {
 						b = Boolean.valueOf(unread);
 					}
-					conversationService.list(folder, restrain, b, user, page, search, new Handler<Either<String, JsonArray>>() {
+					final Handler<Either<String, JsonArray>> handler = new Handler<Either<String, JsonArray>>() {
 						@Override
 						public void handle(Either<String, JsonArray> r) {
 							if (r.isRight()) {
@@ -418,6 +436,9 @@ public class ConversationController extends BaseController {
 									}
 									translateGroupsNames((JsonObject) o, user, request);
 								}
+								if (keyset) {
+									addNextCursor(request, r.right().getValue(), ConversationService.LIST_LIMIT);
+								}
 								renderJson(request, r.right().getValue());
 							} else {
 								JsonObject error = new JsonObject()
@@ -425,7 +446,12 @@ public class ConversationController extends BaseController {
 								renderJson(request, error, 400);
 							}
 						}
-					});
+					};
+					if (keyset) {
+						conversationService.list(folder, restrain, b, user, after, search, Deadline.of(request), handler);
+					} else {
+						conversationService.list(folder, restrain, b, user, page, search, Deadline.of(request), handler);
+					}
 				} else {
 					unauthorized(request);
 				}
@@ -530,6 +556,12 @@ public class ConversationController extends BaseController {
 	@SecuredAction(value = "conversation.threads.list")
 	public void listThreads(final HttpServerRequest request){
 		final String p = Utils.getOrElse(request.params().get("page"), "0", false);
+		final boolean keyset = request.params().contains(Cursor.PARAM);
+		final Cursor after = Cursor.parse(request.params().get(Cursor.PARAM));
+		if (keyset && after == null && !request.params().get(Cursor.PARAM).trim().isEmpty()) {
+			badRequest(request, "invalid.cursor");
+			return;
+		}
 		getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
 			public void handle(final UserInfos user) {
@@ -538,7 +570,7 @@ public class ConversationController extends BaseController {
 					try {
 						page = Integer.parseInt(p);
 					} catch (NumberFormatException e) { page = 0; }
-					conversationService.listThreads( user, page, new Handler<Either<String, JsonArray>>() {
+					final Handler<Either<String, JsonArray>> handler = new Handler<Either<String, JsonArray>>() {
 						@Override
 						public void handle(Either<String, JsonArray> r) {
 							if (r.isRight()) {
@@ -548,6 +580,9 @@ public class ConversationController extends BaseController {
 									}
 									translateGroupsNames((JsonObject) o, user, request);
 								}
+								if (keyset) {
+									addNextCursor(request, r.right().getValue(), ConversationService.THREADS_LIMIT);
+								}
 								renderJson(request, r.right().getValue());
 							} else {
 								JsonObject error = new JsonObject()
@@ -555,7 +590,12 @@ public class ConversationController extends BaseController {
 								renderJson(request, error, 400);
 							}
 						}
-					});
+					};
+					if (keyset) {
+						conversationService.listThreads(user, after, handler);
+					} else {
+						conversationService.listThreads(user, page, handler);
+					}
 				} else {
 					unauthorized(request);
 				}
@@ -563,6 +603,20 @@ public class ConversationController extends BaseController {
 		});
 	}
 
+	/**
+	 * Put the cursor of the next page in the response headers when the page is full.
+	 */
+	private void addNextCursor(HttpServerRequest request, JsonArray rows, int limit) {
+		if (rows.size() < limit) {
+			return;
+		}
+		final JsonObject last = rows.getJsonObject(rows.size() - 1);
+		final String next = Cursor.of(last.getValue("date"), last.getString("id"));
+		if (next != null) {
+			request.response().putHeader(Cursor.HEADER, next);
+		}
+	}
+
 	@Get("thread/messages/:id")
 	@SecuredAction(value = "conversation.threads.message", type = ActionType.AUTHENTICATED)
 	public void listThreadMessages(final HttpServerRequest request){
@@ -573,6 +627,12 @@ public class ConversationController extends BaseController {
 			badRequest(request);
 			return;
 		}
+		final boolean keyset = request.params().contains(Cursor.PARAM);
+		final Cursor after = Cursor.parse(request.params().get(Cursor.PARAM));
+		if (keyset && after == null && !request.params().get(Cursor.PARAM).trim().isEmpty()) {
+			badRequest(request, "invalid.cursor");
+			return;
+		}
 		getUserInfos(eb, request, new Handler<UserInfos>() {
 			@Override
 			public void handle(final UserInfos user) {
@@ -581,7 +641,7 @@ public class ConversationController extends BaseController {
 					try {
 						page = Integer.parseInt(p);
 					} catch (NumberFormatException e) { page = 0; }
-					conversationService.listThreadMessages(threadId, page, user, new Handler<Either<String, JsonArray>>() {
+					final Handler<Either<String, JsonArray>> handler = new Handler<Either<String, JsonArray>>() {
 						@Override
 						public void handle(Either<String, JsonArray> r) {
 							if (r.isRight()) {
@@ -591,6 +651,9 @@ public class ConversationController extends BaseController {
 									}
 									translateGroupsNames((JsonObject) o, user, request);
 								}
+								if (keyset) {
+									addNextCursor(request, r.right().getValue(), ConversationService.LIST_LIMIT);
+								}
 								renderJson(request, r.right().getValue());
 							} else {
 								JsonObject error = new JsonObject()
@@ -598,7 +661,12 @@ public class ConversationController extends BaseController {
 								renderJson(request, error, 400);
 							}
 						}
-					});
+					};
+					if (keyset) {
+						conversationService.listThreadMessages(threadId, after, user, handler);
+					} else {
+						conversationService.listThreadMessages(threadId, page, user, handler);
+					}
 				} else {
 					unauthorized(request);
 				}
@@ -733,7 +801,8 @@ public class ConversationController extends BaseController {
 					if (unread != null && !unread.isEmpty()) {
 						b = Boolean.valueOf(unread);
 					}
-					conversationService.count(folder, restrain, b, user, defaultResponseHandler(request));
+					conversationService.count(folder, restrain, b, user, Deadline.of(request),
+							defaultResponseHandler(request));
 				} else {
 					unauthorized(request);
 				}
@@ -1633,9 +1702,51 @@ public class ConversationController extends BaseController {
 		}));
 	}
 
+	/**
+	 * Same size added to the quota of all the recipients with one bus message and one session update.
+	 */
+	private void updateUsersQuota(final Collection<String> userIds, long size) {
+		if (userIds.isEmpty() || size == 0) {
+			return;
+		}
+		JsonObject message = new JsonObject();
+		message.put("action", "updateUsersQuota");
+		message.put("userIds", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(userIds)));
+		message.put("size", size);
+		message.put("threshold", threshold);
+
+		eb.send(QUOTA_BUS_ADDRESS, message, handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
+			public void handle(Message<JsonObject> reply) {
+				JsonArray results = reply.body().getJsonArray("results");
+				if (!"ok".equals(reply.body().getString("status")) || results == null) {
+					log.error("Error updating recipients quota : " + reply.body().getString("message"));
+					return;
+				}
+				final JsonObject storages = new JsonObject();
+				final List<String> notify = new ArrayList<>();
+				for (Object o : results) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject r = (JsonObject) o;
+					storages.put(r.getString("userId"), r.getLong("storage"));
+					if (r.getBoolean("notify", false)) {
+						notify.add(r.getString("userId"));
+					}
+				}
+				UserUtils.addSessionAttributes(eb, storages, "storage", null);
+				if (!notify.isEmpty()) {
+					notifyEmptySpaceIsSmall(notify);
+				}
+			}
+		}));
+	}
+
 	private void notifyEmptySpaceIsSmall(String userId) {
 		List<String> recipients = new ArrayList<>();
 		recipients.add(userId);
+		notifyEmptySpaceIsSmall(recipients);
+	}
+
+	private void notifyEmptySpaceIsSmall(List<String> recipients) {
 		notification.notifyTimeline(new JsonHttpServerRequest(new JsonObject()),
 				"messagerie.storage", null, recipients, null, new JsonObject());
 	}
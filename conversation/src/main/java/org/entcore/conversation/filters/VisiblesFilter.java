@@ -19,6 +19,7 @@
 
 package org.entcore.conversation.filters;
 
+import static org.entcore.common.user.UserUtils.findInvisibles;
 import static org.entcore.common.user.UserUtils.findVisibles;
 
 import java.util.ArrayList;
@@ -56,54 +57,80 @@ public class VisiblesFilter implements ResourcesProvider{
 
 		final String parentMessageId = request.params().get("In-Reply-To");
 		final Set<String> ids = new HashSet<>();
-		final String customReturn = "WHERE visibles.id IN {ids} RETURN DISTINCT visibles.id";
-		final JsonObject params = new JsonObject();
 
 		RequestUtils.bodyToJson(request, new Handler<JsonObject>() {
 			public void handle(final JsonObject message) {
 				ids.addAll(message.getJsonArray("to", new fr.wseduc.webutils.collections.JsonArray()).getList());
 				ids.addAll(message.getJsonArray("cc", new fr.wseduc.webutils.collections.JsonArray()).getList());
 				ids.addAll(message.getJsonArray("cci", new fr.wseduc.webutils.collections.JsonArray()).getList());
+				if (ids.isEmpty()) {
+					handler.handle(true);
+					return;
+				}
+				final JsonArray candidates = new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(ids));
 
-				final Handler<Void> checkHandler = new Handler<Void>() {
-					public void handle(Void v) {
-						params.put("ids", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(ids)));
+				final Handler<Set<String>> checkHandler = new Handler<Set<String>>() {
+					public void handle(final Set<String> invisibles) {
+						if (invisibles.isEmpty()) {
+							handler.handle(true);
+							return;
+						}
+						if (parentMessageId == null || parentMessageId.trim().isEmpty()) {
+							handler.handle(false);
+							return;
+						}
+						checkParentRecipients(parentMessageId, invisibles, handler);
+					}
+				};
+
+				findInvisibles(neo.getEventBus(), user.getUserId(), candidates, new Handler<JsonArray>() {
+					public void handle(JsonArray invisibles) {
+						if (invisibles != null) {
+							checkHandler.handle(new HashSet<String>(invisibles.getList()));
+							return;
+						}
+						final String customReturn = "WHERE visibles.id IN {ids} RETURN DISTINCT visibles.id as id";
+						final JsonObject params = new JsonObject().put("ids", candidates);
 						findVisibles(neo.getEventBus(), user.getUserId(), customReturn, params, true, true, false, new Handler<JsonArray>() {
 							public void handle(JsonArray visibles) {
-								handler.handle(visibles.size() == ids.size());
+								for (Object o : visibles) {
+									if (o instanceof JsonObject) {
+										ids.remove(((JsonObject) o).getString("id"));
+									}
+								}
+								checkHandler.handle(ids);
 							}
 						});
 					}
-				};
-
-				if(parentMessageId == null || parentMessageId.trim().isEmpty()){
-					checkHandler.handle(null);
-					return;
-				}
+				});
+			}
+		});
 
-				sql.prepared(
-					"SELECT m.*  " +
-					"FROM conversation.messages m " +
-					"WHERE m.id = ?",
-					new fr.wseduc.webutils.collections.JsonArray().add(parentMessageId),
-					SqlResult.validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
-						public void handle(Either<String, JsonObject> parentMsgEvent) {
-							if(parentMsgEvent.isLeft()){
-								handler.handle(false);
-								return;
-							}
+	}
 
-							JsonObject parentMsg = parentMsgEvent.right().getValue();
-							ids.remove(parentMsg.getString("from"));
-							ids.removeAll(parentMsg.getJsonArray("to", new fr.wseduc.webutils.collections.JsonArray()).getList());
-							ids.removeAll(parentMsg.getJsonArray("cc", new fr.wseduc.webutils.collections.JsonArray()).getList());
+	@SuppressWarnings("unchecked")
+	private void checkParentRecipients(String parentMessageId, final Set<String> invisibles,
+			final Handler<Boolean> handler) {
+		sql.prepared(
+			"SELECT m.*  " +
+			"FROM conversation.messages m " +
+			"WHERE m.id = ?",
+			new fr.wseduc.webutils.collections.JsonArray().add(parentMessageId),
+			SqlResult.validUniqueResultHandler(new Handler<Either<String, JsonObject>>() {
+				public void handle(Either<String, JsonObject> parentMsgEvent) {
+					if(parentMsgEvent.isLeft()){
+						handler.handle(false);
+						return;
+					}
 
-							checkHandler.handle(null);
-						}
-					}, "cc", "to"));
-			}
-		});
+					JsonObject parentMsg = parentMsgEvent.right().getValue();
+					invisibles.remove(parentMsg.getString("from"));
+					invisibles.removeAll(parentMsg.getJsonArray("to", new fr.wseduc.webutils.collections.JsonArray()).getList());
+					invisibles.removeAll(parentMsg.getJsonArray("cc", new fr.wseduc.webutils.collections.JsonArray()).getList());
 
+					handler.handle(invisibles.isEmpty());
+				}
+			}, "cc", "to"));
 	}
 
 }
@@ -21,6 +21,8 @@ package org.entcore.conversation.service;
 
 
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 
 import fr.wseduc.webutils.Either;
 
@@ -34,6 +36,7 @@ import java.util.List;
 public interface ConversationService {
 
 	static final int LIST_LIMIT = 25;
+	static final int THREADS_LIMIT = 10;
 
 	enum State { DRAFT, SENT }
 
@@ -58,12 +61,26 @@ public interface ConversationService {
 	void send(String parentMessageId, String draftId, JsonObject message, UserInfos user,
 		Handler<Either<String, JsonObject>> result);
 
-	void list(String folder, String restrain, Boolean unread, UserInfos user, int page, String searchWords, Handler<Either<String, JsonArray>> results);
+	/**
+	 * @param deadline deadline of the request, the listing is abandoned when it passes (null means no deadline)
+	 */
+	void list(String folder, String restrain, Boolean unread, UserInfos user, int page, String searchWords,
+			Deadline deadline, Handler<Either<String, JsonArray>> results);
+
+	/**
+	 * Keyset pagination : the page after the cursor (first page if the cursor is null), without the total count.
+	 */
+	void list(String folder, String restrain, Boolean unread, UserInfos user, Cursor after, String searchWords,
+			Deadline deadline, Handler<Either<String, JsonArray>> results);
 
 	void listThreads(UserInfos user, int page, Handler<Either<String, JsonArray>> results);
 
+	void listThreads(UserInfos user, Cursor after, Handler<Either<String, JsonArray>> results);
+
 	void listThreadMessages(String threadId, int page, UserInfos user, Handler<Either<String, JsonArray>> results);
 
+	void listThreadMessages(String threadId, Cursor after, UserInfos user, Handler<Either<String, JsonArray>> results);
+
 	void listThreadMessagesNavigation(String messageId, boolean previous, UserInfos user, Handler<Either<String, JsonArray>> results);
 
 	void trash(List<String> messagesId, UserInfos user, Handler<Either<String, JsonObject>> result);
@@ -76,7 +93,8 @@ public interface ConversationService {
 
 	void get(String messageId, UserInfos user, Handler<Either<String, JsonObject>> result);
 
-	void count(String folder, String restrain, Boolean unread, UserInfos user, Handler<Either<String, JsonObject>> result);
+	void count(String folder, String restrain, Boolean unread, UserInfos user, Deadline deadline,
+			Handler<Either<String, JsonObject>> result);
 
 	void findVisibleRecipients(String parentMessageId, UserInfos user,
 		String acceptLanguage, String search, Handler<Either<String, JsonObject>> result);
@@ -25,10 +25,13 @@ import static org.entcore.common.user.UserUtils.findVisibles;
 import fr.wseduc.webutils.Server;
 
 import org.entcore.common.neo4j.Neo;
+import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.StatementsBuilder;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.utils.Config;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 import org.entcore.conversation.Conversation;
 import org.entcore.conversation.service.ConversationService;
 
@@ -402,7 +405,8 @@ public class DefaultConversationService implements ConversationService {
 	}
 
 	@Override
-	public void list(String folder, String restrain, Boolean unread, UserInfos user, int page, String searchWords, final Handler<Either<String, JsonArray>> results) {
+	public void list(String folder, String restrain, Boolean unread, UserInfos user, int page, String searchWords,
+			Deadline deadline, final Handler<Either<String, JsonArray>> results) {
 		if (validationError(user, results, folder)) return;
 		int skip = page * LIST_LIMIT;
 
@@ -441,7 +445,17 @@ public class DefaultConversationService implements ConversationService {
 				"SKIP {skip} " +
 				"LIMIT {limit} ";
 
-		neo.execute(query, params, validResultHandler(results));
+		Neo4j.getInstance().execute(query, params, deadline, validResultHandler(results));
+	}
+
+	@Override
+	public void list(String folder, String restrain, Boolean unread, UserInfos user, Cursor after, String searchWords,
+			Deadline deadline, Handler<Either<String, JsonArray>> results) {
+		if (after != null) {
+			results.handle(new Either.Left<String, JsonArray>("conversation.cursor.unsupported"));
+			return;
+		}
+		list(folder, restrain, unread, user, 0, searchWords, deadline, results);
 	}
 
 	@Override
@@ -449,11 +463,21 @@ public class DefaultConversationService implements ConversationService {
 
 	}
 
+	@Override
+	public void listThreads(UserInfos user, Cursor after, Handler<Either<String, JsonArray>> results) {
+
+	}
+
 	@Override
 	public void listThreadMessages(String threadId, int page, UserInfos user, Handler<Either<String, JsonArray>> results) {
 
 	}
 
+	@Override
+	public void listThreadMessages(String threadId, Cursor after, UserInfos user, Handler<Either<String, JsonArray>> results) {
+
+	}
+
 	@Override
 	public void listThreadMessagesNavigation(String messageId, boolean previous, UserInfos user, Handler<Either<String, JsonArray>> results) {
 
@@ -605,7 +629,8 @@ public class DefaultConversationService implements ConversationService {
 	}
 
 	@Override
-	public void count(String folder, String restrain, Boolean unread, UserInfos user, Handler<Either<String, JsonObject>> result) {
+	public void count(String folder, String restrain, Boolean unread, UserInfos user, Deadline deadline,
+			Handler<Either<String, JsonObject>> result) {
 		if (validationParamsError(user, result, folder)) return;
 		String condition = "";
 		JsonObject params = new JsonObject()
@@ -625,7 +650,7 @@ public class DefaultConversationService implements ConversationService {
 				"-[r:HAS_CONVERSATION_MESSAGE]->(m:ConversationMessage) " +
 				"WHERE c.userId = {userId} AND c.active = {true} AND f.name = {folder} AND NOT HAS(r.insideFolder)" + condition +
 				"RETURN count(m) as count";
-		neo.execute(query, params, validUniqueResultHandler(result));
+		Neo4j.getInstance().execute(query, params, deadline, validUniqueResultHandler(result));
 	}
 
 	@Override
@@ -23,15 +23,21 @@ import static fr.wseduc.webutils.Utils.isNotEmpty;
 import static org.entcore.common.user.UserUtils.findVisibles;
 
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
 
+import org.entcore.common.notification.UnreadCounters;
 import org.entcore.common.sql.Sql;
 import org.entcore.common.sql.SqlResult;
 import org.entcore.common.sql.SqlStatementsBuilder;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
 import org.entcore.common.utils.Config;
+import org.entcore.common.utils.CountCache;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 import org.entcore.common.utils.StringUtils;
 import org.entcore.common.validation.StringValidation;
 import org.entcore.conversation.Conversation;
@@ -48,10 +54,14 @@ import fr.wseduc.webutils.Utils;
 
 public class SqlConversationService implements ConversationService{
 
+	public static final String UNREAD_COUNTERS_ADDRESS = "conversation.unread.counters";
+
 	private final EventBus eb;
 	private final Sql sql;
 
 	private final int maxFolderDepth;
+	private final CountCache counts;
+	private final UnreadCounters unreadCounters;
 
 	private final String messageTable;
 	private final String folderTable;
@@ -63,6 +73,10 @@ public class SqlConversationService implements ConversationService{
 		this.eb = Server.getEventBus(vertx);
 		this.sql = Sql.getInstance();
 		this.maxFolderDepth = Config.getConf().getInteger("max-folder-depth", Conversation.DEFAULT_FOLDER_DEPTH);
+		this.counts = new CountCache(Config.getConf().getLong("count-cache-ttl", 15000L), 10000);
+		this.unreadCounters = new UnreadCounters(vertx, UNREAD_COUNTERS_ADDRESS,
+				Config.getConf().getLong("unread-counters-ttl", 300000L),
+				Config.getConf().getInteger("unread-counters-max-users", 50000), this::loadUnreadCounters);
 		messageTable = schema + ".messages";
 		folderTable = schema + ".folders";
 		attachmentTable = schema + ".attachments";
@@ -105,7 +119,7 @@ public class SqlConversationService implements ConversationService{
 			.put("user_id", user.getUserId())
 			.put("message_id", message.getString("id")));
 
-		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -190,33 +204,58 @@ public class SqlConversationService implements ConversationService{
 				builder.prepared(updateMessage, new fr.wseduc.webutils.collections.JsonArray().add("SENT").add(draftId));
 				builder.prepared(updateUnread, new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).add(draftId));
 
+				final Set<String> recipients = new LinkedHashSet<>();
 				for(Object toObj : ids){
 					if(toObj.equals(user.getUserId()))
 						continue;
+					recipients.add(toObj.toString());
+				}
 
-					builder.insert(userMessageTable, new JsonObject()
-						.put("user_id", toObj.toString())
-						.put("message_id", draftId)
-						.put("total_quota", totalQuota)
-					);
-					for(Object attachmentId : attachmentIds){
-						builder.insert(userMessageAttachmentTable, new JsonObject()
-							.put("user_id", toObj.toString())
-							.put("message_id", draftId)
-							.put("attachment_id", attachmentId.toString())
-						);
+				// one statement for all the recipients, whatever the size of the audience
+				if (!recipients.isEmpty()) {
+					final String recipientsIds = new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(recipients)).encode();
+					builder.prepared(
+							"INSERT INTO " + userMessageTable + " (user_id, message_id, total_quota) " +
+							"SELECT r.user_id, ?, ? FROM json_array_elements_text(?::json) AS r(user_id)",
+							new fr.wseduc.webutils.collections.JsonArray().add(draftId).add(totalQuota).add(recipientsIds));
+					if (attachmentIds != null && !attachmentIds.isEmpty()) {
+						builder.prepared(
+								"INSERT INTO " + userMessageAttachmentTable + " (user_id, message_id, attachment_id) " +
+								"SELECT r.user_id, ?, a.attachment_id FROM json_array_elements_text(?::json) AS r(user_id) " +
+								"CROSS JOIN json_array_elements_text(?::json) AS a(attachment_id)",
+								new fr.wseduc.webutils.collections.JsonArray().add(draftId).add(recipientsIds)
+										.add(attachmentIds.encode()));
 					}
 				}
 
-				sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, result));
+				sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(0, invalidateCounts(user,
+						new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> event) {
+						if (event.isRight()) {
+							unreadCounters.increment(recipients, "INBOX");
+						}
+						result.handle(event);
+					}
+				})));
 			}
 		});
 	}
 
 	@Override
-	public void list(String folder, String restrain, Boolean unread, UserInfos user, int page,final String searchText, Handler<Either<String, JsonArray>> results) {
-		int skip = page * LIST_LIMIT;
+	public void list(String folder, String restrain, Boolean unread, UserInfos user, int page,final String searchText,
+			Deadline deadline, Handler<Either<String, JsonArray>> results) {
+		list(folder, restrain, unread, user, page, false, null, searchText, deadline, results);
+	}
+
+	@Override
+	public void list(String folder, String restrain, Boolean unread, UserInfos user, Cursor after, String searchText,
+			Deadline deadline, Handler<Either<String, JsonArray>> results) {
+		list(folder, restrain, unread, user, 0, true, after, searchText, deadline, results);
+	}
 
+	private void list(String folder, String restrain, Boolean unread, UserInfos user, int page, boolean keyset,
+			Cursor after, final String searchText, Deadline deadline, Handler<Either<String, JsonArray>> results) {
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
 		String messageConditionUnread = addMessageConditionUnread(folder, values, unread, user);
 		String messagesFields = "m.id, m.subject, m.from, m.state, m.\"fromName\", m.to, m.\"toName\", m.cc, m.\"ccName\", m.cci, m.\"cciName\", m.\"displayNames\", m.date ";
@@ -228,8 +267,12 @@ public class SqlConversationService implements ConversationService{
 			additionalWhere += " AND m.text_searchable  @@ to_tsquery(m.language::regconfig, unaccent(?)) ";
 			values.add(StringUtils.join(checkAndComposeWordFromSearchText(searchText), " & "));
 		}
+		if (after != null) {
+			additionalWhere += addCursorCondition("m.date", "m.id", after, values);
+		}
 		String query = "SELECT "+messagesFields+", um.unread as unread, " +
-				"CASE when COUNT(distinct r) = 0 THEN false ELSE true END AS response, COUNT(*) OVER() as count, " +
+				"CASE when COUNT(distinct r) = 0 THEN false ELSE true END AS response, " +
+				(keyset ? "" : "COUNT(*) OVER() as count, ") +
 				"CASE when COUNT(distinct uma) = 0 THEN false ELSE true END AS  \"hasAttachment\" " +
 				"FROM " + userMessageTable + " um LEFT JOIN " +
 				userMessageAttachmentTable + " uma ON um.user_id = uma.user_id AND um.message_id = uma.message_id JOIN " +
@@ -237,9 +280,22 @@ public class SqlConversationService implements ConversationService{
 				messageTable + " r ON um.message_id = r.parent_id AND r.from = um.user_id AND r.state= ? " +
 				"WHERE um.user_id = ? " + additionalWhere + " " +
 				"GROUP BY m.id, unread " +
-				"ORDER BY m.date DESC LIMIT " + LIST_LIMIT + " OFFSET " + skip;
+				(keyset ? "ORDER BY m.date DESC, m.id DESC LIMIT " + LIST_LIMIT :
+				"ORDER BY m.date DESC LIMIT " + LIST_LIMIT + " OFFSET " + (page * LIST_LIMIT));
+
+		sql.prepared(query, values, deadline, SqlResult.validResultHandler(results, "attachments", "to", "toName", "cc", "ccName", "cci", "cciName", "displayNames"));
+	}
 
-		sql.prepared(query, values, SqlResult.validResultHandler(results, "attachments", "to", "toName", "cc", "ccName", "cci", "cciName", "displayNames"));
+	/**
+	 * Keyset condition of the listings sorted by date then id (descending).
+	 */
+	private static String addCursorCondition(String dateColumn, String idColumn, Cursor after, JsonArray values) {
+		final Long date = after.getDateAsLong();
+		if (date == null) {
+			return " AND FALSE ";
+		}
+		values.add(date).add(after.getId());
+		return " AND (" + dateColumn + ", " + idColumn + ") < (?, ?) ";
 	}
 
 	//TODO : add to utils (similar function in SearchEngineController)
@@ -260,34 +316,56 @@ public class SqlConversationService implements ConversationService{
 
 	@Override
 	public void listThreads(UserInfos user, int page, Handler<Either<String, JsonArray>> results) {
-		int nbThread =  10;
+		listThreads(user, page, false, null, results);
+	}
+
+	@Override
+	public void listThreads(UserInfos user, Cursor after, Handler<Either<String, JsonArray>> results) {
+		listThreads(user, 0, true, after, results);
+	}
+
+	private void listThreads(UserInfos user, int page, boolean keyset, Cursor after, Handler<Either<String, JsonArray>> results) {
+		int nbThread = THREADS_LIMIT;
 		int skip = page * nbThread;
 		String messagesFields = "id, date, subject, \"displayNames\", \"to\", \"from\", cc, cci ";
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
 		values.add(user.getUserId());
+		final String cursorCondition = (after != null) ? " WHERE TRUE " + addCursorCondition("date", "id", after, values) : "";
 		values.add(user.getUserId());
 		String query = " WITH threads AS ( " +
 				" SELECT * from (SELECT  DISTINCT ON (m.thread_id) thread_id AS "+messagesFields+ " FROM " + userMessageTable + " um " +
 				" JOIN "+messageTable+" m ON um.message_id = m.id " +
 				" WHERE um.user_id = ? AND m.state = 'SENT' AND um.trashed = false ORDER BY m.thread_id, m.date DESC) a "+
-				" ORDER BY date DESC LIMIT "+ nbThread +" OFFSET "+ skip + ") " +
+				(keyset ? cursorCondition + " ORDER BY date DESC, id DESC LIMIT " + nbThread + ") " :
+				" ORDER BY date DESC LIMIT "+ nbThread +" OFFSET "+ skip + ") ") +
 
 				"SELECT "+ messagesFields +", unread FROM threads JOIN (SELECT m.thread_id, SUM(CASE WHEN um.unread THEN 1 ELSE 0 END) AS unread " +
 				"FROM threads, conversation.usermessages um JOIN conversation.messages m ON um.message_id = m.id and um.user_id= ? " +
 				"WHERE  um.trashed = false AND m.thread_id=threads.id GROUP BY m.thread_id) c ON threads.id = c.thread_id " +
-				"ORDER BY date DESC";
+				(keyset ? "ORDER BY date DESC, id DESC" : "ORDER BY date DESC");
 
 		sql.prepared(query, values, SqlResult.validResultHandler(results, "to", "toName", "cc", "cci", "ccName", "displayNames"));
 	}
 
 	@Override
 	public void listThreadMessages(String threadId, int page, UserInfos user, Handler<Either<String, JsonArray>> results) {
+		listThreadMessages(threadId, page, false, null, user, results);
+	}
+
+	@Override
+	public void listThreadMessages(String threadId, Cursor after, UserInfos user, Handler<Either<String, JsonArray>> results) {
+		listThreadMessages(threadId, 0, true, after, user, results);
+	}
+
+	private void listThreadMessages(String threadId, int page, boolean keyset, Cursor after, UserInfos user,
+			Handler<Either<String, JsonArray>> results) {
 		int skip = page * LIST_LIMIT;
 		String messagesFields = "m.id, m.parent_id, m.subject, m.body, m.from, m.\"fromName\", m.to, m.\"toName\", m.cc, m.\"ccName\",  m.cci, m.\"cciName\", m.\"displayNames\", m.date, m.thread_id ";
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
 
 		values.add(user.getUserId());
 		values.add(threadId);
+		final String cursorCondition = (after != null) ? addCursorCondition("m.date", "m.id", after, values) : "";
 
 		String query =
 				"SELECT "+messagesFields+", um.unread as unread, " +
@@ -298,9 +376,10 @@ public class SqlConversationService implements ConversationService{
 				" LEFT JOIN " + attachmentTable + " att " +
 				" ON att.id = uma.attachment_id " +
 				" WHERE um.user_id = ? AND m.thread_id = ? " +
-				" AND m.state = 'SENT' AND um.trashed = false " +
+				" AND m.state = 'SENT' AND um.trashed = false " + cursorCondition +
 				" GROUP BY m.id, um.unread " +
-				" ORDER BY m.date DESC LIMIT " + LIST_LIMIT + " OFFSET " + skip;
+				(keyset ? " ORDER BY m.date DESC, m.id DESC LIMIT " + LIST_LIMIT :
+				" ORDER BY m.date DESC LIMIT " + LIST_LIMIT + " OFFSET " + skip);
 
 		sql.prepared(query, values, SqlResult.validResultHandler(results, "to", "toName", "cc", "ccName", "cci", "cciName", "displayNames", "attachments"));
 	}
@@ -357,7 +436,7 @@ public class SqlConversationService implements ConversationService{
 			query.deleteCharAt(query.length() - 1);
 		query.append(")");
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -373,7 +452,7 @@ public class SqlConversationService implements ConversationService{
 		query.append(" AND um.user_id = ? AND um.trashed = false AND um.message_id = m.id ");
 		values.add(user.getUserId());
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 
 	}
 
@@ -393,7 +472,7 @@ public class SqlConversationService implements ConversationService{
 
 		query.append(generateInVars(messagesId, values));
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -423,7 +502,7 @@ public class SqlConversationService implements ConversationService{
 		builder.prepared(getTotalQuota, values2);
 		builder.prepared(deleteUserMessages, values3);
 
-		sql.transaction(builder.build(), SqlResult.validResultsHandler(result));
+		sql.transaction(builder.build(), SqlResult.validResultsHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -457,14 +536,52 @@ public class SqlConversationService implements ConversationService{
 		builder.prepared(updateQuery, values);
 		builder.prepared(selectQuery, values);
 
-		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(1, result, "attachments", "to", "toName", "cc", "ccName", "displayNames", "cci", "cciName"));
+		sql.transaction(builder.build(), SqlResult.validUniqueResultHandler(1, invalidateCounts(user, result), "attachments", "to", "toName", "cc", "ccName", "displayNames", "cci", "cciName"));
 	}
 
 	@Override
-	public void count(String folder, String restrain, Boolean unread, UserInfos user, Handler<Either<String, JsonObject>> result) {
+	public void count(String folder, String restrain, Boolean unread, UserInfos user, Deadline deadline,
+			Handler<Either<String, JsonObject>> result) {
 		if (validationParamsError(user, result, folder))
 			return;
 
+		final String unreadKey = (restrain != null) ? folder : folder.toUpperCase();
+		if (Boolean.TRUE.equals(unread) && (restrain != null || "INBOX".equals(unreadKey) || "TRASH".equals(unreadKey))) {
+			final Handler<Either<String, JsonObject>> handler = result;
+			unreadCounters.get(user, new Handler<Either<String, JsonObject>>() {
+				@Override
+				public void handle(Either<String, JsonObject> event) {
+					if (event.isLeft()) {
+						handler.handle(event);
+					} else {
+						handler.handle(new Either.Right<String, JsonObject>(new JsonObject()
+								.put("count", event.right().getValue().getLong(unreadKey, 0L))));
+					}
+				}
+			});
+			return;
+		}
+
+		// only the totals are cached, the unread counters must be up to date
+		final String cacheKey = Boolean.TRUE.equals(unread) ? null : user.getUserId() + ":" + folder + ":" + restrain;
+		if (cacheKey != null) {
+			final Long count = counts.get(cacheKey);
+			if (count != null) {
+				result.handle(new Either.Right<String, JsonObject>(new JsonObject().put("count", count)));
+				return;
+			}
+			final Handler<Either<String, JsonObject>> handler = result;
+			result = new Handler<Either<String, JsonObject>>() {
+				@Override
+				public void handle(Either<String, JsonObject> event) {
+					if (event.isRight() && event.right().getValue().getLong("count") != null) {
+						counts.put(cacheKey, event.right().getValue().getLong("count"));
+					}
+					handler.handle(event);
+				}
+			};
+		}
+
 		JsonArray values = new fr.wseduc.webutils.collections.JsonArray();
 
 		String messageConditionUnread = addMessageConditionUnread(folder, values, unread, user);
@@ -483,7 +600,61 @@ public class SqlConversationService implements ConversationService{
 			values.add(new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).toString());
 		}
 
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query, values, deadline, SqlResult.validUniqueResultHandler(result));
+	}
+
+	/**
+	 * Unread messages of the user by folder : INBOX, TRASH and the ids of the user folders.
+	 * Same conditions as the count of the unread messages of these folders.
+	 */
+	private void loadUnreadCounters(UserInfos user, final Handler<Either<String, JsonObject>> handler) {
+		final String query =
+				"SELECT CASE WHEN um.trashed THEN 'TRASH' " +
+				"WHEN (m.from <> ? OR m.to @> ?::jsonb OR m.cc @> ?::jsonb) THEN COALESCE(um.folder_id, 'INBOX') " +
+				"END AS folder, count(*) AS count " +
+				"FROM " + userMessageTable + " um JOIN " + messageTable + " m ON um.message_id = m.id " +
+				"WHERE um.user_id = ? AND um.unread = true AND m.state = 'SENT' " +
+				"GROUP BY 1";
+		final JsonArray values = new fr.wseduc.webutils.collections.JsonArray()
+				.add(user.getUserId())
+				.add(new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).toString())
+				.add(new fr.wseduc.webutils.collections.JsonArray().add(user.getUserId()).toString())
+				.add(user.getUserId());
+		sql.prepared(query, values, SqlResult.validResultHandler(new Handler<Either<String, JsonArray>>() {
+			@Override
+			public void handle(Either<String, JsonArray> event) {
+				if (event.isLeft()) {
+					handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
+					return;
+				}
+				final JsonObject counters = new JsonObject();
+				for (Object o : event.right().getValue()) {
+					if (!(o instanceof JsonObject)) continue;
+					final JsonObject row = (JsonObject) o;
+					if (row.getString("folder") != null) {
+						counters.put(row.getString("folder"), row.getLong("count", 0L));
+					}
+				}
+				handler.handle(new Either.Right<String, JsonObject>(counters));
+			}
+		}));
+	}
+
+	public UnreadCounters getUnreadCounters() {
+		return unreadCounters;
+	}
+
+	private <T> Handler<Either<String, T>> invalidateCounts(final UserInfos user, final Handler<Either<String, T>> handler) {
+		return new Handler<Either<String, T>>() {
+			@Override
+			public void handle(Either<String, T> event) {
+				if (user != null) {
+					counts.invalidate(user.getUserId() + ":");
+					unreadCounters.invalidate(user.getUserId());
+				}
+				handler.handle(event);
+			}
+		};
 	}
 
 	@Override
@@ -580,7 +751,7 @@ public class SqlConversationService implements ConversationService{
 			values.add(id);
 		}
 
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query, values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -596,7 +767,7 @@ public class SqlConversationService implements ConversationService{
 		query.append(" AND um.user_id = ? AND um.message_id = m.id ");
 		values.add(user.getUserId());
 
-		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query.toString(), values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 
@@ -716,7 +887,7 @@ public class SqlConversationService implements ConversationService{
 
 		query += generateInVars(messageIds, values);
 
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query, values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -734,7 +905,7 @@ public class SqlConversationService implements ConversationService{
 		values.add(user.getUserId());
 
 		query += generateInVars(messageIds, values);
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query, values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -750,7 +921,7 @@ public class SqlConversationService implements ConversationService{
 			.add(user.getUserId())
 			.add(false);
 
-		sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+		sql.prepared(query, values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -766,7 +937,7 @@ public class SqlConversationService implements ConversationService{
 				.add(user.getUserId())
 				.add(true);
 
-			sql.prepared(query, values, SqlResult.validUniqueResultHandler(result));
+			sql.prepared(query, values, SqlResult.validUniqueResultHandler(invalidateCounts(user, result)));
 	}
 
 	@Override
@@ -828,7 +999,7 @@ public class SqlConversationService implements ConversationService{
 
 		/* Perform the transaction */
 
-		sql.transaction(builder.build(), SqlResult.validResultsHandler(result));
+		sql.transaction(builder.build(), SqlResult.validResultsHandler(invalidateCounts(user, result)));
 
 	}
 
@@ -45,6 +45,7 @@ import fr.wseduc.webutils.email.EmailSender;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonObject;
 
 public class Directory extends BaseServer {
 
@@ -96,15 +97,21 @@ public class Directory extends BaseServer {
 		vertx.setTimer(5000l, event -> directoryController.createSuperAdmin());
 
 
+		final JsonObject searchIndexConfig = config.getJsonObject("search-index");
+		final UserSearchIndex searchIndex = (searchIndexConfig != null && searchIndexConfig.getBoolean("enabled", true)) ?
+				new UserSearchIndex(vertx, searchIndexConfig) : null;
+
 		UserBookController userBookController = new UserBookController();
 		userBookController.setSchoolService(schoolService);
 		userBookController.setUserBookService(userBookService);
 		userBookController.setConversationNotification(conversationNotification);
+		userBookController.setSearchIndex(searchIndex);
 		addController(userBookController);
 
 		StructureController structureController = new StructureController();
 		structureController.setStructureService(schoolService);
 		structureController.setNotifHelper(emailSender);
+		structureController.setSearchIndex(searchIndex);
 		addController(structureController);
 
 		ClassController classController = new ClassController();
@@ -25,10 +25,12 @@ import fr.wseduc.rs.Post;
 import fr.wseduc.rs.Put;
 import fr.wseduc.security.ActionType;
 import fr.wseduc.security.SecuredAction;
+import fr.wseduc.webutils.Either;
 import fr.wseduc.webutils.http.BaseController;
 import org.entcore.common.http.filter.AdminFilter;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.http.filter.SuperAdminFilter;
+import org.entcore.common.user.UserUtils;
 import org.entcore.directory.services.ProfileService;
 import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerRequest;
@@ -58,7 +60,15 @@ public class ProfileController extends BaseController {
 			@Override
 			public void handle(JsonObject body) {
 				if (body != null) {
-					profileService.blockProfiles(body, defaultResponseHandler(request));
+					profileService.blockProfiles(body, new Handler<Either<String, JsonObject>>() {
+						@Override
+						public void handle(Either<String, JsonObject> event) {
+							if (event.isRight() && body.getMap().containsValue(Boolean.TRUE)) {
+								UserUtils.publishTokensInvalidation(eb, null);
+							}
+							defaultResponseHandler(request).handle(event);
+						}
+					});
 				} else {
 					badRequest(request, "invalid.body");
 				}
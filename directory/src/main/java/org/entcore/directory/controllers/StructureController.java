@@ -41,6 +41,7 @@ import org.entcore.directory.pojo.Ent;
 import org.entcore.directory.security.AdminStructureFilter;
 import org.entcore.directory.security.AnyAdminOfUser;
 import org.entcore.directory.services.SchoolService;
+import org.entcore.directory.services.impl.UserSearchIndex;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
@@ -59,6 +60,7 @@ import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -71,6 +73,7 @@ public class StructureController extends BaseController {
 
 	private SchoolService structureService;
 	private EmailSender notifHelper;
+	private UserSearchIndex searchIndex;
 	private String assetsPath = "../..";
 	private Map<String, String> skins = new HashMap<>();
 	private String node;
@@ -595,6 +598,19 @@ public class StructureController extends BaseController {
 			return;
 		}
 
+		if (searchIndex != null) {
+			final List<UserSearchIndex.Entry> users = searchIndex.search(input, null, structureId);
+			if (users != null) {
+				users.sort(Comparator.comparing(UserSearchIndex.Entry::getLastName,
+						Comparator.nullsLast(Comparator.<String>naturalOrder())));
+				final JsonArray result = new fr.wseduc.webutils.collections.JsonArray();
+				for (UserSearchIndex.Entry u : users) {
+					result.add(u.toJson());
+				}
+				renderJson(request, result);
+				return;
+			}
+		}
 		this.structureService.quickSearchUsers(structureId, input, arrayResponseHandler(request));
 	}
 
@@ -622,6 +638,9 @@ public class StructureController extends BaseController {
 						if ("ok".equals(r.getString("status"))) {
 							request.response().end();
 							JsonArray usersId = r.getJsonArray("result").getJsonObject(0).getJsonArray("usersId");
+							if (block) {
+								UserUtils.publishTokensInvalidation(eb, usersId);
+							}
 							for (Object userId : usersId) {
 								UserUtils.deletePermanentSession(eb, (String) userId, null, new Handler<Boolean>() {
 									@Override
@@ -650,6 +669,10 @@ public class StructureController extends BaseController {
 		});
 	}
 	
+	public void setSearchIndex(UserSearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
 	public void setStructureService(SchoolService structureService) {
 		this.structureService = structureService;
 	}
@@ -40,13 +40,16 @@ import org.entcore.common.events.EventStore;
 import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.http.request.JsonHttpServerRequest;
 import org.entcore.common.neo4j.Neo;
+import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.Neo4jResult;
 import org.entcore.common.notification.ConversationNotification;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
+import org.entcore.common.utils.Deadline;
 import org.entcore.common.validation.StringValidation;
 import org.entcore.directory.services.SchoolService;
 import org.entcore.directory.services.UserBookService;
+import org.entcore.directory.services.impl.UserSearchIndex;
 import org.vertx.java.core.http.RouteMatcher;
 
 import fr.wseduc.bus.BusAddress;
@@ -73,6 +76,7 @@ import io.vertx.core.json.JsonObject;
 public class UserBookController extends BaseController {
 
 	private Neo neo;
+	private final Neo4j neo4j = Neo4j.getInstance();
 	private JsonObject config;
 	private JsonObject userBookData;
 	private HttpClient client;
@@ -80,6 +84,7 @@ public class UserBookController extends BaseController {
 	private UserBookService userBookService;
 	private EventStore eventStore;
 	private ConversationNotification conversationNotification;
+	private UserSearchIndex searchIndex;
 	private enum DirectoryEvent { ACCESS }
 	private static final String ANNUAIRE_MODULE = "Annuaire";
 	private Map<String, Map<String, String>> activationWelcomeMessage;
@@ -173,12 +178,23 @@ public class UserBookController extends BaseController {
 		String name = request.params().get("name");
 		String structure = request.params().get("structure");
 		String profile = request.params().get("profile");
-		String filter = "";
-		JsonObject params = new JsonObject();
 		if (name == null || name.trim().isEmpty()) {
 			badRequest(request, "empty.name");
 			return;
 		}
+		if (searchIndex != null) {
+			final List<UserSearchIndex.Entry> candidates = searchIndex.search(name, profile, structure);
+			if (candidates != null) {
+				searchCandidates(request, name, structure, profile, candidates);
+				return;
+			}
+		}
+		searchVisibles(request, name, structure, profile);
+	}
+
+	private void searchVisibles(final HttpServerRequest request, String name, String structure, String profile) {
+		String filter = "";
+		JsonObject params = new JsonObject();
 		if(profile != null && !profile.trim().isEmpty()){
 			filter += "AND HEAD(m.profiles) = {profile} ";
 			params.put("profile", profile);
@@ -203,6 +219,55 @@ public class UserBookController extends BaseController {
 		});
 	}
 
+	/**
+	 * Search with the candidates of the users search index : the visibility is checked afterwards on the
+	 * candidates only, with the visibility index of the communication module.
+	 */
+	private void searchCandidates(final HttpServerRequest request, final String name, final String structure,
+			final String profile, final List<UserSearchIndex.Entry> candidates) {
+		if (candidates.isEmpty()) {
+			renderJson(request, new fr.wseduc.webutils.collections.JsonArray());
+			return;
+		}
+		UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
+			@Override
+			public void handle(final UserInfos user) {
+				if (user == null) {
+					unauthorized(request);
+					return;
+				}
+				final JsonArray ids = new fr.wseduc.webutils.collections.JsonArray();
+				for (UserSearchIndex.Entry e : candidates) {
+					if (!user.getUserId().equals(e.getId())) {
+						ids.add(e.getId());
+					}
+				}
+				UserUtils.filterVisibleUsers(eb, user.getUserId(), ids, true, new Handler<JsonArray>() {
+					@Override
+					public void handle(JsonArray visibles) {
+						if (visibles == null) {
+							searchVisibles(request, name, structure, profile);
+							return;
+						}
+						if (visibles.size() == 0) {
+							renderJson(request, visibles);
+							return;
+						}
+						String query =
+								"MATCH (visibles:User) WHERE visibles.id IN {ids} " +
+								"OPTIONAL MATCH visibles-[:USERBOOK]->u " +
+								"RETURN distinct visibles.id as id, visibles.displayName as displayName, " +
+								"u.mood as mood, u.userid as userId, u.picture as photo, " +
+								"HEAD(visibles.profiles) as type " +
+								"ORDER BY displayName";
+						neo4j.executeReadOnly(query, new JsonObject().put("ids", visibles), Deadline.of(request),
+								Neo4jResult.validResultHandler(arrayResponseHandler(request)));
+					}
+				});
+			}
+		});
+	}
+
 	@Get("/api/person")
 	@SecuredAction(value = "userbook.authent", type = ActionType.AUTHENTICATED)
 	public void person(final HttpServerRequest request) {
@@ -597,7 +662,7 @@ public class UserBookController extends BaseController {
 						"RETURN COLLECT(DISTINCT {userId: u.id, userMail: u.email, lastDomain: u.lastDomain, preferences: uac"+
 						message.body().getString("additionalCollectFields", "") +
 						"}) AS preferences";
-				neo.execute(query,
+				neo4j.executeReadOnly(query,
 					new JsonObject().put("userIds", userIds),
 					Neo4jResult.validResultHandler(new Handler<Either<String,JsonArray>>() {
 						public void handle(Either<String, JsonArray> event) {
@@ -782,7 +847,7 @@ public class UserBookController extends BaseController {
 				"MATCH (u:User {id:{userId}})-[:PREFERS]->(uac:UserAppConf)"
 						+" RETURN uac AS preferences";
 
-		neo.execute(query,
+		neo4j.executeReadOnly(query,
 			new JsonObject().put("userId", user.getUserId()),
 			Neo4jResult.fullNodeMergeHandler("preferences", new Handler<Either<String, JsonObject>>() {
 				@Override
@@ -830,7 +895,7 @@ public class UserBookController extends BaseController {
 												final JsonObject cache = session.getJsonObject("cache");
 
 												if(cache.containsKey("preferences")){
-													JsonObject prefs = cache.getJsonObject("preferences");
+													JsonObject prefs = cache.getJsonObject("preferences").copy();
 													prefs.put(application, params.getString("conf"));
 													if ("theme".equals(application)) {
 														prefs.remove(THEME_ATTRIBUTE + getHost(request));
@@ -875,6 +940,10 @@ public class UserBookController extends BaseController {
 		this.schoolService = schoolService;
 	}
 
+	public void setSearchIndex(UserSearchIndex searchIndex) {
+		this.searchIndex = searchIndex;
+	}
+
 	public void setConversationNotification(ConversationNotification conversationNotification) {
 		this.conversationNotification = conversationNotification;
 	}
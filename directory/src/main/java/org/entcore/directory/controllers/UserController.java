@@ -27,11 +27,14 @@ import static org.entcore.common.http.response.DefaultResponseHandler.leftToResp
 import static org.entcore.common.http.response.DefaultResponseHandler.notEmptyResponseHandler;
 import static org.entcore.common.user.SessionAttributes.PERSON_ATTRIBUTE;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBException;
@@ -66,9 +69,11 @@ import fr.wseduc.webutils.http.BaseController;
 import fr.wseduc.webutils.request.RequestUtils;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
 
 
 public class UserController extends BaseController {
@@ -77,6 +82,7 @@ public class UserController extends BaseController {
 	private UserBookService userBookService;
 	private TimelineHelper notification;
 	private static final int MOTTO_MAX_LENGTH = 75;
+	private static final int EXPORT_PAGE_SIZE = 500;
 
 	@Override
 	public void init(Vertx vertx, JsonObject config, RouteMatcher rm,
@@ -294,40 +300,22 @@ public class UserController extends BaseController {
 					final String filterActive = request.params().get("filterActive");
 					final String exportType = request.params().get("type") == null ? "" : request.params().get("type");
 					final String format = request.params().get("format");
-					Handler<Either<String, JsonArray>> handler;
-					if(format == null){
-						handler = arrayResponseHandler(request);
-					} else {
-						handler = new Handler<Either<String, JsonArray>>() {
-							@Override
-							public void handle(Either<String, JsonArray> r) {
-								if (r.isRight()) {
-									processTemplate(request, new JsonObject().put("list", r.right().getValue()).put(profile,true),  "text/export" + exportType + ".id.txt", false, new Handler<String>() {
-											@Override
-											public void handle(final String export) {
-												if (export != null) {
-													String filename = request.params().get("filename") != null ?
-															request.params().get("filename") : "export"+exportType+"."+format;
-													if ("xml".equals(format)) {
-														request.response().putHeader("Content-Type", "text/xml");
-													} else {
-														request.response().putHeader("Content-Type", "application/csv");
-													}
-													request.response().putHeader("Content-Disposition",
-															"attachment; filename="+filename);
-													request.response().end('\ufeff' + export);
-												} else {
-													renderError(request);
-												}
-											}
-										});
-								} else {
-									renderJson(request, new JsonObject().put("error", r.left().getValue()), 400);
-								}
-							}
-						};
+					if (format == null) {
+						userService.listAdmin(structureId, classId, null, types, filterActive, null, user,
+								arrayResponseHandler(request));
+						return;
 					}
-					userService.listAdmin(structureId, classId, null, types, filterActive, null, user, handler);
+					userService.streamAdmin(structureId, classId, null, types, filterActive, null, user,
+							new Handler<Either<String, ReadStream<JsonObject>>>() {
+						@Override
+						public void handle(Either<String, ReadStream<JsonObject>> r) {
+							if (r.isRight()) {
+								new UsersExport(request, r.right().getValue(), profile, exportType, format).start();
+							} else {
+								renderJson(request, new JsonObject().put("error", r.left().getValue()), 400);
+							}
+						}
+					});
 				} else {
 					unauthorized(request);
 				}
@@ -335,6 +323,180 @@ public class UserController extends BaseController {
 		});
 	}
 
+	/**
+	 * Export written page by page : the rows are read from the database stream, rendered with the export
+	 * template by pages of EXPORT_PAGE_SIZE users and written to the response. The database stream is paused
+	 * while a page is rendered and while the response write queue is full, so the memory used doesn't depend
+	 * on the number of users. The templates print their header only with exportHeader and their footer only
+	 * with exportFooter.
+	 */
+	private final class UsersExport {
+
+		private final HttpServerRequest request;
+		private final ReadStream<JsonObject> users;
+		private final String profile;
+		private final String exportType;
+		private final String format;
+		private final ByteArrayOutputStream gzipBuffer;
+		private final GZIPOutputStream gzip;
+		private JsonArray page = new fr.wseduc.webutils.collections.JsonArray();
+		private boolean started = false;
+		private boolean closed = false;
+
+		private UsersExport(HttpServerRequest request, ReadStream<JsonObject> users, String profile,
+				String exportType, String format) {
+			this.request = request;
+			this.users = users;
+			this.profile = profile;
+			this.exportType = exportType;
+			this.format = format;
+			GZIPOutputStream gz = null;
+			ByteArrayOutputStream buffer = null;
+			if ("true".equals(request.params().get("gzip"))) {
+				try {
+					buffer = new ByteArrayOutputStream();
+					gz = new GZIPOutputStream(buffer, true);
+				} catch (IOException e) {
+					log.error("Error creating gzip export stream", e);
+					buffer = null;
+				}
+			}
+			this.gzipBuffer = buffer;
+			this.gzip = gz;
+		}
+
+		private void start() {
+			request.response().closeHandler(new Handler<Void>() {
+				@Override
+				public void handle(Void v) {
+					closed = true;
+					users.handler(row -> {});
+					users.resume();
+				}
+			});
+			users.exceptionHandler(new Handler<Throwable>() {
+				@Override
+				public void handle(Throwable t) {
+					log.error("Error reading users export", t);
+					fail();
+				}
+			});
+			users.endHandler(new Handler<Void>() {
+				@Override
+				public void handle(Void v) {
+					writePage(true);
+				}
+			});
+			users.handler(new Handler<JsonObject>() {
+				@Override
+				public void handle(JsonObject user) {
+					page.add(user);
+					if (page.size() >= EXPORT_PAGE_SIZE) {
+						users.pause();
+						writePage(false);
+					}
+				}
+			});
+		}
+
+		private void writePage(final boolean last) {
+			if (closed) {
+				return;
+			}
+			final JsonObject params = new JsonObject()
+					.put("list", page)
+					.put(profile, true)
+					.put("exportHeader", !started)
+					.put("exportFooter", last);
+			page = new fr.wseduc.webutils.collections.JsonArray();
+			processTemplate(request, params, "text/export" + exportType + ".id.txt", false, new Handler<String>() {
+				@Override
+				public void handle(final String export) {
+					if (closed) {
+						return;
+					}
+					if (export == null) {
+						fail();
+						return;
+					}
+					if (!started) {
+						begin();
+						write('\ufeff' + export);
+					} else {
+						write(export);
+					}
+					if (last) {
+						end();
+					} else if (request.response().writeQueueFull()) {
+						request.response().drainHandler(v -> users.resume());
+					} else {
+						users.resume();
+					}
+				}
+			});
+		}
+
+		private void begin() {
+			started = true;
+			String filename = request.params().get("filename") != null ?
+					request.params().get("filename") : "export" + exportType + "." + format;
+			if (gzip != null) {
+				request.response().putHeader("Content-Type", "application/gzip");
+				filename += ".gz";
+			} else if ("xml".equals(format)) {
+				request.response().putHeader("Content-Type", "text/xml");
+			} else {
+				request.response().putHeader("Content-Type", "application/csv");
+			}
+			request.response().putHeader("Content-Disposition", "attachment; filename=" + filename);
+			request.response().setChunked(true);
+		}
+
+		private void write(String chunk) {
+			if (gzip == null) {
+				request.response().write(chunk);
+				return;
+			}
+			try {
+				gzip.write(chunk.getBytes(StandardCharsets.UTF_8));
+				gzip.flush();
+				request.response().write(Buffer.buffer(gzipBuffer.toByteArray()));
+				gzipBuffer.reset();
+			} catch (IOException e) {
+				log.error("Error compressing users export", e);
+				fail();
+			}
+		}
+
+		private void end() {
+			if (gzip != null) {
+				try {
+					gzip.finish();
+					request.response().write(Buffer.buffer(gzipBuffer.toByteArray()));
+				} catch (IOException e) {
+					log.error("Error compressing users export", e);
+					fail();
+					return;
+				}
+			}
+			closed = true;
+			request.response().end();
+		}
+
+		private void fail() {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (started) {
+				request.response().close();
+			} else {
+				renderError(request);
+			}
+		}
+
+	}
+
 	@Post("/user/function/:userId")
 	@SecuredAction(value = "", type = ActionType.RESOURCE)
 	@ResourceFilter(AddFunctionFilter.class)
@@ -25,6 +25,7 @@ import org.entcore.common.http.filter.ResourcesProvider;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.user.DefaultFunctions;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Deadline;
 import org.entcore.directory.controllers.*;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
@@ -221,7 +222,7 @@ public class DirectoryResourcesProvider implements ResourcesProvider {
 
 	private static void validateQuery(final HttpServerRequest request, final Handler<Boolean> handler, String query, JsonObject params) {
 		request.pause();
-		Neo4j.getInstance().execute(query, params, new Handler<Message<JsonObject>>() {
+		Neo4j.getInstance().execute(query, params, Deadline.of(request), new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> r) {
 				request.resume();
@@ -26,6 +26,7 @@ import io.vertx.core.Handler;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.ReadStream;
 
 import java.util.List;
 
@@ -58,6 +59,13 @@ public interface UserService {
 	void listAdmin(String structureId, String classId, String groupId, JsonArray expectedProfiles,
 			String filterActivated, String nameFilter, UserInfos userInfos, Handler<Either<String, JsonArray>> results);
 
+	/**
+	 * Same users as listAdmin, delivered row by row as they are read from the database.
+	 */
+	void streamAdmin(String structureId, String classId, String groupId, JsonArray expectedProfiles,
+			String filterActivated, String nameFilter, UserInfos userInfos,
+			Handler<Either<String, ReadStream<JsonObject>>> handler);
+
 	void delete(List<String> users, Handler<Either<String, JsonObject>> result);
 
 	void restore(List<String> users, Handler<Either<String, JsonObject>> result);
@@ -25,6 +25,7 @@ import io.vertx.core.eventbus.Message;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.Neo4jResult;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserUtils;
 import org.entcore.directory.Directory;
 import org.entcore.directory.services.SchoolService;
 import io.vertx.core.Handler;
@@ -609,6 +610,10 @@ public class DefaultSchoolService implements SchoolService {
 		neo.execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> r) { ;
+				final JsonArray res = r.body().getJsonArray("result");
+				if ("ok".equals(r.body().getString("status")) && res != null && res.size() == 1) {
+					UserUtils.publishVisibilityChange(neo.getEventBus(), res.getJsonObject(0).getJsonArray("usersId"));
+				}
 				handler.handle(r.body());
 			}
 		});
@@ -277,7 +277,7 @@ public class DefaultUserBookService implements UserBookService {
 	public void get(String userId, Handler<Either<String, JsonObject>> result) {
 		String query = "MATCH (u:`User` { id : {id}})-[:USERBOOK]->(ub: UserBook)"
 				+ "OPTIONAL MATCH ub-[:PUBLIC|PRIVE]->(h:Hobby) " + "RETURN ub, COLLECT(h) as hobbies ";
-		neo.execute(query, new JsonObject().put("id", userId), fullNodeMergeHandler("ub", result, "hobbies"));
+		neo.executeReadOnly(query, new JsonObject().put("id", userId), fullNodeMergeHandler("ub", result, "hobbies"));
 	}
 
 }
@@ -38,6 +38,7 @@ import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.core.logging.Logger;
 import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
 
 import java.util.List;
 import java.util.UUID;
@@ -70,7 +71,7 @@ public class DefaultUserService implements UserService {
 				.put("structureId", structureId)
 				.put("profile", user.getString("type"))
 				.put("data", user);
-		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validUniqueResultHandler(result)));
+		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validUniqueResultHandler(refreshSearchIndex(null, result))));
 	}
 
 	@Override
@@ -81,7 +82,7 @@ public class DefaultUserService implements UserService {
 				.put("classId", classId)
 				.put("profile", user.getString("type"))
 				.put("data", user);
-		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validUniqueResultHandler(result)));
+		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validUniqueResultHandler(refreshSearchIndex(null, result))));
 	}
 
 	@Override
@@ -90,7 +91,26 @@ public class DefaultUserService implements UserService {
 				.put("action", "manual-update-user")
 				.put("userId", id)
 				.put("data", user);
-		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validUniqueResultHandler(result)));
+		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validUniqueResultHandler(
+				refreshSearchIndex(new fr.wseduc.webutils.collections.JsonArray().add(id), result))));
+	}
+
+	private Handler<Either<String, JsonObject>> refreshSearchIndex(final JsonArray userIds,
+			final Handler<Either<String, JsonObject>> result) {
+		return new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> r) {
+				if (r.isRight()) {
+					if (userIds != null) {
+						UserSearchIndex.publishRefresh(eb, userIds);
+					} else if (r.right().getValue().getString("id") != null) {
+						UserSearchIndex.publishRefresh(eb, new fr.wseduc.webutils.collections.JsonArray()
+								.add(r.right().getValue().getString("id")));
+					}
+				}
+				result.handle(r);
+			}
+		};
 	}
 
 	@Override
@@ -252,7 +272,33 @@ public class DefaultUserService implements UserService {
 	public void listAdmin(String structureId, String classId, String groupId,
 						  JsonArray expectedProfiles, String filterActivated, String nameFilter,
 						  UserInfos userInfos, Handler<Either<String, JsonArray>> results) {
-		JsonObject params = new JsonObject();
+		final JsonObject params = new JsonObject();
+		final String query = listAdminQuery(structureId, classId, groupId, expectedProfiles, filterActivated,
+				nameFilter, userInfos, params);
+		if (query == null) {
+			results.handle(new Either.Left<String, JsonArray>("forbidden"));
+			return;
+		}
+		neo.execute(query, params, validResultHandler(results));
+	}
+
+	@Override
+	public void streamAdmin(String structureId, String classId, String groupId,
+			JsonArray expectedProfiles, String filterActivated, String nameFilter,
+			UserInfos userInfos, Handler<Either<String, ReadStream<JsonObject>>> handler) {
+		final JsonObject params = new JsonObject();
+		final String query = listAdminQuery(structureId, classId, groupId, expectedProfiles, filterActivated,
+				nameFilter, userInfos, params);
+		if (query == null) {
+			handler.handle(new Either.Left<String, ReadStream<JsonObject>>("forbidden"));
+			return;
+		}
+		handler.handle(new Either.Right<String, ReadStream<JsonObject>>(neo.streamReadOnly(query, params)));
+	}
+
+	private String listAdminQuery(String structureId, String classId, String groupId,
+			JsonArray expectedProfiles, String filterActivated, String nameFilter,
+			UserInfos userInfos, JsonObject params) {
 		String filter = "";
 		String filterProfile = "WHERE 1=1 ";
 		String optionalMatch =
@@ -279,8 +325,7 @@ public class DefaultUserService implements UserService {
 		if (!userInfos.getFunctions().containsKey(SUPER_ADMIN) &&
 				!userInfos.getFunctions().containsKey(ADMIN_LOCAL) &&
 				!userInfos.getFunctions().containsKey(CLASS_ADMIN)) {
-			results.handle(new Either.Left<String, JsonArray>("forbidden"));
-			return;
+			return null;
 		} else if (userInfos.getFunctions().containsKey(ADMIN_LOCAL)) {
 			UserInfos.Function f = userInfos.getFunctions().get(ADMIN_LOCAL);
 			List<String> scope = f.getScope();
@@ -331,7 +376,7 @@ public class DefaultUserService implements UserService {
 				"HEAD(TAIL(COLLECT(distinct parent.externalId))) as parent2ExternalId, " + // Hack for GEPI export
 				"COUNT(distinct class.id) > 0 as hasClass " + // Hack for Esidoc export
 				"ORDER BY type DESC, displayName ASC ";
-		neo.execute(query, params, validResultHandler(results));
+		return query;
 	}
 
 	@Override
@@ -339,7 +384,8 @@ public class DefaultUserService implements UserService {
 		JsonObject action = new JsonObject()
 				.put("action", "manual-delete-user")
 				.put("users", new fr.wseduc.webutils.collections.JsonArray(users));
-		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validEmptyHandler(result)));
+		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validEmptyHandler(
+				refreshSearchIndex(new fr.wseduc.webutils.collections.JsonArray(users), result))));
 	}
 
 	@Override
@@ -347,7 +393,8 @@ public class DefaultUserService implements UserService {
 		JsonObject action = new JsonObject()
 				.put("action", "manual-restore-user")
 				.put("users", new fr.wseduc.webutils.collections.JsonArray(users));
-		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validEmptyHandler(result)));
+		eb.send(Directory.FEEDER, action, handlerToAsyncHandler(validEmptyHandler(
+				refreshSearchIndex(new fr.wseduc.webutils.collections.JsonArray(users), result))));
 	}
 
 	@Override
@@ -0,0 +1,334 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.directory.services.impl;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import io.vertx.core.streams.ReadStream;
+import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.user.UserUtils;
+import org.entcore.common.validation.StringValidation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.entcore.common.appregistry.AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS;
+import static org.entcore.common.appregistry.AppRegistryEvents.IMPORT_SUCCEEDED;
+import static org.entcore.common.appregistry.AppRegistryEvents.USER_GROUP_UPDATED;
+
+/**
+ * In memory trigram index of the users display names.
+ * Each user is stored once with its normalized display name (same normalization as displayNameSearchField),
+ * its profile and its structures. A search reads the smallest posting list of the query trigrams and checks
+ * each candidate with a contains, so stale postings left by updates are harmless until the next full rebuild
+ * compacts them.
+ * The index is rebuilt after each import and on the refresh interval, and updated for the users published
+ * on {@link #REFRESH_ADDRESS} by any instance (directory or feeder).
+ */
+public class UserSearchIndex {
+
+	public static final String REFRESH_ADDRESS = UserUtils.SEARCH_INDEX_REFRESH_ADDRESS;
+	public static final int MIN_QUERY_LENGTH = 3;
+	private static final Logger log = LoggerFactory.getLogger(UserSearchIndex.class);
+	private static final String USERS_QUERY =
+			"MATCH (u:User) WHERE HAS(u.displayName) %s" +
+			"OPTIONAL MATCH u-[:IN]->(:ProfileGroup)-[:DEPENDS]->(s:Structure) " +
+			"RETURN u.id as id, u.displayName as displayName, u.firstName as firstName, " +
+			"u.lastName as lastName, HEAD(u.profiles) as profile, COLLECT(DISTINCT s.id) as structures ";
+
+	private final Neo4j neo4j = Neo4j.getInstance();
+	private final int maxCandidates;
+	private Index index;
+	private boolean loading = false;
+	private boolean reloadRequested = false;
+	private final Set<String> pendingRefresh = new HashSet<>();
+
+	public static final class Entry {
+		private final String id;
+		private final String displayName;
+		private final String firstName;
+		private final String lastName;
+		private final String profile;
+		private final String searchField;
+		private final Set<String> structures = new HashSet<>();
+
+		Entry(JsonObject row) {
+			this.id = row.getString("id");
+			this.displayName = row.getString("displayName");
+			this.firstName = row.getString("firstName");
+			this.lastName = row.getString("lastName");
+			this.profile = row.getString("profile");
+			this.searchField = (displayName != null) ? StringValidation.sanitize(displayName) : null;
+			final JsonArray s = row.getJsonArray("structures");
+			if (s != null) {
+				for (Object o : s) {
+					if (o instanceof String) {
+						structures.add((String) o);
+					}
+				}
+			}
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public String getDisplayName() {
+			return displayName;
+		}
+
+		public String getLastName() {
+			return lastName;
+		}
+
+		public JsonObject toJson() {
+			return new JsonObject()
+					.put("id", id)
+					.put("firstName", firstName)
+					.put("lastName", lastName);
+		}
+
+	}
+
+	private static final class Postings {
+		private int[] values = new int[4];
+		private int size = 0;
+
+		private void add(int value) {
+			if (size > 0 && values[size - 1] == value) {
+				return;
+			}
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+	}
+
+	static final class Index {
+		private final Map<String, Integer> positions = new HashMap<>();
+		private final List<Entry> entries = new ArrayList<>();
+		private final Map<String, Postings> postings = new HashMap<>();
+
+		void put(Entry entry) {
+			if (entry.id == null || entry.searchField == null) {
+				return;
+			}
+			final Integer current = positions.get(entry.id);
+			final int position;
+			if (current != null) {
+				position = current;
+				entries.set(position, entry);
+			} else {
+				position = entries.size();
+				entries.add(entry);
+				positions.put(entry.id, position);
+			}
+			for (int i = 0; i + MIN_QUERY_LENGTH <= entry.searchField.length(); i++) {
+				final String trigram = entry.searchField.substring(i, i + MIN_QUERY_LENGTH);
+				Postings p = postings.get(trigram);
+				if (p == null) {
+					p = new Postings();
+					postings.put(trigram, p);
+				}
+				p.add(position);
+			}
+		}
+
+		void remove(String userId) {
+			final Integer position = positions.remove(userId);
+			if (position != null) {
+				entries.set(position, null);
+			}
+		}
+
+		/**
+		 * @param search the normalized query
+		 * @return the matching entries, null when there are more than limit
+		 */
+		List<Entry> search(String search, String profile, String structureId, int limit) {
+			Postings smallest = null;
+			for (int i = 0; i + MIN_QUERY_LENGTH <= search.length(); i++) {
+				final Postings p = postings.get(search.substring(i, i + MIN_QUERY_LENGTH));
+				if (p == null) {
+					return new ArrayList<>();
+				}
+				if (smallest == null || p.size < smallest.size) {
+					smallest = p;
+				}
+			}
+			final List<Entry> result = new ArrayList<>();
+			if (smallest == null) {
+				return result;
+			}
+			final Set<Integer> seen = new HashSet<>();
+			for (int i = 0; i < smallest.size; i++) {
+				final Entry e = entries.get(smallest.values[i]);
+				if (e == null || !seen.add(smallest.values[i]) || !e.searchField.contains(search) ||
+						(profile != null && !profile.equals(e.profile)) ||
+						(structureId != null && !e.structures.contains(structureId))) {
+					continue;
+				}
+				if (result.size() >= limit) {
+					return null;
+				}
+				result.add(e);
+			}
+			return result;
+		}
+
+	}
+
+	public UserSearchIndex(Vertx vertx, JsonObject config) {
+		this.maxCandidates = config.getInteger("max-candidates", 2000);
+		final EventBus eb = vertx.eventBus();
+		eb.consumer(REFRESH_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				refresh(message.body().getJsonArray("users"));
+			}
+		});
+		eb.consumer(APP_REGISTRY_PUBLISH_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				final String type = message.body().getString("type");
+				if (IMPORT_SUCCEEDED.equals(type)) {
+					rebuild();
+				} else if (USER_GROUP_UPDATED.equals(type)) {
+					refresh(message.body().getJsonArray("users"));
+				}
+			}
+		});
+		final long refreshInterval = config.getLong("refresh-interval", 6 * 3600 * 1000L);
+		if (refreshInterval > 0) {
+			vertx.setPeriodic(refreshInterval, timerId -> rebuild());
+		}
+		rebuild();
+	}
+
+	public static void publishRefresh(EventBus eb, JsonArray userIds) {
+		UserUtils.publishSearchIndexRefresh(eb, userIds);
+	}
+
+	public boolean isReady() {
+		return index != null;
+	}
+
+	/**
+	 * Search users whose normalized display name contains the normalized query.
+	 * @return the matching users, or null when the index can't answer (not loaded, query too short,
+	 * too many candidates) and the caller must use the database.
+	 */
+	public List<Entry> search(String query, String profile, String structureId) {
+		if (index == null || query == null) {
+			return null;
+		}
+		final String search = StringValidation.sanitize(query);
+		if (search.length() < MIN_QUERY_LENGTH) {
+			return null;
+		}
+		return index.search(search, emptyToNull(profile), emptyToNull(structureId), maxCandidates);
+	}
+
+	private static String emptyToNull(String s) {
+		return (s == null || s.trim().isEmpty()) ? null : s;
+	}
+
+	public void rebuild() {
+		if (loading) {
+			reloadRequested = true;
+			return;
+		}
+		loading = true;
+		final long start = System.currentTimeMillis();
+		final Index i = new Index();
+		final ReadStream<JsonObject> stream = neo4j.streamReadOnly(String.format(USERS_QUERY, ""), new JsonObject());
+		stream.exceptionHandler(e -> {
+			log.error("Error loading users search index", e);
+			pendingRefresh.clear();
+			loaded();
+		});
+		stream.handler(row -> i.put(new Entry(row)));
+		stream.endHandler(v -> {
+			index = i;
+			log.info("Users search index loaded : " + i.positions.size() + " users in " +
+					(System.currentTimeMillis() - start) + " ms");
+			final JsonArray updatedDuringLoading =
+					new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(pendingRefresh));
+			pendingRefresh.clear();
+			loaded();
+			refresh(updatedDuringLoading);
+		});
+	}
+
+	private void loaded() {
+		loading = false;
+		if (reloadRequested) {
+			reloadRequested = false;
+			rebuild();
+		}
+	}
+
+	private void refresh(final JsonArray userIds) {
+		if (index == null || userIds == null || userIds.size() == 0) {
+			return;
+		}
+		final Set<String> missing = new HashSet<>();
+		for (Object o : userIds) {
+			if (o instanceof String) {
+				missing.add((String) o);
+			}
+		}
+		if (loading) {
+			pendingRefresh.addAll(missing);
+		}
+		final JsonObject params = new JsonObject().put("userIds", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(missing)));
+		neo4j.stream(String.format(USERS_QUERY, "AND u.id IN {userIds} "), params, row -> {
+			final Entry entry = new Entry(row);
+			missing.remove(entry.id);
+			if (index != null) {
+				index.put(entry);
+			}
+		}, ar -> {
+			if (ar.failed()) {
+				log.error("Error refreshing users search index", ar.cause());
+				return;
+			}
+			if (index != null) {
+				for (String userId : missing) {
+					index.remove(userId);
+				}
+			}
+		});
+	}
+
+}
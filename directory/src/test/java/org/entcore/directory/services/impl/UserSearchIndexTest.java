@@ -0,0 +1,123 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.directory.services.impl;
+
+import io.vertx.core.json.JsonObject;
+import org.entcore.common.validation.StringValidation;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class UserSearchIndexTest {
+
+	private UserSearchIndex.Index index;
+
+	@Before
+	public void setUp() {
+		index = new UserSearchIndex.Index();
+		index.put(user("u1", "DUPONT Jean", "Teacher", "s1"));
+		index.put(user("u2", "DUPOND Jeanne", "Student", "s1"));
+		index.put(user("u3", "MARTIN Hélène", "Student", "s2"));
+		index.put(user("u4", "LEFÈVRE Jean-Pierre", "Relative", "s1", "s2"));
+	}
+
+	@Test
+	public void searchMatchesNormalizedSubstring() {
+		assertEquals(ids("u1", "u2", "u4"), ids(search("jean")));
+		assertEquals(ids("u3"), ids(search("HELENE")));
+		assertEquals(ids("u4"), ids(search("lefevre")));
+		assertEquals(ids("u1", "u2"), ids(search("dupon")));
+		// every trigram is indexed but the whole query isn't in the name
+		assertEquals(ids(), ids(search("dupontjeanne")));
+		assertEquals(ids(), ids(search("zzz")));
+	}
+
+	@Test
+	public void searchFiltersProfileAndStructure() {
+		assertEquals(ids("u2"), ids(index.search(normalize("jean"), "Student", null, 10)));
+		assertEquals(ids("u4"), ids(index.search(normalize("jean"), null, "s2", 10)));
+		assertEquals(ids(), ids(index.search(normalize("martin"), "Teacher", null, 10)));
+	}
+
+	@Test
+	public void tooManyCandidatesReturnsNull() {
+		assertNull(index.search(normalize("jean"), null, null, 2));
+		assertEquals(3, index.search(normalize("jean"), null, null, 3).size());
+	}
+
+	@Test
+	public void refreshReplacesAndRemovesUsers() {
+		index.put(user("u1", "DURAND Paul", "Teacher", "s3"));
+		// the stale postings of the old name are filtered by the contains check
+		assertEquals(ids("u2", "u4"), ids(search("jean")));
+		assertEquals(ids("u1"), ids(search("durand")));
+		assertEquals(ids("u1"), ids(index.search(normalize("paul"), null, "s3", 10)));
+		index.remove("u2");
+		assertEquals(ids("u4"), ids(search("jean")));
+		index.remove("unknown");
+		index.put(user("u2", "DUPOND Jeanne", "Student", "s1"));
+		assertEquals(ids("u2", "u4"), ids(search("jean")));
+	}
+
+	@Test
+	public void usersWithoutNameAreIgnored() {
+		index.put(new UserSearchIndex.Entry(new JsonObject().put("id", "u5")));
+		index.put(user(null, "JEAN Paul", "Teacher"));
+		assertEquals(ids("u1", "u2", "u4"), ids(search("jean")));
+	}
+
+	private List<UserSearchIndex.Entry> search(String query) {
+		return index.search(normalize(query), null, null, 10);
+	}
+
+	private static String normalize(String query) {
+		return StringValidation.sanitize(query);
+	}
+
+	private static UserSearchIndex.Entry user(String id, String displayName, String profile, String... structures) {
+		final fr.wseduc.webutils.collections.JsonArray s = new fr.wseduc.webutils.collections.JsonArray();
+		for (String structure : structures) {
+			s.add(structure);
+		}
+		return new UserSearchIndex.Entry(new JsonObject().put("id", id).put("displayName", displayName)
+				.put("profile", profile).put("structures", s));
+	}
+
+	private static List<String> ids(List<UserSearchIndex.Entry> entries) {
+		final List<String> ids = new ArrayList<>();
+		for (UserSearchIndex.Entry e : entries) {
+			ids.add(e.getId());
+		}
+		ids.sort(null);
+		return ids;
+	}
+
+	private static List<String> ids(String... ids) {
+		final List<String> l = new ArrayList<>();
+		for (String id : ids) {
+			l.add(id);
+		}
+		return l;
+	}
+
+}
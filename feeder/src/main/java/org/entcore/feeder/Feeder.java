@@ -26,6 +26,7 @@ import io.vertx.core.Handler;
 import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.notification.TimelineHelper;
+import org.entcore.common.user.UserUtils;
 import org.entcore.feeder.aaf.AafFeeder;
 import org.entcore.feeder.aaf1d.Aaf1dFeeder;
 import org.entcore.feeder.csv.CsvFeeder;
@@ -86,7 +87,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 		String neo4jConfig = (String) vertx.sharedData().getLocalMap("server").get("neo4jConfig");
 		if (neo4jConfig != null) {
 			neo4j = Neo4j.getInstance();
-			neo4j.init(vertx, new JsonObject(neo4jConfig));
+			neo4j.init(vertx, new JsonObject(neo4jConfig), Feeder.class.getSimpleName());
 		}
 		MongoDb.getInstance().init(vertx.eventBus(), node + "wse.mongodb.persistor");
 		TransactionManager.getInstance().setNeo4j(neo4j);
@@ -434,6 +435,7 @@ public class Feeder extends BusModBase implements Handler<Message<JsonObject>> {
 				public void handle(Message<JsonObject> m) {
 					if (m != null && "ok".equals(m.body().getString("status"))) {
 						AbstractTimetableImporter.transition(structureExternalId);
+						UserUtils.publishVisibilityChange(eb, null);
 						if (handler != null) {
 							handler.handle(m);
 						} else {
@@ -24,6 +24,7 @@ import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.neo4j.Neo4jUtils;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserUtils;
 import org.entcore.feeder.dictionary.structures.*;
 import org.entcore.feeder.exceptions.TransactionException;
 import org.entcore.feeder.exceptions.ValidationException;
@@ -251,7 +252,7 @@ public class ManualFeeder extends BusModBase {
 	}
 
 	private void addUserInStructure(final Message<JsonObject> message,
-			String userId, String structureId) {
+			final String userId, String structureId) {
 		JsonObject params = new JsonObject()
 				.put("structureId", structureId)
 				.put("userId", userId);
@@ -266,6 +267,9 @@ public class ManualFeeder extends BusModBase {
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> m) {
+				if ("ok".equals(m.body().getString("status"))) {
+					usersChanged(userId);
+				}
 				message.reply(m.body());
 			}
 		});
@@ -289,7 +293,7 @@ public class ManualFeeder extends BusModBase {
 	}
 
 	private void removeUserFromStructure(final Message<JsonObject> message,
-			String userId, String structureId) {
+			final String userId, String structureId) {
 		try {
 			TransactionHelper tx = TransactionManager.getTransaction();
 			JsonObject params = new JsonObject()
@@ -321,6 +325,9 @@ public class ManualFeeder extends BusModBase {
 				@Override
 				public void handle(Message<JsonObject> event) {
 					final JsonArray results = event.body().getJsonArray("results");
+					if ("ok".equals(event.body().getString("status"))) {
+						usersChanged(userId);
+					}
 					if ("ok".equals(event.body().getString("status")) && results != null && results.size() > 0) {
 						message.reply(event.body().put("result", results.getJsonArray(0)));
 					} else {
@@ -371,7 +378,7 @@ public class ManualFeeder extends BusModBase {
 	}
 
 	private void addUserInClass(final Message<JsonObject> message,
-			String userId, String classId) {
+			final String userId, String classId) {
 		JsonObject params = new JsonObject()
 				.put("classId", classId)
 				.put("userId", userId);
@@ -389,13 +396,16 @@ public class ManualFeeder extends BusModBase {
 		neo4j.execute(query, params, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> m) {
+				if ("ok".equals(m.body().getString("status"))) {
+					usersChanged(userId);
+				}
 				message.reply(m.body());
 			}
 		});
 	}
 
 	private void removeUserFromClass(final Message<JsonObject> message,
-								String userId, String classId) {
+								final String userId, String classId) {
 		try {
 			TransactionHelper tx = TransactionManager.getTransaction();
 
@@ -431,6 +441,9 @@ public class ManualFeeder extends BusModBase {
 				@Override
 				public void handle(Message<JsonObject> event) {
 					final JsonArray results = event.body().getJsonArray("results");
+					if ("ok".equals(event.body().getString("status"))) {
+						usersChanged(userId);
+					}
 					if ("ok".equals(event.body().getString("status")) && results != null && results.size() > 0) {
 						message.reply(event.body().put("result", results.getJsonArray(0)));
 					} else {
@@ -515,7 +528,7 @@ public class ManualFeeder extends BusModBase {
 									User.preDelete(o.toString(), tx);
 								}
 							}
-						});
+						}, users);
 					} else {
 						sendError(message, "unauthorized.user");
 					}
@@ -539,7 +552,7 @@ public class ManualFeeder extends BusModBase {
 					User.restorePreDeleted(o.toString(), tx);
 				}
 			}
-		});
+		}, users);
 	}
 
 	public void createFunction(final Message<JsonObject> message) {
@@ -559,6 +572,19 @@ public class ManualFeeder extends BusModBase {
 	}
 
 	private void executeTransaction(final Message<JsonObject> message, VoidFunction<TransactionHelper> f) {
+		executeTransaction(message, f, null);
+	}
+
+	private void executeTransaction(final Message<JsonObject> message, VoidFunction<TransactionHelper> f,
+			final JsonArray changedUsers) {
+		executeTransaction(message, f, changedUsers, null);
+	}
+
+	/**
+	 * Commit the transaction, then notify the visibility index of the changed users and groups.
+	 */
+	private void executeTransaction(final Message<JsonObject> message, VoidFunction<TransactionHelper> f,
+			final JsonArray changedUsers, final JsonArray changedGroups) {
 		TransactionHelper tx;
 		try {
 			tx = TransactionManager.getInstance().begin();
@@ -566,6 +592,12 @@ public class ManualFeeder extends BusModBase {
 			tx.commit(new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> event) {
+					if ("ok".equals(event.body().getString("status"))) {
+						if (changedUsers != null) {
+							UserUtils.publishVisibilityChange(neo4j.getEventBus(), changedUsers);
+						}
+						UserUtils.publishGroupsVisibilityChange(neo4j.getEventBus(), changedGroups);
+					}
 					message.reply(event.body());
 				}
 			});
@@ -574,6 +606,20 @@ public class ManualFeeder extends BusModBase {
 		}
 	}
 
+	private static JsonArray ids(String... ids) {
+		final JsonArray a = new fr.wseduc.webutils.collections.JsonArray();
+		for (String id : ids) {
+			a.add(id);
+		}
+		return a;
+	}
+
+	private void usersChanged(String userId) {
+		final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray().add(userId);
+		UserUtils.publishVisibilityChange(neo4j.getEventBus(), userIds);
+		UserUtils.publishSearchIndexRefresh(neo4j.getEventBus(), userIds);
+	}
+
 	public void deleteFunction(final Message<JsonObject> message) {
 		final String functionCode = getMandatoryString("functionCode", message);
 		if (functionCode == null) return;
@@ -617,7 +663,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				Profile.deleteFunctionGroup(groupId, tx);
 			}
-		});
+		}, null, ids(groupId));
 	}
 
 	public void addUserFunction(final Message<JsonObject> message) {
@@ -648,7 +694,7 @@ public class ManualFeeder extends BusModBase {
 							public void apply(TransactionHelper tx) {
 								User.addFunction(userId, function, s, tx);
 							}
-						});
+						}, ids(userId));
 					} else {
 						sendError(message, "invalid.scope");
 					}
@@ -660,7 +706,7 @@ public class ManualFeeder extends BusModBase {
 				public void apply(TransactionHelper tx) {
 					User.addFunction(userId, function, scope, tx);
 				}
-			});
+			}, ids(userId));
 		}
 	}
 
@@ -674,7 +720,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				User.addHeadTeacherManual(userId,structureExternalId,classExternalId, tx);
 			}
-		});
+		}, ids(userId));
 	}
 
 	public void updateUserHeadTeacherManual(final Message<JsonObject> message) {
@@ -687,7 +733,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				User.updateHeadTeacherManual(userId, structureExternalId,classExternalId, tx);
 			}
-		});
+		}, ids(userId));
 	}
 
 	public void removeUserFunction(Message<JsonObject> message) {
@@ -699,7 +745,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				User.removeFunction(userId, function, tx);
 			}
-		});
+		}, ids(userId));
 	}
 
 	public void addUserGroup(Message<JsonObject> message) {
@@ -711,7 +757,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				User.addGroup(userId, groupId, tx);
 			}
-		});
+		}, ids(userId), ids(groupId));
 	}
 
 	public void removeUserGroup(Message<JsonObject> message) {
@@ -723,7 +769,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				User.removeGroup(userId, groupId, tx);
 			}
-		});
+		}, ids(userId), ids(groupId));
 	}
 
 	public void createOrUpdateTenant(Message<JsonObject> message) {
@@ -761,7 +807,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				Group.manualDelete(groupId, tx);
 			}
-		});
+		}, null, ids(groupId));
 	}
 	
 	public void addGroupUsers(Message<JsonObject> message) {
@@ -775,7 +821,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				Group.addUsers(groupId, userIds, tx);
 			}
-		});
+		}, userIds, ids(groupId));
 	}
 	
 	public void removeGroupUsers(Message<JsonObject> message) {
@@ -789,7 +835,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) {
 				Group.removeUsers(groupId, userIds, tx);
 			}
-		});
+		}, userIds, ids(groupId));
 	}
 
 	public void structureAttachment(Message<JsonObject> message) {
@@ -856,7 +902,7 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) throws ValidationException {
 				User.relativeStudent(relativeId, studentId, tx);
 			}
-		});
+		}, ids(relativeId, studentId));
 	}
 
 	public void unlinkRelativeStudent(Message<JsonObject> message) {
@@ -867,6 +913,6 @@ public class ManualFeeder extends BusModBase {
 			public void apply(TransactionHelper tx) throws ValidationException {
 				User.unlinkRelativeStudent(relativeId, studentId, tx);
 			}
-		});
+		}, ids(relativeId, studentId));
 	}
 }
@@ -25,6 +25,7 @@ import io.vertx.core.AsyncResult;
 import org.entcore.common.events.EventStore;
 import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserUtils;
 import org.entcore.common.validation.StringValidation;
 import org.entcore.feeder.Feeder;
 import org.entcore.feeder.ManualFeeder;
@@ -273,6 +274,9 @@ public class DuplicateUsers {
 	private void sendMergedEvent(String keepedUserId, String deletedUserId) {
 		JsonObject body = new JsonObject().put("keepedUserId", keepedUserId).put("deletedUserId", deletedUserId);
 		eb.publish(Feeder.USER_REPOSITORY, body.copy().put("action", "merge-users"));
+		final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray().add(keepedUserId).add(deletedUserId);
+		UserUtils.publishVisibilityChange(eb, userIds);
+		UserUtils.publishSearchIndexRefresh(eb, userIds);
 		eventStore.createAndStoreEvent(Feeder.FeederEvent.MERGE_USER.name(), (UserInfos) null, body);
 
 	}
@@ -446,6 +450,10 @@ public class DuplicateUsers {
 								tx.commit(new Handler<Message<JsonObject>>() {
 									@Override
 									public void handle(Message<JsonObject> event) {
+										if ("ok".equals(event.body().getString("status"))) {
+											UserUtils.publishVisibilityChange(eb,
+													new fr.wseduc.webutils.collections.JsonArray().add(originalUserId));
+										}
 										message.reply(event.body());
 									}
 								});
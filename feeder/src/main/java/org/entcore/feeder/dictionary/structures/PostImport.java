@@ -231,7 +231,7 @@ public class PostImport {
 								handlerToAsyncHandler(new Handler<Message<JsonObject>>() {
 							@Override
 							public void handle(Message<JsonObject> event) {
-								if (!"ok".equals(event.body().getString("status"))) {
+								if ("error".equals(event.body().getString("status"))) {
 									logger.error("Init rules error : " + event.body().getString("message"));
 								} else {
 									logger.info("Communication rules applied.");
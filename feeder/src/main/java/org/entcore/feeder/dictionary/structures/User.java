@@ -23,6 +23,7 @@ import org.entcore.common.events.EventStore;
 import org.entcore.common.events.EventStoreFactory;
 import org.entcore.common.notification.TimelineHelper;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.user.UserUtils;
 import org.entcore.feeder.Feeder;
 import org.entcore.feeder.utils.TransactionHelper;
 import org.entcore.feeder.utils.TransactionManager;
@@ -93,6 +94,7 @@ public class User {
 												eb.publish(Feeder.USER_REPOSITORY, new JsonObject()
 														.put("action", "delete-users")
 														.put("old-users", r));
+												UserUtils.publishVisibilityChange(eb, deleteUsers);
 												eventStore.createAndStoreEvent(Feeder.FeederEvent.DELETE_USER.name(),
 														(UserInfos) null, new JsonObject().put("old-users", cleanDeleteEvent(r)));
 												if (r.size() == LIMIT) {
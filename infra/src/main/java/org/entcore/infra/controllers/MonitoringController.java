@@ -30,6 +30,7 @@ import org.entcore.common.http.filter.AdminFilter;
 import org.entcore.common.http.filter.ResourceFilter;
 import org.entcore.common.neo4j.Neo4j;
 import org.entcore.common.sql.Sql;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
 import io.vertx.core.eventbus.Message;
@@ -39,7 +40,6 @@ import io.vertx.core.json.JsonObject;
 import org.vertx.java.core.http.RouteMatcher;
 
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 
@@ -58,26 +58,18 @@ public class MonitoringController extends BaseController {
 	@Get("/monitoring/db")
 	public void checkDb(final HttpServerRequest request) {
 		final JsonObject result = new JsonObject();
-		final AtomicBoolean closed = new AtomicBoolean(false);
-		final long timerId = vertx.setTimer(dbCheckTimeout, new Handler<Long>() {
-			@Override
-			public void handle(Long event) {
-				closed.set(true);
-				result.put("status", "timeout");
-				renderError(request, result);
-			}
-		});
+		final Deadline deadline = Deadline.in(dbCheckTimeout);
 		final AtomicInteger count = new AtomicInteger(3);
 		if (postgresql) {
-			Sql.getInstance().raw("SELECT count(*) FROM information_schema.tables",
-					getResponseHandler("postgresql", timerId,  result, count, request, closed));
+			Sql.getInstance().raw("SELECT count(*) FROM information_schema.tables", deadline,
+					getResponseHandler("postgresql", result, count, request));
 		} else {
 			count.decrementAndGet();
 		}
-		Neo4j.getInstance().execute("MATCH (:Structure) RETURN count(*)", (JsonObject) null,
-				getResponseHandler("neo4j", timerId,  result, count, request, closed));
+		Neo4j.getInstance().executeReadOnly("MATCH (:Structure) RETURN count(*)", (JsonObject) null, deadline,
+				getResponseHandler("neo4j", result, count, request));
 		MongoDb.getInstance().command("{ dbStats: 1 }",
-				getResponseHandler("mongodb", timerId,  result, count, request, closed));
+				deadline.wrap(vertx, "mongodb", getResponseHandler("mongodb", result, count, request)));
 	}
 
 	@Get("/monitoring/versions")
@@ -92,14 +84,14 @@ public class MonitoringController extends BaseController {
 		Renders.renderJson(request, versions);
 	}
 
-	private Handler<Message<JsonObject>> getResponseHandler(final String module, final long timerId,
-			final JsonObject result, final AtomicInteger count, final HttpServerRequest request, final AtomicBoolean closed) {
+	private Handler<Message<JsonObject>> getResponseHandler(final String module,
+			final JsonObject result, final AtomicInteger count, final HttpServerRequest request) {
 		return new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> event) {
-				result.put(module, event.body().getString("status"));
-				if (count.decrementAndGet() <= 0 && !closed.get()) {
-					vertx.cancelTimer(timerId);
+				result.put(module, Deadline.ERROR.equals(event.body().getString("message")) ?
+						"timeout" : event.body().getString("status"));
+				if (count.decrementAndGet() <= 0) {
 					boolean error = false;
 					for (String element : result.fieldNames()) {
 						if (!"ok".equals(result.getString(element))) {
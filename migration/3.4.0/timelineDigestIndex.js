@@ -0,0 +1 @@
+db.timeline.createIndex({date:-1},{background: true,name:"idx_timeline_date"})
@@ -0,0 +1,34 @@
+db.timeline_inbox.createIndex({ userId: 1, created: -1, _id: -1 }, { background: true, name: "idx_inbox_user_created" });
+db.timeline_inbox.createIndex({ userId: 1, unread: 1 }, { background: true, name: "idx_inbox_user_unread" });
+db.timeline_inbox.createIndex({ eventId: 1 }, { background: true, name: "idx_inbox_event" });
+db.timeline_inbox.createIndex({ resource: 1 }, { background: true, name: "idx_inbox_resource" });
+db.timeline_inbox.createIndex({ "sub-resource": 1 }, { background: true, name: "idx_inbox_sub_resource" });
+db.timeline.createIndex({ created: -1, _id: -1 }, { background: true, name: "idx_timeline_created_id" });
+
+var count = 0;
+db.timeline.find({ deleted: { $exists: false }, "reportAction.action": { $ne: "DELETE" } }).forEach(function(event) {
+	if (!event.recipients || event.recipients.length === 0) {
+		return;
+	}
+	var bulk = db.timeline_inbox.initializeUnorderedBulkOp();
+	event.recipients.forEach(function(recipient) {
+		var entry = {
+			_id: UUID().hex(),
+			eventId: event._id,
+			userId: recipient.userId,
+			unread: recipient.unread === undefined ? 1 : recipient.unread,
+			type: event.type,
+			"event-type": event["event-type"],
+			sender: event.sender,
+			date: event.date,
+			created: event.created || event.date
+		};
+		if (event.resource) entry.resource = event.resource;
+		if (event["sub-resource"]) entry["sub-resource"] = event["sub-resource"];
+		if (event.preview) entry.preview = true;
+		bulk.insert(entry);
+	});
+	bulk.execute();
+	count++;
+});
+print("timeline events delivered to inboxes : " + count);
@@ -0,0 +1 @@
+db.documents.createIndex({owner:1, modified:-1, _id:-1},{background: true,name:"idx_owner_modified"})
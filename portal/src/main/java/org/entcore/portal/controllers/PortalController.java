@@ -153,10 +153,11 @@ public class PortalController extends BaseController {
 
 			@Override
 			public void handle(JsonObject session) {
-				JsonArray apps = session.getJsonArray("apps", new fr.wseduc.webutils.collections.JsonArray());
-				for (Object o : apps) {
+				JsonArray apps = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : session.getJsonArray("apps", new fr.wseduc.webutils.collections.JsonArray())) {
 					if (!(o instanceof JsonObject)) continue;
-					JsonObject j = (JsonObject) o;
+					JsonObject j = ((JsonObject) o).copy();
+					apps.add(j);
 					String d = j.getString("displayName");
 					if (d == null || d.trim().isEmpty()) {
 						d = j.getString("name");
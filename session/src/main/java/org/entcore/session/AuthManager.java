@@ -20,9 +20,9 @@
 package org.entcore.session;
 
 import fr.wseduc.mongodb.MongoDb;
-import fr.wseduc.webutils.eventbus.ResultMessage;
 import io.vertx.core.shareddata.LocalMap;
 import org.entcore.common.neo4j.Neo4j;
+import org.entcore.common.user.SessionCache;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.impl.VertxInternal;
@@ -32,58 +32,72 @@ import io.vertx.core.spi.cluster.ClusterManager;
 import org.entcore.common.utils.StringUtils;
 import org.vertx.java.busmods.BusModBase;
 
-import java.io.Serializable;
+import java.io.IOException;
 import java.util.*;
 
 import static fr.wseduc.webutils.Utils.getOrElse;
+import static org.entcore.common.appregistry.AppRegistryEvents.APP_REGISTRY_PUBLISH_ADDRESS;
+import static org.entcore.common.appregistry.AppRegistryEvents.IMPORT_SUCCEEDED;
+import static org.entcore.common.appregistry.AppRegistryEvents.PROFILE_GROUP_ACTIONS_UPDATED;
+import static org.entcore.common.appregistry.AppRegistryEvents.WIDGETS_UPDATED;
 
 public class AuthManager extends BusModBase implements Handler<Message<JsonObject>> {
 
 	private static final long LAST_ACTIVITY_DELAY = 30000l;
-	protected Map<String, String> sessions;
-	protected Map<String, List<LoginInfo>> logins;
+	protected SessionStore sessionStore;
 	protected Map<String, Long> inactivity;
 
 	private static final long DEFAULT_SESSION_TIMEOUT = 30 * 60 * 1000;
 	private static final String SESSIONS_COLLECTION = "sessions";
+	private static final String STRUCTURES_QUERY = "MATCH (s:Structure) return s.id as id, s.externalId as externalId";
 
 	private long sessionTimeout;
 	private long prolongedSessionTimeout;
+	private SessionTimerWheel timerWheel;
+	private SessionBootstrapCache bootstrapCache;
+	private long expiredSessions = 0;
+	private long prolongedSessions = 0;
 	private MongoDb mongo;
 	private Neo4j neo4j;
 
-	private static final class LoginInfo implements Serializable {
-		final long timerId;
-		final String sessionId;
-
-		private LoginInfo(long timerId, String sessionId) {
-			this.timerId = timerId;
-			this.sessionId = sessionId;
-		}
-	}
-
 	public void start() {
 		super.start();
 		LocalMap<Object, Object> server = vertx.sharedData().getLocalMap("server");
 		String neo4jConfig = (String) server.get("neo4jConfig");
 		neo4j = Neo4j.getInstance();
-		neo4j.init(vertx, new JsonObject(neo4jConfig));
+		neo4j.init(vertx, new JsonObject(neo4jConfig), AuthManager.class.getSimpleName());
 		Boolean cluster = (Boolean) server.get("cluster");
 		String node = (String) server.get("node");
 		mongo = MongoDb.getInstance();
 		mongo.init(vertx.eventBus(), node + config.getString("mongo-address", "wse.mongodb.persistor"));
+		final JsonObject sessionStoreConfig = config.getJsonObject("session-store", new JsonObject());
+		if ("offheap".equals(sessionStoreConfig.getString("type"))) {
+			if (Boolean.TRUE.equals(cluster)) {
+				logger.error("Off-heap session store isn't shared between nodes, use cluster maps.");
+			} else {
+				try {
+					sessionStore = OffHeapSessionStore.create(sessionStoreConfig);
+					logger.info("Initialize off-heap session store.");
+				} catch (IOException e) {
+					logger.error("Error initializing off-heap session store, use hash maps.", e);
+				}
+			}
+		}
 		if (Boolean.TRUE.equals(cluster)) {
 			ClusterManager cm = ((VertxInternal) vertx).getClusterManager();
-			sessions = cm.getSyncMap("sessions");
-			logins = cm.getSyncMap("logins");
+			if (sessionStore == null) {
+				sessionStore = new MapSessionStore(cm.<String, String>getSyncMap("sessions"),
+						cm.<String, List<LoginInfo>>getSyncMap("logins"));
+			}
 			if (getOrElse(config.getBoolean("inactivity"), false)) {
 				inactivity = cm.getSyncMap("inactivity");
 				logger.info("inactivity ha map : "  + inactivity.getClass().getName());
 			}
 			logger.info("Initialize session cluster maps.");
 		} else {
-			sessions = new HashMap<>();
-			logins = new HashMap<>();
+			if (sessionStore == null) {
+				sessionStore = new MapSessionStore(new HashMap<String, String>(), new HashMap<String, List<LoginInfo>>());
+			}
 			if (getOrElse(config.getBoolean("inactivity"), false)) {
 				inactivity = new HashMap<>();
 			}
@@ -110,10 +124,52 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		} else {
 			this.prolongedSessionTimeout = 20 * DEFAULT_SESSION_TIMEOUT;
 		}
+		bootstrapCache = new SessionBootstrapCache(config.getJsonObject("bootstrap-cache", new JsonObject()));
+		eb.consumer(APP_REGISTRY_PUBLISH_ADDRESS, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				final String type = event.body().getString("type");
+				if (PROFILE_GROUP_ACTIONS_UPDATED.equals(type) || WIDGETS_UPDATED.equals(type)) {
+					bootstrapCache.clearGroupsInfos();
+				} else if (IMPORT_SUCCEEDED.equals(type)) {
+					bootstrapCache.clearGroupsInfos();
+					bootstrapCache.clearStructureMapping();
+				}
+			}
+		});
+		timerWheel = new SessionTimerWheel(vertx, config.getLong("expiration-tick", 1000L),
+				config.getInteger("expiration-wheel-size", 3600), this::expireSessions);
+		timerWheel.start();
+		if (sessionStore.isPersistent()) {
+			restoreSessions();
+		}
 
 		eb.localConsumer(address, this);
 	}
 
+	@Override
+	public void stop() throws Exception {
+		super.stop();
+		if (timerWheel != null) {
+			timerWheel.stop();
+		}
+		if (sessionStore != null) {
+			sessionStore.close();
+		}
+	}
+
+	private void restoreSessions() {
+		final int[] count = {0};
+		sessionStore.restore(s -> {
+			final String userId = s.getString("userId");
+			final String sessionId = s.getString("sessionId");
+			setTimer(userId, sessionId, s.getBoolean("secureLocation", false));
+			addLoginInfo(userId, sessionId);
+			count[0]++;
+		});
+		logger.info("Restored sessions : " + count[0]);
+	}
+
 	@Override
 	public void handle(Message<JsonObject> message) {
 		String action = message.body().getString("action");
@@ -145,14 +201,27 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		case "addAttribute":
 			doAddAttribute(message);
 			break;
+		case "addAttributes":
+			doAddAttributes(message);
+			break;
 		case "removeAttribute":
 			doRemoveAttribute(message);
 			break;
+		case "metrics":
+			doMetrics(message);
+			break;
 		default:
 			sendError(message, "Invalid action: " + action);
 		}
 	}
 
+	private void doMetrics(Message<JsonObject> message) {
+		sendOK(message, new JsonObject()
+				.put("scheduledSessions", timerWheel.size())
+				.put("expiredSessions", expiredSessions)
+				.put("prolongedSessions", prolongedSessions));
+	}
+
 	private void doDropCacheSession(Message<JsonObject> message) {
 		final String userId = message.body().getString("userId");
 		if (userId == null || userId.trim().isEmpty()) {
@@ -160,7 +229,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			return;
 		}
 		final boolean deleteSessionCollection = getOrElse(message.body().getBoolean("deleteSessionCollection"), true);
-		final List<LoginInfo> loginInfos = logins.get(userId);
+		final List<LoginInfo> loginInfos = sessionStore.getLoginInfos(userId);
 		if (loginInfos != null) {
 			final List<String> sessionIds = new ArrayList<>();
 			for (LoginInfo loginInfo : loginInfos) {
@@ -170,6 +239,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 				dropSession(null, sessionId, null, deleteSessionCollection);
 			}
 		}
+		SessionCache.publishInvalidation(eb, null, userId);
 		sendOK(message);
 	}
 
@@ -181,6 +251,16 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			return;
 		}
 
+		if (sessionStore.isPersistent()) {
+			final List<LoginInfo> loginInfos = sessionStore.getLoginInfos(userId);
+			if (loginInfos != null) {
+				for (LoginInfo loginInfo : new ArrayList<>(loginInfos)) {
+					if (!loginInfo.sessionId.equals(currentSessionId)) {
+						dropSession(null, loginInfo.sessionId, null, false);
+					}
+				}
+			}
+		}
 		JsonObject query = new JsonObject().put("userId", userId);
 		if (currentSessionId != null) {
 			query.put("_id", new JsonObject().put("$ne", currentSessionId));
@@ -225,7 +305,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		}
 		JsonObject session = null;
 		try {
-			session = unmarshal(sessions.get(info.sessionId));
+			session = unmarshal(sessionStore.getSession(info.sessionId));
 		} catch (Exception e) {
 			logger.error("Error in deserializing hazelcast session " + info.sessionId, e);
 		}
@@ -237,7 +317,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 	}
 
 	private LoginInfo getLoginInfo(String userId) {
-		List<LoginInfo> loginInfos = logins.get(userId);
+		List<LoginInfo> loginInfos = sessionStore.getLoginInfos(userId);
 		if (loginInfos != null && !loginInfos.isEmpty()) {
 			return loginInfos.get(loginInfos.size() - 1);
 		}
@@ -260,14 +340,14 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 
 		JsonObject session = null;
 		try {
-			session = unmarshal(sessions.get(sessionId));
+			session = unmarshal(sessionStore.getSession(sessionId));
 		} catch (Exception e) {
 			logger.warn("Error in deserializing hazelcast session " + sessionId);
 			try {
 //				if (sessions instanceof BaseMap) {
 //					((BaseMap) sessions).delete(sessionId);
 //				} else {
-					sessions.remove(sessionId);
+					sessionStore.removeSession(sessionId);
 //				}
 			} catch (Exception e1) {
 				logger.warn("Error getting object after removing hazelcast session " + sessionId);
@@ -287,7 +367,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 							sId -> {
 								if (sId != null) {
 									try {
-										JsonObject s = unmarshal(sessions.get(sId));
+										JsonObject s = unmarshal(sessionStore.getSession(sId));
 										if (s != null) {
 											JsonObject sessionResponse = new JsonObject().put("status", "ok")
 													.put("session", s);
@@ -319,7 +399,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			sendOK(message, new JsonObject().put("status", "ok").put("session", session));
 			if (inactivity != null) {
 				Long lastActivity = inactivity.get(sessionId);
-				String userId = sessions.get(sessionId);
+				String userId = sessionStore.getSession(sessionId);
 				if (userId != null && (lastActivity == null || (lastActivity + LAST_ACTIVITY_DELAY) < System.currentTimeMillis())) {
 					inactivity.put(sessionId, System.currentTimeMillis());
 				}
@@ -356,23 +436,28 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			@Override
 			public void handle(JsonObject infos) {
 				if (infos != null) {
-					long timerId = setTimer(userId, sessionId, secureLocation);
+					setTimer(userId, sessionId, secureLocation);
 
 					try {
-						sessions.put(sessionId, infos.encode());
-						addLoginInfo(userId, timerId, sessionId);
+						sessionStore.putSession(sessionId, userId, secureLocation, infos.encode());
+						addLoginInfo(userId, sessionId);
 					} catch (Exception e) {
 						logger.error("Error putting session in hazelcast map");
 //						try {
 //							if (sessions instanceof IMap) {
 //								((IMap) sessions).putAsync(sessionId, infos.encode());
 //							}
-//							addLoginInfo(userId, timerId, sessionId);
+//							addLoginInfo(userId, sessionId);
 //						} catch (Exception e1) {
 //							logger.error("Error putting async session in hazelcast map", e1);
 //						}
 					}
 					final JsonObject now = MongoDb.now();
+					if (secureLocation && sessionIndex == null && sessionStore.isPersistent()) {
+						// prolonged session is kept by the persistent session store
+						handler.handle(sessionId);
+						return;
+					}
 					if (sId == null) {
 						JsonObject json = new JsonObject()
 								.put("_id", sessionId).put("userId", userId)
@@ -396,43 +481,70 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		});
 	}
 
-	protected long setTimer(final String userId, final String sessionId, final boolean secureLocation) {
+	protected void setTimer(final String userId, final String sessionId, final boolean secureLocation) {
 		if (inactivity != null) {
 			inactivity.put(sessionId, System.currentTimeMillis());
 		}
-		return setTimer(userId, sessionId, sessionTimeout, secureLocation);
+		timerWheel.schedule(sessionId, userId, secureLocation, sessionTimeout);
 	}
 
-	protected long setTimer(final String userId, final String sessionId, final long sessionTimeout, final boolean secureLocation) {
-		return vertx.setTimer(sessionTimeout, timerId -> {
+	private void expireSessions(List<SessionTimerWheel.Timeout> timeouts) {
+		final long now = System.currentTimeMillis();
+		final Map<String, List<String>> userSessions = new HashMap<>();
+		final JsonArray droppedSessionIds = new fr.wseduc.webutils.collections.JsonArray();
+		for (SessionTimerWheel.Timeout timeout : timeouts) {
 			if (inactivity != null) {
-				final Long lastActivity = inactivity.get(sessionId);
-				if(lastActivity != null) {
+				final Long lastActivity = inactivity.get(timeout.sessionId);
+				if (lastActivity != null) {
 					final long timeoutTimestamp = lastActivity +
-							(secureLocation ? AuthManager.this.prolongedSessionTimeout : AuthManager.this.sessionTimeout);
-					final long now = System.currentTimeMillis();
+							(timeout.secureLocation ? prolongedSessionTimeout : sessionTimeout);
 					if (timeoutTimestamp > now) {
-						setTimer(userId, sessionId, (timeoutTimestamp - now), secureLocation);
-					} else {
-						dropSession(new ResultMessage(), sessionId, null);
+						timerWheel.schedule(timeout.sessionId, timeout.userId, timeout.secureLocation, timeoutTimestamp - now);
+						prolongedSessions++;
+						continue;
 					}
-				} else {
-					dropSession(new ResultMessage(), sessionId, null);
 				}
-			} else {
-				logins.remove(userId);
-				sessions.remove(sessionId);
+				inactivity.remove(timeout.sessionId);
+				droppedSessionIds.add(timeout.sessionId);
 			}
-		});
+			String userId = timeout.userId;
+			try {
+				final JsonObject s = unmarshal(sessionStore.removeSession(timeout.sessionId));
+				if (s != null && s.getString("userId") != null) {
+					userId = s.getString("userId");
+				}
+			} catch (Exception e) {
+				logger.error("Error removing expired session " + timeout.sessionId, e);
+			}
+			if (userId != null) {
+				List<String> sessionIds = userSessions.get(userId);
+				if (sessionIds == null) {
+					sessionIds = new ArrayList<>();
+					userSessions.put(userId, sessionIds);
+				}
+				sessionIds.add(timeout.sessionId);
+				if (inactivity != null && getOrElse(config.getBoolean("slo"), false)) {
+					eb.send("cas", new JsonObject().put("action", "logout").put("userId", userId));
+				}
+			}
+			SessionCache.publishInvalidation(eb, timeout.sessionId, userId);
+			expiredSessions++;
+		}
+		for (Map.Entry<String, List<String>> e : userSessions.entrySet()) {
+			removeLoginInfos(e.getKey(), e.getValue());
+		}
+		if (droppedSessionIds.size() > 0) {
+			mongo.delete(SESSIONS_COLLECTION, new JsonObject().put("_id", new JsonObject().put("$in", droppedSessionIds)));
+		}
 	}
 
-	private void addLoginInfo(String userId, long timerId, String sessionId) {
-		List<LoginInfo> loginInfos = logins.get(userId);
+	private void addLoginInfo(String userId, String sessionId) {
+		List<LoginInfo> loginInfos = sessionStore.getLoginInfos(userId);
 		if (loginInfos == null) {
 			loginInfos = new ArrayList<>();
 		}
-		loginInfos.add(new LoginInfo(timerId, sessionId));
-		logins.put(userId, loginInfos);
+		loginInfos.add(new LoginInfo(sessionId));
+		sessionStore.putLoginInfos(userId, loginInfos);
 	}
 
 	private void doDrop(final Message<JsonObject> message) {
@@ -467,29 +579,28 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		}
 		JsonObject session =  null;
 		try {
-			session = unmarshal(sessions.get(sessionId));
+			session = unmarshal(sessionStore.getSession(sessionId));
 		} catch (Exception e) {
 			try {
 //				if (sessions instanceof BaseMap) {
 //					((BaseMap) sessions).delete(sessionId);
 //				} else {
-					sessions.remove(sessionId);
+					sessionStore.removeSession(sessionId);
 				//}
 			} catch (Exception e1) {
 				logger.error("In doDrop - Error getting object after removing hazelcast session " + sessionId, e);
 			}
 		}
 		if (session != null) {
-			JsonObject s = unmarshal(sessions.remove(sessionId));
+			JsonObject s = unmarshal(sessionStore.removeSession(sessionId));
 			if (s != null) {
 				final String userId = s.getString("userId");
-				LoginInfo info = removeLoginInfo(sessionId, userId);
+				removeLoginInfo(sessionId, userId);
 				if (getOrElse(config.getBoolean("slo"), false)) {
 					eb.send("cas", new JsonObject().put("action", "logout").put("userId", userId));
 				}
-				if (info != null) {
-					vertx.cancelTimer(info.timerId);
-				}
+				timerWheel.cancel(sessionId);
+				SessionCache.publishInvalidation(eb, sessionId, userId);
 			}
 		}
 		if (inactivity != null) {
@@ -505,7 +616,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 	}
 
 	private LoginInfo removeLoginInfo(String sessionId, String userId) {
-		List<LoginInfo> loginInfos = logins.get(userId);
+		List<LoginInfo> loginInfos = sessionStore.getLoginInfos(userId);
 		LoginInfo loginInfo = null;
 		if (loginInfos != null && sessionId != null) {
 			boolean found = false;
@@ -520,15 +631,32 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			if (found) {
 				loginInfo = loginInfos.remove(idx);
 				if (loginInfos.isEmpty()) {
-					logins.remove(userId);
+					sessionStore.removeLoginInfos(userId);
 				} else {
-					logins.put(userId, loginInfos);
+					sessionStore.putLoginInfos(userId, loginInfos);
 				}
 			}
 		}
 		return loginInfo;
 	}
 
+	private void removeLoginInfos(String userId, List<String> sessionIds) {
+		final List<LoginInfo> loginInfos = sessionStore.getLoginInfos(userId);
+		if (loginInfos == null) {
+			return;
+		}
+		final Iterator<LoginInfo> it = loginInfos.iterator();
+		while (it.hasNext()) {
+			if (sessionIds.contains(it.next().sessionId)) {
+				it.remove();
+			}
+		}
+		if (loginInfos.isEmpty()) {
+			sessionStore.removeLoginInfos(userId);
+		} else {
+			sessionStore.putLoginInfos(userId, loginInfos);
+		}
+	}
 
 	private void doAddAttribute(Message<JsonObject> message) {
 		JsonObject session = getSessionByUserId(message);
@@ -554,6 +682,48 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		sendOK(message);
 	}
 
+	/**
+	 * Same attribute with a value per user ("values" : { userId : value }), disconnected users are ignored.
+	 */
+	private void doAddAttributes(Message<JsonObject> message) {
+		final String key = message.body().getString("key");
+		if (key == null || key.trim().isEmpty()) {
+			sendError(message, "Invalid key.");
+			return;
+		}
+		final JsonObject values = message.body().getJsonObject("values");
+		if (values == null) {
+			sendError(message, "Invalid values.");
+			return;
+		}
+		for (String userId : values.fieldNames()) {
+			final Object value = values.getValue(userId);
+			final List<LoginInfo> infos = sessionStore.getLoginInfos(userId);
+			if (value == null || infos == null || infos.isEmpty()) {
+				continue;
+			}
+			JsonObject session = null;
+			try {
+				session = unmarshal(sessionStore.getSession(infos.get(infos.size() - 1).sessionId));
+			} catch (Exception e) {
+				logger.error("Error in deserializing hazelcast session of user " + userId, e);
+			}
+			if (session == null) {
+				continue;
+			}
+			session.getJsonObject("cache").put(key, value);
+			for (LoginInfo info : infos) {
+				try {
+					sessionStore.updateSession(info.sessionId, session.encode());
+				} catch (Exception e) {
+					logger.error("Error putting session in hazelcast map : " + info.sessionId, e);
+				}
+			}
+			SessionCache.publishInvalidation(eb, null, userId);
+		}
+		sendOK(message);
+	}
+
 	private JsonObject getSessionByUserId(Message<JsonObject> message) {
 		final String userId = message.body().getString("userId");
 		if (userId == null || userId.trim().isEmpty()) {
@@ -568,7 +738,7 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		}
 		JsonObject session =  null;
 		try {
-			session = unmarshal(sessions.get(info.sessionId));
+			session = unmarshal(sessionStore.getSession(info.sessionId));
 		} catch (Exception e) {
 			logger.error("Error in deserializing hazelcast session " + info.sessionId, e);
 		}
@@ -586,18 +756,19 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 			return;
 		}
 
-		List<LoginInfo> infos = logins.get(userId);
+		List<LoginInfo> infos = sessionStore.getLoginInfos(userId);
 		if (infos == null || infos.isEmpty()) {
 			sendError(message, "[updateSessionByUserId] info is null - Invalid userId : " + message.body().encode());
 			return;
 		}
 		for (LoginInfo info : infos) {
 			try {
-				sessions.put(info.sessionId, session.encode());
+				sessionStore.updateSession(info.sessionId, session.encode());
 			} catch (Exception e) {
 				logger.error("Error putting session in hazelcast map : " + info.sessionId, e);
 			}
 		}
+		SessionCache.publishInvalidation(eb, null, userId);
 	}
 
 	private void doRemoveAttribute(Message<JsonObject> message) {
@@ -634,15 +805,63 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 				"COLLECT(distinct [s.id, s.name, s.hasApp]) as structures, COLLECT(distinct [f.externalId, rf.scope]) as functions, " +
 				"COLLECT(distinct s.UAI) as uai, " +
 				"COLLECT(distinct gp.id) as groupsIds, n.federatedIDP as federatedIDP, n.functions as aafFunctions";
+		final String query5 = "MATCH (u:User {id: {id}})-[:PREFERS]->(uac:UserAppConf) RETURN uac AS preferences";
+		final JsonObject structureMapping = bootstrapCache.getStructureMapping();
+		final boolean loadStructures = (structureMapping == null);
+		JsonObject params = new JsonObject();
+		params.put("id", userId);
+		JsonArray statements = new fr.wseduc.webutils.collections.JsonArray()
+				.add(new JsonObject().put("statement", query).put("parameters", params))
+				.add(new JsonObject().put("statement", query5).put("parameters", params));
+		if (loadStructures) {
+			statements.add(new JsonObject().put("statement", STRUCTURES_QUERY));
+		}
+		final int nbStatements = statements.size();
+		neo4j.executeReadOnlyTransaction(statements, new Handler<Message<JsonObject>>() {
+
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonArray results = message.body().getJsonArray("results");
+				if ("ok".equals(message.body().getString("status")) && results != null &&
+						results.size() == nbStatements && results.getJsonArray(0).size() > 0) {
+					final JsonObject j = results.getJsonArray(0).getJsonObject(0);
+					final JsonObject cache = (results.getJsonArray(1) != null && results.getJsonArray(1).size() > 0 &&
+							results.getJsonArray(1).getJsonObject(0) != null) ? results.getJsonArray(1).getJsonObject(0) : new JsonObject();
+					final JsonObject mapping = loadStructures ?
+							bootstrapCache.setStructureMapping(results.getJsonArray(2)) : structureMapping;
+					getGroupsInfos(getOrElse(j.getJsonArray("groupsIds"), new fr.wseduc.webutils.collections.JsonArray()),
+							new Handler<JsonObject>() {
+						@Override
+						public void handle(JsonObject groupsInfos) {
+							if (groupsInfos != null) {
+								handler.handle(buildSessionInfos(userId, j, groupsInfos, mapping, cache));
+							} else {
+								handler.handle(null);
+							}
+						}
+					});
+				} else {
+					handler.handle(null);
+				}
+			}
+		});
+	}
+
+	private void getGroupsInfos(final JsonArray groupsIds, final Handler<JsonObject> handler) {
+		final String key = SessionBootstrapCache.groupsKey(groupsIds);
+		final JsonObject cached = bootstrapCache.getGroupsInfos(key);
+		if (cached != null) {
+			handler.handle(cached);
+			return;
+		}
 		final String query2 =
-				"MATCH (n:User {id : {id}})-[:IN]->()-[:AUTHORIZED]->(:Role)-[:AUTHORIZE]->(a:Action)" +
-				"<-[:PROVIDE]-(app:Application) " +
-				"WHERE HAS(n.login) " +
+				"MATCH (g:Group)-[:AUTHORIZED]->(:Role)-[:AUTHORIZE]->(a:Action)<-[:PROVIDE]-(app:Application) " +
+				"WHERE g.id IN {groupsIds} " +
 				"RETURN DISTINCT COLLECT(distinct [a.name,a.displayName,a.type]) as authorizedActions, " +
 				"COLLECT(distinct [app.name,app.address,app.icon,app.target,app.displayName,app.display,app.prefix]) as apps";
 		final String query3 =
-				"MATCH (u:User {id: {id}})-[:IN]->(g:Group)-[auth:AUTHORIZED]->(w:Widget) " +
-				"WHERE HAS(u.login) " +
+				"MATCH (g:Group)-[auth:AUTHORIZED]->(w:Widget) " +
+				"WHERE g.id IN {groupsIds} " +
 				"AND ( NOT(w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)) " +
 				"XOR w<-[:HAS_WIDGET]-(:Application)-[:PROVIDE]->(:WorkflowAction)<-[:AUTHORIZE]-(:Role)<-[:AUTHORIZED]-g )  " +
 				"OPTIONAL MATCH (w)<-[:HAS_WIDGET]-(app:Application) " +
@@ -655,36 +874,20 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 					"application: app.name, " +
 					"mandatory: ANY(a IN authorizations WHERE HAS(a.mandatory) AND a.mandatory = true)"+
 				"}) as widgets";
-		final String query4 = "MATCH (s:Structure) return s.id as id, s.externalId as externalId";
-		final String query5 = "MATCH (u:User {id: {id}})-[:PREFERS]->(uac:UserAppConf) RETURN uac AS preferences";
-		JsonObject params = new JsonObject();
-		params.put("id", userId);
-		JsonArray statements = new fr.wseduc.webutils.collections.JsonArray()
-				.add(new JsonObject().put("statement", query).put("parameters", params))
+		final JsonObject params = new JsonObject().put("groupsIds", groupsIds);
+		final JsonArray statements = new fr.wseduc.webutils.collections.JsonArray()
 				.add(new JsonObject().put("statement", query2).put("parameters", params))
-				.add(new JsonObject().put("statement", query3).put("parameters", params))
-				.add(new JsonObject().put("statement", query4))
-				.add(new JsonObject().put("statement", query5).put("parameters", params));
-		neo4j.executeTransaction(statements, null, true, new Handler<Message<JsonObject>>() {
-
+				.add(new JsonObject().put("statement", query3).put("parameters", params));
+		neo4j.executeReadOnlyTransaction(statements, new Handler<Message<JsonObject>>() {
 			@Override
 			public void handle(Message<JsonObject> message) {
-				JsonArray results = message.body().getJsonArray("results");
-				if ("ok".equals(message.body().getString("status")) && results != null && results.size() == 5 &&
-						results.getJsonArray(0).size() > 0 && results.getJsonArray(1).size() > 0) {
-					JsonObject j = results.getJsonArray(0).getJsonObject(0);
-					JsonObject j2 = results.getJsonArray(1).getJsonObject(0);
-					JsonObject j3 = results.getJsonArray(2).getJsonObject(0);
-					JsonObject structureMapping = new JsonObject();
-					for (Object o : results.getJsonArray(3)) {
-						if (!(o instanceof JsonObject)) continue;
-						JsonObject jsonObject = (JsonObject) o;
-						structureMapping.put(jsonObject.getString("externalId"), jsonObject.getString("id"));
-					}
-					j.put("userId", userId);
-					JsonObject functions = new JsonObject();
-					JsonArray actions = new fr.wseduc.webutils.collections.JsonArray();
-					JsonArray apps = new fr.wseduc.webutils.collections.JsonArray();
+				final JsonArray results = message.body().getJsonArray("results");
+				if ("ok".equals(message.body().getString("status")) && results != null && results.size() == 2 &&
+						results.getJsonArray(0).size() > 0) {
+					final JsonObject j2 = results.getJsonArray(0).getJsonObject(0);
+					final JsonObject j3 = results.getJsonArray(1).getJsonObject(0);
+					final JsonArray actions = new fr.wseduc.webutils.collections.JsonArray();
+					final JsonArray apps = new fr.wseduc.webutils.collections.JsonArray();
 					for (Object o : getOrElse(j2.getJsonArray("authorizedActions"), new fr.wseduc.webutils.collections.JsonArray())) {
 						if (!(o instanceof JsonArray)) continue;
 						JsonArray a = (JsonArray) o;
@@ -706,107 +909,13 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 										.put("prefix", (String) a.getString(6))
 						);
 					}
-					for (Object o : getOrElse(j.getJsonArray("aafFunctions"), new fr.wseduc.webutils.collections.JsonArray())) {
-						if (o == null) continue;
-						String [] sf = o.toString().split("\\$");
-						if (sf.length == 5) {
-							JsonObject jo = functions.getJsonObject(sf[1]);
-							if (jo == null) {
-								jo = new JsonObject().put("code", sf[1])
-										.put("functionName", sf[2])
-										.put("scope", new fr.wseduc.webutils.collections.JsonArray())
-										.put("structureExternalIds", new fr.wseduc.webutils.collections.JsonArray())
-										.put("subjects", new JsonObject());
-								functions.put(sf[1], jo);
-							}
-							JsonObject subject = jo.getJsonObject("subjects").getJsonObject(sf[3]);
-							if (subject == null) {
-								subject = new JsonObject()
-										.put("subjectCode", sf[3])
-										.put("subjectName", sf[4])
-										.put("scope", new fr.wseduc.webutils.collections.JsonArray())
-										.put("structureExternalIds", new fr.wseduc.webutils.collections.JsonArray());
-								jo.getJsonObject("subjects").put(sf[3], subject);
-							}
-							jo.getJsonArray("structureExternalIds").add(sf[0]);
-							subject.getJsonArray("structureExternalIds").add(sf[0]);
-							String sid = structureMapping.getString(sf[0]);
-							if (sid != null) {
-								jo.getJsonArray("scope").add(sid);
-								subject.getJsonArray("scope").add(sid);
-							}
-						}
-					}
-					j.remove("aafFunctions");
-					for (Object o : getOrElse(j.getJsonArray("functions"), new fr.wseduc.webutils.collections.JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						JsonArray a = (JsonArray) o;
-						String code = a.getString(0);
-						if (code != null) {
-							functions.put(code, new JsonObject()
-									.put("code", code)
-									.put("scope", a.getJsonArray(1))
-							);
-						}
-					}
-					final JsonObject children = new JsonObject();
-					final List<String> childrenIds = new ArrayList<String>();
-					for (Object o : getOrElse(j.getJsonArray("childrenInfo"), new fr.wseduc.webutils.collections.JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						final JsonArray a = (JsonArray) o;
-						final String childId = a.getString(0);
-						if (childId != null) {
-							childrenIds.add(childId);
-							JsonObject jo = children.getJsonObject(childId);
-							if (jo == null) {
-								jo = new JsonObject()
-										.put("lastName", a.getString(1))
-										.put("firstName", a.getString(2));
-								children.put(childId, jo);
-							}
-						}
-					}
-					j.remove("childrenInfo");
-					final List<String> classesIds = new ArrayList<String>();
-					final List<String> classesNames = new ArrayList<String>() ;
-					for (Object o : getOrElse(j.getJsonArray("classes"), new fr.wseduc.webutils.collections.JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						final JsonArray c = (JsonArray) o;
-						if (c.getString(0) != null) {
-							classesIds.add(c.getString(0));
-							classesNames.add(c.getString(1));
-						}
-					}
-					j.remove("classes");
-					final List<String> structureIds = new ArrayList<String>();
-					final List<String> structureNames = new ArrayList<String>() ;
-					boolean hasApp = false;
-					for (Object o : getOrElse(j.getJsonArray("structures"), new fr.wseduc.webutils.collections.JsonArray())) {
-						if (!(o instanceof JsonArray)) continue;
-						final JsonArray s = (JsonArray) o;
-						if (s.getString(0) != null) {
-							structureIds.add(s.getString(0));
-							structureNames.add(StringUtils.trimToBlank(s.getString(1)));
-							if(getOrElse(s.getBoolean(2), false) && !hasApp)
-								hasApp = true;
-						}
-					}
-					j.remove("structures");
-					j.put("structures", new fr.wseduc.webutils.collections.JsonArray(structureIds));
-					j.put("structureNames", new fr.wseduc.webutils.collections.JsonArray(structureNames));
-					j.put("hasApp", hasApp);
-					j.put("classes", new fr.wseduc.webutils.collections.JsonArray(classesIds));
-					j.put("realClassesNames", new fr.wseduc.webutils.collections.JsonArray(classesNames));
-					j.put("functions", functions);
-					j.put("authorizedActions", actions);
-					j.put("apps", apps);
-					j.put("childrenIds", new fr.wseduc.webutils.collections.JsonArray(childrenIds));
-					j.put("children", children);
-					final JsonObject cache = (results.getJsonArray(4) != null && results.getJsonArray(4).size() > 0 &&
-							results.getJsonArray(4).getJsonObject(0) != null) ? results.getJsonArray(4).getJsonObject(0) : new JsonObject();
-					j.put("cache", cache);
-					j.put("widgets", getOrElse(j3.getJsonArray("widgets"), new fr.wseduc.webutils.collections.JsonArray()));
-					handler.handle(j);
+					final JsonObject groupsInfos = new JsonObject()
+							.put("authorizedActions", actions)
+							.put("apps", apps)
+							.put("widgets", getOrElse((j3 != null ? j3.getJsonArray("widgets") : null),
+									new fr.wseduc.webutils.collections.JsonArray()));
+					bootstrapCache.putGroupsInfos(key, groupsInfos);
+					handler.handle(groupsInfos);
 				} else {
 					handler.handle(null);
 				}
@@ -814,4 +923,109 @@ public class AuthManager extends BusModBase implements Handler<Message<JsonObjec
 		});
 	}
 
+	private JsonObject buildSessionInfos(String userId, JsonObject j, JsonObject groupsInfos,
+			JsonObject structureMapping, JsonObject cache) {
+		j.put("userId", userId);
+		JsonObject functions = new JsonObject();
+		for (Object o : getOrElse(j.getJsonArray("aafFunctions"), new fr.wseduc.webutils.collections.JsonArray())) {
+			if (o == null) continue;
+			String [] sf = o.toString().split("\\$");
+			if (sf.length == 5) {
+				JsonObject jo = functions.getJsonObject(sf[1]);
+				if (jo == null) {
+					jo = new JsonObject().put("code", sf[1])
+							.put("functionName", sf[2])
+							.put("scope", new fr.wseduc.webutils.collections.JsonArray())
+							.put("structureExternalIds", new fr.wseduc.webutils.collections.JsonArray())
+							.put("subjects", new JsonObject());
+					functions.put(sf[1], jo);
+				}
+				JsonObject subject = jo.getJsonObject("subjects").getJsonObject(sf[3]);
+				if (subject == null) {
+					subject = new JsonObject()
+							.put("subjectCode", sf[3])
+							.put("subjectName", sf[4])
+							.put("scope", new fr.wseduc.webutils.collections.JsonArray())
+							.put("structureExternalIds", new fr.wseduc.webutils.collections.JsonArray());
+					jo.getJsonObject("subjects").put(sf[3], subject);
+				}
+				jo.getJsonArray("structureExternalIds").add(sf[0]);
+				subject.getJsonArray("structureExternalIds").add(sf[0]);
+				String sid = structureMapping.getString(sf[0]);
+				if (sid != null) {
+					jo.getJsonArray("scope").add(sid);
+					subject.getJsonArray("scope").add(sid);
+				}
+			}
+		}
+		j.remove("aafFunctions");
+		for (Object o : getOrElse(j.getJsonArray("functions"), new fr.wseduc.webutils.collections.JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			JsonArray a = (JsonArray) o;
+			String code = a.getString(0);
+			if (code != null) {
+				functions.put(code, new JsonObject()
+						.put("code", code)
+						.put("scope", a.getJsonArray(1))
+				);
+			}
+		}
+		final JsonObject children = new JsonObject();
+		final List<String> childrenIds = new ArrayList<String>();
+		for (Object o : getOrElse(j.getJsonArray("childrenInfo"), new fr.wseduc.webutils.collections.JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			final JsonArray a = (JsonArray) o;
+			final String childId = a.getString(0);
+			if (childId != null) {
+				childrenIds.add(childId);
+				JsonObject jo = children.getJsonObject(childId);
+				if (jo == null) {
+					jo = new JsonObject()
+							.put("lastName", a.getString(1))
+							.put("firstName", a.getString(2));
+					children.put(childId, jo);
+				}
+			}
+		}
+		j.remove("childrenInfo");
+		final List<String> classesIds = new ArrayList<String>();
+		final List<String> classesNames = new ArrayList<String>() ;
+		for (Object o : getOrElse(j.getJsonArray("classes"), new fr.wseduc.webutils.collections.JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			final JsonArray c = (JsonArray) o;
+			if (c.getString(0) != null) {
+				classesIds.add(c.getString(0));
+				classesNames.add(c.getString(1));
+			}
+		}
+		j.remove("classes");
+		final List<String> structureIds = new ArrayList<String>();
+		final List<String> structureNames = new ArrayList<String>() ;
+		boolean hasApp = false;
+		for (Object o : getOrElse(j.getJsonArray("structures"), new fr.wseduc.webutils.collections.JsonArray())) {
+			if (!(o instanceof JsonArray)) continue;
+			final JsonArray s = (JsonArray) o;
+			if (s.getString(0) != null) {
+				structureIds.add(s.getString(0));
+				structureNames.add(StringUtils.trimToBlank(s.getString(1)));
+				if(getOrElse(s.getBoolean(2), false) && !hasApp)
+					hasApp = true;
+			}
+		}
+		j.remove("structures");
+		j.put("structures", new fr.wseduc.webutils.collections.JsonArray(structureIds));
+		j.put("structureNames", new fr.wseduc.webutils.collections.JsonArray(structureNames));
+		j.put("hasApp", hasApp);
+		j.put("classes", new fr.wseduc.webutils.collections.JsonArray(classesIds));
+		j.put("realClassesNames", new fr.wseduc.webutils.collections.JsonArray(classesNames));
+		j.put("functions", functions);
+		j.put("authorizedActions", groupsInfos.getJsonArray("authorizedActions"));
+		j.put("apps", groupsInfos.getJsonArray("apps"));
+		j.put("childrenIds", new fr.wseduc.webutils.collections.JsonArray(childrenIds));
+		j.put("children", children);
+		j.put("cache", cache);
+		j.put("widgets", groupsInfos.getJsonArray("widgets"));
+		return j;
+	}
+
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.session;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+import java.util.Map;
+
+public class MapSessionStore implements SessionStore {
+
+	private final Map<String, String> sessions;
+	private final Map<String, List<LoginInfo>> logins;
+
+	public MapSessionStore(Map<String, String> sessions, Map<String, List<LoginInfo>> logins) {
+		this.sessions = sessions;
+		this.logins = logins;
+	}
+
+	@Override
+	public String getSession(String sessionId) {
+		return sessions.get(sessionId);
+	}
+
+	@Override
+	public void putSession(String sessionId, String userId, boolean secureLocation, String session) {
+		sessions.put(sessionId, session);
+	}
+
+	@Override
+	public void updateSession(String sessionId, String session) {
+		sessions.put(sessionId, session);
+	}
+
+	@Override
+	public String removeSession(String sessionId) {
+		return sessions.remove(sessionId);
+	}
+
+	@Override
+	public List<LoginInfo> getLoginInfos(String userId) {
+		return logins.get(userId);
+	}
+
+	@Override
+	public void putLoginInfos(String userId, List<LoginInfo> loginInfos) {
+		logins.put(userId, loginInfos);
+	}
+
+	@Override
+	public void removeLoginInfos(String userId) {
+		logins.remove(userId);
+	}
+
+	@Override
+	public boolean isPersistent() {
+		return false;
+	}
+
+	@Override
+	public void restore(Handler<JsonObject> handler) {
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
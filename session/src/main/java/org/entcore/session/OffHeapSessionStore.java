@@ -0,0 +1,502 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.session;
+
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Session store keeping the encoded sessions outside of the java heap.
+ * Sessions are spread over segments by session id. Each segment is an append-only
+ * buffer (direct, or memory-mapped when a path is configured) compacted when full,
+ * indexed by an open addressing table of record offsets, also allocated outside of the heap.
+ * Record layout : status (byte), flags (byte), key length, userId length, value length (int),
+ * key, userId, value.
+ * The session ids of the users are kept in other segments (key userId, value session ids
+ * separated by commas), which aren't persisted : they are rebuilt from the restored sessions.
+ */
+public class OffHeapSessionStore implements SessionStore {
+
+	private static final Logger log = LoggerFactory.getLogger(OffHeapSessionStore.class);
+	private static final byte END = 0;
+	private static final byte LIVE = 1;
+	private static final byte DELETED = 2;
+	private static final byte SECURE_LOCATION = 1;
+	private static final int HEADER_SIZE = 14;
+	private static final int EMPTY = -1;
+	private static final int REMOVED = -2;
+	private static final int INITIAL_SLOTS = 1024;
+	private static final int MIN_LOGINS_SEGMENT_SIZE = 64 * 1024;
+
+	private final Segment[] segments;
+	private final Segment[] logins;
+	private final boolean persistent;
+
+	public OffHeapSessionStore(int nbSegments, int segmentSize, String path) throws IOException {
+		this.persistent = (path != null && !path.trim().isEmpty());
+		if (persistent) {
+			final File dir = new File(path);
+			if (!dir.exists() && !dir.mkdirs()) {
+				throw new IOException("Unable to create session store directory : " + path);
+			}
+		}
+		this.segments = new Segment[nbSegments];
+		this.logins = new Segment[nbSegments];
+		for (int i = 0; i < nbSegments; i++) {
+			segments[i] = new Segment(segmentSize,
+					persistent ? new File(path, "sessions-" + i + ".seg") : null);
+			logins[i] = new Segment(Math.max(MIN_LOGINS_SEGMENT_SIZE, segmentSize / 8), null);
+		}
+	}
+
+	public static OffHeapSessionStore create(JsonObject config) throws IOException {
+		return new OffHeapSessionStore(config.getInteger("segments", 16),
+				config.getInteger("segment-size", 4 * 1024 * 1024), config.getString("path"));
+	}
+
+	private static Segment segment(Segment[] segments, String key) {
+		return segments[(key.hashCode() & Integer.MAX_VALUE) % segments.length];
+	}
+
+	@Override
+	public String getSession(String sessionId) {
+		if (sessionId == null) {
+			return null;
+		}
+		return segment(segments, sessionId).get(sessionId);
+	}
+
+	@Override
+	public void putSession(String sessionId, String userId, boolean secureLocation, String session) {
+		segment(segments, sessionId).put(sessionId, userId, secureLocation ? SECURE_LOCATION : 0, session);
+	}
+
+	@Override
+	public void updateSession(String sessionId, String session) {
+		segment(segments, sessionId).update(sessionId, session);
+	}
+
+	@Override
+	public String removeSession(String sessionId) {
+		if (sessionId == null) {
+			return null;
+		}
+		return segment(segments, sessionId).remove(sessionId);
+	}
+
+	@Override
+	public List<LoginInfo> getLoginInfos(String userId) {
+		if (userId == null) {
+			return null;
+		}
+		final String sessionIds = segment(logins, userId).get(userId);
+		if (sessionIds == null) {
+			return null;
+		}
+		final List<LoginInfo> loginInfos = new ArrayList<>();
+		for (String sessionId : sessionIds.split(",")) {
+			if (!sessionId.isEmpty()) {
+				loginInfos.add(new LoginInfo(sessionId));
+			}
+		}
+		return loginInfos;
+	}
+
+	@Override
+	public void putLoginInfos(String userId, List<LoginInfo> loginInfos) {
+		if (loginInfos == null || loginInfos.isEmpty()) {
+			removeLoginInfos(userId);
+			return;
+		}
+		final StringBuilder sessionIds = new StringBuilder();
+		for (LoginInfo loginInfo : loginInfos) {
+			if (sessionIds.length() > 0) {
+				sessionIds.append(',');
+			}
+			sessionIds.append(loginInfo.sessionId);
+		}
+		segment(logins, userId).put(userId, null, (byte) 0, sessionIds.toString());
+	}
+
+	@Override
+	public void removeLoginInfos(String userId) {
+		if (userId != null) {
+			segment(logins, userId).remove(userId);
+		}
+	}
+
+	@Override
+	public boolean isPersistent() {
+		return persistent;
+	}
+
+	@Override
+	public void restore(Handler<JsonObject> handler) {
+		for (Segment segment : segments) {
+			segment.restore(handler);
+		}
+	}
+
+	@Override
+	public void close() {
+		for (Segment segment : segments) {
+			segment.close();
+		}
+	}
+
+	private static final class Segment {
+
+		private final RandomAccessFile file;
+		private ByteBuffer buffer;
+		private int position = 0;
+		private int garbage = 0;
+		// offsets of the live records, EMPTY or REMOVED
+		private IntBuffer slots;
+		// slots which aren't EMPTY
+		private int used = 0;
+
+		private Segment(int size, File f) throws IOException {
+			if (f != null) {
+				file = new RandomAccessFile(f, "rw");
+				final int length = (int) file.length();
+				buffer = map(Math.max(size, length));
+				load(length);
+			} else {
+				file = null;
+				buffer = ByteBuffer.allocateDirect(size);
+			}
+			reindex(INITIAL_SLOTS);
+		}
+
+		private MappedByteBuffer map(int size) throws IOException {
+			return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+
+		/**
+		 * Read the records of the file. The lengths of a record are checked against the file length :
+		 * when they are invalid (truncated or corrupted file), the next records can't be located and
+		 * the end of the segment is dropped.
+		 */
+		private void load(int length) {
+			while (position + HEADER_SIZE <= length) {
+				final byte status = buffer.get(position);
+				if (status == END) {
+					break;
+				}
+				final int size = (status == LIVE || status == DELETED) ? checkedRecordSize(position, length) : -1;
+				if (size < 0) {
+					log.warn("Invalid session record at offset " + position + " of " + length +
+							" bytes, the end of the segment is dropped.");
+					break;
+				}
+				if (status == DELETED) {
+					garbage += size;
+				}
+				position += size;
+			}
+			if (position < buffer.capacity()) {
+				buffer.put(position, END);
+			}
+		}
+
+		private int checkedRecordSize(int offset, int length) {
+			final int keyLength = buffer.getInt(offset + 2);
+			final int userIdLength = buffer.getInt(offset + 6);
+			final int valueLength = buffer.getInt(offset + 10);
+			if (keyLength <= 0 || userIdLength < 0 || valueLength < 0) {
+				return -1;
+			}
+			final long size = (long) HEADER_SIZE + keyLength + userIdLength + valueLength;
+			return (offset + size <= length) ? (int) size : -1;
+		}
+
+		synchronized String get(String key) {
+			final int slot = find(key.getBytes(StandardCharsets.UTF_8));
+			if (slot < 0) {
+				return null;
+			}
+			return readValue(slots.get(slot));
+		}
+
+		synchronized void put(String key, String userId, byte flags, String value) {
+			final byte[] k = key.getBytes(StandardCharsets.UTF_8);
+			final byte[] u = (userId != null ? userId : "").getBytes(StandardCharsets.UTF_8);
+			final byte[] v = value.getBytes(StandardCharsets.UTF_8);
+			final int slot = find(k);
+			if (slot >= 0) {
+				delete(slot);
+			}
+			final int size = HEADER_SIZE + k.length + u.length + v.length;
+			ensureCapacity(size);
+			buffer.put(position, LIVE);
+			buffer.put(position + 1, flags);
+			buffer.putInt(position + 2, k.length);
+			buffer.putInt(position + 6, u.length);
+			buffer.putInt(position + 10, v.length);
+			final ByteBuffer b = buffer.duplicate();
+			b.position(position + HEADER_SIZE);
+			b.put(k).put(u).put(v);
+			final int offset = position;
+			position += size;
+			if (position < buffer.capacity()) {
+				buffer.put(position, END);
+			}
+			index(hash(buffer, offset + HEADER_SIZE, k.length), offset);
+		}
+
+		synchronized void update(String key, String value) {
+			final int slot = find(key.getBytes(StandardCharsets.UTF_8));
+			if (slot < 0) {
+				put(key, null, (byte) 0, value);
+			} else {
+				final int offset = slots.get(slot);
+				put(key, readString(offset + HEADER_SIZE + buffer.getInt(offset + 2), buffer.getInt(offset + 6)),
+						buffer.get(offset + 1), value);
+			}
+		}
+
+		synchronized String remove(String key) {
+			final int slot = find(key.getBytes(StandardCharsets.UTF_8));
+			if (slot < 0) {
+				return null;
+			}
+			final String value = readValue(slots.get(slot));
+			delete(slot);
+			return value;
+		}
+
+		synchronized void restore(Handler<JsonObject> handler) {
+			int offset = 0;
+			while (offset < position) {
+				if (buffer.get(offset) == LIVE) {
+					handler.handle(new JsonObject()
+							.put("sessionId", readString(offset + HEADER_SIZE, buffer.getInt(offset + 2)))
+							.put("userId", readString(offset + HEADER_SIZE + buffer.getInt(offset + 2), buffer.getInt(offset + 6)))
+							.put("secureLocation", (buffer.get(offset + 1) & SECURE_LOCATION) != 0));
+				}
+				offset += recordSize(offset);
+			}
+		}
+
+		synchronized void close() {
+			if (file != null) {
+				try {
+					((MappedByteBuffer) buffer).force();
+					file.close();
+				} catch (IOException e) {
+					log.error("Error closing session segment.", e);
+				}
+			}
+		}
+
+		/**
+		 * @return the slot of the record of the key, -1 if the key isn't indexed
+		 */
+		private int find(byte[] key) {
+			final int mask = slots.capacity() - 1;
+			int i = hash(ByteBuffer.wrap(key), 0, key.length) & mask;
+			while (true) {
+				final int offset = slots.get(i);
+				if (offset == EMPTY) {
+					return -1;
+				}
+				if (offset != REMOVED && keyEquals(offset, key)) {
+					return i;
+				}
+				i = (i + 1) & mask;
+			}
+		}
+
+		private void index(int hash, int offset) {
+			if ((used + 1) * 4 > slots.capacity() * 3) {
+				// drops the REMOVED slots and grows the table if needed, the record is already written
+				reindex(slots.capacity());
+				return;
+			}
+			final int mask = slots.capacity() - 1;
+			int i = hash & mask;
+			while (slots.get(i) >= 0) {
+				i = (i + 1) & mask;
+			}
+			if (slots.get(i) == EMPTY) {
+				used++;
+			}
+			slots.put(i, offset);
+		}
+
+		/**
+		 * Rebuild the table from the live records, after a load, a compaction or when it is full.
+		 * When a key has several live records (interrupted write), the last one is kept.
+		 */
+		private void reindex(int capacity) {
+			int live = 0;
+			for (int offset = 0; offset < position; offset += recordSize(offset)) {
+				if (buffer.get(offset) == LIVE) {
+					live++;
+				}
+			}
+			while (live * 2 > capacity) {
+				capacity *= 2;
+			}
+			slots = ByteBuffer.allocateDirect(capacity * 4).asIntBuffer();
+			for (int i = 0; i < capacity; i++) {
+				slots.put(i, EMPTY);
+			}
+			used = 0;
+			for (int offset = 0; offset < position; offset += recordSize(offset)) {
+				if (buffer.get(offset) != LIVE) {
+					continue;
+				}
+				final int keyLength = buffer.getInt(offset + 2);
+				final byte[] key = new byte[keyLength];
+				final ByteBuffer b = buffer.duplicate();
+				b.position(offset + HEADER_SIZE);
+				b.get(key);
+				final int slot = find(key);
+				if (slot >= 0) {
+					delete(slot);
+				}
+				index(hash(buffer, offset + HEADER_SIZE, keyLength), offset);
+			}
+		}
+
+		private boolean keyEquals(int offset, byte[] key) {
+			if (buffer.getInt(offset + 2) != key.length) {
+				return false;
+			}
+			final int start = offset + HEADER_SIZE;
+			for (int i = 0; i < key.length; i++) {
+				if (buffer.get(start + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static int hash(ByteBuffer b, int offset, int length) {
+			int h = 1;
+			for (int i = 0; i < length; i++) {
+				h = 31 * h + b.get(offset + i);
+			}
+			h *= 0x9E3779B9;
+			return h ^ (h >>> 16);
+		}
+
+		private void delete(int slot) {
+			final int offset = slots.get(slot);
+			slots.put(slot, REMOVED);
+			buffer.put(offset, DELETED);
+			garbage += recordSize(offset);
+		}
+
+		private int recordSize(int offset) {
+			return HEADER_SIZE + buffer.getInt(offset + 2) + buffer.getInt(offset + 6) + buffer.getInt(offset + 10);
+		}
+
+		private String readValue(int offset) {
+			return readString(offset + HEADER_SIZE + buffer.getInt(offset + 2) + buffer.getInt(offset + 6),
+					buffer.getInt(offset + 10));
+		}
+
+		private String readString(int offset, int length) {
+			final byte[] bytes = new byte[length];
+			final ByteBuffer b = buffer.duplicate();
+			b.position(offset);
+			b.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		private void ensureCapacity(int size) {
+			if (position + size < buffer.capacity()) {
+				return;
+			}
+			if (garbage > 0) {
+				compact();
+			}
+			if (position + size >= buffer.capacity()) {
+				int capacity = buffer.capacity();
+				while (position + size >= capacity) {
+					capacity *= 2;
+				}
+				grow(capacity);
+			}
+		}
+
+		private void compact() {
+			int read = 0;
+			int write = 0;
+			final ByteBuffer src = buffer.duplicate();
+			final ByteBuffer dest = buffer.duplicate();
+			while (read < position) {
+				final int size = recordSize(read);
+				if (buffer.get(read) == LIVE) {
+					if (read != write) {
+						final byte[] record = new byte[size];
+						src.position(read);
+						src.get(record);
+						dest.position(write);
+						dest.put(record);
+					}
+					write += size;
+				}
+				read += size;
+			}
+			position = write;
+			garbage = 0;
+			if (position < buffer.capacity()) {
+				buffer.put(position, END);
+			}
+			reindex(slots.capacity());
+		}
+
+		private void grow(int capacity) {
+			log.info("Grow session segment to " + capacity + " bytes.");
+			if (file != null) {
+				try {
+					buffer = map(capacity);
+					return;
+				} catch (IOException e) {
+					log.error("Error mapping session segment.", e);
+					throw new IllegalStateException(e);
+				}
+			}
+			final ByteBuffer b = ByteBuffer.allocateDirect(capacity);
+			final ByteBuffer old = buffer.duplicate();
+			old.position(0).limit(position);
+			b.put(old);
+			buffer = b;
+		}
+
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.session;
+
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Cache of the session data shared between users : authorized actions, applications and widgets
+ * by set of groups, and the structures externalId -> id mapping.
+ */
+public class SessionBootstrapCache {
+
+	private static final int DEFAULT_MAX_SIZE = 5000;
+	private static final long DEFAULT_TTL = 10 * 60 * 1000L;
+
+	private final long ttl;
+	private final Map<String, Entry> groupsInfos;
+	private JsonObject structureMapping;
+	private long structureMappingExpire;
+
+	private static final class Entry {
+		private final JsonObject infos;
+		private final long expire;
+
+		private Entry(JsonObject infos, long expire) {
+			this.infos = infos;
+			this.expire = expire;
+		}
+	}
+
+	public SessionBootstrapCache(JsonObject config) {
+		this.ttl = config.getLong("ttl", DEFAULT_TTL);
+		final int maxSize = config.getInteger("max-size", DEFAULT_MAX_SIZE);
+		this.groupsInfos = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	public static String groupsKey(JsonArray groupsIds) {
+		final List<String> ids = new ArrayList<>();
+		for (Object o : groupsIds) {
+			if (o instanceof String) {
+				ids.add((String) o);
+			}
+		}
+		Collections.sort(ids);
+		return String.join(",", ids);
+	}
+
+	/**
+	 * @return a copy of {authorizedActions, apps, widgets} cached for this set of groups or null
+	 */
+	public synchronized JsonObject getGroupsInfos(String key) {
+		final Entry e = groupsInfos.get(key);
+		if (e == null) {
+			return null;
+		}
+		if (e.expire < System.currentTimeMillis()) {
+			groupsInfos.remove(key);
+			return null;
+		}
+		return e.infos.copy();
+	}
+
+	public synchronized void putGroupsInfos(String key, JsonObject infos) {
+		groupsInfos.put(key, new Entry(infos.copy(), System.currentTimeMillis() + ttl));
+	}
+
+	public synchronized void clearGroupsInfos() {
+		groupsInfos.clear();
+	}
+
+	public synchronized JsonObject getStructureMapping() {
+		if (structureMapping != null && structureMappingExpire < System.currentTimeMillis()) {
+			structureMapping = null;
+		}
+		return structureMapping;
+	}
+
+	public synchronized JsonObject setStructureMapping(JsonArray structures) {
+		final JsonObject mapping = new JsonObject();
+		for (Object o : structures) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject s = (JsonObject) o;
+			if (s.getString("externalId") != null) {
+				mapping.put(s.getString("externalId"), s.getString("id"));
+			}
+		}
+		this.structureMapping = mapping;
+		this.structureMappingExpire = System.currentTimeMillis() + ttl;
+		return mapping;
+	}
+
+	public synchronized void clearStructureMapping() {
+		structureMapping = null;
+	}
+
+}
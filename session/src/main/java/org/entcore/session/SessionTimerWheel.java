@@ -0,0 +1,132 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.session;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hashed timer wheel used to expire the sessions. A single periodic timer moves the cursor
+ * every tick and the timeouts of the reached slot are handled in one batch, so the cost of
+ * scheduling stays constant whatever the number of sessions.
+ */
+public class SessionTimerWheel {
+
+	private final List<Set<Timeout>> wheel;
+	private final Map<String, Timeout> timeouts = new HashMap<>();
+	private final long tick;
+	private final Vertx vertx;
+	private final Handler<List<Timeout>> expiredHandler;
+	private int cursor = 0;
+	private long periodicId = -1;
+
+	public static final class Timeout {
+		final String sessionId;
+		final String userId;
+		final boolean secureLocation;
+		private final int slot;
+		private long rounds;
+
+		private Timeout(String sessionId, String userId, boolean secureLocation, int slot, long rounds) {
+			this.sessionId = sessionId;
+			this.userId = userId;
+			this.secureLocation = secureLocation;
+			this.slot = slot;
+			this.rounds = rounds;
+		}
+	}
+
+	public SessionTimerWheel(Vertx vertx, long tick, int size, Handler<List<Timeout>> expiredHandler) {
+		this.vertx = vertx;
+		this.tick = tick;
+		this.expiredHandler = expiredHandler;
+		this.wheel = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			wheel.add(new HashSet<Timeout>());
+		}
+	}
+
+	public void start() {
+		if (periodicId < 0) {
+			periodicId = vertx.setPeriodic(tick, id -> advance());
+		}
+	}
+
+	public void stop() {
+		if (periodicId >= 0) {
+			vertx.cancelTimer(periodicId);
+			periodicId = -1;
+		}
+	}
+
+	public void schedule(String sessionId, String userId, boolean secureLocation, long delay) {
+		cancel(sessionId);
+		final long ticks = Math.max(1, (delay + tick - 1) / tick);
+		final int slot = (int) ((cursor + ticks) % wheel.size());
+		final Timeout timeout = new Timeout(sessionId, userId, secureLocation, slot, (ticks - 1) / wheel.size());
+		wheel.get(slot).add(timeout);
+		timeouts.put(sessionId, timeout);
+	}
+
+	public boolean cancel(String sessionId) {
+		final Timeout timeout = timeouts.remove(sessionId);
+		if (timeout != null) {
+			wheel.get(timeout.slot).remove(timeout);
+			return true;
+		}
+		return false;
+	}
+
+	public int size() {
+		return timeouts.size();
+	}
+
+	private void advance() {
+		cursor = (cursor + 1) % wheel.size();
+		final Set<Timeout> slot = wheel.get(cursor);
+		if (slot.isEmpty()) {
+			return;
+		}
+		final List<Timeout> expired = new ArrayList<>();
+		final Iterator<Timeout> it = slot.iterator();
+		while (it.hasNext()) {
+			final Timeout timeout = it.next();
+			if (timeout.rounds > 0) {
+				timeout.rounds--;
+			} else {
+				it.remove();
+				timeouts.remove(timeout.sessionId);
+				expired.add(timeout);
+			}
+		}
+		if (!expired.isEmpty()) {
+			expiredHandler.handle(expired);
+		}
+	}
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.session;
+
+import io.vertx.core.json.JsonObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Stores sessions in one persistent segment, reopens it and checks what is restored,
+ * including from truncated or corrupted segment files.
+ */
+public class OffHeapSessionStoreTest {
+
+	private static final int SEGMENT_SIZE = 4096;
+
+	private File dir;
+	private OffHeapSessionStore store;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("sessions").toFile();
+		store = open();
+	}
+
+	@After
+	public void tearDown() {
+		store.close();
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void storeAndLoadRoundTrip() throws IOException {
+		store.putSession("s1", "u1", true, "{\"a\":1}");
+		store.putSession("s2", "u2", false, "{\"b\":2}");
+		store.putSession("s3", "u1", false, "{\"c\":3}");
+		store.updateSession("s2", "{\"b\":22}");
+		assertEquals("{\"c\":3}", store.removeSession("s3"));
+		reopen();
+		assertEquals("{\"a\":1}", store.getSession("s1"));
+		assertEquals("{\"b\":22}", store.getSession("s2"));
+		assertNull(store.getSession("s3"));
+		final Map<String, JsonObject> restored = restore();
+		assertEquals(2, restored.size());
+		assertEquals("u1", restored.get("s1").getString("userId"));
+		assertTrue(restored.get("s1").getBoolean("secureLocation"));
+		assertEquals("u2", restored.get("s2").getString("userId"));
+		assertFalse(restored.get("s2").getBoolean("secureLocation"));
+	}
+
+	@Test
+	public void growAndCompactKeepSessions() throws IOException {
+		final int nb = 2000;
+		for (int i = 0; i < nb; i++) {
+			store.putSession("s" + i, "u" + i, false, "{\"i\":" + i + "}");
+		}
+		for (int i = 0; i < nb; i += 2) {
+			store.removeSession("s" + i);
+		}
+		for (int i = 1; i < nb; i += 2) {
+			store.updateSession("s" + i, "{\"j\":" + i + "}");
+		}
+		reopen();
+		assertEquals(nb / 2, restore().size());
+		for (int i = 0; i < nb; i++) {
+			assertEquals(i % 2 == 0 ? null : "{\"j\":" + i + "}", store.getSession("s" + i));
+		}
+	}
+
+	@Test
+	public void truncatedFileKeepsCompleteRecords() throws IOException {
+		store.putSession("s1", "u1", false, "{\"a\":1}");
+		store.putSession("s2", "u2", false, "{\"b\":2}");
+		store.close();
+		final File segment = new File(dir, "sessions-0.seg");
+		try (RandomAccessFile f = new RandomAccessFile(segment, "rw")) {
+			f.setLength(recordSize("s1", "u1", "{\"a\":1}") + recordSize("s2", "u2", "{\"b\":2}") - 3);
+		}
+		store = open();
+		assertEquals("{\"a\":1}", store.getSession("s1"));
+		assertNull(store.getSession("s2"));
+		assertEquals(1, restore().size());
+		store.putSession("s3", "u3", false, "{\"c\":3}");
+		reopen();
+		assertEquals("{\"a\":1}", store.getSession("s1"));
+		assertEquals("{\"c\":3}", store.getSession("s3"));
+		assertEquals(2, restore().size());
+	}
+
+	@Test
+	public void corruptedLengthDropsEndOfSegment() throws IOException {
+		store.putSession("s1", "u1", false, "{\"a\":1}");
+		store.putSession("s2", "u2", false, "{\"b\":2}");
+		store.putSession("s3", "u3", false, "{\"c\":3}");
+		store.close();
+		try (RandomAccessFile f = new RandomAccessFile(new File(dir, "sessions-0.seg"), "rw")) {
+			f.seek(recordSize("s1", "u1", "{\"a\":1}") + 10);
+			f.writeInt(Integer.MAX_VALUE - 10);
+		}
+		store = open();
+		assertEquals("{\"a\":1}", store.getSession("s1"));
+		assertNull(store.getSession("s2"));
+		assertNull(store.getSession("s3"));
+		assertEquals(1, restore().size());
+	}
+
+	@Test
+	public void loginInfos() {
+		assertNull(store.getLoginInfos("u1"));
+		store.putLoginInfos("u1", new ArrayList<>(Arrays.asList(new LoginInfo("s1"), new LoginInfo("s2"))));
+		List<LoginInfo> loginInfos = store.getLoginInfos("u1");
+		assertEquals(2, loginInfos.size());
+		assertEquals("s2", loginInfos.get(1).sessionId);
+		loginInfos.remove(0);
+		store.putLoginInfos("u1", loginInfos);
+		assertEquals(1, store.getLoginInfos("u1").size());
+		store.removeLoginInfos("u1");
+		assertNull(store.getLoginInfos("u1"));
+	}
+
+	private OffHeapSessionStore open() throws IOException {
+		return new OffHeapSessionStore(1, SEGMENT_SIZE, dir.getAbsolutePath());
+	}
+
+	private void reopen() throws IOException {
+		store.close();
+		store = open();
+	}
+
+	private Map<String, JsonObject> restore() {
+		final Map<String, JsonObject> sessions = new HashMap<>();
+		store.restore(s -> sessions.put(s.getString("sessionId"), s));
+		return sessions;
+	}
+
+	private static int recordSize(String sessionId, String userId, String session) {
+		return 14 + sessionId.length() + userId.length() + session.length();
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+ */
+
+package org.entcore.session;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs a wheel of 8 slots of 20ms on one vertx context, a full turn lasting 160ms.
+ */
+public class SessionTimerWheelTest {
+
+	private static final long TICK = 20L;
+	private static final int SIZE = 8;
+
+	private Vertx vertx;
+	private Context context;
+	private SessionTimerWheel wheel;
+	private final Map<String, Long> expired = new ConcurrentHashMap<>();
+	private CountDownLatch latch;
+	private long start;
+
+	@Before
+	public void setUp() {
+		vertx = Vertx.vertx();
+		context = vertx.getOrCreateContext();
+		start = System.currentTimeMillis();
+		wheel = new SessionTimerWheel(vertx, TICK, SIZE, timeouts -> {
+			for (SessionTimerWheel.Timeout timeout : timeouts) {
+				expired.put(timeout.sessionId, System.currentTimeMillis() - start);
+				latch.countDown();
+			}
+		});
+	}
+
+	@After
+	public void tearDown() {
+		vertx.close();
+	}
+
+	@Test
+	public void expiresAfterDelay() throws Exception {
+		latch = new CountDownLatch(2);
+		onContext(() -> {
+			wheel.start();
+			wheel.schedule("short", "u1", false, 50L);
+			wheel.schedule("long", "u2", true, 400L);
+		});
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertTrue(expired.get("short") >= 50L - TICK);
+		assertTrue(expired.get("short") < expired.get("long"));
+		// beyond a full turn, the timeout waits for its remaining rounds
+		assertTrue(expired.get("long") >= 400L - TICK);
+		assertEquals(0, (int) onContext(() -> wheel.size()));
+	}
+
+	@Test
+	public void cancelAndReschedule() throws Exception {
+		latch = new CountDownLatch(1);
+		onContext(() -> {
+			wheel.start();
+			wheel.schedule("cancelled", "u1", false, 40L);
+			wheel.schedule("rescheduled", "u2", false, 40L);
+			wheel.schedule("rescheduled", "u2", false, 200L);
+			assertTrue(wheel.cancel("cancelled"));
+			assertFalse(wheel.cancel("unknown"));
+		});
+		assertEquals(1, (int) onContext(() -> wheel.size()));
+		assertTrue(latch.await(2, TimeUnit.SECONDS));
+		assertFalse(expired.containsKey("cancelled"));
+		assertTrue(expired.get("rescheduled") >= 200L - TICK);
+	}
+
+	@Test
+	public void stoppedWheelDoesNotExpire() throws Exception {
+		latch = new CountDownLatch(1);
+		onContext(() -> {
+			wheel.start();
+			wheel.schedule("s1", "u1", false, 40L);
+			wheel.stop();
+		});
+		assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+		assertEquals(1, (int) onContext(() -> wheel.size()));
+	}
+
+	private <T> T onContext(Supplier<T> action) throws Exception {
+		final CompletableFuture<T> future = new CompletableFuture<>();
+		context.runOnContext(v -> {
+			try {
+				future.complete(action.get());
+			} catch (Throwable e) {
+				future.completeExceptionally(e);
+			}
+		});
+		return future.get(2, TimeUnit.SECONDS);
+	}
+
+	private void onContext(Runnable action) throws Exception {
+		onContext(() -> {
+			action.run();
+			return null;
+		});
+	}
+
+}
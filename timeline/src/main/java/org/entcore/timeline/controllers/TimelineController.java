@@ -41,10 +41,15 @@ import org.entcore.common.http.request.JsonHttpServerRequest;
 import org.entcore.common.notification.TimelineHelper;
 import org.entcore.common.notification.TimelineNotificationsLoader;
 import org.entcore.common.notification.NotificationUtils;
+import org.entcore.common.notification.UnreadCounters;
+import org.entcore.common.notification.UnreadCountersWebSocket;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 import org.entcore.timeline.controllers.helper.NotificationHelper;
 import org.entcore.timeline.events.DefaultTimelineEventStore;
+import org.entcore.timeline.events.InboxTimelineEventStore;
 import org.entcore.timeline.events.TimelineEventStore;
 import org.entcore.timeline.events.TimelineEventStore.AdminAction;
 import org.entcore.timeline.services.TimelineConfigService;
@@ -82,11 +87,26 @@ public class TimelineController extends BaseController {
 	private JsonArray eventTypes; // cache to improve perfs
 	private boolean refreshTypesCache;
 	private NotificationHelper notificationHelper;
+	private UnreadCounters unreadCounters;
+	private boolean inboxStorage;
 
 	public void init(Vertx vertx, JsonObject config, RouteMatcher rm,
 			Map<String, fr.wseduc.webutils.security.SecuredAction> securedActions) {
 		super.init(vertx, config, rm, securedActions);
-		store = new DefaultTimelineEventStore();
+		inboxStorage = "inbox".equals(config.getString("timeline-storage"));
+		if (inboxStorage) {
+			store = new InboxTimelineEventStore();
+		} else {
+			store = new DefaultTimelineEventStore();
+		}
+		unreadCounters = new UnreadCounters(vertx, "timeline.unread.counters",
+				config.getLong("unread-counters-ttl", 300000L), config.getInteger("unread-counters-max-users", 50000),
+				(user, handler) -> store.countUnread(user, handler));
+		final Integer unreadWsPort = config.getInteger("unread-ws-port");
+		if (unreadWsPort != null) {
+			vertx.createHttpServer().websocketHandler(new UnreadCountersWebSocket(vertx, unreadCounters))
+					.listen(unreadWsPort);
+		}
 		timelineHelper = new TimelineHelper(vertx, eb, config);
 		antiFlood = new TTLSet<>(config.getLong("antiFloodDelay", 3000l),
 				vertx, config.getLong("antiFloodClear", 3600 * 1000l));
@@ -169,15 +189,20 @@ public class TimelineController extends BaseController {
 							}
 
 							String page = request.params().get("page");
+							String after = request.params().get(Cursor.PARAM);
 							List<String> types = request.params().getAll("type");
 							int offset = 0;
 							try {
 								offset = 25 * Integer.parseInt(page);
 							} catch (NumberFormatException e) {}
 
-							store.get(user, types, offset, 25, notifs.right().getValue(), mine, version, new Handler<JsonObject>() {
+							final Handler<JsonObject> handler = new Handler<JsonObject>() {
 								public void handle(final JsonObject res) {
 									if (res != null && "ok".equals(res.getString("status"))) {
+										if (inboxStorage && !mine && hasUnread(res.getJsonArray("results"))) {
+											// the inbox marks the returned notifications as read
+											unreadCounters.invalidate(user.getUserId());
+										}
 										if ("2.0".equals(version)) {
 											renderJson(request, res);
 											return;
@@ -230,7 +255,14 @@ public class TimelineController extends BaseController {
 										renderError(request, res);
 									}
 								}
-							});
+							};
+							if (after != null && !after.trim().isEmpty()) {
+								store.get(user, types, after, 25, notifs.right().getValue(), mine, version,
+										Deadline.of(request), handler);
+							} else {
+								store.get(user, types, offset, 25, notifs.right().getValue(), mine, version,
+										Deadline.of(request), handler);
+							}
 						}
 					});
 
@@ -241,6 +273,54 @@ public class TimelineController extends BaseController {
 		});
 	}
 
+	@Get("/unread")
+	@SecuredAction(value = "timeline.events", type = ActionType.AUTHENTICATED)
+	public void unreadCount(final HttpServerRequest request) {
+		UserUtils.getUserInfos(eb, request, new Handler<UserInfos>() {
+			@Override
+			public void handle(final UserInfos user) {
+				if (user != null) {
+					unreadCounters.get(user, defaultResponseHandler(request));
+				} else {
+					unauthorized(request);
+				}
+			}
+		});
+	}
+
+	private static boolean hasUnread(JsonArray results) {
+		if (results == null) {
+			return false;
+		}
+		for (Object o : results) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonArray recipients = ((JsonObject) o).getJsonArray("recipients");
+			if (recipients != null && recipients.size() > 0 && recipients.getJsonObject(0).getInteger("unread", 0) == 1) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Count a new notification in the unread counters of its recipients, unless it is published later.
+	 */
+	private void countNewEvent(JsonObject event) {
+		final JsonObject date = event.getJsonObject("date");
+		if (date != null && date.getLong("$date", 0L) > System.currentTimeMillis()) {
+			return;
+		}
+		final List<String> userIds = new ArrayList<>();
+		for (Object o : event.getJsonArray("recipients", new fr.wseduc.webutils.collections.JsonArray())) {
+			if (!(o instanceof JsonObject)) continue;
+			final JsonObject recipient = (JsonObject) o;
+			if (recipient.getString("userId") != null && recipient.getInteger("unread", 1) == 1) {
+				userIds.add(recipient.getString("userId"));
+			}
+		}
+		unreadCounters.increment(userIds, "count");
+	}
+
 	@Get("/types")
 	@SecuredAction(value = "timeline.auth", type = ActionType.AUTHENTICATED)
 	public void listTypes(final HttpServerRequest request) {
@@ -269,6 +349,7 @@ public class TimelineController extends BaseController {
 							@Override
 							public void handle(JsonObject res) {
 								if ("ok".equals(res.getString("status"))) {
+									countNewEvent(json);
 									created(request);
 								} else {
 									badRequest(request,
@@ -373,6 +454,7 @@ public class TimelineController extends BaseController {
 					unauthorized(request);
 					return;
 				}
+				unreadCounters.invalidate(user.getUserId());
 				store.delete(id, user.getUserId(), defaultResponseHandler(request));
 			}
 		});
@@ -388,6 +470,7 @@ public class TimelineController extends BaseController {
 					unauthorized(request);
 					return;
 				}
+				unreadCounters.invalidate(user.getUserId());
 				store.discard(id, user.getUserId(), defaultResponseHandler(request));
 			}
 		});
@@ -709,6 +792,9 @@ public class TimelineController extends BaseController {
 			if (sender == null || sender.startsWith("no-reply") || json.getBoolean("disableAntiFlood", false) || antiFlood.add(sender)) {
 				store.add(json, new Handler<JsonObject>() {
 					public void handle(JsonObject result) {
+						if ("ok".equals(result.getString("status"))) {
+							countNewEvent(json);
+						}
 						notificationHelper.sendImmediateNotifications(new JsonHttpServerRequest(json.getJsonObject("request")), json);
 						handler.handle(result);
 					}
@@ -725,8 +811,13 @@ public class TimelineController extends BaseController {
 			UserInfos u = new UserInfos();
 			u.setUserId(json.getString("recipient"));
 			u.setExternalId(json.getString("externalId"));
-			store.get(u, null, json.getInteger("offset", 0),
-					json.getInteger("limit", 25), null, false, "", handler);
+			if (json.getString(Cursor.PARAM) != null) {
+				store.get(u, null, json.getString(Cursor.PARAM),
+						json.getInteger("limit", 25), null, false, "", null, handler);
+			} else {
+				store.get(u, null, json.getInteger("offset", 0),
+						json.getInteger("limit", 25), null, false, "", null, handler);
+			}
 			break;
 		case "delete":
 			store.delete(json.getString("resource"), handler);
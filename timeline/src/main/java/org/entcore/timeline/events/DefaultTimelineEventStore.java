@@ -24,6 +24,8 @@ import fr.wseduc.webutils.Either;
 
 import org.entcore.common.mongodb.MongoDbResult;
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
@@ -38,24 +40,31 @@ import java.util.Locale;
 
 public class DefaultTimelineEventStore implements TimelineEventStore {
 
-	private static final String TIMELINE_COLLECTION = "timeline";
+	protected static final String TIMELINE_COLLECTION = "timeline";
 
-	private MongoDb mongo = MongoDb.getInstance();
+	protected MongoDb mongo = MongoDb.getInstance();
 
 	private final DateFormat mongoFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mmX", Locale.getDefault());
 
 	@Override
 	public void add(JsonObject event, final Handler<JsonObject> result) {
+		JsonObject doc = prepare(event);
+		if (doc != null) {
+			mongo.save(TIMELINE_COLLECTION, doc, resultHandler(result));
+		} else {
+			result.handle(invalidArguments());
+		}
+	}
+
+	protected JsonObject prepare(JsonObject event) {
 		JsonObject doc = validAndGet(event);
 		if (doc != null) {
 			if (!doc.containsKey("date")) {
 				doc.put("date", MongoDb.now());
 			}
 			doc.put("created", doc.getJsonObject("date"));
-			mongo.save(TIMELINE_COLLECTION, doc, resultHandler(result));
-		} else {
-			result.handle(invalidArguments());
 		}
+		return doc;
 	}
 
 	@Override
@@ -71,7 +80,19 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 
 	@Override
 	public void get(final UserInfos user, List<String> types, int offset, int limit, JsonObject restrictionFilter,
-			boolean mine, String version, final Handler<JsonObject> result) {
+			boolean mine, String version, Deadline deadline, final Handler<JsonObject> result) {
+		get(user, types, offset, null, limit, restrictionFilter, mine, version, deadline, result);
+	}
+
+	@Override
+	public void get(final UserInfos user, List<String> types, String after, int limit, JsonObject restrictionFilter,
+			boolean mine, String version, Deadline deadline, final Handler<JsonObject> result) {
+		get(user, types, 0, after, limit, restrictionFilter, mine, version, deadline, result);
+	}
+
+	private void get(final UserInfos user, List<String> types, int offset, String after, final int limit,
+			JsonObject restrictionFilter, boolean mine, String version, Deadline deadline,
+			final Handler<JsonObject> result) {
 		final String recipient = user.getUserId();
 		final String externalId = user.getExternalId();
 		if (recipient != null && !recipient.trim().isEmpty()) {
@@ -108,8 +129,13 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 					query.put("$nor", nor);
 				}
 			}
-			JsonObject sort = new JsonObject().put("created", -1);
+			if (after != null && !addAfter(query, after)) {
+				result.handle(invalidArguments());
+				return;
+			}
+			JsonObject sort = new JsonObject().put("created", -1).put("_id", -1);
 			JsonObject keys = new JsonObject()
+				.put("created", 1)
 				.put("message", 1)
 				.put("params", 1)
 				.put("date", 1)
@@ -134,17 +160,76 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 			}
 
 			mongo.find(TIMELINE_COLLECTION, query, sort, keys,
-					offset, limit, 100, new Handler<Message<JsonObject>>() {
+					offset, limit, 100, Deadline.wrap(deadline, "mongodb", new Handler<Message<JsonObject>>() {
 				@Override
 				public void handle(Message<JsonObject> message) {
+					addNext(message.body(), limit);
 					result.handle(message.body());
 				}
-			});
+			}));
 		} else {
 			result.handle(invalidArguments());
 		}
 	}
 
+	@Override
+	public void countUnread(UserInfos user, Handler<Either<String, JsonObject>> result) {
+		final JsonObject query = new JsonObject()
+				.put("recipients", new JsonObject().put("$elemMatch", new JsonObject()
+						.put("userId", user.getUserId()).put("unread", 1)))
+				.put("deleted", new JsonObject().put("$exists", false))
+				.put("date", new JsonObject().put("$lt", MongoDb.now()));
+		mongo.count(TIMELINE_COLLECTION, query, MongoDbResult.validActionResultHandler(result));
+	}
+
+	/**
+	 * Add the keyset condition of a cursor (created and _id of the last notification of the previous page).
+	 * @return false if the cursor is invalid
+	 */
+	protected static boolean addAfter(JsonObject query, String after) {
+		final Cursor cursor = Cursor.parse(after);
+		final Long date = (cursor != null) ? cursor.getDateAsLong() : null;
+		if (date == null) {
+			return false;
+		}
+		final JsonObject created = new JsonObject().put("$date", date);
+		final JsonArray keyset = new fr.wseduc.webutils.collections.JsonArray()
+				.add(new JsonObject().put("created", new JsonObject().put("$lt", created)))
+				.add(new JsonObject().put("created", created)
+						.put("_id", new JsonObject().put("$lt", cursor.getId())));
+		if (query.containsKey("$or")) {
+			query.put("$and", new fr.wseduc.webutils.collections.JsonArray()
+					.add(new JsonObject().put("$or", query.remove("$or")))
+					.add(new JsonObject().put("$or", keyset)));
+		} else {
+			query.put("$or", keyset);
+		}
+		return true;
+	}
+
+	/**
+	 * Add the cursor of the next page to a find result when the page is full.
+	 */
+	protected static void addNext(JsonObject res, int limit) {
+		final JsonArray results = res.getJsonArray("results");
+		if (results == null || results.size() == 0 || results.size() < limit) {
+			return;
+		}
+		final String next = cursor(results.getJsonObject(results.size() - 1));
+		if (next != null) {
+			res.put(Cursor.NEXT, next);
+		}
+	}
+
+	protected static String cursor(JsonObject row) {
+		final Object created = row.getValue("created");
+		final String id = row.getString("_id");
+		if (created instanceof JsonObject && ((JsonObject) created).getValue("$date") instanceof Number && id != null) {
+			return Cursor.of(((JsonObject) created).getLong("$date"), id);
+		}
+		return null;
+	}
+
 	@Override
 	public void deleteSubResource(String resource, Handler<JsonObject> result) {
 		if (resource != null && !resource.trim().isEmpty()) {
@@ -170,7 +255,7 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		});
 	}
 
-	private JsonObject validAndGet(JsonObject json) {
+	protected JsonObject validAndGet(JsonObject json) {
 		if (json != null) {
 			JsonObject e = json.copy();
 			for (String attr: json.fieldNames()) {
@@ -185,13 +270,13 @@ public class DefaultTimelineEventStore implements TimelineEventStore {
 		return null;
 	}
 
-	private JsonObject invalidArguments() {
+	protected JsonObject invalidArguments() {
 		return new JsonObject().put("status", "error")
 				.put("message", "Invalid arguments.");
 	}
 
 
-	private Handler<Message<JsonObject>> resultHandler(final Handler<JsonObject> result) {
+	protected Handler<Message<JsonObject>> resultHandler(final Handler<JsonObject> result) {
 		return new Handler<Message<JsonObject>>() {
 
 			@Override
@@ -0,0 +1,405 @@
+/*
+ * Copyright © "Open Digital Education", 2018
+ *
+ * This program is published by "Open Digital Education".
+ * You must indicate the name of the software and the company in any production /contribution
+ * using the software and indicate on the home page of the software industry in question,
+ * "powered by Open Digital Education" with a reference to the website: https://opendigitaleducation.com/.
+ *
+ * This program is free software, licensed under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation, version 3 of the License.
+ *
+ * You can redistribute this application and/or modify it since you respect the terms of the GNU Affero General Public License.
+ * If you modify the source code and then use this modified source code in your creation, you must make available the source code of your modifications.
+ *
+ * You should have received a copy of the GNU Affero General Public License along with the software.
+ * If not, please see : <http://www.gnu.org/licenses/>. Full compliance requires reading the terms of this license and following its directives.
+
+ */
+
+package org.entcore.timeline.events;
+
+import fr.wseduc.mongodb.MongoDb;
+import fr.wseduc.webutils.Either;
+import io.vertx.core.Handler;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.logging.Logger;
+import io.vertx.core.logging.LoggerFactory;
+import org.entcore.common.mongodb.MongoDbResult;
+import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Timeline storage with a per user inbox.
+ * The notification body is stored once in the timeline collection (with its recipients, still used by
+ * the mailer and the moderation), and each recipient gets a small entry in the timeline_inbox collection
+ * referencing it. Listing, paging and unread counters only read the inbox entries of the user and the
+ * bodies of the page, so their cost doesn't depend on the number of recipients of the notifications.
+ */
+public class InboxTimelineEventStore extends DefaultTimelineEventStore {
+
+	private static final Logger log = LoggerFactory.getLogger(InboxTimelineEventStore.class);
+	private static final String INBOX_COLLECTION = "timeline_inbox";
+	private static final int DELIVERY_BATCH_SIZE = 1000;
+	private static final List<String> INBOX_FIELDS = Arrays.asList("type", "event-type", "resource",
+			"sub-resource", "sender", "date", "created");
+
+	@Override
+	public void add(JsonObject event, final Handler<JsonObject> result) {
+		final JsonObject doc = prepare(event);
+		if (doc == null) {
+			result.handle(invalidArguments());
+			return;
+		}
+		mongo.save(TIMELINE_COLLECTION, doc, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(final Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					result.handle(message.body());
+					return;
+				}
+				deliver(message.body().getString("_id"), doc, 0, new Handler<JsonObject>() {
+					@Override
+					public void handle(JsonObject error) {
+						result.handle(error != null ? error : message.body());
+					}
+				});
+			}
+		});
+	}
+
+	/**
+	 * Insert the inbox entries of a notification by batches of DELIVERY_BATCH_SIZE recipients.
+	 * @param handler called with null when all the entries are inserted, with the error otherwise
+	 */
+	private void deliver(final String eventId, final JsonObject doc, final int from, final Handler<JsonObject> handler) {
+		final JsonArray recipients = doc.getJsonArray("recipients", new fr.wseduc.webutils.collections.JsonArray());
+		if (eventId == null || from >= recipients.size()) {
+			handler.handle(null);
+			return;
+		}
+		final int to = Math.min(from + DELIVERY_BATCH_SIZE, recipients.size());
+		final JsonArray operations = new fr.wseduc.webutils.collections.JsonArray();
+		for (int i = from; i < to; i++) {
+			final JsonObject recipient = recipients.getJsonObject(i);
+			if (recipient == null || recipient.getString("userId") == null) {
+				continue;
+			}
+			final JsonObject entry = new JsonObject()
+					.put("_id", UUID.randomUUID().toString())
+					.put("eventId", eventId)
+					.put("userId", recipient.getString("userId"))
+					.put("unread", recipient.getInteger("unread", 1));
+			for (String field : INBOX_FIELDS) {
+				if (doc.getValue(field) != null) {
+					entry.put(field, doc.getValue(field));
+				}
+			}
+			if (doc.containsKey("preview")) {
+				entry.put("preview", true);
+			}
+			operations.add(new JsonObject().put("operation", "insert").put("document", entry));
+		}
+		if (operations.size() == 0) {
+			deliver(eventId, doc, to, handler);
+			return;
+		}
+		mongo.bulk(INBOX_COLLECTION, operations, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if ("ok".equals(message.body().getString("status"))) {
+					deliver(eventId, doc, to, handler);
+				} else {
+					log.error("Error delivering timeline notification " + eventId + " : " +
+							message.body().getString("message"));
+					handler.handle(message.body());
+				}
+			}
+		});
+	}
+
+	@Override
+	public void get(UserInfos user, List<String> types, int offset, int limit, JsonObject restrictionFilter,
+			boolean mine, String version, Deadline deadline, Handler<JsonObject> result) {
+		if (mine) {
+			super.get(user, types, offset, limit, restrictionFilter, true, version, deadline, result);
+		} else {
+			getInbox(user, types, offset, null, limit, restrictionFilter, version, deadline, result);
+		}
+	}
+
+	@Override
+	public void get(UserInfos user, List<String> types, String after, int limit, JsonObject restrictionFilter,
+			boolean mine, String version, Deadline deadline, Handler<JsonObject> result) {
+		if (mine) {
+			super.get(user, types, after, limit, restrictionFilter, true, version, deadline, result);
+		} else {
+			getInbox(user, types, 0, after, limit, restrictionFilter, version, deadline, result);
+		}
+	}
+
+	private void getInbox(final UserInfos user, List<String> types, int offset, String after, final int limit,
+			JsonObject restrictionFilter, final String version, final Deadline deadline,
+			final Handler<JsonObject> result) {
+		final JsonObject query = recipientQuery(user);
+		if (query == null || (after != null && !addAfter(query, after))) {
+			result.handle(invalidArguments());
+			return;
+		}
+		query.put("date", new JsonObject().put("$lt", MongoDb.now()));
+		if (types != null && !types.isEmpty()) {
+			if (types.size() == 1) {
+				query.put("type", types.get(0));
+			} else {
+				query.put("type", new JsonObject().put("$in", new fr.wseduc.webutils.collections.JsonArray(types)));
+			}
+		}
+		if (restrictionFilter != null && restrictionFilter.size() > 0) {
+			final JsonArray nor = new fr.wseduc.webutils.collections.JsonArray();
+			for (String type : restrictionFilter.fieldNames()) {
+				for (Object eventType : restrictionFilter.getJsonArray(type, new fr.wseduc.webutils.collections.JsonArray())) {
+					nor.add(new JsonObject()
+							.put("type", type)
+							.put("event-type", eventType.toString()));
+				}
+			}
+			if (nor.size() > 0) {
+				query.put("$nor", nor);
+			}
+		}
+		if ("2.0".equals(version)) {
+			query.put("preview", true);
+		}
+		final JsonObject sort = new JsonObject().put("created", -1).put("_id", -1);
+		final JsonObject keys = new JsonObject()
+				.put("eventId", 1)
+				.put("userId", 1)
+				.put("unread", 1)
+				.put("created", 1);
+		mongo.find(INBOX_COLLECTION, query, sort, keys, offset, limit, 100,
+				Deadline.wrap(deadline, "mongodb", new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					result.handle(message.body());
+					return;
+				}
+				final JsonArray entries = message.body().getJsonArray("results", new fr.wseduc.webutils.collections.JsonArray());
+				loadEvents(user, entries, limit, version, deadline, result);
+			}
+		}));
+	}
+
+	private void loadEvents(final UserInfos user, final JsonArray entries, final int limit, String version,
+			Deadline deadline, final Handler<JsonObject> result) {
+		if (entries.size() == 0) {
+			result.handle(new JsonObject().put("status", "ok")
+					.put("results", new fr.wseduc.webutils.collections.JsonArray()).put("number", 0));
+			return;
+		}
+		final JsonArray eventIds = new fr.wseduc.webutils.collections.JsonArray();
+		for (Object o : entries) {
+			eventIds.add(((JsonObject) o).getString("eventId"));
+		}
+		final JsonObject query = new JsonObject()
+				.put("_id", new JsonObject().put("$in", eventIds))
+				.put("deleted", new JsonObject().put("$exists", false))
+				.put("reportAction.action", new JsonObject().put("$ne", "DELETE"));
+		final JsonObject keys = new JsonObject()
+				.put("created", 1)
+				.put("message", 1)
+				.put("params", 1)
+				.put("date", 1)
+				.put("sender", 1)
+				.put("comments", 1)
+				.put("type", 1)
+				.put("event-type", 1)
+				.put("resource", 1)
+				.put("sub-resource", 1)
+				.put("add-comment", 1)
+				.put("reporters", new JsonObject()
+						.put("$elemMatch", new JsonObject()
+								.put("userId", user.getUserId())));
+		if ("2.0".equals(version)) {
+			keys.put("preview", 1);
+		}
+		mongo.find(TIMELINE_COLLECTION, query, null, keys, Deadline.wrap(deadline, "mongodb",
+				new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					result.handle(message.body());
+					return;
+				}
+				final Map<String, JsonObject> events = new HashMap<>();
+				for (Object o : message.body().getJsonArray("results", new fr.wseduc.webutils.collections.JsonArray())) {
+					final JsonObject event = (JsonObject) o;
+					events.put(event.getString("_id"), event);
+				}
+				final JsonArray results = new fr.wseduc.webutils.collections.JsonArray();
+				final JsonArray unread = new fr.wseduc.webutils.collections.JsonArray();
+				for (Object o : entries) {
+					final JsonObject entry = (JsonObject) o;
+					final JsonObject event = events.get(entry.getString("eventId"));
+					if (event == null) {
+						continue;
+					}
+					event.put("recipients", new fr.wseduc.webutils.collections.JsonArray().add(new JsonObject()
+							.put("userId", entry.getString("userId"))
+							.put("unread", entry.getInteger("unread", 0))));
+					results.add(event);
+					if (entry.getInteger("unread", 0) == 1) {
+						unread.add(entry.getString("_id"));
+					}
+				}
+				final JsonObject res = new JsonObject().put("status", "ok")
+						.put("results", results).put("number", results.size());
+				if (entries.size() >= limit) {
+					final String next = cursor(entries.getJsonObject(entries.size() - 1));
+					if (next != null) {
+						res.put(Cursor.NEXT, next);
+					}
+				}
+				result.handle(res);
+				markAsRead(unread);
+			}
+		}));
+	}
+
+	private void markAsRead(JsonArray entryIds) {
+		if (entryIds.size() == 0) {
+			return;
+		}
+		mongo.update(INBOX_COLLECTION, new JsonObject().put("_id", new JsonObject().put("$in", entryIds)),
+				new JsonObject().put("$set", new JsonObject().put("unread", 0)), false, true);
+	}
+
+	@Override
+	public void countUnread(UserInfos user, Handler<Either<String, JsonObject>> result) {
+		final JsonObject query = recipientQuery(user);
+		if (query == null) {
+			result.handle(new Either.Left<String, JsonObject>("invalid.user"));
+			return;
+		}
+		query.put("unread", 1).put("date", new JsonObject().put("$lt", MongoDb.now()));
+		mongo.count(INBOX_COLLECTION, query, MongoDbResult.validActionResultHandler(result));
+	}
+
+	private JsonObject recipientQuery(UserInfos user) {
+		final String recipient = user.getUserId();
+		final String externalId = user.getExternalId();
+		if (recipient == null || recipient.trim().isEmpty()) {
+			return null;
+		}
+		if (externalId == null || externalId.trim().isEmpty()) {
+			return new JsonObject().put("userId", recipient);
+		}
+		return new JsonObject().put("userId", new JsonObject()
+				.put("$in", new fr.wseduc.webutils.collections.JsonArray().add(recipient).add(externalId)));
+	}
+
+	@Override
+	public void delete(final String resource, final Handler<JsonObject> result) {
+		super.delete(resource, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject res) {
+				if ("ok".equals(res.getString("status"))) {
+					deleteEntries(new JsonObject().put("resource", resource));
+				}
+				result.handle(res);
+			}
+		});
+	}
+
+	@Override
+	public void deleteSubResource(final String resource, final Handler<JsonObject> result) {
+		super.deleteSubResource(resource, new Handler<JsonObject>() {
+			@Override
+			public void handle(JsonObject res) {
+				if ("ok".equals(res.getString("status"))) {
+					deleteEntries(new JsonObject().put("sub-resource", resource));
+				}
+				result.handle(res);
+			}
+		});
+	}
+
+	@Override
+	public void delete(final String id, String sender, final Handler<Either<String, JsonObject>> result) {
+		super.delete(id, sender, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> res) {
+				if (res.isRight() && res.right().getValue().getInteger("number", 0) > 0) {
+					deleteEntries(new JsonObject().put("eventId", id));
+				}
+				result.handle(res);
+			}
+		});
+	}
+
+	@Override
+	public void discard(final String id, final String recipient, final Handler<Either<String, JsonObject>> result) {
+		super.discard(id, recipient, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> res) {
+				if (res.isRight()) {
+					deleteEntries(new JsonObject().put("eventId", id).put("userId", recipient));
+				}
+				result.handle(res);
+			}
+		});
+	}
+
+	@Override
+	public void performAdminAction(final String id, String structureId, UserInfos user, final AdminAction action,
+			final Handler<Either<String, JsonObject>> result) {
+		super.performAdminAction(id, structureId, user, action, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> res) {
+				if (action == AdminAction.DELETE && res.isRight() &&
+						res.right().getValue().getInteger("number", 0) > 0) {
+					deleteEntries(new JsonObject().put("eventId", id));
+				}
+				result.handle(res);
+			}
+		});
+	}
+
+	@Override
+	public void deleteReportNotification(final String resourceId, final Handler<Either<String, JsonObject>> result) {
+		super.deleteReportNotification(resourceId, new Handler<Either<String, JsonObject>>() {
+			@Override
+			public void handle(Either<String, JsonObject> res) {
+				if (res.isRight()) {
+					deleteEntries(new JsonObject()
+							.put("type", "TIMELINE")
+							.put("event-type", "NOTIFY-REPORT")
+							.put("resource", resourceId));
+				}
+				result.handle(res);
+			}
+		});
+	}
+
+	private void deleteEntries(final JsonObject matcher) {
+		mongo.delete(INBOX_COLLECTION, matcher, new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> message) {
+				if (!"ok".equals(message.body().getString("status"))) {
+					log.error("Error deleting timeline inbox entries " + matcher.encode() + " : " +
+							message.body().getString("message"));
+				}
+			}
+		});
+	}
+
+}
@@ -23,6 +23,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import org.entcore.common.user.UserInfos;
+import org.entcore.common.utils.Deadline;
 import io.vertx.core.Handler;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -45,8 +46,16 @@ public interface TimelineEventStore {
 
 	void delete(String resource, Handler<JsonObject> result);
 
+	/**
+	 * @param deadline deadline of the request, the listing is abandoned when it passes (null means no deadline)
+	 */
 	void get(UserInfos recipient, List<String> types, int offset, int limit,
-			JsonObject restrictionFilter, boolean mine, String version, Handler<JsonObject> result);
+			JsonObject restrictionFilter, boolean mine, String version, Deadline deadline, Handler<JsonObject> result);
+
+	void get(UserInfos recipient, List<String> types, String after, int limit,
+			JsonObject restrictionFilter, boolean mine, String version, Deadline deadline, Handler<JsonObject> result);
+
+	void countUnread(UserInfos recipient, Handler<Either<String, JsonObject>> result);
 
 	void deleteSubResource(String resource, Handler<JsonObject> result);
 
@@ -31,8 +31,6 @@ import io.vertx.core.AsyncResult;
 import io.vertx.core.shareddata.LocalMap;
 import org.entcore.common.email.EmailFactory;
 import org.entcore.common.http.request.JsonHttpServerRequest;
-import org.entcore.common.neo4j.Neo4j;
-import org.entcore.common.neo4j.Neo4jResult;
 import org.entcore.common.notification.NotificationUtils;
 import org.entcore.common.notification.TimelineNotificationsLoader;
 import org.entcore.timeline.controllers.TimelineLambda;
@@ -60,22 +58,26 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 
 	private static final Logger log = LoggerFactory.getLogger(DefaultTimelineMailerService.class);
 	private static final String USERBOOK_ADDRESS = "userbook.preferences";
+	private static final String DIGEST_COLLECTION_PREFIX = "timeline_digest_";
 	private final EventBus eb;
 	private Map<String, String> registeredNotifications;
 	private TimelineConfigService configService;
 	private LocalMap<String, String> eventsI18n;
 	private HashMap<String, JsonObject> lazyEventsI18n;
 	private final EmailSender emailSender;
-	private final int USERS_LIMIT;
+	private final int DIGEST_BATCH_SIZE;
+	private final int MAIL_CONCURRENCY;
+	private final int DIGEST_MAX_NOTIFICATIONS;
 	private final MongoDb mongo = MongoDb.getInstance();
-	private final Neo4j neo4j = Neo4j.getInstance();
 
 	public DefaultTimelineMailerService(Vertx vertx, JsonObject config) {
 		super(vertx, config);
 		eb = Server.getEventBus(vertx);
 		EmailFactory emailFactory = new EmailFactory(this.vertx, config);
 		emailSender = emailFactory.getSender();
-		USERS_LIMIT = config.getInteger("users-loop-limit", 25);
+		DIGEST_BATCH_SIZE = config.getInteger("digest-batch-size", 500);
+		MAIL_CONCURRENCY = config.getInteger("mail-concurrency", 10);
+		DIGEST_MAX_NOTIFICATIONS = config.getInteger("digest-max-notifications", 200);
 	}
 
 	/* Override i18n to use additional timeline translations and nested templates */
@@ -251,10 +253,6 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 
 	@Override
 	public void sendDailyMails(int dayDelta, final Handler<Either<String, JsonObject>> handler){
-
-		final HttpServerRequest request = new JsonHttpServerRequest(new JsonObject());
-		final AtomicInteger userPagination = new AtomicInteger(0);
-		final AtomicInteger endPage = new AtomicInteger(0);
 		final Calendar dayDate = Calendar.getInstance();
 		dayDate.add(Calendar.DAY_OF_MONTH, dayDelta);
 		dayDate.set(Calendar.HOUR_OF_DAY, 0);
@@ -262,174 +260,134 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		dayDate.set(Calendar.SECOND, 0);
 		dayDate.set(Calendar.MILLISECOND, 0);
 
-		final JsonObject results = new JsonObject()
+		sendDigestMails(TimelineNotificationsLoader.Frequencies.DAILY, dayDate.getTime(), handler);
+	}
+
+	public void sendWeeklyMails(int dayDelta, final Handler<Either<String, JsonObject>> handler) {
+		final Calendar weekDate = Calendar.getInstance();
+		weekDate.add(Calendar.DAY_OF_MONTH, dayDelta - 6);
+		weekDate.set(Calendar.HOUR_OF_DAY, 0);
+		weekDate.set(Calendar.MINUTE, 0);
+		weekDate.set(Calendar.SECOND, 0);
+		weekDate.set(Calendar.MILLISECOND, 0);
+
+		sendDigestMails(TimelineNotificationsLoader.Frequencies.WEEKLY, weekDate.getTime(), handler);
+	}
+
+	/**
+	 * State of a digest run, shared by the batches : results, notifications defaults,
+	 * and the requests & subjects computed once per (domain, language).
+	 */
+	private static class DigestRun {
+		private final TimelineNotificationsLoader.Frequencies frequency;
+		private final String logPrefix;
+		private final String collection;
+		private final JsonObject results = new JsonObject()
 				.put("mails.sent", 0)
 				.put("users.ko", 0);
-		final JsonObject notificationsDefaults = new JsonObject();
-		final List<String> notifiedUsers = new ArrayList<>();
-
-		final Handler<Boolean> userContinuationHandler = new Handler<Boolean>() {
-
-			private final Handler<Boolean> continuation = this;
-			private final Handler<JsonArray> usersHandler = new Handler<JsonArray>() {
-				public void handle(final JsonArray users) {
-					final int nbUsers = users.size();
-					if(nbUsers == 0){
-						log.info("[DailyMails] Page0 : " + userPagination.get() + "/" + endPage.get());
-						continuation.handle(userPagination.get() != endPage.get());
-						return;
-					}
-					final AtomicInteger usersCountdown = new AtomicInteger(nbUsers);
+		private final JsonObject notificationsDefaults = new JsonObject();
+		private final Map<String, HttpServerRequest> requests = new HashMap<>();
+		private final Map<String, String> subjects = new HashMap<>();
+		private int batch = 0;
+
+		private DigestRun(TimelineNotificationsLoader.Frequencies frequency) {
+			this.frequency = frequency;
+			this.logPrefix = TimelineNotificationsLoader.Frequencies.DAILY.equals(frequency) ? "[DailyMails] " : "[WeeklyMails] ";
+			this.collection = DIGEST_COLLECTION_PREFIX + frequency.name().toLowerCase() + "_" + System.currentTimeMillis();
+		}
 
-					final Handler<Void> usersEndHandler = new Handler<Void>() {
-						public void handle(Void v) {
-							if(usersCountdown.decrementAndGet() <= 0){
-								log.info("[DailyMails] Page : " + userPagination.get() + "/" + endPage.get());
-								continuation.handle(userPagination.get() != endPage.get());
-							}
-						}
-					};
-
-					final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
-					for(Object userObj : users)
-						userIds.add(((JsonObject) userObj).getString("id", ""));
-					NotificationUtils.getUsersPreferences(eb, userIds, "language: uac.language", new Handler<JsonArray>(){
-						public void handle(JsonArray preferences) {
-							for(Object userObj : preferences){
-								final JsonObject userPrefs = (JsonObject) userObj;
-								final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
-								final String userScheme = userPrefs.getString("lastScheme", "http");
-								String mutableUserLanguage = "fr";
-								try {
-									mutableUserLanguage = getOrElse(new JsonObject(getOrElse(userPrefs.getString("language"), "{}", false)).getString("default-domain"), "fr", false);
-								} catch(Exception e) {
-									log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
-								}
-								final String userLanguage = mutableUserLanguage;
+		private String name() {
+			return frequency.name().toLowerCase();
+		}
 
-								getUserNotifications(userPrefs.getString("userId", ""), dayDate.getTime(), new Handler<JsonArray>(){
-									public void handle(JsonArray notifications) {
-										if(notifications.size() == 0){
-											usersEndHandler.handle(null);
-											return;
-										}
+		private void incr(String key) {
+			incr(key, 1);
+		}
 
-										SimpleDateFormat formatter = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss", Locale.forLanguageTag(userLanguage));
-										final JsonArray dates = new fr.wseduc.webutils.collections.JsonArray();
-										final JsonArray templates = new fr.wseduc.webutils.collections.JsonArray();
-
-										for(Object notificationObj : notifications){
-											JsonObject notification = (JsonObject) notificationObj;
-											final String notificationName =
-													notification.getString("type","").toLowerCase() + "." +
-															notification.getString("event-type", "").toLowerCase();
-											if(notificationsDefaults.getJsonObject(notificationName) == null)
-												continue;
-
-											JsonObject notificationPreference = userPrefs
-													.getJsonObject("preferences", new JsonObject())
-													.getJsonObject("config", new JsonObject())
-													.getJsonObject(notificationName, new JsonObject());
-											if(TimelineNotificationsLoader.Frequencies.DAILY.name().equals(
-													notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName)))){
-												templates.add(new JsonObject()
-														.put("template", notificationsDefaults.getJsonObject(notificationName, new JsonObject()).getString("template", ""))
-														.put("params", notification.getJsonObject("params", new JsonObject())));
-												dates.add(formatter.format(MongoDb.parseIsoDate(notification.getJsonObject("date"))));
-											}
-										}
-										if(templates.size() > 0){
-											JsonObject templateParams = new JsonObject()
-													.put("nestedTemplatesArray", templates)
-													.put("notificationDates", dates);
-											processTimelineTemplate(templateParams, "", "notifications/daily-mail.html",
-													userDomain, userScheme, userLanguage, false, new Handler<String>() {
-														public void handle(final String processedTemplate) {
-															//On completion : log
-															final Handler<AsyncResult<Message<JsonObject>>> completionHandler = event -> {
-																if(event.failed() || "error".equals(event.result().body().getString("status", "error"))){
-																	log.error("[Timeline daily emails] Error while sending mail : ", event.cause());
-																	results.put("users.ko", results.getInteger("users.ko") + 1);
-																} else {
-																	results.put("mails.sent", results.getInteger("mails.sent") + 1);
-																}
-																usersEndHandler.handle(null);
-															};
-
-															//Translate mail title
-															JsonArray keys = new fr.wseduc.webutils.collections.JsonArray()
-																	.add("timeline.daily.mail.subject.header");
-															translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
-																public void handle(JsonArray translations) {
-																	//Send mail containing the "daily" notifications
-																	emailSender.sendEmail(request,
-																			userPrefs.getString("userMail", ""),
-																			null,
-																			null,
-																			translations.getString(0),
-																			processedTemplate,
-																			null,
-																			false,
-																			completionHandler);
-																}
-															});
-														}
-													});
-										} else {
-											usersEndHandler.handle(null);
-										}
+		private void incr(String key, int n) {
+			results.put(key, results.getInteger(key) + n);
+		}
+	}
 
-									}
-								});
-							}
+	/**
+	 * Sends the daily or weekly digest mails.
+	 *
+	 * The notifications of the period are grouped by recipient with a single aggregation written
+	 * to a temporary collection. This collection is then read by batches of users, each batch being
+	 * rendered and handed to the email sender before the next one is read.
+	 *
+	 * @param frequency : DAILY or WEEKLY
+	 * @param from : Starting date of the period
+	 * @param handler : Handles the results, emails sent / users KO
+	 */
+	private void sendDigestMails(final TimelineNotificationsLoader.Frequencies frequency, final Date from,
+			final Handler<Either<String, JsonObject>> handler) {
+		final DigestRun run = new DigestRun(frequency);
+
+		final Handler<Either<String, JsonObject>> endHandler = new Handler<Either<String, JsonObject>>() {
+			public void handle(final Either<String, JsonObject> result) {
+				mongo.command(new JsonObject().put("drop", run.collection).toString(), new Handler<Message<JsonObject>>() {
+					public void handle(Message<JsonObject> event) {
+						if ("error".equals(event.body().getString("status", "error"))) {
+							log.warn(run.logPrefix + "Error while dropping " + run.collection + " : " + event.body().getString("message"));
 						}
-					});
+						handler.handle(result);
+					}
+				});
+			}
+		};
+
+		final Handler<String> batchHandler = new Handler<String>() {
+			private final Handler<String> next = this;
+
+			public void handle(final String lastUserId) {
+				final JsonObject matcher = new JsonObject();
+				if (lastUserId != null) {
+					matcher.put("_id", new JsonObject().put("$gt", lastUserId));
 				}
-			};
-
-			public void handle(Boolean continuation) {
-				if(continuation){
-					getImpactedUsers(notifiedUsers, userPagination.getAndIncrement(), new Handler<Either<String,JsonArray>>() {
-						public void handle(Either<String, JsonArray> event) {
-							if(event.isLeft()){
-								log.error("[sendDailyMails] Error while retrieving impacted users : " + event.left().getValue());
-								handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
-							} else {
-								JsonArray users = event.right().getValue();
-								usersHandler.handle(users);
-							}
+				mongo.find(run.collection, matcher, new JsonObject().put("_id", 1), null, 0,
+						DIGEST_BATCH_SIZE, DIGEST_BATCH_SIZE, new Handler<Message<JsonObject>>() {
+					public void handle(Message<JsonObject> event) {
+						if ("error".equals(event.body().getString("status", "error"))) {
+							log.error(run.logPrefix + "Error while reading digests : " + event.body().getString("message"));
+							endHandler.handle(new Either.Left<String, JsonObject>(event.body().getString("message")));
+							return;
 						}
-					});
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
-				}
+						final JsonArray digests = event.body().getJsonArray("results", new fr.wseduc.webutils.collections.JsonArray());
+						if (digests.size() == 0) {
+							endHandler.handle(new Either.Right<String, JsonObject>(run.results));
+							return;
+						}
+						final String last = digests.getJsonObject(digests.size() - 1).getString("_id");
+						sendDigestBatch(run, digests, new Handler<Void>() {
+							public void handle(Void v) {
+								log.info(run.logPrefix + "Batch : " + (++run.batch) + " - " + run.results.encode());
+								next.handle(last);
+							}
+						});
+					}
+				});
 			}
 		};
 
-		getRecipientsUsers(dayDate.getTime(), new Handler<JsonArray>() {
-			@Override
-			public void handle(JsonArray event) {
-				if (event != null && event.size() > 0) {
-					notifiedUsers.addAll(event.getList());
-					endPage.set((event.size() / USERS_LIMIT) + (event.size() % USERS_LIMIT != 0 ? 1 : 0));
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
+		getNotificationsDefaults(new Handler<JsonArray>() {
+			public void handle(final JsonArray notifications) {
+				if (notifications == null) {
+					log.error(run.logPrefix + "Error while retrieving notifications defaults.");
+					handler.handle(new Either.Left<String, JsonObject>("notifications.defaults.error"));
 					return;
 				}
-				getNotificationsDefaults(new Handler<JsonArray>() {
-					public void handle ( final JsonArray notifications){
-						if (notifications == null) {
-							log.error("[sendDailyMails] Error while retrieving notifications defaults.");
+				for (Object notifObj : notifications) {
+					final JsonObject notif = (JsonObject) notifObj;
+					run.notificationsDefaults.put(notif.getString("key", ""), notif);
+				}
+				aggregateDigests(run, from, new Handler<Either<String, JsonObject>>() {
+					public void handle(Either<String, JsonObject> event) {
+						if (event.isLeft()) {
+							log.error(run.logPrefix + "Error while grouping notifications : " + event.left().getValue());
+							endHandler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
 						} else {
-							for (Object notifObj : notifications) {
-								final JsonObject notif = (JsonObject) notifObj;
-								notificationsDefaults.put(notif.getString("key", ""), notif);
-							}
-							userContinuationHandler.handle(true);
+							batchHandler.handle(null);
 						}
 					}
 				});
@@ -437,206 +395,340 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		});
 	}
 
-	public void sendWeeklyMails(int dayDelta, final Handler<Either<String, JsonObject>> handler) {
+	/**
+	 * Groups the notifications of the period by recipient into the run temporary collection.
+	 *
+	 * Daily digests keep the ids of the last digest-max-notifications notifications of each user, so the
+	 * grouped documents stay far below the 16MB limit, the notifications are read by sendDigestBatch.
+	 * Weekly digests only keep a count by type & event-type.
+	 *
+	 * @param run : Digest run
+	 * @param from : Starting date of the period
+	 * @param handler : Handles the aggregation result
+	 */
+	private void aggregateDigests(final DigestRun run, Date from, final Handler<Either<String, JsonObject>> handler) {
+		final JsonObject aggregation = new JsonObject();
+		JsonArray pipeline = new fr.wseduc.webutils.collections.JsonArray();
+		aggregation
+				.put("aggregate", "timeline")
+				.put("allowDiskUse", true)
+				.put("pipeline", pipeline)
+				.put("cursor", new JsonObject());
+
+		pipeline.add(new JsonObject().put("$match", MongoQueryBuilder.build(QueryBuilder.start("date").greaterThanEquals(from))));
+		if (TimelineNotificationsLoader.Frequencies.DAILY.equals(run.frequency)) {
+			pipeline.add(new JsonObject().put("$sort", new JsonObject().put("date", 1)));
+			pipeline.add(new JsonObject().put("$project", new JsonObject("{ \"_id\": 1, \"recipients.userId\": 1 }")));
+			pipeline.add(new JsonObject().put("$unwind", "$recipients"));
+			pipeline.add(new JsonObject().put("$group", new JsonObject("{ \"_id\": \"$recipients.userId\", \"notifications\": { \"$push\": \"$_id\" } }")));
+			pipeline.add(new JsonObject().put("$project", new JsonObject().put("notifications", new JsonObject()
+					.put("$slice", new fr.wseduc.webutils.collections.JsonArray().add("$notifications").add(-DIGEST_MAX_NOTIFICATIONS)))));
+		} else {
+			pipeline.add(new JsonObject().put("$project", new JsonObject("{ \"_id\": 0, \"recipients.userId\": 1, \"type\": 1, \"event-type\": 1 }")));
+			pipeline.add(new JsonObject().put("$unwind", "$recipients"));
+			pipeline.add(new JsonObject().put("$group", new JsonObject("{ \"_id\": { \"userId\": \"$recipients.userId\", \"type\": \"$type\", " +
+					"\"event-type\": \"$event-type\" }, \"count\": { \"$sum\": 1 } }")));
+			pipeline.add(new JsonObject().put("$group", new JsonObject("{ \"_id\": \"$_id.userId\", \"notifications\": { \"$push\": " +
+					"{ \"type\": \"$_id.type\", \"event-type\": \"$_id.event-type\", \"count\": \"$count\" } } }")));
+		}
+		pipeline.add(new JsonObject().put("$out", run.collection));
 
-		final HttpServerRequest request = new JsonHttpServerRequest(new JsonObject());
-		final AtomicInteger userPagination = new AtomicInteger(0);
-		final AtomicInteger endPage = new AtomicInteger(0);
-		final Calendar weekDate = Calendar.getInstance();
-		weekDate.add(Calendar.DAY_OF_MONTH, dayDelta - 6);
-		weekDate.set(Calendar.HOUR_OF_DAY, 0);
-		weekDate.set(Calendar.MINUTE, 0);
-		weekDate.set(Calendar.SECOND, 0);
-		weekDate.set(Calendar.MILLISECOND, 0);
+		mongo.command(aggregation.toString(), new Handler<Message<JsonObject>>() {
+			@Override
+			public void handle(Message<JsonObject> event) {
+				if ("error".equals(event.body().getString("status", "error"))) {
+					handler.handle(new Either.Left<String, JsonObject>(event.body().getString("message", "")));
+				} else {
+					handler.handle(new Either.Right<String, JsonObject>(event.body()));
+				}
+			}
+		});
+	}
 
-		final JsonObject results = new JsonObject()
-				.put("mails.sent", 0)
-				.put("users.ko", 0);
-		final JsonObject notificationsDefaults = new JsonObject();
-		final List<String> notifiedUsers = new ArrayList<>();
-
-		final Handler<Boolean> userContinuationHandler = new Handler<Boolean>() {
-
-			private final Handler<Boolean> continuation = this;
-			private final Handler<JsonArray> usersHandler = new Handler<JsonArray>() {
-				public void handle(final JsonArray users) {
-					final int nbUsers = users.size();
-					if (nbUsers == 0) {
-						log.info("[WeeklyMails] Page0 : " + userPagination.get() + "/" + endPage.get());
-						continuation.handle(userPagination.get() != endPage.get());
-						return;
+	/**
+	 * Renders and sends the digest mails of a batch of users, MAIL_CONCURRENCY mails at a time.
+	 *
+	 * @param run : Digest run
+	 * @param digests : The batch, notifications grouped by user
+	 * @param handler : Called once every mail of the batch is sent
+	 */
+	private void sendDigestBatch(final DigestRun run, final JsonArray digests, final Handler<Void> handler) {
+		final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
+		for (Object digestObj : digests) {
+			userIds.add(((JsonObject) digestObj).getString("_id"));
+		}
+		loadDigestNotifications(run, digests, new Handler<Map<String, JsonArray>>() {
+			public void handle(Map<String, JsonArray> notificationsByUser) {
+				if (notificationsByUser == null) {
+					log.error(run.logPrefix + "Error while reading the notifications, skipping " + userIds.size() + " users.");
+					run.incr("users.ko", userIds.size());
+					handler.handle(null);
+					return;
+				}
+				sendDigestBatch(run, userIds, notificationsByUser, handler);
+			}
+		});
+	}
+
+	/**
+	 * Daily digests only hold the notifications ids : the notifications of the batch are read
+	 * with a single query.
+	 *
+	 * @param run : Digest run
+	 * @param digests : The batch, notifications grouped by user
+	 * @param handler : Handles the notifications by user, null on error
+	 */
+	private void loadDigestNotifications(final DigestRun run, final JsonArray digests,
+			final Handler<Map<String, JsonArray>> handler) {
+		final Map<String, JsonArray> notificationsByUser = new HashMap<>();
+		for (Object digestObj : digests) {
+			final JsonObject digest = (JsonObject) digestObj;
+			notificationsByUser.put(digest.getString("_id"), digest.getJsonArray("notifications"));
+		}
+		if (!TimelineNotificationsLoader.Frequencies.DAILY.equals(run.frequency)) {
+			handler.handle(notificationsByUser);
+			return;
+		}
+		final Set<String> ids = new HashSet<>();
+		for (JsonArray notificationIds : notificationsByUser.values()) {
+			for (Object id : notificationIds) {
+				ids.add((String) id);
+			}
+		}
+		final JsonObject matcher = new JsonObject().put("_id", new JsonObject()
+				.put("$in", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(ids))));
+		final JsonObject keys = new JsonObject("{ \"type\": 1, \"event-type\": 1, \"params\": 1, \"date\": 1 }");
+		mongo.find("timeline", matcher, null, keys, new Handler<Message<JsonObject>>() {
+			public void handle(Message<JsonObject> event) {
+				if (!"ok".equals(event.body().getString("status"))) {
+					handler.handle(null);
+					return;
+				}
+				final Map<String, JsonObject> notifications = new HashMap<>();
+				for (Object o : event.body().getJsonArray("results", new fr.wseduc.webutils.collections.JsonArray())) {
+					final JsonObject notification = (JsonObject) o;
+					notifications.put(notification.getString("_id"), notification);
+				}
+				for (Map.Entry<String, JsonArray> e : notificationsByUser.entrySet()) {
+					final JsonArray userNotifications = new fr.wseduc.webutils.collections.JsonArray();
+					for (Object id : e.getValue()) {
+						final JsonObject notification = notifications.get(id);
+						if (notification != null) {
+							userNotifications.add(notification);
+						}
 					}
-					final AtomicInteger usersCountdown = new AtomicInteger(nbUsers);
+					e.setValue(userNotifications);
+				}
+				handler.handle(notificationsByUser);
+			}
+		});
+	}
 
-					final Handler<Void> usersEndHandler = new Handler<Void>() {
-						public void handle(Void v) {
-							if (usersCountdown.decrementAndGet() <= 0) {
-								log.info("[WeeklyMails] Page : " + userPagination.get() + "/" + endPage.get());
-								continuation.handle(userPagination.get() != endPage.get());
-							}
+	private void sendDigestBatch(final DigestRun run, final JsonArray userIds,
+			final Map<String, JsonArray> notificationsByUser, final Handler<Void> handler) {
+		NotificationUtils.getUsersPreferences(eb, userIds, "language: uac.language", new Handler<JsonArray>() {
+			public void handle(JsonArray preferences) {
+				if (preferences == null) {
+					log.error(run.logPrefix + "Error while retrieving users preferences, skipping " +
+							userIds.size() + " users.");
+					run.incr("users.ko", userIds.size());
+					handler.handle(null);
+					return;
+				}
+				final List<JsonObject> mails = new ArrayList<>();
+				for (Object userObj : preferences) {
+					final JsonObject userPrefs = (JsonObject) userObj;
+					final String userMail = userPrefs.getString("userMail");
+					if (userMail == null || userMail.trim().isEmpty()) {
+						continue;
+					}
+					String userLanguage = "fr";
+					try {
+						userLanguage = getOrElse(new JsonObject(getOrElse(userPrefs.getString("language"), "{}", false)).getString("default-domain"), "fr", false);
+					} catch (Exception e) {
+						log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
+					}
+					final JsonObject templateParams = digestTemplateParams(run, userPrefs, userLanguage,
+							notificationsByUser.get(userPrefs.getString("userId", "")));
+					if (templateParams != null) {
+						mails.add(new JsonObject()
+								.put("to", userMail)
+								.put("domain", userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN))
+								.put("scheme", userPrefs.getString("lastScheme", "http"))
+								.put("language", userLanguage)
+								.put("params", templateParams));
+					}
+				}
+				if (mails.isEmpty()) {
+					handler.handle(null);
+					return;
+				}
+
+				final Iterator<JsonObject> iterator = mails.iterator();
+				final AtomicInteger pending = new AtomicInteger(mails.size());
+				final Handler<Void> sendNext = new Handler<Void>() {
+					private final Handler<Void> next = this;
+
+					public void handle(Void v) {
+						if (!iterator.hasNext()) {
+							return;
 						}
-					};
-
-					final JsonArray userIds = new fr.wseduc.webutils.collections.JsonArray();
-					for (Object userObj : users)
-						userIds.add(((JsonObject) userObj).getString("id", ""));
-					NotificationUtils.getUsersPreferences(eb, userIds, "language: uac.language", new Handler<JsonArray>() {
-						public void handle(JsonArray preferences) {
-							for (Object userObj : preferences) {
-								final JsonObject userPrefs = (JsonObject) userObj;
-								final String userDomain = userPrefs.getString("lastDomain", I18n.DEFAULT_DOMAIN);
-								final String userScheme = userPrefs.getString("lastScheme", "http");
-								String mutableUserLanguage = "fr";
-								try {
-									mutableUserLanguage = getOrElse(new JsonObject(getOrElse(userPrefs.getString("language"), "{}", false)).getString("default-domain"), "fr", false);
-								} catch (Exception e) {
-									log.error("UserId [" + userPrefs.getString("userId", "") + "] - Bad language preferences format");
+						sendDigestMail(run, iterator.next(), new Handler<Void>() {
+							public void handle(Void v) {
+								if (pending.decrementAndGet() == 0) {
+									handler.handle(null);
+								} else {
+									next.handle(null);
 								}
-								final String userLanguage = mutableUserLanguage;
-
-								getAggregatedUserNotifications(userPrefs.getString("userId", ""), weekDate.getTime(), new Handler<JsonArray>() {
-									public void handle(JsonArray notifications) {
-										if (notifications.size() == 0) {
-											usersEndHandler.handle(null);
-											return;
-										}
+							}
+						});
+					}
+				};
+				for (int i = 0; i < MAIL_CONCURRENCY; i++) {
+					sendNext.handle(null);
+				}
+			}
+		});
+	}
 
-										final JsonArray weeklyNotifications = new fr.wseduc.webutils.collections.JsonArray();
-
-										for (Object notificationObj : notifications) {
-											JsonObject notification = (JsonObject) notificationObj;
-											final String notificationName =
-													notification.getString("type", "").toLowerCase() + "." +
-															notification.getString("event-type", "").toLowerCase();
-											if (notificationsDefaults.getJsonObject(notificationName) == null)
-												continue;
-
-											JsonObject notificationPreference = userPrefs
-													.getJsonObject("preferences", new JsonObject())
-													.getJsonObject("config", new JsonObject())
-													.getJsonObject(notificationName, new JsonObject());
-											if (TimelineNotificationsLoader.Frequencies.WEEKLY.name().equals(
-													notificationPrefsMixin("defaultFrequency", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName))) &&
-													!TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
-															notificationPrefsMixin("restriction", notificationPreference, notificationsDefaults.getJsonObject(notificationName)))) {
-												notification.put("notificationName", notificationName);
-												weeklyNotifications.add(notification);
-											}
-										}
+	/**
+	 * Filters the notifications of a user with its preferences and builds the digest template parameters.
+	 *
+	 * @param run : Digest run
+	 * @param userPrefs : User preferences
+	 * @param userLanguage : User language
+	 * @param notifications : Notifications of the user over the period
+	 * @return The template parameters, or null when there is nothing to send
+	 */
+	private JsonObject digestTemplateParams(DigestRun run, JsonObject userPrefs, String userLanguage, JsonArray notifications) {
+		if (notifications == null) {
+			return null;
+		}
+		final boolean daily = TimelineNotificationsLoader.Frequencies.DAILY.equals(run.frequency);
+		final SimpleDateFormat formatter = daily ?
+				new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss", Locale.forLanguageTag(userLanguage)) : null;
+		final JsonArray dates = new fr.wseduc.webutils.collections.JsonArray();
+		final JsonArray templates = new fr.wseduc.webutils.collections.JsonArray();
+		final Map<String, JsonObject> weeklyNotificationsByType = new LinkedHashMap<>();
+
+		for (Object notificationObj : notifications) {
+			final JsonObject notification = (JsonObject) notificationObj;
+			final String notificationName =
+					notification.getString("type", "").toLowerCase() + "." +
+							notification.getString("event-type", "").toLowerCase();
+			final JsonObject notificationDefaults = run.notificationsDefaults.getJsonObject(notificationName);
+			if (notificationDefaults == null)
+				continue;
+
+			JsonObject notificationPreference = userPrefs
+					.getJsonObject("preferences", new JsonObject())
+					.getJsonObject("config", new JsonObject())
+					.getJsonObject(notificationName, new JsonObject());
+			if (!run.frequency.name().equals(notificationPrefsMixin("defaultFrequency", notificationPreference, notificationDefaults)) ||
+					TimelineNotificationsLoader.Restrictions.INTERNAL.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationDefaults)) ||
+					TimelineNotificationsLoader.Restrictions.HIDDEN.name().equals(
+							notificationPrefsMixin("restriction", notificationPreference, notificationDefaults))) {
+				continue;
+			}
+			if (daily) {
+				templates.add(new JsonObject()
+						.put("template", notificationDefaults.getString("template", ""))
+						.put("params", notification.getJsonObject("params", new JsonObject())));
+				dates.add(formatter.format(MongoDb.parseIsoDate(notification.getJsonObject("date"))));
+			} else {
+				final String type = notification.getString("type", "").toLowerCase();
+				if (!weeklyNotificationsByType.containsKey(type)) {
+					weeklyNotificationsByType.put(type, new JsonObject()
+							.put("type", type)
+							.put("link", notificationDefaults.getString("app-address", ""))
+							.put("event-types", new fr.wseduc.webutils.collections.JsonArray()));
+				}
+				weeklyNotificationsByType.get(type).getJsonArray("event-types")
+						.add(notification.copy().put("notificationName", notificationName));
+			}
+		}
 
-										final JsonObject weeklyNotificationsObj = new JsonObject();
-										final JsonArray weeklyNotificationsGroupedArray = new fr.wseduc.webutils.collections.JsonArray();
-										for (Object notif : weeklyNotifications) {
-											JsonObject notification = (JsonObject) notif;
-											if (!weeklyNotificationsObj.containsKey(notification.getString("type").toLowerCase()))
-												weeklyNotificationsObj.put(notification.getString("type").toLowerCase(), new JsonObject()
-														.put("link", notificationsDefaults
-																.getJsonObject(notification.getString("notificationName")).getString("app-address", ""))
-														.put("event-types", new fr.wseduc.webutils.collections.JsonArray()));
-											weeklyNotificationsObj
-													.getJsonObject(notification.getString("type").toLowerCase())
-													.getJsonArray(("event-types"), new fr.wseduc.webutils.collections.JsonArray())
-													.add(notification);
-										}
+		if (daily) {
+			return templates.size() > 0 ? new JsonObject()
+					.put("nestedTemplatesArray", templates)
+					.put("notificationDates", dates) : null;
+		}
+		return weeklyNotificationsByType.size() > 0 ? new JsonObject()
+				.put("notifications", new fr.wseduc.webutils.collections.JsonArray(new ArrayList<>(weeklyNotificationsByType.values()))) : null;
+	}
 
-										for (String key : weeklyNotificationsObj.getMap().keySet()) {
-											weeklyNotificationsGroupedArray.add(new JsonObject()
-													.put("type", key)
-													.put("link", weeklyNotificationsObj.getJsonObject(key).getString("link", ""))
-													.put("event-types", weeklyNotificationsObj.getJsonObject(key).getJsonArray("event-types")));
-										}
+	/**
+	 * Renders and sends a digest mail. The request used for rendering and the translated subject
+	 * are computed once per (domain, language) for the whole run.
+	 *
+	 * @param run : Digest run
+	 * @param mail : Recipient, domain, scheme, language and template parameters
+	 * @param handler : Called once the mail is sent
+	 */
+	private void sendDigestMail(final DigestRun run, final JsonObject mail, final Handler<Void> handler) {
+		final String domain = mail.getString("domain");
+		final String language = mail.getString("language");
+		final String key = mail.getString("scheme") + "|" + domain + "|" + language;
+		HttpServerRequest templateRequest = run.requests.get(key);
+		if (templateRequest == null) {
+			templateRequest = new JsonHttpServerRequest(new JsonObject()
+					.put("headers", new JsonObject()
+							.put("Host", domain)
+							.put("X-Forwarded-Proto", mail.getString("scheme"))
+							.put("Accept-Language", language)));
+			run.requests.put(key, templateRequest);
+		}
+		final HttpServerRequest request = templateRequest;
 
-										if (weeklyNotifications.size() > 0) {
-											JsonObject templateParams = new JsonObject().put("notifications", weeklyNotificationsGroupedArray);
-											processTimelineTemplate(templateParams, "", "notifications/weekly-mail.html",
-													userDomain, userScheme, userLanguage, false, new Handler<String>() {
-														public void handle(final String processedTemplate) {
-															//On completion : log
-															final Handler<AsyncResult<Message<JsonObject>>> completionHandler = event -> {
-																if (event.failed() || "error".equals(event.result().body().getString("status", "error"))) {
-																	log.error("[Timeline weekly emails] Error while sending mail : ", event.cause());
-																	results.put("users.ko", results.getInteger("users.ko") + 1);
-																} else {
-																	results.put("mails.sent", results.getInteger("mails.sent") + 1);
-																}
-																usersEndHandler.handle(null);
-															};
-
-															//Translate mail title
-															JsonArray keys = new fr.wseduc.webutils.collections.JsonArray()
-																	.add("timeline.weekly.mail.subject.header");
-															translateTimeline(keys, userDomain, userLanguage, new Handler<JsonArray>() {
-																public void handle(JsonArray translations) {
-																	//Send mail containing the "weekly" notifications
-																	emailSender.sendEmail(request,
-																			userPrefs.getString("userMail", ""),
-																			null,
-																			null,
-																			translations.getString(0),
-																			processedTemplate,
-																			null,
-																			false,
-																			completionHandler);
-																}
-															});
-														}
-													});
+		processTemplate(request, "notifications/" + run.name() + "-mail.html", mail.getJsonObject("params"), new Handler<String>() {
+			public void handle(final String processedTemplate) {
+				if (processedTemplate == null) {
+					log.error(run.logPrefix + "Error while processing template for " + mail.getString("to"));
+					run.incr("users.ko");
+					handler.handle(null);
+					return;
+				}
+				digestSubject(run, domain, language, new Handler<String>() {
+					public void handle(String subject) {
+						emailSender.sendEmail(request,
+								mail.getString("to"),
+								null,
+								null,
+								subject,
+								processedTemplate,
+								null,
+								false,
+								new Handler<AsyncResult<Message<JsonObject>>>() {
+									public void handle(AsyncResult<Message<JsonObject>> event) {
+										if (event.failed() || "error".equals(event.result().body().getString("status", "error"))) {
+											log.error("[Timeline " + run.name() + " emails] Error while sending mail : ", event.cause());
+											run.incr("users.ko");
 										} else {
-											usersEndHandler.handle(null);
+											run.incr("mails.sent");
 										}
-
+										handler.handle(null);
 									}
 								});
-							}
-						}
-					});
-				}
-			};
-
-			public void handle(Boolean continuation) {
-				if (continuation) {
-					getImpactedUsers(notifiedUsers, userPagination.getAndIncrement(), new Handler<Either<String, JsonArray>>() {
-						public void handle(Either<String, JsonArray> event) {
-							if (event.isLeft()) {
-								log.error("[sendWeeklyMails] Error while retrieving impacted users : " + event.left().getValue());
-								handler.handle(new Either.Left<String, JsonObject>(event.left().getValue()));
-							} else {
-								JsonArray users = event.right().getValue();
-								usersHandler.handle(users);
-							}
-						}
-					});
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
-				}
-			}
-		};
-		getRecipientsUsers(weekDate.getTime(), new Handler<JsonArray>() {
-			@Override
-			public void handle(JsonArray event) {
-				if (event != null && event.size() > 0) {
-					notifiedUsers.addAll(event.getList());
-					endPage.set((event.size() / USERS_LIMIT) + (event.size() % USERS_LIMIT != 0 ? 1 : 0));
-				} else {
-					handler.handle(new Either.Right<String, JsonObject>(results));
-					return;
-				}
-				getNotificationsDefaults(new Handler<JsonArray>() {
-					public void handle(final JsonArray notifications) {
-						if (notifications == null) {
-							log.error("[sendWeeklyMails] Error while retrieving notifications defaults.");
-						} else {
-							for (Object notifObj : notifications) {
-								final JsonObject notif = (JsonObject) notifObj;
-								notificationsDefaults.put(notif.getString("key", ""), notif);
-							}
-							userContinuationHandler.handle(true);
-						}
 					}
 				});
+			}
+		});
+	}
 
+	private void digestSubject(final DigestRun run, String domain, String language, final Handler<String> handler) {
+		final String key = domain + "|" + language;
+		final String subject = run.subjects.get(key);
+		if (subject != null) {
+			handler.handle(subject);
+			return;
+		}
+		JsonArray keys = new fr.wseduc.webutils.collections.JsonArray()
+				.add("timeline." + run.name() + ".mail.subject.header");
+		translateTimeline(keys, domain, language, new Handler<JsonArray>() {
+			public void handle(JsonArray translations) {
+				run.subjects.put(key, translations.getString(0));
+				handler.handle(translations.getString(0));
 			}
 		});
 	}
@@ -672,36 +764,6 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		});
 	}
 
-	/**
-	 * Retrieves all timeline notifications from mongodb for a single user, from a specific date in the past.
-	 *
-	 * @param userId : Userid
-	 * @param from : The starting date
-	 * @param handler : Handles the notifications
-	 */
-	private void getUserNotifications(String userId, Date from, final Handler<JsonArray> handler){
-		JsonObject matcher = MongoQueryBuilder.build(
-				QueryBuilder
-						.start("recipients").elemMatch(QueryBuilder.start("userId").is(userId).get())
-						.and("date").greaterThanEquals(from));
-
-		JsonObject keys = new JsonObject()
-				.put("_id", 0)
-				.put("type", 1)
-				.put("event-type", 1)
-				.put("params", 1)
-				.put("date", 1);
-		mongo.find("timeline", matcher, null, keys, new Handler<Message<JsonObject>>() {
-			public void handle(Message<JsonObject> event) {
-				if("error".equals(event.body().getString("status", "error"))){
-					handler.handle(new fr.wseduc.webutils.collections.JsonArray());
-				} else {
-					handler.handle(event.body().getJsonArray("results"));
-				}
-			}
-		});
-	}
-
 	/**
 	 * Returns either user preferences or defaults when the user has not chosen specific values.
 	 *
@@ -714,111 +776,6 @@ public class DefaultTimelineMailerService extends Renders implements TimelineMai
 		return userPrefs.getString(field, defaultPrefs.getString(field, ""));
 	}
 
-	private void getRecipientsUsers(Date from, final Handler<JsonArray> handler) {
-		final JsonObject aggregation = new JsonObject();
-		JsonArray pipeline = new fr.wseduc.webutils.collections.JsonArray();
-		aggregation
-				.put("aggregate", "timeline")
-				.put("allowDiskUse", true)
-				.put("pipeline", pipeline)
-				.put("cursor", new JsonObject().put("batchSize", Integer.MAX_VALUE));
-
-		JsonObject matcher = MongoQueryBuilder.build(QueryBuilder.start("date").greaterThanEquals(from));
-		JsonObject grouper = new JsonObject("{ \"_id\" : \"notifiedUsers\", \"recipients\" : {\"$addToSet\" : \"$recipients.userId\"}}");
-
-		pipeline.add(new JsonObject().put("$match", matcher));
-		pipeline.add(new JsonObject().put("$unwind", "$recipients"));
-		pipeline.add(new JsonObject().put("$group", grouper));
-
-		mongo.command(aggregation.toString(), new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> event) {
-				if ("error".equals(event.body().getString("status", "error"))) {
-					handler.handle(new fr.wseduc.webutils.collections.JsonArray());
-				} else {
-					JsonArray r = event.body().getJsonObject("result", new JsonObject())
-							.getJsonObject("cursor", new JsonObject()).getJsonArray("firstBatch");
-					if (r != null && r.size() > 0) {
-						handler.handle(r.getJsonObject(0).getJsonArray("recipients", new fr.wseduc.webutils.collections.JsonArray()));
-					} else {
-						handler.handle(new fr.wseduc.webutils.collections.JsonArray());
-					}
-				}
-			}
-
-		});
-	}
-
-	/**
-	 * Retrieves users having an email address, paginated.
-	 *
-	 * @param page : Page number
-	 * @param handler : Handles the users
-	 */
-	private void getImpactedUsers(List<String> recipients, int page, final Handler<Either<String, JsonArray>> handler){
-		int fromIdx = page * USERS_LIMIT;
-		int toIdx = page * USERS_LIMIT + USERS_LIMIT;
-		if (fromIdx >= recipients.size()) {
-			handler.handle(new Either.Right<String, JsonArray>(new fr.wseduc.webutils.collections.JsonArray()));
-			return;
-		}
-		if (toIdx > recipients.size()) {
-			toIdx = recipients.size();
-		}
-		final String query =
-				"MATCH (u:User)-[:IN]->(g:Group)-[:AUTHORIZED]->(r:Role)-[:AUTHORIZE]->(act:WorkflowAction) " +
-				"WHERE u.id IN {notifiedUsers} AND u.activationCode IS NULL AND u.email IS NOT NULL AND length(u.email) > 0 " +
-				"AND act.name = \"org.entcore.timeline.controllers.TimelineController|mixinConfig\"" +
-				"RETURN DISTINCT u.email as mail, u.id as id ";
-		JsonObject params = new JsonObject()
-				.put("notifiedUsers", new fr.wseduc.webutils.collections.JsonArray(recipients.subList(fromIdx, toIdx)));
-		neo4j.execute(query, params, Neo4jResult.validResultHandler(handler));
-	}
-
-	/**
-	 * Retrieves an aggregated list of notifications from mongodb for a single user.
-	 *
-	 *  Notifications are grouped by type & event-type.
-	 * @param userId : Userid
-	 * @param from : Starting date in the past
-	 * @param handler: Handles the notifications
-	 */
-	private void getAggregatedUserNotifications(String userId, Date from, final Handler<JsonArray> handler){
-		final JsonObject aggregation = new JsonObject();
-		JsonArray pipeline = new fr.wseduc.webutils.collections.JsonArray();
-		aggregation
-				.put("aggregate", "timeline")
-				.put("allowDiskUse", true)
-				.put("pipeline", pipeline)
-				.put("cursor", new JsonObject().put("batchSize", Integer.MAX_VALUE));
-
-		JsonObject matcher = MongoQueryBuilder.build(
-				QueryBuilder
-						.start("recipients").elemMatch(QueryBuilder.start("userId").is(userId).get())
-						.and("date").greaterThanEquals(from));
-		JsonObject grouper = new JsonObject("{ \"_id\" : { \"type\": \"$type\", \"event-type\": \"$event-type\"}, \"count\": { \"$sum\": 1 } }");
-		JsonObject transformer = new JsonObject("{ \"type\": \"$_id.type\", \"event-type\": \"$_id.event-type\", \"count\": 1, \"_id\": 0 }");
-
-		pipeline.add(new JsonObject().put("$match", matcher));
-		pipeline.add(new JsonObject().put("$group", grouper));
-		pipeline.add(new JsonObject().put("$project", transformer));
-
-		mongo.command(aggregation.toString(), new Handler<Message<JsonObject>>() {
-			@Override
-			public void handle(Message<JsonObject> event) {
-				if("error".equals(event.body().getString("status", "error"))){
-					handler.handle(new fr.wseduc.webutils.collections.JsonArray());
-				} else {
-					handler.handle(
-							event.body().getJsonObject("result", new JsonObject())
-									.getJsonObject("cursor", new JsonObject())
-									.getJsonArray("firstBatch", new fr.wseduc.webutils.collections.JsonArray()));
-				}
-			}
-
-		});
-	}
-
 	public void setConfigService(TimelineConfigService configService) {
 		this.configService = configService;
 	}
@@ -35,6 +35,7 @@ import fr.wseduc.webutils.request.RequestUtils;
 import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 public class QuotaController extends BaseController {
@@ -124,6 +125,20 @@ public class QuotaController extends BaseController {
 				int threshold = message.body().getInteger("threshold");
 				quotaService.incrementStorage(userId, size, threshold, responseHandler);
 				break;
+			case "updateUsersQuota" :
+				quotaService.incrementStorage(message.body().getJsonArray("userIds"), message.body().getLong("size"),
+						message.body().getInteger("threshold"), new Handler<Either<String, JsonArray>>() {
+					@Override
+					public void handle(Either<String, JsonArray> res) {
+						if (res.isRight()) {
+							message.reply(new JsonObject().put("status", "ok").put("results", res.right().getValue()));
+						} else {
+							message.reply(new JsonObject().put("status", "error")
+									.put("message", res.left().getValue()));
+						}
+					}
+				});
+				break;
 			default:
 				message.reply(new JsonObject().put("status", "error").put("message", "invalid.action"));
 		}
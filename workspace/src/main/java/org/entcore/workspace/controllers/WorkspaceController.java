@@ -31,6 +31,9 @@ import org.entcore.common.share.impl.GenericShareService;
 import org.entcore.common.storage.Storage;
 import org.entcore.common.user.UserInfos;
 import org.entcore.common.user.UserUtils;
+import org.entcore.common.utils.CountCache;
+import org.entcore.common.utils.Cursor;
+import org.entcore.common.utils.Deadline;
 import org.entcore.common.utils.StringUtils;
 import org.entcore.workspace.Workspace;
 import org.entcore.workspace.service.WorkspaceService;
@@ -48,6 +51,7 @@ import fr.wseduc.webutils.I18n;
 import fr.wseduc.webutils.http.BaseController;
 import fr.wseduc.webutils.http.ETag;
 import fr.wseduc.webutils.request.RequestUtils;
+import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
@@ -65,10 +69,13 @@ public class WorkspaceController extends BaseController {
 	public static final String COPY_ACTION = "org-entcore-workspace-controllers-WorkspaceController|copyDocuments";
 	public static final String SHARED_ACTION = "org-entcore-workspace-controllers-WorkspaceController|shareResource";
 	public static final String MEDIALIB_APP = "media-library";
+	private static final int DEFAULT_PAGE_SIZE = 100;
+	private static final int MAX_PAGE_SIZE = 500;
 	private EventStore eventStore;
 	private WorkspaceService workspaceService;
 	private TimelineHelper notification;
 	private GenericShareService shareService;
+	private CountCache counts;
 
 	private Storage storage;
 
@@ -536,6 +543,7 @@ public class WorkspaceController extends BaseController {
 		final String id = request.params().get("id");
 		//
 		ElementQuery query = new ElementQuery(false);
+		query.setDeadline(Deadline.of(request));
 		query.setHierarchical(hierarchical != null && hierarchical.equals("true"));
 		query.setApplication(application);
 		query.setTrash(false);
@@ -595,6 +603,55 @@ public class WorkspaceController extends BaseController {
 		return query;
 	}
 
+	/**
+	 * Keyset pagination of a listing when the request has an "after" parameter (empty for the first page).
+	 * @return false if the cursor is invalid, the request is answered.
+	 */
+	private boolean paginate(HttpServerRequest request, ElementQuery query) {
+		if (!request.params().contains(Cursor.PARAM)) {
+			return true;
+		}
+		final String a = request.params().get(Cursor.PARAM);
+		final Cursor after = Cursor.parse(a);
+		if (after == null && !a.trim().isEmpty()) {
+			badRequest(request, "invalid.cursor");
+			return false;
+		}
+		int limit;
+		try {
+			limit = Math.min(Integer.parseInt(getOrElse(request.params().get("limit"), String.valueOf(DEFAULT_PAGE_SIZE), false)),
+					MAX_PAGE_SIZE);
+		} catch (NumberFormatException e) {
+			limit = DEFAULT_PAGE_SIZE;
+		}
+		query.setSort(null);
+		query.addSort("modified", ElementSort.Desc);
+		query.addSort("_id", ElementSort.Desc);
+		query.setLimit(Math.max(limit, 1));
+		query.setAfter(after);
+		if (query.getProjection() != null) {
+			query.getProjection().add("modified");
+		}
+		return true;
+	}
+
+	private Handler<AsyncResult<JsonArray>> pageResponseHandler(final HttpServerRequest request, final ElementQuery query) {
+		final Handler<AsyncResult<JsonArray>> handler = asyncArrayResponseHandler(request);
+		if (!request.params().contains(Cursor.PARAM)) {
+			return handler;
+		}
+		return event -> {
+			if (event.succeeded() && event.result().size() >= query.getLimit()) {
+				final JsonObject last = event.result().getJsonObject(event.result().size() - 1);
+				final String next = Cursor.of(last.getString("modified"), last.getString("_id"));
+				if (next != null) {
+					request.response().putHeader(Cursor.HEADER, next);
+				}
+			}
+			handler.handle(event);
+		};
+	}
+
 	@Get("/folders/list")
 	@SecuredAction(value = "workspace.folders.list", type = ActionType.AUTHENTICATED)
 	public void folders(final HttpServerRequest request) {
@@ -607,7 +664,9 @@ public class WorkspaceController extends BaseController {
 				query.getProjection().add("application");
 				query.getProjection().add("trasher");
 				query.getProjection().add("ancestors");
-				workspaceService.findByQuery(query, userInfos, asyncArrayResponseHandler(request));
+				if (paginate(request, query)) {
+					workspaceService.findByQuery(query, userInfos, pageResponseHandler(request, query));
+				}
 			} else {
 				unauthorized(request);
 			}
@@ -731,6 +790,7 @@ public class WorkspaceController extends BaseController {
 
 		notification = new TimelineHelper(vertx, eb, config);
 		eventStore = EventStoreFactory.getFactory().getEventStore(Workspace.class.getSimpleName());
+		counts = new CountCache(config.getLong("count-cache-ttl", 15000L), 10000);
 		post("/documents/copy/:ids", "copyDocuments");
 		put("/documents/move/:ids", "moveDocuments");
 	}
@@ -763,7 +823,40 @@ public class WorkspaceController extends BaseController {
 				if (includeall != null && "true".equals(includeall)) {
 					query.setType(null);
 				}
-				workspaceService.findByQuery(query, user, asyncArrayResponseHandler(request));
+				if (paginate(request, query)) {
+					workspaceService.findByQuery(query, user, pageResponseHandler(request, query));
+				}
+			} else {
+				unauthorized(request);
+			}
+		});
+	}
+
+	@Get("/count/documents")
+	@SecuredAction(value = "workspace.documents.count", type = ActionType.AUTHENTICATED)
+	public void countDocuments(final HttpServerRequest request) {
+		UserUtils.getUserInfos(eb, request, user -> {
+			if (user != null && user.getUserId() != null) {
+				ElementQuery query = queryFromRequest(request, user);
+				query.setType(FolderManager.FILE_TYPE);
+				final String includeall = request.params().get("includeall");
+				if (includeall != null && "true".equals(includeall)) {
+					query.setType(null);
+				}
+				final String cacheKey = user.getUserId() + ":" + request.query();
+				final Long count = counts.get(cacheKey);
+				if (count != null) {
+					renderJson(request, new JsonObject().put("count", count));
+					return;
+				}
+				workspaceService.countByQuery(query, user, res -> {
+					if (res.succeeded()) {
+						counts.put(cacheKey, res.result());
+						renderJson(request, new JsonObject().put("count", res.result()));
+					} else {
+						renderError(request, new JsonObject().put("error", res.cause().getMessage()));
+					}
+				});
 			} else {
 				unauthorized(request);
 			}
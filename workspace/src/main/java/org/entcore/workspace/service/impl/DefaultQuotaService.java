@@ -24,6 +24,7 @@ import static org.entcore.common.neo4j.Neo4jResult.validUniqueResultHandler;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.entcore.common.http.request.JsonHttpServerRequest;
 import org.entcore.common.neo4j.Neo4j;
@@ -86,6 +87,43 @@ public class DefaultQuotaService implements org.entcore.common.folders.QuotaServ
 		}
 	}
 
+	@Override
+	public void incrementStorage(final JsonArray userIds, final Long size, final int threshold,
+			final Handler<Either<String, JsonArray>> handler) {
+		if (!neo4jPlugin) {
+			String query = "MATCH (u:UserBook) WHERE u.userid IN {userIds} " + "SET u.storage = u.storage + {size} "
+					+ "WITH u, u.alertSize as oldAlert "
+					+ "SET u.alertSize = ((100.0 * u.storage / u.quota) > {threshold}) "
+					+ "RETURN u.userid as userId, u.storage as storage, (u.alertSize = true AND oldAlert <> u.alertSize) as notify ";
+			JsonObject params = new JsonObject().put("userIds", userIds).put("size", size).put("threshold", threshold);
+			neo4j.execute(query, params, validResultHandler(handler));
+		} else {
+			// the extension updates one user by call
+			final JsonArray results = new fr.wseduc.webutils.collections.JsonArray();
+			final AtomicInteger count = new AtomicInteger(userIds.size());
+			if (userIds.size() == 0) {
+				handler.handle(new Either.Right<String, JsonArray>(results));
+				return;
+			}
+			for (Object o : userIds) {
+				final String userId = o.toString();
+				incrementStorage(userId, size, threshold, new Handler<Either<String, JsonObject>>() {
+					@Override
+					public void handle(Either<String, JsonObject> event) {
+						if (event.isRight()) {
+							results.add(event.right().getValue().put("userId", userId));
+						} else {
+							log.error("Error updating storage of user " + userId + " : " + event.left().getValue());
+						}
+						if (count.decrementAndGet() == 0) {
+							handler.handle(new Either.Right<String, JsonArray>(results));
+						}
+					}
+				});
+			}
+		}
+	}
+
 	@Override
 	public void decrementStorage(String userId, Long size, int threshold, Handler<Either<String, JsonObject>> handler) {
 		incrementStorage(userId, -1l * size, threshold, handler);